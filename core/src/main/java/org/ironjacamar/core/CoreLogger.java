@@ -39,6 +39,52 @@ import static org.jboss.logging.Logger.Level.WARN;
 public interface CoreLogger extends BasicLogger
 {
 
+   // CONNECTION MANAGER (100)
+
+   /**
+    * Connection leak
+    * @param connection The connection handle
+    * @param threshold The leak detection threshold in milliseconds
+    * @param stack The allocation stack trace
+    */
+   @LogMessage(level = WARN)
+   @Message(id = 101, value = "Connection %s has been held for more than %d ms, allocated at:%n%s")
+   public void connectionLeak(Object connection, long threshold, String stack);
+
+   /**
+    * Maintenance job failed
+    * @param t The exception
+    */
+   @LogMessage(level = WARN)
+   @Message(id = 102, value = "Maintenance job failed")
+   public void maintenanceJobFailed(@Cause Throwable t);
+
+   /**
+    * Maintenance scheduler stopped
+    * @param t The exception
+    */
+   @LogMessage(level = ERROR)
+   @Message(id = 103, value = "Maintenance scheduler stopped after an unexpected exception")
+   public void maintenanceSchedulerFailed(@Cause Throwable t);
+
+   /**
+    * Background validation failed
+    * @param size The number of connections
+    * @param mcf The managed connection factory
+    * @param t The exception
+    */
+   @LogMessage(level = WARN)
+   @Message(id = 104, value = "Background validation of %d connections from %s failed, destroying them")
+   public void backgroundValidationFailed(int size, Object mcf, @Cause Throwable t);
+
+   /**
+    * Background validation not supported
+    * @param mcf The managed connection factory
+    */
+   @LogMessage(level = WARN)
+   @Message(id = 105, value = "%s isn't a ValidatingManagedConnectionFactory, background validation is skipped")
+   public void backgroundValidationNotSupported(Object mcf);
+
    // WORK MANAGER (200)
 
    /**
@@ -23,6 +23,12 @@ package org.ironjacamar.core.api.connectionmanager;
 
 import org.ironjacamar.core.api.connectionmanager.listener.ConnectionListener;
 
+import java.util.concurrent.CompletionStage;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnectionFactory;
+
 /**
  * A connection manager
  * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
@@ -35,4 +41,28 @@ public interface ConnectionManager extends javax.resource.spi.ConnectionManager
     * @param kill Should the connection listener be destroyed
     */
    public void returnConnectionListener(ConnectionListener cl, boolean kill);
+
+   /**
+    * Allocate a connection without blocking the calling thread while the pool is depleted.
+    *
+    * Requests inside a transaction are served synchronously, as the transaction is bound to the
+    * calling thread. When the caller has a cached connection manager context, a connection handed off
+    * by another thread can't be registered in that context, and the stage completes exceptionally
+    * @param mcf The managed connection factory
+    * @param cri The connection request information
+    * @return The stage that completes with the connection handle, or exceptionally if no connection
+    *         became available within the blocking timeout
+    */
+   public CompletionStage<Object> allocateConnectionAsync(ManagedConnectionFactory mcf, ConnectionRequestInfo cri);
+
+   /**
+    * Allocate a connection, waiting at most the specified time instead of the blocking timeout
+    * @param mcf The managed connection factory
+    * @param cri The connection request information
+    * @param timeout The maximum time to wait in milliseconds; 0 doesn't wait at all
+    * @return The connection handle, or <code>null</code> if no connection became available in time
+    * @exception ResourceException Thrown if the connection can't be allocated
+    */
+   public Object tryAllocateConnection(ManagedConnectionFactory mcf, ConnectionRequestInfo cri, long timeout)
+      throws ResourceException;
 }
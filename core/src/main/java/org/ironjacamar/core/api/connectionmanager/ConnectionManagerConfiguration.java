@@ -63,6 +63,9 @@ public class ConnectionManagerConfiguration
    /** IsSameRM override */
    private Boolean isSameRMOverride;
 
+   /** Subject cache timeout */
+   private long subjectCacheTimeout;
+
    /**
     * Constructor
     */
@@ -80,6 +83,7 @@ public class ConnectionManagerConfiguration
       padXid = false;
       wrapXAResource = true;
       isSameRMOverride = null;
+      subjectCacheTimeout = 0;
    }
 
    /**
@@ -175,7 +179,7 @@ public class ConnectionManagerConfiguration
    }
 
    /**
-    * Is enlistment
+    * Is lazy enlistment enabled; if so, connections supporting lazy enlistment are enlisted on first use
     * @return The value
     */
    public boolean isEnlistment()
@@ -184,7 +188,7 @@ public class ConnectionManagerConfiguration
    }
 
    /**
-    * Set the enlistment flag
+    * Set the lazy enlistment flag
     * @param v The value
     */
    public void setEnlistment(boolean v)
@@ -301,6 +305,25 @@ public class ConnectionManagerConfiguration
       isSameRMOverride = v;
    }
 
+   /**
+    * Get the subject cache timeout
+    * @return The value in milliseconds; <code>0</code> if the cache is disabled
+    */
+   public long getSubjectCacheTimeout()
+   {
+      return subjectCacheTimeout;
+   }
+
+   /**
+    * Set the subject cache timeout; the security element of the deployment descriptors
+    * has no cache setting, so the cache is only enabled through this API
+    * @param v The value in milliseconds; <code>0</code> disables the cache
+    */
+   public void setSubjectCacheTimeout(long v)
+   {
+      subjectCacheTimeout = v;
+   }
+
    /**
     * String representation
     * @return The string
@@ -323,6 +346,7 @@ public class ConnectionManagerConfiguration
       sb.append(" padXid=").append(padXid);
       sb.append(" wrapXAResource=").append(wrapXAResource);
       sb.append(" isSameRMOverride=").append(isSameRMOverride);
+      sb.append(" subjectCacheTimeout=").append(subjectCacheTimeout);
       sb.append("]");
 
       return sb.toString();
@@ -73,6 +73,30 @@ public interface CachedConnectionManager extends UserTransactionListener
     */
    public void setIgnoreUnknownConnections(boolean v);
 
+   /**
+    * Get the fraction of the connection allocations tracked by the leak detection
+    * @return The value; 0 if leak detection is disabled
+    */
+   public double getLeakDetectionSampleRate();
+
+   /**
+    * Set the fraction of the connection allocations tracked by the leak detection
+    * @param v The value between 0, which disables leak detection, and 1, which tracks all allocations
+    */
+   public void setLeakDetectionSampleRate(double v);
+
+   /**
+    * Get the time a tracked connection can be held before it is reported as a leak
+    * @return The value in milliseconds
+    */
+   public long getLeakDetectionThresholdMillis();
+
+   /**
+    * Set the time a tracked connection can be held before it is reported as a leak
+    * @param v The value in milliseconds
+    */
+   public void setLeakDetectionThresholdMillis(long v);
+
    /**
     * Push a context
     * @param contextKey The context key
@@ -90,6 +114,29 @@ public interface CachedConnectionManager extends UserTransactionListener
    @SuppressWarnings("unchecked")
    public void popContext(Set unsharableResources) throws ResourceException;
    
+   /**
+    * Is there a context for the current thread
+    * @return True if connections are registered in a context, otherwise false
+    */
+   public boolean hasContext();
+
+   /**
+    * Track a connection without registering it in the context of the current thread; only
+    * used for leak detection and debugging
+    * @param cm Connection manager
+    * @param cl Connection listener
+    * @param connection Connection handle
+    */
+   public void trackConnection(ConnectionManager cm, ConnectionListener cl, Object connection);
+
+   /**
+    * Untrack a connection that wasn't registered in a context
+    * @param cm Connection manager
+    * @param cl Connection listener
+    * @param connection Connection handle
+    */
+   public void untrackConnection(ConnectionManager cm, ConnectionListener cl, Object connection);
+
    /**
     * Register connection
     * @param cm Connection manager
@@ -99,6 +146,15 @@ public interface CachedConnectionManager extends UserTransactionListener
    public void registerConnection(ConnectionManager cm, ConnectionListener cl,
                                   Object connection);
 
+   /**
+    * Get a connection listener of a connection manager which holds open connections in the current
+    * context for an equal credential
+    * @param cm Connection manager
+    * @param credential The credential
+    * @return The connection listener, or <code>null</code> if none
+    */
+   public ConnectionListener getConnectionListener(ConnectionManager cm, Object credential);
+
    /**
     * Unregister connection
     * @param cm Connection manager
@@ -122,6 +178,14 @@ public interface CachedConnectionManager extends UserTransactionListener
     */
    public Map<String, String> listConnections();
 
+   /**
+    * List the tracked connections held longer than the leak detection threshold
+    *
+    * The return value is the connection key, and its allocation stack trace
+    * @return The map
+    */
+   public Map<String, String> listLeakedConnections();
+
    /**
     * Start
     */
@@ -0,0 +1,54 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.api.connectionmanager.pool;
+
+/**
+ * A snapshot of a latency histogram. All values are in nanoseconds
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public interface HistogramSnapshot
+{
+   /**
+    * Get the number of recorded values
+    * @return The value
+    */
+   public long getCount();
+
+   /**
+    * Get the largest recorded value
+    * @return The value
+    */
+   public long getMax();
+
+   /**
+    * Get the mean of the recorded values
+    * @return The value
+    */
+   public double getMean();
+
+   /**
+    * Get the value at a percentile; the value is within the precision of the histogram
+    * @param percentile The percentile, between 0.0 and 100.0
+    * @return The value
+    */
+   public long getValueAtPercentile(double percentile);
+}
@@ -58,6 +58,27 @@ public class PoolConfiguration
    /** Use fast fail */
    private boolean useFastFail;
 
+   /** Fair */
+   private boolean fair;
+
+   /** Circuit breaker threshold */
+   private int circuitBreakerThreshold;
+
+   /** Circuit breaker probe interval */
+   private long circuitBreakerProbeMillis;
+
+   /** Max lifetime */
+   private long maxLifetime;
+
+   /** Elastic */
+   private boolean elastic;
+
+   /** Elastic window */
+   private long elasticWindowMillis;
+
+   /** Validation batch size */
+   private int validationBatchSize;
+
    /**
     * Constructor
     */
@@ -73,6 +94,13 @@ public class PoolConfiguration
       backgroundValidationMillis = 60000;
       prefill = false;
       useFastFail = false;
+      fair = true;
+      circuitBreakerThreshold = 0;
+      circuitBreakerProbeMillis = 5000L;
+      maxLifetime = 0L;
+      elastic = false;
+      elasticWindowMillis = 300000L;
+      validationBatchSize = 0;
    }
 
    /**
@@ -275,6 +303,138 @@ public class PoolConfiguration
       useFastFail = v;
    }
 
+   /**
+    * Get fair
+    * @return The value
+    */
+   public boolean isFair()
+   {
+      return fair;
+   }
+
+   /**
+    * Set fair; only available through this API, as the deployment descriptors have no element for it
+    * @param v The value
+    */
+   public void setFair(boolean v)
+   {
+      fair = v;
+   }
+
+   /**
+    * Get the number of consecutive creation failures that opens the circuit breaker
+    * @return The value; <code>0</code> if the circuit breaker is disabled
+    */
+   public int getCircuitBreakerThreshold()
+   {
+      return circuitBreakerThreshold;
+   }
+
+   /**
+    * Set the number of consecutive creation failures that opens the circuit breaker.
+    * The deployment descriptors have no element for the circuit breaker, so it is only
+    * enabled through this API
+    * @param v The value; <code>0</code> disables the circuit breaker
+    */
+   public void setCircuitBreakerThreshold(int v)
+   {
+      circuitBreakerThreshold = v;
+   }
+
+   /**
+    * Get the interval between the probes of an open circuit breaker
+    * @return The value in milliseconds
+    */
+   public long getCircuitBreakerProbeMillis()
+   {
+      return circuitBreakerProbeMillis;
+   }
+
+   /**
+    * Set the interval between the probes of an open circuit breaker
+    * @param v The value in milliseconds
+    */
+   public void setCircuitBreakerProbeMillis(long v)
+   {
+      circuitBreakerProbeMillis = v;
+   }
+
+   /**
+    * Get the maximum lifetime of a connection; <code>0</code> means unlimited.
+    * Each connection expires at a random point within the last 10% of the lifetime
+    * @return The value in milliseconds
+    */
+   public long getMaxLifetime()
+   {
+      return maxLifetime;
+   }
+
+   /**
+    * Set the maximum lifetime of a connection; there is no deployment descriptor element for it
+    * @param v The value in milliseconds
+    */
+   public void setMaxLifetime(long v)
+   {
+      maxLifetime = v;
+   }
+
+   /**
+    * Is elastic sizing enabled; the pool is sized between min-pool-size and max-pool-size
+    * based on the demand observed within the elastic window
+    * @return The value
+    */
+   public boolean isElastic()
+   {
+      return elastic;
+   }
+
+   /**
+    * Set elastic sizing. Like the elastic window, it isn't part of the deployment
+    * descriptors and is only set through this API
+    * @param v The value
+    */
+   public void setElastic(boolean v)
+   {
+      elastic = v;
+   }
+
+   /**
+    * Get the window over which the demand is observed for elastic sizing
+    * @return The value in milliseconds
+    */
+   public long getElasticWindowMillis()
+   {
+      return elasticWindowMillis;
+   }
+
+   /**
+    * Set the window over which the demand is observed for elastic sizing
+    * @param v The value in milliseconds
+    */
+   public void setElasticWindowMillis(long v)
+   {
+      elasticWindowMillis = v;
+   }
+
+   /**
+    * Get the maximum number of idle connections validated in one call; 0 validates all of them at once
+    * @return The value
+    */
+   public int getValidationBatchSize()
+   {
+      return validationBatchSize;
+   }
+
+   /**
+    * Set the maximum number of idle connections validated in one call; 0 validates all of them at once.
+    * The validation element of the deployment descriptors has no batch size, so it is set here
+    * @param v The value
+    */
+   public void setValidationBatchSize(int v)
+   {
+      validationBatchSize = v;
+   }
+
    /**
     * String representation
     * @return The string
@@ -295,6 +455,13 @@ public class PoolConfiguration
       sb.append(" backgroundValidationMillis=").append(backgroundValidationMillis);
       sb.append(" prefill=").append(prefill);
       sb.append(" useFastFail=").append(useFastFail);
+      sb.append(" fair=").append(fair);
+      sb.append(" circuitBreakerThreshold=").append(circuitBreakerThreshold);
+      sb.append(" circuitBreakerProbeMillis=").append(circuitBreakerProbeMillis);
+      sb.append(" maxLifetime=").append(maxLifetime);
+      sb.append(" elastic=").append(elastic);
+      sb.append(" elasticWindowMillis=").append(elasticWindowMillis);
+      sb.append(" validationBatchSize=").append(validationBatchSize);
       sb.append("]");
 
       return sb.toString();
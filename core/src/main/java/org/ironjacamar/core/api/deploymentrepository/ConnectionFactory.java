@@ -23,9 +23,12 @@ package org.ironjacamar.core.api.deploymentrepository;
 
 import org.ironjacamar.common.api.metadata.resourceadapter.ConnectionDefinition;
 import org.ironjacamar.core.api.connectionmanager.ConnectionManager;
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
 import org.ironjacamar.core.spi.statistics.StatisticsPlugin;
+import org.ironjacamar.core.spi.transaction.XAResourceStatistics;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * A connection factory
@@ -75,6 +78,20 @@ public interface ConnectionFactory
     */
    public StatisticsPlugin getStatistics();
 
+   /**
+    * Get the XAResource statistics
+    * @return The value
+    */
+   public XAResourceStatistics getXAResourceStatistics();
+
+   /**
+    * Get snapshots of the XAResource latency histograms, keyed by the name of the XAResource method.
+    * The histograms are only recorded while the XAResource statistics are enabled
+    * @param reset Reset the histograms while taking the snapshots
+    * @return The value
+    */
+   public Map<String, HistogramSnapshot> getXAResourceHistograms(boolean reset);
+
    /**
     * Get the recovery
     * @return The value
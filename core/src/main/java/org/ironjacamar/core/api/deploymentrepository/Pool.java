@@ -21,8 +21,11 @@
 
 package org.ironjacamar.core.api.deploymentrepository;
 
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
 import org.ironjacamar.core.spi.statistics.StatisticsPlugin;
 
+import java.util.Map;
+
 /**
  * A pool
  * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
@@ -40,4 +43,12 @@ public interface Pool
     * @return The value
     */
    public StatisticsPlugin getStatistics();
+
+   /**
+    * Get snapshots of the latency histograms of the pool, keyed by name.
+    * The histograms are only recorded while the statistics are enabled
+    * @param reset Reset the histograms while taking the snapshots
+    * @return The value
+    */
+   public Map<String, HistogramSnapshot> getHistograms(boolean reset);
 }
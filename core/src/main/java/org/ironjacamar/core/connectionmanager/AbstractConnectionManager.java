@@ -26,7 +26,12 @@ import org.ironjacamar.core.api.connectionmanager.ccm.CachedConnectionManager;
 import org.ironjacamar.core.connectionmanager.pool.Pool;
 import org.ironjacamar.core.spi.security.SubjectFactory;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionRequestInfo;
@@ -65,6 +70,11 @@ public abstract class AbstractConnectionManager implements ConnectionManager
     */
    protected SubjectFactory subjectFactory;
 
+   /**
+    * The subject cache
+    */
+   protected SubjectCache subjectCache;
+
    /**
     * Constructor
     *
@@ -80,6 +90,9 @@ public abstract class AbstractConnectionManager implements ConnectionManager
       this.ccm = ccm;
       this.cmConfiguration = cmc;
       this.pool = null;
+
+      if (cmc != null && cmc.getSubjectCacheTimeout() > 0)
+         this.subjectCache = new SubjectCache(cmc.getSubjectCacheTimeout());
    }
 
    /**
@@ -128,6 +141,9 @@ public abstract class AbstractConnectionManager implements ConnectionManager
    public void setSubjectFactory(SubjectFactory subjectFactory)
    {
       this.subjectFactory = subjectFactory;
+
+      if (subjectCache != null)
+         subjectCache.invalidate();
    }
 
    /**
@@ -139,6 +155,24 @@ public abstract class AbstractConnectionManager implements ConnectionManager
       return this.subjectFactory;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public void invalidateSubjectCache(String securityDomain)
+   {
+      if (subjectCache != null)
+      {
+         if (securityDomain == null)
+         {
+            subjectCache.invalidate();
+         }
+         else
+         {
+            subjectCache.invalidate(securityDomain);
+         }
+      }
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -146,6 +180,9 @@ public abstract class AbstractConnectionManager implements ConnectionManager
    {
       shutdown.set(true);
 
+      if (subjectCache != null)
+         subjectCache.invalidate();
+
       if (pool != null)
          pool.shutdown();
    }
@@ -165,16 +202,166 @@ public abstract class AbstractConnectionManager implements ConnectionManager
    {
       if (shutdown.get())
          throw new ResourceException();
-      Credential credential;
-      if (subjectFactory == null || cmConfiguration.getSecurityDomain() == null)
+
+      return getConnection(getConnectionListener(getCredential(cri)));
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Object tryAllocateConnection(ManagedConnectionFactory mcf, ConnectionRequestInfo cri, long timeout)
+      throws ResourceException
+   {
+      if (shutdown.get())
+         throw new ResourceException();
+
+      Credential credential = getCredential(cri);
+      org.ironjacamar.core.connectionmanager.listener.ConnectionListener cl = getSharedConnectionListener(credential);
+
+      if (cl == null)
       {
-         credential = new Credential(null, cri);
+         cl = pool.tryGetConnectionListener(credential, Math.max(0L, timeout));
+         if (cl == null)
+            return null;
       }
-      else
+
+      return getConnection(prepareConnectionListener(cl));
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public CompletionStage<Object> allocateConnectionAsync(ManagedConnectionFactory mcf, ConnectionRequestInfo cri)
+   {
+      CompletableFuture<Object> failed = new CompletableFuture<Object>();
+      if (shutdown.get())
       {
-         credential = new Credential(subjectFactory.createSubject(cmConfiguration.getSecurityDomain()), cri);
+         failed.completeExceptionally(new ResourceException());
+         return failed;
       }
-      org.ironjacamar.core.connectionmanager.listener.ConnectionListener cl = getConnectionListener(credential);
+
+      CompletionStage<org.ironjacamar.core.connectionmanager.listener.ConnectionListener> stage;
+      try
+      {
+         Credential credential = getCredential(cri);
+         org.ironjacamar.core.connectionmanager.listener.ConnectionListener cl =
+            getSharedConnectionListener(credential);
+
+         if (cl != null)
+         {
+            CompletableFuture<Object> shared = new CompletableFuture<Object>();
+            shared.complete(getConnection(prepareConnectionListener(cl)));
+            return shared;
+         }
+
+         stage = pool.getConnectionListenerAsync(credential);
+      }
+      catch (ResourceException re)
+      {
+         failed.completeExceptionally(re);
+         return failed;
+      }
+
+      final Thread caller = Thread.currentThread();
+      final boolean context = ccm != null && ccm.hasContext();
+      final CompletableFuture<org.ironjacamar.core.connectionmanager.listener.ConnectionListener> listener =
+         stage.toCompletableFuture();
+      final CompletableFuture<Object> result = new CompletableFuture<Object>();
+
+      listener.whenComplete(
+         new BiConsumer<org.ironjacamar.core.connectionmanager.listener.ConnectionListener, Throwable>()
+      {
+         public void accept(org.ironjacamar.core.connectionmanager.listener.ConnectionListener cl, Throwable t)
+         {
+            if (t != null)
+            {
+               result.completeExceptionally(t);
+               return;
+            }
+
+            // The caller cancelled the request
+            if (result.isDone())
+            {
+               returnConnectionListener(cl, false);
+               return;
+            }
+
+            // The cached connection manager context is bound to the calling thread, so a hand-off
+            // completed by another thread can't be registered in the context of the caller. There is
+            // nothing to enlist, as the pool only completes requests asynchronously outside of a transaction
+            if (Thread.currentThread() != caller && context)
+            {
+               returnConnectionListener(cl, false);
+               result.completeExceptionally(
+                  new ResourceException("Connection listener handed off outside of the calling thread"));
+               return;
+            }
+
+            Object connection = null;
+            try
+            {
+               if (Thread.currentThread() == caller)
+               {
+                  connection = getConnection(prepareConnectionListener(cl));
+               }
+               else
+               {
+                  connection = cl.getConnection();
+
+                  // The caller has no context, so the connection is only tracked
+                  if (ccm != null)
+                     ccm.trackConnection(AbstractConnectionManager.this, cl, connection);
+               }
+            }
+            catch (ResourceException re)
+            {
+               returnConnectionListener(cl, true);
+               result.completeExceptionally(re);
+               return;
+            }
+
+            if (!result.complete(connection))
+            {
+               // The caller cancelled the request while the connection handle was obtained
+               if (ccm != null)
+               {
+                  if (Thread.currentThread() == caller)
+                  {
+                     ccm.unregisterConnection(AbstractConnectionManager.this, cl, connection);
+                  }
+                  else
+                  {
+                     ccm.untrackConnection(AbstractConnectionManager.this, cl, connection);
+                  }
+               }
+
+               returnConnectionListener(cl, false);
+            }
+         }
+      });
+
+      result.whenComplete(new BiConsumer<Object, Throwable>()
+      {
+         public void accept(Object connection, Throwable t)
+         {
+            // Cancelling the request gives a connection listener handed off later back to the pool
+            if (result.isCancelled())
+               listener.cancel(false);
+         }
+      });
+
+      return result;
+   }
+
+   /**
+    * Get a connection handle from a connection listener, and register it with the cached connection manager
+    * @param cl The connection listener
+    * @return The connection handle
+    * @exception ResourceException Thrown if the connection handle can't be obtained
+    */
+   private Object getConnection(org.ironjacamar.core.connectionmanager.listener.ConnectionListener cl)
+      throws ResourceException
+   {
       Object connection = cl.getConnection();
 
       if (ccm != null)
@@ -183,6 +370,51 @@ public abstract class AbstractConnectionManager implements ConnectionManager
       return connection;
    }
 
+   /**
+    * Get the credential for a connection request
+    * @param cri The connection request information
+    * @return The credential
+    * @exception ResourceException Thrown if the subject can't be created
+    */
+   private Credential getCredential(ConnectionRequestInfo cri) throws ResourceException
+   {
+      if (subjectFactory == null || cmConfiguration.getSecurityDomain() == null)
+         return new Credential(null, cri);
+
+      if (subjectCache != null)
+         return subjectCache.getCredential(subjectFactory, cmConfiguration.getSecurityDomain(), cri);
+
+      return new Credential(subjectFactory.createSubject(cmConfiguration.getSecurityDomain()), cri);
+   }
+
+   /**
+    * Get the connection listener already holding open connections for an equal credential
+    * in the current cached connection manager context
+    * @param credential The credential
+    * @return The connection listener, or <code>null</code> if none or if the connection manager isn't sharable
+    */
+   private org.ironjacamar.core.connectionmanager.listener.ConnectionListener
+      getSharedConnectionListener(Credential credential)
+   {
+      if (ccm == null || !cmConfiguration.isSharable())
+         return null;
+
+      return (org.ironjacamar.core.connectionmanager.listener.ConnectionListener)
+         ccm.getConnectionListener(this, credential);
+   }
+
+   /**
+    * Prepare a connection listener before a connection handle is handed out
+    * @param cl The connection listener
+    * @return The connection listener
+    * @exception ResourceException Thrown in case of an error
+    */
+   protected org.ironjacamar.core.connectionmanager.listener.ConnectionListener prepareConnectionListener(
+         org.ironjacamar.core.connectionmanager.listener.ConnectionListener cl) throws ResourceException
+   {
+      return cl;
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -200,7 +432,13 @@ public abstract class AbstractConnectionManager implements ConnectionManager
    }
 
    /**
-    * Get a connection listener
+    * Get a connection listener.
+    *
+    * A sharable connection manager reuses the connection listener which already holds open connections
+    * for an equal credential in the current cached connection manager context, without going to the pool.
+    * Failed allocations are retried up to <code>allocation-retry</code> times, waiting an exponentially
+    * growing, jittered multiple of <code>allocation-retry-wait-millis</code> between the attempts. Retrying
+    * stops early when the connection manager is shut down, or when the circuit breaker of the pool is open
     *
     * @param credential The credential
     * @return The listener
@@ -209,6 +447,53 @@ public abstract class AbstractConnectionManager implements ConnectionManager
    protected org.ironjacamar.core.connectionmanager.listener.ConnectionListener getConnectionListener(
          Credential credential) throws ResourceException
    {
-      return pool.getConnectionListener(credential);
+      org.ironjacamar.core.connectionmanager.listener.ConnectionListener cl = getSharedConnectionListener(credential);
+      if (cl != null)
+         return prepareConnectionListener(cl);
+
+      int retries = cmConfiguration.getAllocationRetry();
+      int attempt = 0;
+
+      while (cl == null)
+      {
+         try
+         {
+            cl = pool.getConnectionListener(credential);
+         }
+         catch (ResourceException re)
+         {
+            if (attempt >= retries || shutdown.get() || pool.getCircuitBreaker().isOpen())
+               throw re;
+
+            try
+            {
+               TimeUnit.MILLISECONDS.sleep(getAllocationRetryWait(attempt));
+            }
+            catch (InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+               throw re;
+            }
+
+            attempt++;
+         }
+      }
+
+      return prepareConnectionListener(cl);
+   }
+
+   /**
+    * Get the wait time before the next allocation retry
+    * @param attempt The number of retries done so far
+    * @return The wait time in milliseconds
+    */
+   private long getAllocationRetryWait(int attempt)
+   {
+      long wait = cmConfiguration.getAllocationRetryWaitMillis() << Math.min(attempt, 4);
+      if (wait <= 1L)
+         return wait;
+
+      // Spread retries from concurrent callers over [wait / 2, wait]
+      return wait - ThreadLocalRandom.current().nextLong(wait / 2 + 1);
    }
 }
@@ -28,14 +28,21 @@ import org.ironjacamar.core.spi.transaction.TransactionIntegration;
 import org.ironjacamar.core.spi.transaction.TxUtils;
 
 import javax.resource.ResourceException;
+import javax.resource.spi.LazyEnlistableConnectionManager;
+import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
 
 /**
- * The base class for all transactional connection manager implementations
+ * The base class for all transactional connection manager implementations.
+ *
+ * If lazy enlistment is enabled in the configuration, which is the default, connections
+ * implementing LazyEnlistableManagedConnection aren't enlisted in the transaction until
+ * the resource adapter calls {@link #lazyEnlist(ManagedConnection)}
+ *
  * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
  */
 public abstract class AbstractTransactionalConnectionManager extends AbstractConnectionManager
-   implements TransactionalConnectionManager
+   implements TransactionalConnectionManager, LazyEnlistableConnectionManager
 {
    /** The transaction integration */
    protected TransactionIntegration ti;
@@ -84,16 +91,43 @@ public abstract class AbstractTransactionalConnectionManager extends AbstractCon
       }
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public void lazyEnlist(ManagedConnection mc) throws ResourceException
+   {
+      if (!cmConfiguration.isEnlistment())
+         return;
+
+      try
+      {
+         if (!TxUtils.isUncommitted(ti.getTransactionManager().getTransaction()))
+            return;
+
+         ConnectionListener cl = pool.findConnectionListener(mc);
+         if (cl == null)
+            throw new ResourceException("Unknown managed connection: " + mc);
+
+         cl.lazyEnlist();
+      }
+      catch (ResourceException re)
+      {
+         throw re;
+      }
+      catch (Exception e)
+      {
+         throw new ResourceException(e);
+      }
+   }
+
    /**
     * {@inheritDoc}
     */
    @Override
    protected org.ironjacamar.core.connectionmanager.listener.ConnectionListener
-      getConnectionListener(Credential credential) throws ResourceException
+      prepareConnectionListener(org.ironjacamar.core.connectionmanager.listener.ConnectionListener cl)
+      throws ResourceException
    {
-      org.ironjacamar.core.connectionmanager.listener.ConnectionListener cl =
-         super.getConnectionListener(credential);
-
       try
       {
          if (!cl.isEnlisted() && TxUtils.isUncommitted(ti.getTransactionManager().getTransaction()))
@@ -103,4 +103,10 @@ public interface ConnectionManager extends org.ironjacamar.core.api.connectionma
     * @return the subjectFactory
     */
    public SubjectFactory getSubjectFactory();
+
+   /**
+    * Invalidate the cached Subject instances
+    * @param securityDomain The security domain; <code>null</code> for all
+    */
+   public void invalidateSubjectCache(String securityDomain);
 }
@@ -36,8 +36,11 @@ public final class Credential
    /** The connection request information */
    private final ConnectionRequestInfo cri;
    
-   /** The cached hashCode */
-   private int hashCode;
+   /** The hash code of the subject */
+   private final int subjectHashCode;
+
+   /** The hash code */
+   private final int hashCode;
 
    /**
     * Constructor
@@ -45,10 +48,36 @@ public final class Credential
     * @param cri connection request info
     */
    public Credential(Subject subject, ConnectionRequestInfo cri)
+   {
+      this(subject, SecurityActions.hashCode(subject), cri);
+   }
+
+   /**
+    * Constructor
+    * @param subject subject instance
+    * @param subjectHashCode The precomputed hash code of the subject
+    * @param cri connection request info
+    */
+   private Credential(Subject subject, int subjectHashCode, ConnectionRequestInfo cri)
    {
       this.subject = subject;
       this.cri = cri;
-      this.hashCode = Integer.MAX_VALUE;
+      this.subjectHashCode = subjectHashCode;
+      this.hashCode = subjectHashCode ^ (cri != null ? cri.hashCode() : 1);
+   }
+
+   /**
+    * Get a credential for the same subject with different connection request info.
+    * The hash code of the subject is reused
+    * @param v The connection request info
+    * @return The credential
+    */
+   Credential withConnectionRequestInfo(ConnectionRequestInfo v)
+   {
+      if (v == cri)
+         return this;
+
+      return new Credential(subject, subjectHashCode, v);
    }
 
    /**
@@ -75,9 +104,6 @@ public final class Credential
    @Override
    public int hashCode()
    {
-      if (hashCode == Integer.MAX_VALUE)
-         hashCode = SecurityActions.hashCode(subject) ^ (cri != null ? cri.hashCode() : 1);  
-      
       return hashCode;
    }
 
@@ -94,16 +120,16 @@ public final class Credential
          return false;  
       
       Credential other = (Credential)obj;
-      
-      boolean result = SecurityActions.equals(subject, other.subject);
-      if (result)
-      {
-         if (cri != null)
-            result = cri.equals(other.cri);
-         else
-            result = other.cri == null;
-      }
-      
-      return result;
+
+      if (hashCode != other.hashCode || subjectHashCode != other.subjectHashCode)
+         return false;
+
+      if (subject != other.subject && !SecurityActions.equals(subject, other.subject))
+         return false;
+
+      if (cri == other.cri)
+         return true;
+
+      return cri != null && cri.equals(other.cri);
    }
 }
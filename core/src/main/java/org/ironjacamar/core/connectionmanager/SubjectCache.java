@@ -0,0 +1,228 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager;
+
+import org.ironjacamar.core.spi.security.CachableSubjectFactory;
+import org.ironjacamar.core.spi.security.SubjectFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.security.auth.Subject;
+
+/**
+ * A cache of the credentials created by a subject factory, keyed by the security domain
+ * and the identity that the subject factory creates the Subject for.
+ *
+ * Only a {@link CachableSubjectFactory} reports that identity; the Subject of any other
+ * subject factory may depend on the caller in ways the cache can't see, so it is created
+ * for every allocation. Entries expire after the configured timeout, and can be invalidated explicitly.
+ * Sharing the Subject instance between allocations allows the pool lookup to
+ * use the identity fast path of {@link Credential#equals(Object)}
+ *
+ * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public final class SubjectCache
+{
+   /** The number of entries that triggers a purge of expired entries */
+   private static final int PURGE_THRESHOLD = 1024;
+
+   /** The timeout in nanoseconds */
+   private final long timeout;
+
+   /** The entries */
+   private final ConcurrentHashMap<Key, Entry> entries;
+
+   /**
+    * Constructor
+    * @param timeout The timeout in milliseconds
+    */
+   public SubjectCache(long timeout)
+   {
+      if (timeout <= 0)
+         throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+
+      this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+      this.entries = new ConcurrentHashMap<Key, Entry>();
+   }
+
+   /**
+    * Get a credential for the security domain and the calling thread
+    * @param subjectFactory The subject factory
+    * @param securityDomain The security domain
+    * @param cri The connection request info
+    * @return The credential
+    */
+   public Credential getCredential(SubjectFactory subjectFactory, String securityDomain, ConnectionRequestInfo cri)
+   {
+      if (!(subjectFactory instanceof CachableSubjectFactory))
+         return new Credential(subjectFactory.createSubject(securityDomain), cri);
+
+      Key key = new Key(securityDomain, ((CachableSubjectFactory)subjectFactory).getIdentity(securityDomain));
+      long now = System.nanoTime();
+
+      Entry entry = entries.get(key);
+      if (entry == null || now - entry.expires >= 0)
+      {
+         if (entry != null)
+            entries.remove(key, entry);
+
+         if (entries.size() >= PURGE_THRESHOLD)
+            purge(now);
+
+         Subject subject = subjectFactory.createSubject(securityDomain);
+         entry = new Entry(new Credential(subject, null), now + timeout);
+         entries.put(key, entry);
+      }
+
+      return entry.credential.withConnectionRequestInfo(cri);
+   }
+
+   /**
+    * Invalidate all entries
+    */
+   public void invalidate()
+   {
+      entries.clear();
+   }
+
+   /**
+    * Invalidate the entries of a security domain
+    * @param securityDomain The security domain
+    */
+   public void invalidate(String securityDomain)
+   {
+      Iterator<Key> it = entries.keySet().iterator();
+      while (it.hasNext())
+      {
+         Key key = it.next();
+         if (securityDomain == null ? key.securityDomain == null : securityDomain.equals(key.securityDomain))
+            it.remove();
+      }
+   }
+
+   /**
+    * Get the number of entries
+    * @return The value
+    */
+   public int size()
+   {
+      return entries.size();
+   }
+
+   /**
+    * Remove expired entries
+    * @param now The current time in nanoseconds
+    */
+   private void purge(long now)
+   {
+      Iterator<Entry> it = entries.values().iterator();
+      while (it.hasNext())
+      {
+         if (now - it.next().expires >= 0)
+            it.remove();
+      }
+
+      if (entries.size() >= PURGE_THRESHOLD)
+         entries.clear();
+   }
+
+   /**
+    * The key of an entry
+    */
+   private static final class Key
+   {
+      /** The security domain */
+      private final String securityDomain;
+
+      /** The identity */
+      private final Object identity;
+
+      /** The hash code */
+      private final int hashCode;
+
+      /**
+       * Constructor
+       * @param securityDomain The security domain
+       * @param identity The identity
+       */
+      Key(String securityDomain, Object identity)
+      {
+         this.securityDomain = securityDomain;
+         this.identity = identity;
+         this.hashCode = 31 * (securityDomain != null ? securityDomain.hashCode() : 0) +
+            (identity != null ? identity.hashCode() : 0);
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+            return true;
+
+         if (!(obj instanceof Key))
+            return false;
+
+         Key other = (Key)obj;
+
+         return (identity != null ? identity.equals(other.identity) : other.identity == null) &&
+            (securityDomain != null ? securityDomain.equals(other.securityDomain) : other.securityDomain == null);
+      }
+   }
+
+   /**
+    * An entry
+    */
+   private static final class Entry
+   {
+      /** The credential */
+      private final Credential credential;
+
+      /** The expiry time in nanoseconds */
+      private final long expires;
+
+      /**
+       * Constructor
+       * @param credential The credential
+       * @param expires The expiry time in nanoseconds
+       */
+      Entry(Credential credential, long expires)
+      {
+         this.credential = credential;
+         this.expires = expires;
+      }
+   }
+}
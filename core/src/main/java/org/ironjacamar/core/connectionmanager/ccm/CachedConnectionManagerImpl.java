@@ -21,8 +21,10 @@
 
 package org.ironjacamar.core.connectionmanager.ccm;
 
+import org.ironjacamar.core.CoreLogger;
 import org.ironjacamar.core.api.connectionmanager.ccm.CachedConnectionManager;
 import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.pool.MaintenanceScheduler;
 import org.ironjacamar.core.spi.transaction.TransactionIntegration;
 import org.ironjacamar.core.spi.transaction.TxUtils;
 
@@ -32,13 +34,13 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
@@ -46,6 +48,8 @@ import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
 
+import org.jboss.logging.Logger;
+
 /**
  * CacheConnectionManager.
  *
@@ -53,6 +57,10 @@ import javax.transaction.Transaction;
  */
 public class CachedConnectionManagerImpl implements CachedConnectionManager
 {
+   /** The logger */
+   private static CoreLogger log = Logger.getMessageLogger(CoreLogger.class,
+                                                           CachedConnectionManagerImpl.class.getName());
+
    /** Synchronization key */
    private static final String CLOSE_CONNECTION_SYNCHRONIZATION = "CLOSE_CONNECTION_SYNCHRONIZATION";
 
@@ -69,11 +77,26 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
    private TransactionIntegration transactionIntegration;
 
    /** Thread contexts - stack based */
-   private ThreadLocal<LinkedList<Context>> threadContexts = new ThreadLocal<LinkedList<Context>>();
+   private ThreadLocal<ContextStack> threadContexts = new ThreadLocal<ContextStack>();
 
    /** Connection stack traces */
    private Map<Object, Throwable> connectionStackTraces = new WeakHashMap<Object, Throwable>();
 
+   /** The lock guarding connectionStackTraces */
+   private final ReentrantLock connectionStackTracesLock = new ReentrantLock();
+
+   /** The leak detector */
+   private final LeakDetector leakDetector = new LeakDetector();
+
+   /** The leak detection sweep, or <code>null</code> if not scheduled */
+   private MaintenanceScheduler.Job leakSweep;
+
+   /** Started */
+   private boolean started;
+
+   /** The lock guarding the scheduling of the leak detection sweep */
+   private final ReentrantLock leakSweepLock = new ReentrantLock();
+
    /**
     * Constructor
     * @param transactionIntegration The transaction integration
@@ -134,6 +157,58 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
       ignoreConnections = v;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public double getLeakDetectionSampleRate()
+   {
+      return leakDetector.getSampleRate();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setLeakDetectionSampleRate(double v)
+   {
+      leakDetector.setSampleRate(v);
+      scheduleLeakSweep();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getLeakDetectionThresholdMillis()
+   {
+      return leakDetector.getThresholdMillis();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setLeakDetectionThresholdMillis(long v)
+   {
+      leakDetector.setThresholdMillis(v);
+      scheduleLeakSweep();
+   }
+
+   /**
+    * Get the maximum number of stack frames kept for a tracked connection
+    * @return The value
+    */
+   public int getLeakDetectionStackDepth()
+   {
+      return leakDetector.getStackDepth();
+   }
+
+   /**
+    * Set the maximum number of stack frames kept for a tracked connection
+    * @param v The value
+    */
+   public void setLeakDetectionStackDepth(int v)
+   {
+      leakDetector.setStackDepth(v);
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -221,32 +296,15 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
    @SuppressWarnings("unchecked")
    public void pushContext(Object contextKey, Set unsharableResources) throws ResourceException
    {
-      LinkedList<Context> stack = threadContexts.get();
-      Context context = new Context(contextKey);
+      ContextStack stack = threadContexts.get();
 
       if (stack == null)
       {
-         //if (trace)
-         //   log.tracef("push: new stack for context: %s", context);
-
-         stack = new LinkedList<Context>();
+         stack = new ContextStack();
          threadContexts.set(stack);
       }
-      else if (stack.isEmpty())
-      {
-         //if (trace)
-         //   log.tracef("push: new stack for context: %s", context);
-      }
-      else
-      {
-         //if (trace)
-         //{
-         //   log.tracef("push: old stack for context: %s", stack.getLast());
-         //   log.tracef("push: new stack for context: %s", context);
-         //}
-      }
 
-      stack.addLast(context);
+      stack.push(contextKey);
    }
 
    /**
@@ -255,37 +313,31 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
    @SuppressWarnings("unchecked")
    public void popContext(Set unsharableResources) throws ResourceException
    {
-      LinkedList<Context> stack = threadContexts.get();
+      ContextStack stack = threadContexts.get();
 
-      if (stack == null || stack.size() == 0)
+      if (stack == null || stack.isEmpty())
          return;
 
-      Context context = stack.removeLast();
+      Context context = stack.pop();
 
-      /*
-      if (trace)
+      //if (trace)
+      //   log.tracef("pop: old stack for context: %s", context);
+
+      try
       {
-         if (stack.size() > 0)
+         if (debug)
          {
-            //   log.tracef("pop: old stack for context: %s", context);
-            //   log.tracef("pop: new stack for context: %s", stack.getLast());
-         }
-         else
-         {
-            //   log.tracef("pop: old stack for context: %s", context);
+            if (closeAll(context) && error)
+            {
+               throw new ResourceException(); //bundle.someConnectionsWereNotClosed());
+            }
          }
       }
-      */
-
-      if (debug)
+      finally
       {
-         if (closeAll(context) && error)
-         {
-            throw new ResourceException(); //bundle.someConnectionsWereNotClosed());
-         }
+         // The context is reused by the next push
+         context.clear();
       }
-
-      context.clear();
    }
 
    /**
@@ -294,12 +346,10 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
     */
    private Context currentContext()
    {
-      LinkedList<Context> stack = threadContexts.get();
+      ContextStack stack = threadContexts.get();
 
-      if (stack != null && !stack.isEmpty())
-      {
-         return stack.getLast();
-      }
+      if (stack != null)
+         return stack.peek();
 
       return null;
    }
@@ -307,18 +357,45 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
    /**
     * {@inheritDoc}
     */
-   public void registerConnection(org.ironjacamar.core.api.connectionmanager.ConnectionManager cm,
-                                  org.ironjacamar.core.api.connectionmanager.listener.ConnectionListener cl,
-                                  Object connection)
+   public boolean hasContext()
+   {
+      return currentContext() != null;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void trackConnection(org.ironjacamar.core.api.connectionmanager.ConnectionManager cm,
+                               org.ironjacamar.core.api.connectionmanager.listener.ConnectionListener cl,
+                               Object connection)
    {
       if (debug)
       {
-         synchronized (connectionStackTraces)
+         connectionStackTracesLock.lock();
+         try
          {
             connectionStackTraces.put(connection, new Throwable("STACKTRACE"));
          }
+         finally
+         {
+            connectionStackTracesLock.unlock();
+         }
       }
 
+      if (leakDetector.isEnabled())
+         leakDetector.track(connection,
+                            (org.ironjacamar.core.connectionmanager.listener.ConnectionListener)cl);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void registerConnection(org.ironjacamar.core.api.connectionmanager.ConnectionManager cm,
+                                  org.ironjacamar.core.api.connectionmanager.listener.ConnectionListener cl,
+                                  Object connection)
+   {
+      trackConnection(cm, cl, connection);
+
       Context context = currentContext();
 
       //if (trace)
@@ -341,9 +418,23 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
    /**
     * {@inheritDoc}
     */
-   public void unregisterConnection(org.ironjacamar.core.api.connectionmanager.ConnectionManager cm,
-                                    org.ironjacamar.core.api.connectionmanager.listener.ConnectionListener cl,
-                                    Object connection)
+   public org.ironjacamar.core.api.connectionmanager.listener.ConnectionListener
+      getConnectionListener(org.ironjacamar.core.api.connectionmanager.ConnectionManager cm, Object credential)
+   {
+      Context context = currentContext();
+
+      if (context == null)
+         return null;
+
+      return context.getConnectionListener((org.ironjacamar.core.connectionmanager.ConnectionManager)cm, credential);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void untrackConnection(org.ironjacamar.core.api.connectionmanager.ConnectionManager cm,
+                                 org.ironjacamar.core.api.connectionmanager.listener.ConnectionListener cl,
+                                 Object connection)
    {
       if (debug)
       {
@@ -353,12 +444,29 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
             ccs.remove(connection);
          }
 
-         synchronized (connectionStackTraces)
+         connectionStackTracesLock.lock();
+         try
          {
             connectionStackTraces.remove(connection);
          }
+         finally
+         {
+            connectionStackTracesLock.unlock();
+         }
       }
 
+      leakDetector.untrack(connection);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void unregisterConnection(org.ironjacamar.core.api.connectionmanager.ConnectionManager cm,
+                                    org.ironjacamar.core.api.connectionmanager.listener.ConnectionListener cl,
+                                    Object connection)
+   {
+      untrackConnection(cm, cl, connection);
+
       Context context = currentContext();
 
       //if (trace)
@@ -390,10 +498,15 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
       if (!debug)
          return 0;
 
-      synchronized (connectionStackTraces)
+      connectionStackTracesLock.lock();
+      try
       {
          return connectionStackTraces.size();
       }
+      finally
+      {
+         connectionStackTracesLock.unlock();
+      }
    }
 
    /**
@@ -404,7 +517,8 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
       if (!debug)
          return Collections.unmodifiableMap(Collections.EMPTY_MAP);
 
-      synchronized (connectionStackTraces)
+      connectionStackTracesLock.lock();
+      try
       {
          HashMap<String, String> result = new HashMap<String, String>();
 
@@ -422,6 +536,18 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
 
          return Collections.unmodifiableMap(result);
       }
+      finally
+      {
+         connectionStackTracesLock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Map<String, String> listLeakedConnections()
+   {
+      return leakDetector.listLeaks();
    }
 
    /**
@@ -432,6 +558,18 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
       if (transactionIntegration != null && transactionIntegration.getUserTransactionRegistry() != null)
          transactionIntegration.getUserTransactionRegistry().addListener(this);
 
+      leakSweepLock.lock();
+      try
+      {
+         started = true;
+      }
+      finally
+      {
+         leakSweepLock.unlock();
+      }
+
+      scheduleLeakSweep();
+
       //log.debugf("start: %s", this.toString());
    }
 
@@ -444,6 +582,83 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
 
       if (transactionIntegration != null && transactionIntegration.getUserTransactionRegistry() != null)
          transactionIntegration.getUserTransactionRegistry().removeListener(this);
+
+      leakSweepLock.lock();
+      try
+      {
+         started = false;
+      }
+      finally
+      {
+         leakSweepLock.unlock();
+      }
+
+      scheduleLeakSweep();
+      leakDetector.clear();
+   }
+
+   /**
+    * Schedule the leak detection sweep for the current settings. The sweep runs while
+    * the cached connection manager is started and leak detection is enabled
+    */
+   private void scheduleLeakSweep()
+   {
+      leakSweepLock.lock();
+      try
+      {
+         if (leakSweep != null)
+         {
+            leakSweep.cancel();
+            leakSweep = null;
+         }
+
+         if (started && leakDetector.isEnabled())
+         {
+            leakSweep = MaintenanceScheduler.getInstance().schedule(new Runnable()
+            {
+               public void run()
+               {
+                  for (Map.Entry<Object, StackTraceElement[]> leak :
+                          leakDetector.sweep(System.currentTimeMillis()).entrySet())
+                  {
+                     log.connectionLeak(leak.getKey(), leakDetector.getThresholdMillis(),
+                                        LeakDetector.toString(leak.getValue()));
+                  }
+               }
+            }, getLeakSweepInterval(leakDetector.getThresholdMillis()));
+         }
+      }
+      finally
+      {
+         leakSweepLock.unlock();
+      }
+   }
+
+   /**
+    * Is the leak detection sweep scheduled
+    * @return The value
+    */
+   boolean isLeakSweepScheduled()
+   {
+      leakSweepLock.lock();
+      try
+      {
+         return leakSweep != null;
+      }
+      finally
+      {
+         leakSweepLock.unlock();
+      }
+   }
+
+   /**
+    * Get the interval of the leak detection sweep
+    * @param threshold The leak detection threshold in milliseconds
+    * @return The value in milliseconds
+    */
+   static long getLeakSweepInterval(long threshold)
+   {
+      return Math.max(1000L, Math.min(60000L, threshold / 4));
    }
 
    /**
@@ -529,10 +744,15 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
       {
          Throwable exception = null;
 
-         synchronized (connectionStackTraces)
+         connectionStackTracesLock.lock();
+         try
          {
             exception = connectionStackTraces.remove(connectionHandle);
          }
+         finally
+         {
+            connectionStackTracesLock.unlock();
+         }
 
          Method m = SecurityActions.getMethod(connectionHandle.getClass(), "close", new Class[]{});
 
@@ -649,6 +869,8 @@ public class CachedConnectionManagerImpl implements CachedConnectionManager
       sb.append(" transactionIntegration=").append(transactionIntegration);
       sb.append(" threadContexts=").append(threadContexts.get());
       sb.append(" connectionStackTraces=").append(connectionStackTraces);
+      sb.append(" leakDetectionSampleRate=").append(leakDetector.getSampleRate());
+      sb.append(" leakDetectionThresholdMillis=").append(leakDetector.getThresholdMillis());
       sb.append("]");
 
       return sb.toString();
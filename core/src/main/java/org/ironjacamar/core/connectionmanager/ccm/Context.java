@@ -25,29 +25,49 @@ import org.ironjacamar.core.connectionmanager.ConnectionManager;
 import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 /**
  * A CCM context which hold the context key, and the associated
- * ConnectionManager vs. ConnectionListener mappings
+ * ConnectionManager vs. ConnectionListener mappings.
+ *
+ * The mappings are kept in small flat arrays, which are scanned linearly, as a context
+ * rarely holds more than a few connections. The arrays are only allocated on the first registration,
+ * and are kept when the context is cleared, so a context reused by {@link ContextStack}
+ * doesn't allocate on the request path
  *
  * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
  */
 class Context
 {
+   /** The initial capacity of the arrays */
+   private static final int INITIAL_CAPACITY = 4;
+
    /** The context key */
-   private final Object contextKey;
+   private Object contextKey;
+
+   /** The connection manager of each registered connection listener */
+   private ConnectionManager[] managers;
+
+   /** The registered connection listeners */
+   private ConnectionListener[] listeners;
+
+   /** The number of registered connection listeners */
+   private int listenerCount;
+
+   /** The registered connections */
+   private Object[] connections;
+
+   /** The connection listener of each registered connection */
+   private ConnectionListener[] owners;
+
+   /** The number of registered connections */
+   private int connectionCount;
 
-   /** The connection manager to connection listener mapping */
-   private Map<ConnectionManager, List<ConnectionListener>> cmToCl;
-   
-   /** The connection listener to connection mapping */
-   private Map<ConnectionListener, List<Object>> clToC;
-   
    /**
     * Constructor
     * @param contextKey The context key
@@ -55,8 +75,21 @@ class Context
    Context(final Object contextKey)
    {
       this.contextKey = contextKey;
-      this.cmToCl = null;
-      this.clToC = null;
+      this.managers = null;
+      this.listeners = null;
+      this.listenerCount = 0;
+      this.connections = null;
+      this.owners = null;
+      this.connectionCount = 0;
+   }
+
+   /**
+    * Reuse the context for a new context key; the context must be cleared
+    * @param key The context key
+    */
+   void reset(Object key)
+   {
+      this.contextKey = key;
    }
 
    /**
@@ -67,27 +100,39 @@ class Context
     */
    void registerConnection(ConnectionManager cm, ConnectionListener cl, Object c)
    {
-      if (cmToCl == null)
-         cmToCl = new HashMap<ConnectionManager, List<ConnectionListener>>();
-
-      List<ConnectionListener> l = cmToCl.get(cm);
-
-      if (l == null)
-         l = new ArrayList<ConnectionListener>(1);
-
-      l.add(cl);
-      cmToCl.put(cm, l);
-
-      if (clToC == null)
-         clToC = new HashMap<ConnectionListener, List<Object>>();
+      // A shared connection listener is registered once
+      if (indexOfListener(cm, cl) == -1)
+      {
+         if (listeners == null)
+         {
+            managers = new ConnectionManager[INITIAL_CAPACITY];
+            listeners = new ConnectionListener[INITIAL_CAPACITY];
+         }
+         else if (listenerCount == listeners.length)
+         {
+            managers = Arrays.copyOf(managers, listenerCount * 2);
+            listeners = Arrays.copyOf(listeners, listenerCount * 2);
+         }
 
-      List<Object> connections = clToC.get(cl);
+         managers[listenerCount] = cm;
+         listeners[listenerCount] = cl;
+         listenerCount++;
+      }
 
       if (connections == null)
-         connections = new ArrayList<Object>(1);
+      {
+         connections = new Object[INITIAL_CAPACITY];
+         owners = new ConnectionListener[INITIAL_CAPACITY];
+      }
+      else if (connectionCount == connections.length)
+      {
+         connections = Arrays.copyOf(connections, connectionCount * 2);
+         owners = Arrays.copyOf(owners, connectionCount * 2);
+      }
 
-      connections.add(c);
-      clToC.put(cl, connections);
+      connections[connectionCount] = c;
+      owners[connectionCount] = cl;
+      connectionCount++;
    }
 
    /**
@@ -99,25 +144,52 @@ class Context
     */
    boolean unregisterConnection(ConnectionManager cm, ConnectionListener cl, Object c)
    {
-      if (clToC != null && clToC.get(cl) != null)
+      for (int i = 0; i < connectionCount; i++)
       {
-         List<Object> l = clToC.get(cl);
-         return l.remove(c);
+         if (owners[i].equals(cl) && connections[i].equals(c))
+         {
+            removeConnection(i);
+            return true;
+         }
       }
 
       return false;
    }
 
+   /**
+    * Get a connection listener which has open connections for an equal credential
+    * @param cm The connection manager
+    * @param credential The credential
+    * @return The connection listener, or <code>null</code> if none
+    */
+   ConnectionListener getConnectionListener(ConnectionManager cm, Object credential)
+   {
+      for (int i = 0; i < listenerCount; i++)
+      {
+         ConnectionListener cl = listeners[i];
+
+         if (managers[i].equals(cm) && hasConnections(cl) &&
+             cl.getState() == ConnectionListener.IN_USE && cl.getCredential().equals(credential))
+            return cl;
+      }
+
+      return null;
+   }
+
    /**
     * Get the connection managers
     * @return The value
     */
    Set<ConnectionManager> getConnectionManagers()
    {
-      if (cmToCl == null)
-         return Collections.unmodifiableSet(Collections.emptySet());
+      if (listenerCount == 0)
+         return Collections.emptySet();
+
+      Set<ConnectionManager> result = new LinkedHashSet<ConnectionManager>();
+      for (int i = 0; i < listenerCount; i++)
+         result.add(managers[i]);
 
-      return Collections.unmodifiableSet(cmToCl.keySet());
+      return Collections.unmodifiableSet(result);
    }
 
    /**
@@ -127,14 +199,23 @@ class Context
     */
    List<ConnectionListener> getConnectionListeners(ConnectionManager cm)
    {
-      if (cmToCl == null)
-         return Collections.unmodifiableList(Collections.emptyList());
+      List<ConnectionListener> result = null;
+
+      for (int i = 0; i < listenerCount; i++)
+      {
+         if (managers[i].equals(cm))
+         {
+            if (result == null)
+               result = new ArrayList<ConnectionListener>(1);
+
+            result.add(listeners[i]);
+         }
+      }
 
-      List<ConnectionListener> l = cmToCl.get(cm);
-      if (l == null)
-         l = Collections.emptyList();
-      
-      return Collections.unmodifiableList(l);
+      if (result == null)
+         return Collections.emptyList();
+
+      return Collections.unmodifiableList(result);
    }
    
    /**
@@ -144,15 +225,23 @@ class Context
     */
    List<Object> getConnections(ConnectionListener cl)
    {
-      List<Object> l = null;
+      List<Object> result = null;
+
+      for (int i = 0; i < connectionCount; i++)
+      {
+         if (owners[i].equals(cl))
+         {
+            if (result == null)
+               result = new ArrayList<Object>(1);
+
+            result.add(connections[i]);
+         }
+      }
 
-      if (clToC != null)
-         l = clToC.get(cl);
+      if (result == null)
+         return Collections.emptyList();
 
-      if (l == null)
-         l = Collections.emptyList();
-         
-      return Collections.unmodifiableList(l);
+      return Collections.unmodifiableList(result);
    }
    
    /**
@@ -163,10 +252,16 @@ class Context
     */
    void switchConnectionListener(Object c, ConnectionListener from, ConnectionListener to)
    {
-      if (clToC != null && clToC.get(from) != null && clToC.get(to) != null)
+      if (!isRegistered(to))
+         return;
+
+      for (int i = 0; i < connectionCount; i++)
       {
-         clToC.get(from).remove(c);
-         clToC.get(to).add(c);
+         if (owners[i].equals(from) && connections[i].equals(c))
+         {
+            owners[i] = to;
+            return;
+         }
       }
    }
    
@@ -177,10 +272,20 @@ class Context
     */
    void removeConnectionListener(ConnectionManager cm, ConnectionListener cl)
    {
-      if (cmToCl != null && cmToCl.get(cm) != null)
+      int index = indexOfListener(cm, cl);
+      if (index == -1)
+         return;
+
+      listenerCount--;
+      System.arraycopy(managers, index + 1, managers, index, listenerCount - index);
+      System.arraycopy(listeners, index + 1, listeners, index, listenerCount - index);
+      managers[listenerCount] = null;
+      listeners[listenerCount] = null;
+
+      for (int i = connectionCount - 1; i >= 0; i--)
       {
-         cmToCl.get(cm).remove(cl);
-         clToC.remove(cl);
+         if (owners[i].equals(cl))
+            removeConnection(i);
       }
    }
    
@@ -189,11 +294,83 @@ class Context
     */
    void clear()
    {
-      if (cmToCl != null)
-         cmToCl.clear();
+      if (listenerCount > 0)
+      {
+         Arrays.fill(managers, 0, listenerCount, null);
+         Arrays.fill(listeners, 0, listenerCount, null);
+         listenerCount = 0;
+      }
+
+      if (connectionCount > 0)
+      {
+         Arrays.fill(connections, 0, connectionCount, null);
+         Arrays.fill(owners, 0, connectionCount, null);
+         connectionCount = 0;
+      }
+
+      contextKey = null;
+   }
+
+   /**
+    * Get the index of a connection listener
+    * @param cm The connection manager
+    * @param cl The connection listener
+    * @return The index, or -1 if not registered
+    */
+   private int indexOfListener(ConnectionManager cm, ConnectionListener cl)
+   {
+      for (int i = 0; i < listenerCount; i++)
+      {
+         if (listeners[i].equals(cl) && managers[i].equals(cm))
+            return i;
+      }
+
+      return -1;
+   }
+
+   /**
+    * Is a connection listener registered
+    * @param cl The connection listener
+    * @return True if so, otherwise false
+    */
+   private boolean isRegistered(ConnectionListener cl)
+   {
+      for (int i = 0; i < listenerCount; i++)
+      {
+         if (listeners[i].equals(cl))
+            return true;
+      }
+
+      return false;
+   }
+
+   /**
+    * Has a connection listener registered connections
+    * @param cl The connection listener
+    * @return True if so, otherwise false
+    */
+   private boolean hasConnections(ConnectionListener cl)
+   {
+      for (int i = 0; i < connectionCount; i++)
+      {
+         if (owners[i].equals(cl))
+            return true;
+      }
 
-      if (clToC != null)
-         clToC.clear();
+      return false;
+   }
+
+   /**
+    * Remove a registered connection, keeping the registration order
+    * @param index The index
+    */
+   private void removeConnection(int index)
+   {
+      connectionCount--;
+      System.arraycopy(connections, index + 1, connections, index, connectionCount - index);
+      System.arraycopy(owners, index + 1, owners, index, connectionCount - index);
+      connections[connectionCount] = null;
+      owners[connectionCount] = null;
    }
    
    /**
@@ -217,6 +394,9 @@ class Context
 
       Context c = (Context)other;
 
+      if (contextKey == null)
+         return c.contextKey == null;
+
       return contextKey.equals(c.contextKey);
    }
 
@@ -0,0 +1,130 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.ccm;
+
+import java.util.Arrays;
+
+/**
+ * The stack of CCM contexts of a thread.
+ *
+ * Popped contexts are kept, and reused by the next push at the same depth,
+ * so pushing and popping contexts doesn't allocate once the stack has warmed up
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+class ContextStack
+{
+   /** The initial capacity */
+   private static final int INITIAL_CAPACITY = 4;
+
+   /** The contexts; the ones above the depth are cleared, and ready for reuse */
+   private Context[] contexts;
+
+   /** The depth */
+   private int depth;
+
+   /**
+    * Constructor
+    */
+   ContextStack()
+   {
+      this.contexts = new Context[INITIAL_CAPACITY];
+      this.depth = 0;
+   }
+
+   /**
+    * Push a context
+    * @param contextKey The context key
+    * @return The context
+    */
+   Context push(Object contextKey)
+   {
+      if (depth == contexts.length)
+         contexts = Arrays.copyOf(contexts, depth * 2);
+
+      Context context = contexts[depth];
+      if (context == null)
+      {
+         context = new Context(contextKey);
+         contexts[depth] = context;
+      }
+      else
+      {
+         context.reset(contextKey);
+      }
+
+      depth++;
+      return context;
+   }
+
+   /**
+    * Pop a context; the caller must clear the context before the next push
+    * @return The context, or <code>null</code> if the stack is empty
+    */
+   Context pop()
+   {
+      if (depth == 0)
+         return null;
+
+      return contexts[--depth];
+   }
+
+   /**
+    * Look at the current context
+    * @return The context, or <code>null</code> if the stack is empty
+    */
+   Context peek()
+   {
+      if (depth == 0)
+         return null;
+
+      return contexts[depth - 1];
+   }
+
+   /**
+    * Is the stack empty
+    * @return True if empty, otherwise false
+    */
+   boolean isEmpty()
+   {
+      return depth == 0;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public String toString()
+   {
+      StringBuilder sb = new StringBuilder();
+
+      sb.append("ContextStack[");
+      for (int i = 0; i < depth; i++)
+      {
+         if (i > 0)
+            sb.append(", ");
+         sb.append(contexts[i]);
+      }
+      sb.append("]");
+
+      return sb.toString();
+   }
+}
@@ -0,0 +1,398 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.ccm;
+
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.IN_USE;
+
+/**
+ * Sampling connection leak detector.
+ *
+ * A configurable fraction of the connection allocations is tracked together with a stack trace
+ * bounded to a maximum depth. A periodic sweep flags the tracked connections whose connection listener
+ * has been out of the pool for longer than the threshold. The tracking table is split into stripes
+ * with their own locks, so concurrent allocations rarely contend
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+class LeakDetector
+{
+   /** The number of stripes */
+   private static final int STRIPES = 16;
+
+   /** The stripes */
+   private final Stripe[] stripes;
+
+   /** The number of tracked connections */
+   private final AtomicInteger tracked;
+
+   /** The fraction of the allocations tracked */
+   private volatile double sampleRate;
+
+   /** The time a connection can be held before it is flagged, in milliseconds */
+   private volatile long thresholdMillis;
+
+   /** The maximum number of stack frames kept */
+   private volatile int stackDepth;
+
+   /**
+    * Constructor
+    */
+   LeakDetector()
+   {
+      this.stripes = new Stripe[STRIPES];
+      for (int i = 0; i < STRIPES; i++)
+         this.stripes[i] = new Stripe();
+
+      this.tracked = new AtomicInteger(0);
+      this.sampleRate = 0.0;
+      this.thresholdMillis = 300000L;
+      this.stackDepth = 16;
+   }
+
+   /**
+    * Is leak detection enabled
+    * @return True if enabled, otherwise false
+    */
+   boolean isEnabled()
+   {
+      return sampleRate > 0.0;
+   }
+
+   /**
+    * Get the fraction of the allocations tracked
+    * @return The value
+    */
+   double getSampleRate()
+   {
+      return sampleRate;
+   }
+
+   /**
+    * Set the fraction of the allocations tracked; 0 disables leak detection, 1 tracks all allocations
+    * @param v The value
+    */
+   void setSampleRate(double v)
+   {
+      if (v < 0.0 || v > 1.0)
+         throw new IllegalArgumentException("Sample rate must be between 0 and 1: " + v);
+
+      sampleRate = v;
+   }
+
+   /**
+    * Get the time a connection can be held before it is flagged
+    * @return The value in milliseconds
+    */
+   long getThresholdMillis()
+   {
+      return thresholdMillis;
+   }
+
+   /**
+    * Set the time a connection can be held before it is flagged
+    * @param v The value in milliseconds
+    */
+   void setThresholdMillis(long v)
+   {
+      if (v <= 0L)
+         throw new IllegalArgumentException("Threshold must be positive: " + v);
+
+      thresholdMillis = v;
+   }
+
+   /**
+    * Get the maximum number of stack frames kept
+    * @return The value
+    */
+   int getStackDepth()
+   {
+      return stackDepth;
+   }
+
+   /**
+    * Set the maximum number of stack frames kept
+    * @param v The value
+    */
+   void setStackDepth(int v)
+   {
+      if (v < 1)
+         throw new IllegalArgumentException("Stack depth must be positive: " + v);
+
+      stackDepth = v;
+   }
+
+   /**
+    * Track a connection allocation, if it is sampled
+    * @param connection The connection handle
+    * @param cl The connection listener
+    * @return True if the allocation is tracked, otherwise false
+    */
+   boolean track(Object connection, ConnectionListener cl)
+   {
+      double rate = sampleRate;
+      if (rate <= 0.0 || (rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate))
+         return false;
+
+      StackTraceElement[] stack = new Throwable().getStackTrace();
+      if (stack.length > stackDepth)
+         stack = Arrays.copyOf(stack, stackDepth);
+
+      Stripe stripe = getStripe(connection);
+      stripe.lock.lock();
+      try
+      {
+         stripe.allocations.put(connection, new Allocation(cl, cl.getFromPool(), stack));
+         updateTracked(stripe);
+      }
+      finally
+      {
+         stripe.lock.unlock();
+      }
+
+      return true;
+   }
+
+   /**
+    * Stop tracking a connection
+    * @param connection The connection handle
+    */
+   void untrack(Object connection)
+   {
+      if (tracked.get() == 0)
+         return;
+
+      Stripe stripe = getStripe(connection);
+      stripe.lock.lock();
+      try
+      {
+         if (stripe.allocations.remove(connection) != null)
+            updateTracked(stripe);
+      }
+      finally
+      {
+         stripe.lock.unlock();
+      }
+   }
+
+   /**
+    * Get the number of tracked connections
+    * @return The value
+    */
+   int getTracked()
+   {
+      return tracked.get();
+   }
+
+   /**
+    * Flag the tracked connections held longer than the threshold. Connections whose connection
+    * listener has been returned to the pool since are no longer tracked
+    * @param now The current time in milliseconds
+    * @return The connection handles flagged by this sweep, and their allocation stack traces
+    */
+   Map<Object, StackTraceElement[]> sweep(long now)
+   {
+      if (tracked.get() == 0)
+         return Collections.emptyMap();
+
+      Map<Object, StackTraceElement[]> result = new HashMap<Object, StackTraceElement[]>();
+      long threshold = thresholdMillis;
+
+      for (Stripe stripe : stripes)
+      {
+         stripe.lock.lock();
+         try
+         {
+            Iterator<Map.Entry<Object, Allocation>> it = stripe.allocations.entrySet().iterator();
+            while (it.hasNext())
+            {
+               Map.Entry<Object, Allocation> entry = it.next();
+               Allocation allocation = entry.getValue();
+
+               if (allocation.cl.getState() != IN_USE || allocation.cl.getFromPool() != allocation.fromPool)
+               {
+                  it.remove();
+               }
+               else if (!allocation.flagged && now - allocation.fromPool > threshold)
+               {
+                  allocation.flagged = true;
+                  result.put(entry.getKey(), allocation.stack);
+               }
+            }
+
+            updateTracked(stripe);
+         }
+         finally
+         {
+            stripe.lock.unlock();
+         }
+      }
+
+      return result;
+   }
+
+   /**
+    * List the flagged connections
+    * @return The connection handles, and their allocation stack traces
+    */
+   Map<String, String> listLeaks()
+   {
+      Map<String, String> result = new HashMap<String, String>();
+
+      for (Stripe stripe : stripes)
+      {
+         stripe.lock.lock();
+         try
+         {
+            for (Map.Entry<Object, Allocation> entry : stripe.allocations.entrySet())
+            {
+               if (entry.getValue().flagged)
+                  result.put(entry.getKey().toString(), toString(entry.getValue().stack));
+            }
+         }
+         finally
+         {
+            stripe.lock.unlock();
+         }
+      }
+
+      return Collections.unmodifiableMap(result);
+   }
+
+   /**
+    * Clear
+    */
+   void clear()
+   {
+      for (Stripe stripe : stripes)
+      {
+         stripe.lock.lock();
+         try
+         {
+            stripe.allocations.clear();
+            updateTracked(stripe);
+         }
+         finally
+         {
+            stripe.lock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Format a stack trace
+    * @param stack The stack trace
+    * @return The value
+    */
+   static String toString(StackTraceElement[] stack)
+   {
+      StringBuilder sb = new StringBuilder();
+
+      for (StackTraceElement ste : stack)
+      {
+         sb.append("\tat ").append(ste).append('\n');
+      }
+
+      return sb.toString();
+   }
+
+   /**
+    * Update the number of tracked connections from the size of a stripe; the stripe lock is held.
+    * This also accounts for the connection handles garbage collected since the last update
+    * @param stripe The stripe
+    */
+   private void updateTracked(Stripe stripe)
+   {
+      int size = stripe.allocations.size();
+      tracked.addAndGet(size - stripe.size);
+      stripe.size = size;
+   }
+
+   /**
+    * Get the stripe of a connection handle
+    * @param connection The connection handle
+    * @return The stripe
+    */
+   private Stripe getStripe(Object connection)
+   {
+      int h = System.identityHashCode(connection);
+      return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+   }
+
+   /**
+    * A part of the tracking table
+    */
+   private static class Stripe
+   {
+      /** The lock */
+      private final ReentrantLock lock = new ReentrantLock();
+
+      /** The tracked allocations; connection handles which are garbage collected are dropped */
+      private final Map<Object, Allocation> allocations = new WeakHashMap<Object, Allocation>();
+
+      /** The size of the tracked allocations at the last update */
+      private int size = 0;
+   }
+
+   /**
+    * A tracked allocation
+    */
+   private static class Allocation
+   {
+      /** The connection listener */
+      private final ConnectionListener cl;
+
+      /** The time the connection listener was taken from the pool */
+      private final long fromPool;
+
+      /** The allocation stack trace */
+      private final StackTraceElement[] stack;
+
+      /** Has the allocation been flagged as a leak */
+      private boolean flagged;
+
+      /**
+       * Constructor
+       * @param cl The connection listener
+       * @param fromPool The time the connection listener was taken from the pool
+       * @param stack The allocation stack trace
+       */
+      Allocation(ConnectionListener cl, long fromPool, StackTraceElement[] stack)
+      {
+         this.cl = cl;
+         this.fromPool = fromPool;
+         this.stack = stack;
+         this.flagged = false;
+      }
+   }
+}
@@ -28,6 +28,7 @@ import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener
 
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.resource.ResourceException;
@@ -53,6 +54,9 @@ public abstract class AbstractConnectionListener implements ConnectionListener
    /** The state */
    private AtomicInteger state;
 
+   /** Indexed by the free connection listeners */
+   private AtomicBoolean indexed;
+
    /** Connection handles */
    protected CopyOnWriteArraySet<Object> connectionHandles;
    
@@ -62,9 +66,18 @@ public abstract class AbstractConnectionListener implements ConnectionListener
    /** Last fromPool timestamp */
    private long fromPool;
 
+   /** Last fromPool timestamp in nanoseconds */
+   private long fromPoolNanos;
+
    /** Last toPool timestamp */
    private long toPool;
 
+   /** Created timestamp */
+   private final long created;
+
+   /** Expires timestamp */
+   private volatile long expires;
+
    /**
     * Constructor
     * @param cm The connection manager
@@ -77,13 +90,17 @@ public abstract class AbstractConnectionListener implements ConnectionListener
       this.mc = mc;
       this.credential = credential;
       this.state = new AtomicInteger(FREE);
+      this.indexed = new AtomicBoolean(false);
       this.connectionHandles = new CopyOnWriteArraySet<Object>();
 
       long timestamp = System.currentTimeMillis();
 
       this.validated = timestamp;
       this.fromPool = timestamp;
+      this.fromPoolNanos = System.nanoTime();
       this.toPool = timestamp;
+      this.created = timestamp;
+      this.expires = Long.MAX_VALUE;
 
       mc.addConnectionEventListener(this);
    }
@@ -111,6 +128,14 @@ public abstract class AbstractConnectionListener implements ConnectionListener
    {
       this.state.set(state);
    }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean changeIndexed(boolean current, boolean indexed)
+   {
+      return this.indexed.compareAndSet(current, indexed);
+   }
    
    /**
     * {@inheritDoc}
@@ -245,12 +270,21 @@ public abstract class AbstractConnectionListener implements ConnectionListener
       return fromPool;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public long getFromPoolNanos()
+   {
+      return fromPoolNanos;
+   }
+
    /**
     * {@inheritDoc}
     */
    public void fromPool()
    {
       fromPool = System.currentTimeMillis();
+      fromPoolNanos = System.nanoTime();
    }
 
    /**
@@ -269,6 +303,30 @@ public abstract class AbstractConnectionListener implements ConnectionListener
       toPool = System.currentTimeMillis();
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public long getCreated()
+   {
+      return created;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getExpires()
+   {
+      return expires;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setExpires(long v)
+   {
+      expires = v;
+   }
+
    /**
     * {@inheritDoc}
     */
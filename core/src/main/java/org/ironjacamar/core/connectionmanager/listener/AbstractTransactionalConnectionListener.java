@@ -33,6 +33,7 @@ import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.LazyEnlistableManagedConnection;
 import javax.resource.spi.LocalTransaction;
 import javax.resource.spi.ManagedConnection;
 import javax.transaction.Transaction;
@@ -56,6 +57,9 @@ public abstract class AbstractTransactionalConnectionListener extends AbstractCo
    /** Whether there is a local transaction */
    protected boolean localTransaction;
 
+   /** Whether the enlistment of the XAResource is deferred until lazyEnlist */
+   protected boolean lazyEnlistment;
+
    /**
     * Constructor
     * @param cm The connection manager
@@ -72,6 +76,8 @@ public abstract class AbstractTransactionalConnectionListener extends AbstractCo
       this.enlisted = false;
       this.xaResource = xaResource;
       this.localTransaction = false;
+      this.lazyEnlistment = mc instanceof LazyEnlistableManagedConnection &&
+         cm.getConnectionManagerConfiguration() != null && cm.getConnectionManagerConfiguration().isEnlistment();
 
       if (xaResource instanceof LocalXAResource)
       {
@@ -109,7 +115,9 @@ public abstract class AbstractTransactionalConnectionListener extends AbstractCo
       
          transactionSynchronization = createTransactionSynchronization();
          transactionSynchronization.init(tx);
-         transactionSynchronization.enlist();
+
+         if (!lazyEnlistment)
+            transactionSynchronization.enlist();
 
          txCM.getTransactionIntegration().getTransactionSynchronizationRegistry().
             registerInterposedSynchronization(transactionSynchronization);
@@ -126,6 +134,19 @@ public abstract class AbstractTransactionalConnectionListener extends AbstractCo
       }
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public void lazyEnlist() throws ResourceException
+   {
+      if (!isEnlisted())
+         enlist();
+
+      TransactionSynchronization ts = transactionSynchronization;
+      if (ts != null)
+         ts.enlist();
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -205,6 +226,9 @@ public abstract class AbstractTransactionalConnectionListener extends AbstractCo
       /** Cancel */
       private boolean cancel;
 
+      /** Is the XAResource enlisted */
+      private boolean resourceEnlisted;
+
       /**
        * Constructor
        */
@@ -219,6 +243,7 @@ public abstract class AbstractTransactionalConnectionListener extends AbstractCo
       {
          this.transaction = tx;
          this.cancel = false;
+         this.resourceEnlisted = false;
       }
 
       /**
@@ -226,6 +251,9 @@ public abstract class AbstractTransactionalConnectionListener extends AbstractCo
        */
       public void enlist() throws ResourceException
       {
+         if (resourceEnlisted)
+            return;
+
          ResourceException enlistError = null;
          try
          {
@@ -243,9 +271,12 @@ public abstract class AbstractTransactionalConnectionListener extends AbstractCo
          {
             transactionSynchronization = null;
             enlisted = false;
+            cancel = true;
 
             throw enlistError;
          }
+
+         resourceEnlisted = true;
       }
 
       /**
@@ -261,7 +292,7 @@ public abstract class AbstractTransactionalConnectionListener extends AbstractCo
        */
       public void beforeCompletion()
       {
-         if (!cancel)
+         if (!cancel && resourceEnlisted)
          {
             try
             {
@@ -75,6 +75,15 @@ public interface ConnectionListener extends org.ironjacamar.core.api.connectionm
     */
    public void setState(int state);
 
+   /**
+    * Change the indexed flag, which is set while the connection listener is referenced
+    * by the free connection listeners of its managed connection pool
+    * @param current The current value
+    * @param indexed The new value
+    * @return True if the flag was changed, otherwise false
+    */
+   public boolean changeIndexed(boolean current, boolean indexed);
+
    /**
     * Get the credentials
     * @return The value
@@ -92,6 +101,12 @@ public interface ConnectionListener extends org.ironjacamar.core.api.connectionm
     * @exception ResourceException Thrown if the listener can't be enlisted
     */
    public void enlist() throws ResourceException;
+
+   /**
+    * Enlist the resource of the listener, if the enlistment was deferred
+    * @exception ResourceException Thrown if the listener can't be enlisted
+    */
+   public void lazyEnlist() throws ResourceException;
    
    /**
     * Get a connection
@@ -134,6 +149,12 @@ public interface ConnectionListener extends org.ironjacamar.core.api.connectionm
     */
    public long getFromPool();
 
+   /**
+    * Get the last timestamp where the listener was used, based on <code>System.nanoTime()</code>
+    * @return The value
+    */
+   public long getFromPoolNanos();
+
    /**
     * Mark the listener as used
     */
@@ -150,4 +171,22 @@ public interface ConnectionListener extends org.ironjacamar.core.api.connectionm
     * @exception ResourceException Thrown in case of an error
     */
    public void toPool() throws ResourceException;
+
+   /**
+    * Get the timestamp where the listener was created
+    * @return The value
+    */
+   public long getCreated();
+
+   /**
+    * Get the timestamp where the listener expires
+    * @return The value, or <code>Long.MAX_VALUE</code> if it doesn't expire
+    */
+   public long getExpires();
+
+   /**
+    * Set the timestamp where the listener expires
+    * @param v The value
+    */
+   public void setExpires(long v);
 }
@@ -38,7 +38,7 @@ public interface TransactionSynchronization extends Synchronization
    public void init(Transaction tx);
 
    /**
-    * Enlist
+    * Enlist the XAResource; does nothing if it is already enlisted
     * @exception ResourceException Thrown if an error occurs
     */
    public void enlist() throws ResourceException;
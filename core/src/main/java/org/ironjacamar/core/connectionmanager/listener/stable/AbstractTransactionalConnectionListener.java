@@ -98,6 +98,9 @@ public abstract class AbstractTransactionalConnectionListener extends
       /** Cancel */
       private boolean cancel;
 
+      /** Is the XAResource enlisted */
+      private boolean resourceEnlisted;
+
       /** */
       private Throwable throwable;
       
@@ -115,6 +118,7 @@ public abstract class AbstractTransactionalConnectionListener extends
       {
          this.transaction = tx;
          this.cancel = false;
+         this.resourceEnlisted = false;
          this.throwable = new Throwable("Unabled to enlist resource, see the previous warnings.");
       }
 
@@ -123,6 +127,9 @@ public abstract class AbstractTransactionalConnectionListener extends
        */
       public void enlist() throws ResourceException
       {
+         if (resourceEnlisted)
+            return;
+
          ResourceException enlistError = null;
          try
          {
@@ -141,9 +148,12 @@ public abstract class AbstractTransactionalConnectionListener extends
          {
             transactionSynchronization = null;
             enlisted = false;
+            cancel = true;
 
             throw enlistError;
          }
+
+         resourceEnlisted = true;
       }
 
       /**
@@ -159,7 +169,7 @@ public abstract class AbstractTransactionalConnectionListener extends
        */
       public void beforeCompletion()
       {
-         if (!cancel)
+         if (!cancel && resourceEnlisted)
          {
             try
             {
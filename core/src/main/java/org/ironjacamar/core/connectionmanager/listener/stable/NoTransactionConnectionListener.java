@@ -60,4 +60,11 @@ public class NoTransactionConnectionListener extends AbstractConnectionListener
    public void enlist() throws ResourceException
    {
    }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void lazyEnlist() throws ResourceException
+   {
+   }
 }
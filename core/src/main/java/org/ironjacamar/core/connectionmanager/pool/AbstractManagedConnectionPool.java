@@ -21,53 +21,608 @@
 
 package org.ironjacamar.core.connectionmanager.pool;
 
+import org.ironjacamar.core.CoreLogger;
 import org.ironjacamar.core.connectionmanager.Credential;
 import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
 
+import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.FREE;
+import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.IN_USE;
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.VALIDATION;
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.ZOMBIE;
 
-import java.util.Collection;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.resource.ResourceException;
+import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.ManagedConnectionFactory;
 import javax.resource.spi.ValidatingManagedConnectionFactory;
 
+import org.jboss.logging.Logger;
+
 /**
  * The base class for all ManagedConnectionPool implementations
  * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
  */
 public abstract class AbstractManagedConnectionPool implements ManagedConnectionPool
 {
+   /** The logger */
+   private static CoreLogger log = Logger.getMessageLogger(CoreLogger.class,
+                                                           AbstractManagedConnectionPool.class.getName());
+
+   /** The part of the max lifetime over which the expiry of the connection listeners is spread */
+   private static final int MAX_LIFETIME_VARIANCE = 10;
+
    /** The pool */
    protected Pool pool;
 
    /** The credential */
    protected Credential credential;
 
+   /** The connection listeners */
+   protected ConcurrentLinkedDeque<ConnectionListener> listeners;
+
+   /** The free connection listeners; most recently returned first, so idle ones gather at the tail */
+   private FreeListeners freeListeners;
+
+   /** The number of connection listeners */
+   private AtomicInteger listenerCount;
+
+   /** The number of connection listeners being created by fill requests */
+   private AtomicInteger pendingFills;
+
+   /** The connection listener last returned by each thread */
+   private ThreadLocal<WeakReference<ConnectionListener>> lastReturned;
+
+   /** The lock guarding shutdown; a monitor would pin virtual threads while connections are destroyed */
+   protected final ReentrantLock lock;
+
    /**
     * Constructor
     * @param pool The pool
     * @param credential The credential
     */
    public AbstractManagedConnectionPool(Pool pool, Credential credential)
+   {
+      this(pool, credential, 1);
+   }
+
+   /**
+    * Constructor
+    * @param pool The pool
+    * @param credential The credential
+    * @param stripes The number of stripes of the free connection listeners
+    */
+   public AbstractManagedConnectionPool(Pool pool, Credential credential, int stripes)
    {
       this.pool = pool;
       this.credential = credential;
+      this.listeners = new ConcurrentLinkedDeque<ConnectionListener>();
+      this.freeListeners = new FreeListeners(stripes);
+      this.listenerCount = new AtomicInteger(0);
+      this.pendingFills = new AtomicInteger(0);
+      this.lastReturned = new ThreadLocal<WeakReference<ConnectionListener>>();
+      this.lock = new ReentrantLock();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public ConnectionListener findConnectionListener(ManagedConnection mc)
+   {
+      for (ConnectionListener cl : listeners)
+      {
+         if (cl.getManagedConnection() == mc)
+            return cl;
+      }
+
+      return null;
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * A connection listener available right away completes the stage in the calling thread.
+    * Otherwise the wait happens on the common pool; pools with a wait queue override this
+    * to complete the stage by a hand-off instead
+    */
+   public CompletionStage<ConnectionListener> getConnectionListenerAsync()
+   {
+      try
+      {
+         ConnectionListener cl = tryGetConnectionListener(0L);
+         if (cl != null)
+            return CompletableFuture.completedFuture(cl);
+      }
+      catch (ResourceException re)
+      {
+         CompletableFuture<ConnectionListener> failed = new CompletableFuture<ConnectionListener>();
+         failed.completeExceptionally(re);
+         return failed;
+      }
+
+      final CompletableFuture<ConnectionListener> result = new CompletableFuture<ConnectionListener>();
+
+      CompletableFuture.runAsync(new Runnable()
+      {
+         public void run()
+         {
+            if (result.isDone())
+               return;
+
+            try
+            {
+               ConnectionListener cl = tryGetConnectionListener(pool.getConfiguration().getBlockingTimeout());
+
+               if (cl == null)
+               {
+                  result.completeExceptionally(AbstractPool.timedOut());
+               }
+               else if (!result.complete(cl))
+               {
+                  // The caller cancelled the request while waiting
+                  returnConnectionListener(cl, false);
+               }
+            }
+            catch (ResourceException re)
+            {
+               result.completeExceptionally(re);
+            }
+         }
+      });
+
+      return result;
+   }
+
+   /**
+    * Get the number of connection listeners
+    * @return The value
+    */
+   protected int getConnectionListenerCount()
+   {
+      return listenerCount.get();
+   }
+
+   /**
+    * Reserve the creation of a connection listener for a fill request, such that
+    * concurrent fills of the same pool don't create more than needed.
+    * A successful reservation must be followed by {@link #releaseFill()}
+    * once the listener has been added, or the creation failed
+    * @param size The fill size
+    * @return True if a connection listener should be created, otherwise false
+    */
+   protected boolean reserveFill(int size)
+   {
+      while (true)
+      {
+         int pending = pendingFills.get();
+
+         if (listenerCount.get() + pending >= size)
+            return false;
+
+         if (pendingFills.compareAndSet(pending, pending + 1))
+            return true;
+      }
+   }
+
+   /**
+    * Release a fill reservation
+    */
+   protected void releaseFill()
+   {
+      pendingFills.decrementAndGet();
+   }
+
+   /**
+    * Is the pool drained, such that it has no connection listeners and none are being created
+    * by fill requests
+    * @return True if drained, otherwise false
+    */
+   protected boolean isDrained()
+   {
+      return listenerCount.get() == 0 && pendingFills.get() == 0;
+   }
+
+   /**
+    * Add a connection listener
+    * @param cl The connection listener
+    */
+   protected void addConnectionListener(ConnectionListener cl)
+   {
+      long maxLifetime = pool.getConfiguration().getMaxLifetime();
+      if (maxLifetime > 0)
+      {
+         // Connection listeners created together must not expire together
+         long variance = maxLifetime / MAX_LIFETIME_VARIANCE;
+         long jitter = variance > 0 ? ThreadLocalRandom.current().nextLong(variance) : 0L;
+         cl.setExpires(cl.getCreated() + maxLifetime - jitter);
+      }
+
+      listeners.addFirst(cl);
+      listenerCount.incrementAndGet();
+   }
+
+   /**
+    * Has a connection listener exceeded its max lifetime
+    * @param cl The connection listener
+    * @return True if expired, otherwise false
+    */
+   protected boolean isExpired(ConnectionListener cl)
+   {
+      long expires = cl.getExpires();
+      return expires != Long.MAX_VALUE && expires <= System.currentTimeMillis();
+   }
+
+   /**
+    * Create replacements for retired connection listeners in the background
+    * @param retired The number of retired connection listeners
+    */
+   protected void replaceConnectionListeners(int retired)
+   {
+      if (retired > 0 && !pool.isShutdown())
+         PoolFiller.fillPool(new FillRequest(this, getConnectionListenerCount() + retired));
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void recycleConnections()
+   {
+      int retired = 0;
+
+      for (int i = 0; i < freeListeners.getStripes(); i++)
+      {
+         for (ConnectionListener cl : freeListeners.getStripe(i))
+         {
+            if (isExpired(cl) && cl.changeState(FREE, VALIDATION))
+            {
+               destroyAndRemoveConnectionListener(cl);
+               retired++;
+            }
+         }
+      }
+
+      replaceConnectionListeners(retired);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void resize()
+   {
+      int target = pool.getTargetSize();
+      long idleSince = System.currentTimeMillis() -
+         PoolResizer.getInterval(pool.getConfiguration().getElasticWindowMillis());
+
+      // Shrink idle capacity
+      for (int i = 0; i < freeListeners.getStripes(); i++)
+         removeIdleConnectionListeners(freeListeners.getStripe(i), idleSince, target);
+
+      prefill();
+   }
+
+   /**
+    * Remove a connection listener
+    * @param cl The connection listener
+    */
+   protected void removeConnectionListener(ConnectionListener cl)
+   {
+      if (listeners.remove(cl))
+         listenerCount.decrementAndGet();
+
+      if (cl.changeIndexed(true, false))
+         freeListeners.remove(cl);
+   }
+
+   /**
+    * Remove all connection listeners
+    */
+   protected void clearConnectionListeners()
+   {
+      listeners.clear();
+      freeListeners.clear();
+      listenerCount.set(0);
+   }
+
+   /**
+    * Make a FREE connection listener available for borrowing.
+    * Must be called whenever a connection listener enters the FREE state
+    * @param cl The connection listener
+    */
+   protected void freeConnectionListener(ConnectionListener cl)
+   {
+      if (cl.changeIndexed(false, true))
+         freeListeners.addFirst(cl);
+   }
+
+   /**
+    * Claim a free connection listener
+    * @return The connection listener in the VALIDATION state, or <code>null</code> if none is free
+    */
+   private ConnectionListener pollFreeConnectionListener()
+   {
+      ConnectionListener cl = freeListeners.pollFirst();
+
+      while (cl != null)
+      {
+         // Clear the flag first, so a concurrent return will index the listener again
+         cl.changeIndexed(true, false);
+
+         if (cl.changeState(FREE, VALIDATION))
+            return cl;
+
+         cl = freeListeners.pollFirst();
+      }
+
+      return null;
+   }
+
+   /**
+    * Find a free connection listener; first the one last returned by the current thread,
+    * and then the most recently returned one
+    * @return The connection listener in the IN_USE state, or <code>null</code> if none is free
+    */
+   protected ConnectionListener findFreeConnectionListener()
+   {
+      ConnectionListener cl = claimLastReturned();
+
+      if (cl == null)
+         cl = pollFreeConnectionListener();
+
+      while (cl != null)
+      {
+         if (isExpired(cl))
+         {
+            destroyAndRemoveConnectionListener(cl);
+            replaceConnectionListeners(1);
+         }
+         else if (pool.getConfiguration().isValidateOnMatch())
+         {
+            ConnectionListener result = validateConnectionListener(cl, IN_USE);
+            if (result != null)
+            {
+               result.fromPool();
+               return result;
+            }
+            else
+            {
+               if (pool.getConfiguration().isUseFastFail())
+                  return null;
+            }
+         }
+         else
+         {
+            if (cl.changeState(VALIDATION, IN_USE))
+            {
+               cl.fromPool();
+               return cl;
+            }
+            else
+            {
+               destroyAndRemoveConnectionListener(cl);
+            }
+         }
+
+         cl = pollFreeConnectionListener();
+      }
+
+      return null;
+   }
+
+   /**
+    * Claim the connection listener last returned by the current thread, if it is still free.
+    * This avoids contending with other threads on the head of the shared free connection listeners
+    * @return The connection listener in the VALIDATION state, or <code>null</code> if not available
+    */
+   private ConnectionListener claimLastReturned()
+   {
+      WeakReference<ConnectionListener> ref = lastReturned.get();
+
+      if (ref != null)
+      {
+         ConnectionListener cl = ref.get();
+
+         if (cl != null && cl.changeState(FREE, VALIDATION))
+            return cl;
+      }
+
+      return null;
+   }
+
+   /**
+    * Record the connection listener returned to the pool by the current thread
+    * @param cl The connection listener
+    */
+   protected void setLastReturned(ConnectionListener cl)
+   {
+      WeakReference<ConnectionListener> ref = lastReturned.get();
+
+      if (ref == null || ref.get() != cl)
+         lastReturned.set(new WeakReference<ConnectionListener>(cl));
+   }
+
+   /**
+    * Validate the free connection listeners that haven't been validated within the
+    * background validation interval. The connections are passed to the managed connection factory
+    * in batches of up to <code>validation-batch-size</code>, as the connection listeners of a batch
+    * can't be handed out until the batch is validated
+    * @return True if any connection listener was destroyed, otherwise false
+    */
+   protected boolean validateFreeConnectionListeners()
+   {
+      boolean anyDestroyed = false;
+      long timestamp = System.currentTimeMillis();
+      int batchSize = pool.getConfiguration().getValidationBatchSize();
+      List<ConnectionListener> batch = new ArrayList<ConnectionListener>();
+
+      for (int i = 0; i < freeListeners.getStripes(); i++)
+      {
+         for (ConnectionListener cl : freeListeners.getStripe(i))
+         {
+            if (cl.changeState(FREE, VALIDATION))
+            {
+               if (cl.getValidated() + pool.getConfiguration().getBackgroundValidationMillis() < timestamp)
+               {
+                  batch.add(cl);
+
+                  if (batch.size() == batchSize)
+                  {
+                     anyDestroyed |= validateConnectionListeners(batch);
+                     batch.clear();
+                  }
+               }
+               else
+               {
+                  if (cl.changeState(VALIDATION, FREE))
+                  {
+                     freeConnectionListener(cl);
+                  }
+                  else
+                  {
+                     destroyAndRemoveConnectionListener(cl);
+                  }
+               }
+            }
+         }
+      }
+
+      if (!batch.isEmpty())
+         anyDestroyed |= validateConnectionListeners(batch);
+
+      return anyDestroyed;
+   }
+
+   /**
+    * Validate free connection listeners in the VALIDATION state with a single call to the
+    * managed connection factory, and free the valid ones
+    * @param batch The connection listeners
+    * @return True if any connection listener was destroyed, otherwise false
+    */
+   private boolean validateConnectionListeners(List<ConnectionListener> batch)
+   {
+      ManagedConnectionFactory mcf = pool.getConnectionManager().getManagedConnectionFactory();
+      Set invalid = Collections.emptySet();
+      boolean anyDestroyed = false;
+
+      if (mcf instanceof ValidatingManagedConnectionFactory)
+      {
+         Set<ManagedConnection> candidateSet = new HashSet<ManagedConnection>(batch.size() * 2);
+         for (ConnectionListener cl : batch)
+            candidateSet.add(cl.getManagedConnection());
+
+         try
+         {
+            invalid = ((ValidatingManagedConnectionFactory)mcf).getInvalidConnections(candidateSet);
+            if (invalid == null)
+               invalid = Collections.emptySet();
+         }
+         catch (ResourceException re)
+         {
+            // The outcome of the batch is unknown
+            log.backgroundValidationFailed(candidateSet.size(), mcf, re);
+            invalid = candidateSet;
+         }
+      }
+      else
+      {
+         log.backgroundValidationNotSupported(mcf);
+      }
+
+      for (ConnectionListener cl : batch)
+      {
+         if (invalid.contains(cl.getManagedConnection()))
+         {
+            destroyAndRemoveConnectionListener(cl);
+            anyDestroyed = true;
+            continue;
+         }
+
+         cl.validated();
+         if (cl.changeState(VALIDATION, FREE))
+         {
+            freeConnectionListener(cl);
+         }
+         else
+         {
+            destroyAndRemoveConnectionListener(cl);
+            anyDestroyed = true;
+         }
+      }
+
+      return anyDestroyed;
+   }
+
+   /**
+    * Destroy the free connection listeners which have been idle since before the timeout.
+    * The idle connection listeners are found from the tail of the free connection listeners,
+    * so only those are visited
+    * @param timeout The timeout
+    */
+   protected void removeIdleConnectionListeners(long timeout)
+   {
+      for (int i = 0; i < freeListeners.getStripes(); i++)
+         removeIdleConnectionListeners(freeListeners.getStripe(i), timeout, 0);
+   }
+
+   /**
+    * Destroy the free connection listeners of a stripe which have been idle since before the timeout,
+    * until the number of connection listeners is down to the target
+    * @param stripe The stripe
+    * @param timeout The timeout
+    * @param target The target
+    */
+   private void removeIdleConnectionListeners(ConcurrentLinkedDeque<ConnectionListener> stripe,
+                                              long timeout, int target)
+   {
+      while (getConnectionListenerCount() > target)
+      {
+         ConnectionListener cl = stripe.pollLast();
+         if (cl == null)
+            return;
+
+         cl.changeIndexed(true, false);
+
+         if (cl.changeState(FREE, VALIDATION))
+         {
+            if (cl.getToPool() < timeout)
+            {
+               destroyAndRemoveConnectionListener(cl);
+            }
+            else
+            {
+               // All other free connection listeners of the stripe have been returned later
+               if (cl.changeState(VALIDATION, FREE))
+               {
+                  if (cl.changeIndexed(false, true))
+                     stripe.addLast(cl);
+               }
+               else
+               {
+                  destroyAndRemoveConnectionListener(cl);
+               }
+               return;
+            }
+         }
+      }
    }
 
    /**
     * Validate a connection listener
-    * @param listeners The listeners
     * @param cl The connection listener
     * @param newState The new state
     * @return The validated connection listener, or <code>null</code> if validation failed
     */
-   protected ConnectionListener validateConnectionListener(Collection<ConnectionListener> listeners,
-                                                           ConnectionListener cl,
-                                                           int newState)
+   protected ConnectionListener validateConnectionListener(ConnectionListener cl, int newState)
    {
       ManagedConnectionFactory mcf = pool.getConnectionManager().getManagedConnectionFactory();
 
@@ -81,7 +636,7 @@ public abstract class AbstractManagedConnectionPool implements ManagedConnection
 
             if (candidateSet != null && candidateSet.size() > 0)
             {
-               destroyAndRemoveConnectionListener(cl, listeners);
+               destroyAndRemoveConnectionListener(cl);
             }
             else
             {
@@ -92,13 +647,13 @@ public abstract class AbstractManagedConnectionPool implements ManagedConnection
                }
                else
                {
-                  destroyAndRemoveConnectionListener(cl, listeners);
+                  destroyAndRemoveConnectionListener(cl);
                }
             }
          }
          catch (ResourceException re)
          {
-            destroyAndRemoveConnectionListener(cl, listeners);
+            destroyAndRemoveConnectionListener(cl);
          }
       }
       else
@@ -110,7 +665,7 @@ public abstract class AbstractManagedConnectionPool implements ManagedConnection
          }
          else
          {
-            destroyAndRemoveConnectionListener(cl, listeners);
+            destroyAndRemoveConnectionListener(cl);
          }
       }
 
@@ -120,9 +675,8 @@ public abstract class AbstractManagedConnectionPool implements ManagedConnection
    /**
     * Destroy and remove a connection listener
     * @param cl The connection listener
-    * @param listeners The listeners
     */
-   protected void destroyAndRemoveConnectionListener(ConnectionListener cl, Collection<ConnectionListener> listeners)
+   protected void destroyAndRemoveConnectionListener(ConnectionListener cl)
    {
       try
       {
@@ -135,7 +689,7 @@ public abstract class AbstractManagedConnectionPool implements ManagedConnection
       }
       finally
       {
-         listeners.remove(cl);
+         removeConnectionListener(cl);
       }
    }
 }
@@ -29,15 +29,26 @@ import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
 import org.ironjacamar.core.spi.transaction.TxUtils;
 import org.ironjacamar.core.spi.transaction.local.LocalXAResource;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
 import javax.transaction.Transaction;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.xa.XAResource;
 
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.DESTROY;
@@ -48,6 +59,9 @@ import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener
  */
 public abstract class AbstractPool implements Pool
 {
+   /** Timer thread name */
+   private static final String THREAD_TIMER_NAME = "IronJacamar Pool Timer";
+
    /** The connection manager */
    protected ConnectionManager cm;
 
@@ -58,11 +72,29 @@ public abstract class AbstractPool implements Pool
    protected ConcurrentHashMap<Credential, ManagedConnectionPool> pools;
    
    /** The transaction map */
-   protected ConcurrentHashMap<Object, Map<ManagedConnectionPool, ConnectionListener>> transactionMap;
+   protected TransactionMap transactionMap;
    
    /** The semaphore */
    protected Semaphore semaphore;
 
+   /** The statistics */
+   protected PoolStatisticsImpl statistics;
+
+   /** The XAResource statistics */
+   protected XAResourceStatisticsImpl xaStatistics;
+
+   /** The circuit breaker */
+   protected CircuitBreaker circuitBreaker;
+
+   /** The demand tracker; only used for elastic sizing */
+   protected DemandTracker demandTracker;
+
+   /** The lock guarding the creation and removal of managed connection pools */
+   private final ReentrantLock lock = new ReentrantLock();
+
+   /** The timer of the blocking timeouts of asynchronous requests; created on first use */
+   private volatile ScheduledThreadPoolExecutor timer;
+
    private Credential prefillCredential;
 
 
@@ -76,8 +108,21 @@ public abstract class AbstractPool implements Pool
       this.cm = cm;
       this.poolConfiguration = pc;
       this.pools = new ConcurrentHashMap<Credential, ManagedConnectionPool>();
-      this.transactionMap = new ConcurrentHashMap<Object, Map<ManagedConnectionPool, ConnectionListener>>();
+      this.transactionMap = createTransactionMap();
       this.semaphore = new Semaphore(poolConfiguration.getMaxSize());
+      this.statistics = new PoolStatisticsImpl(poolConfiguration.getMaxSize(), semaphore);
+      this.xaStatistics = new XAResourceStatisticsImpl();
+      this.demandTracker = poolConfiguration.isElastic() ?
+         new DemandTracker(poolConfiguration.getElasticWindowMillis()) : null;
+      this.circuitBreaker = new CircuitBreaker(poolConfiguration.getCircuitBreakerThreshold(),
+                                               poolConfiguration.getCircuitBreakerProbeMillis(),
+                                               new CircuitBreaker.Probe()
+      {
+         public void probe(Credential credential) throws Exception
+         {
+            probeManagedConnection(credential);
+         }
+      });
    }
 
    /**
@@ -101,12 +146,26 @@ public abstract class AbstractPool implements Pool
     */
    public ConnectionListener getConnectionListener(Credential credential)
       throws ResourceException
+   {
+      ConnectionListener cl = tryGetConnectionListener(credential, poolConfiguration.getBlockingTimeout());
+      if (cl == null)
+         throw new ResourceException("No ConnectionListener");
+
+      return cl;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public ConnectionListener tryGetConnectionListener(Credential credential, long timeout)
+      throws ResourceException
    {
       ConnectionListener cl = null;
-      ManagedConnectionPool mcp = getManagedConnectionPool(credential);
 
-      if (cm.getTransactionSupport() == TransactionSupportLevel.LocalTransaction ||
-          cm.getTransactionSupport() == TransactionSupportLevel.XATransaction)
+      // Unsharable connections each get their own connection listener, also inside a transaction
+      if (cm.getConnectionManagerConfiguration().isSharable() &&
+          (cm.getTransactionSupport() == TransactionSupportLevel.LocalTransaction ||
+           cm.getTransactionSupport() == TransactionSupportLevel.XATransaction))
       {
          try
          {
@@ -115,34 +174,27 @@ public abstract class AbstractPool implements Pool
 
             if (TxUtils.isUncommitted(tx))
             {
-               Object id = txCM.getTransactionIntegration().getTransactionSynchronizationRegistry().getTransactionKey();
+               TransactionSynchronizationRegistry tsr =
+                  txCM.getTransactionIntegration().getTransactionSynchronizationRegistry();
 
-               Map<ManagedConnectionPool, ConnectionListener> currentMap = transactionMap.get(id);
-
-               if (currentMap == null)
-               {
-                  Map<ManagedConnectionPool, ConnectionListener> map =
-                     new HashMap<ManagedConnectionPool, ConnectionListener>();
-
-                  currentMap = transactionMap.putIfAbsent(id, map);
-                  if (currentMap == null)
-                  {
-                     currentMap = map;
-                  }
-               }
-
-               cl = currentMap.get(mcp);
+               cl = transactionMap.get(tsr, credential);
 
                if (cl == null)
                {
                   if (TxUtils.isActive(tx))
                   {
-                     cl = mcp.getConnectionListener();
-
-                     currentMap.put(mcp, cl);
-
-                     txCM.getTransactionIntegration().getTransactionSynchronizationRegistry().
-                        registerInterposedSynchronization(new TransactionMapCleanup(id, transactionMap));
+                     ManagedConnectionPool mcp = getManagedConnectionPool(credential);
+                     cl = getConnectionListener(mcp, timeout);
+
+                     if (cl == null)
+                        return null;
+
+                     ConnectionListener current = transactionMap.put(tx, tsr, cl);
+                     if (current != cl)
+                     {
+                        returnConnectionListener(cl, false);
+                        cl = current;
+                     }
                   }
                   else
                   {
@@ -162,7 +214,233 @@ public abstract class AbstractPool implements Pool
       }
 
       if (cl == null)
-         cl = mcp.getConnectionListener();
+         cl = getConnectionListener(getManagedConnectionPool(credential), timeout);
+
+      return cl;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public CompletionStage<ConnectionListener> getConnectionListenerAsync(Credential credential)
+   {
+      // The transaction and its synchronization registry are bound to the calling thread, so
+      // the connection listener must be enlisted, or shared, by the calling thread
+      if (isInTransaction())
+      {
+         CompletableFuture<ConnectionListener> result = new CompletableFuture<ConnectionListener>();
+         try
+         {
+            result.complete(getConnectionListener(credential));
+         }
+         catch (ResourceException re)
+         {
+            result.completeExceptionally(re);
+         }
+         return result;
+      }
+
+      ManagedConnectionPool mcp = getManagedConnectionPool(credential);
+
+      // The stage of the managed connection pool is returned itself, such that cancelling it
+      // gives the connection listener back to the pool
+      final long start = System.nanoTime();
+      CompletionStage<ConnectionListener> stage = mcp.getConnectionListenerAsync();
+      stage.whenComplete(new BiConsumer<ConnectionListener, Throwable>()
+      {
+         public void accept(ConnectionListener cl, Throwable t)
+         {
+            long delta = System.nanoTime() - start;
+
+            if (cl != null)
+            {
+               statistics.deltaInUse(1);
+
+               if (statistics.isEnabled())
+                  statistics.deltaObtained(delta);
+
+               if (demandTracker != null)
+                  demandTracker.borrowed(delta);
+            }
+            else if (statistics.isEnabled() && isTimeout(t))
+            {
+               statistics.deltaTimedOut(delta);
+            }
+         }
+      });
+      return stage;
+   }
+
+   /**
+    * Schedule the blocking timeout of an asynchronous request
+    * @param task The task run when the timeout expires
+    * @param delay The delay in milliseconds
+    * @return The future of the task; cancel it once the request is complete
+    */
+   public Future<?> scheduleTimeout(Runnable task, long delay)
+   {
+      ScheduledThreadPoolExecutor t = timer;
+
+      if (t == null)
+      {
+         lock.lock();
+         try
+         {
+            t = timer;
+            if (t == null)
+            {
+               t = new ScheduledThreadPoolExecutor(1, new TimerThreadFactory());
+               t.setKeepAliveTime(60L, TimeUnit.SECONDS);
+               t.allowCoreThreadTimeOut(true);
+               t.setRemoveOnCancelPolicy(true);
+               timer = t;
+            }
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+
+      try
+      {
+         return t.schedule(task, Math.max(0L, delay), TimeUnit.MILLISECONDS);
+      }
+      catch (RejectedExecutionException ree)
+      {
+         // The pool is shut down, so the request times out right away
+         task.run();
+         return CompletableFuture.completedFuture(null);
+      }
+   }
+
+   /**
+    * Create the exception which fails a request that timed out
+    * @return The exception
+    */
+   public static ResourceException timedOut()
+   {
+      return new ResourceException("No ConnectionListener", new TimeoutException());
+   }
+
+   /**
+    * Did a request fail as it timed out
+    * @param t The failure
+    * @return True if so, otherwise false
+    */
+   static boolean isTimeout(Throwable t)
+   {
+      if (t instanceof CompletionException)
+         t = t.getCause();
+
+      return t instanceof ResourceException && t.getCause() instanceof TimeoutException;
+   }
+
+   /**
+    * Is the calling thread associated with an uncommitted transaction that connection listeners
+    * must be enlisted in, or shared within
+    * @return True if so, otherwise false
+    */
+   private boolean isInTransaction()
+   {
+      if (cm.getTransactionSupport() != TransactionSupportLevel.LocalTransaction &&
+          cm.getTransactionSupport() != TransactionSupportLevel.XATransaction)
+         return false;
+
+      try
+      {
+         TransactionalConnectionManager txCM = (TransactionalConnectionManager)cm;
+         return TxUtils.isUncommitted(txCM.getTransactionIntegration().getTransactionManager().getTransaction());
+      }
+      catch (Exception e)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public ConnectionListener findConnectionListener(ManagedConnection mc)
+   {
+      if (cm instanceof TransactionalConnectionManager)
+      {
+         try
+         {
+            TransactionalConnectionManager txCM = (TransactionalConnectionManager)cm;
+            Transaction tx = txCM.getTransactionIntegration().getTransactionManager().getTransaction();
+
+            if (TxUtils.isUncommitted(tx))
+            {
+               ConnectionListener cl =
+                  transactionMap.find(txCM.getTransactionIntegration().getTransactionSynchronizationRegistry(), mc);
+
+               if (cl != null)
+                  return cl;
+            }
+         }
+         catch (Exception e)
+         {
+            // Fall back to the managed connection pools
+         }
+      }
+
+      for (ManagedConnectionPool mcp : pools.values())
+      {
+         ConnectionListener cl = mcp.findConnectionListener(mc);
+         if (cl != null)
+            return cl;
+      }
+
+      return null;
+   }
+
+   /**
+    * Create the transaction map
+    * @return The value
+    */
+   protected TransactionMap createTransactionMap()
+   {
+      return new TransactionMap(false);
+   }
+
+   /**
+    * Get a connection listener from a managed connection pool
+    * @param mcp The managed connection pool
+    * @param timeout The maximum time to wait in milliseconds
+    * @return The connection listener, or <code>null</code> if none became available in time
+    * @exception ResourceException Thrown if the connection listener cannot be obtained
+    */
+   private ConnectionListener getConnectionListener(ManagedConnectionPool mcp, long timeout)
+      throws ResourceException
+   {
+      if (!statistics.isEnabled() && demandTracker == null)
+      {
+         ConnectionListener cl = mcp.tryGetConnectionListener(timeout);
+         if (cl != null)
+            statistics.deltaInUse(1);
+         return cl;
+      }
+
+      // Failed creations and an open circuit breaker aren't timeouts, so they aren't counted
+      long start = System.nanoTime();
+      ConnectionListener cl = mcp.tryGetConnectionListener(timeout);
+      long delta = System.nanoTime() - start;
+
+      if (cl == null)
+      {
+         if (statistics.isEnabled())
+            statistics.deltaTimedOut(delta);
+         return null;
+      }
+
+      statistics.deltaInUse(1);
+
+      if (statistics.isEnabled())
+         statistics.deltaObtained(delta);
+
+      if (demandTracker != null)
+         demandTracker.borrowed(delta);
 
       return cl;
    }
@@ -179,7 +457,8 @@ public abstract class AbstractPool implements Pool
 
       if (mcp == null)
       {
-         synchronized (this)
+         lock.lock();
+         try
          {
             mcp = pools.get(credential);
 
@@ -197,6 +476,10 @@ public abstract class AbstractPool implements Pool
                }
             }
          }
+         finally
+         {
+            lock.unlock();
+         }
       }
       return mcp;
    }
@@ -211,9 +494,119 @@ public abstract class AbstractPool implements Pool
       if (!kill)
          kill = cl.getState() == DESTROY;
 
+      statistics.deltaInUse(-1);
+
+      if (statistics.isEnabled())
+         statistics.deltaReturned(System.nanoTime() - cl.getFromPoolNanos());
+
+      if (demandTracker != null)
+         demandTracker.returned();
+
       mcp.returnConnectionListener(cl, kill);
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public PoolStatisticsImpl getStatistics()
+   {
+      return statistics;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public XAResourceStatisticsImpl getXAResourceStatistics()
+   {
+      return xaStatistics;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int getTargetSize()
+   {
+      if (demandTracker == null)
+         return poolConfiguration.getMinSize();
+
+      return demandTracker.getTarget(poolConfiguration.getMinSize(), poolConfiguration.getMaxSize());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public CircuitBreaker getCircuitBreaker()
+   {
+      return circuitBreaker;
+   }
+
+   /**
+    * Verify that the circuit breaker allows the creation of a managed connection
+    * @exception ResourceException Thrown if the circuit breaker is open
+    */
+   protected void checkCircuitBreaker() throws ResourceException
+   {
+      if (!circuitBreaker.allowRequest())
+         throw new ResourceException("Circuit breaker open: " + cm.getConnectionManagerConfiguration().getJndiName());
+   }
+
+   /**
+    * Probe the creation of a managed connection for the circuit breaker. The probe counts
+    * against the maximum size of the pool, so it is skipped when the pool is full
+    * @param credential The credential
+    * @exception ResourceException Thrown if the managed connection can't be created
+    */
+   private void probeManagedConnection(Credential credential) throws ResourceException
+   {
+      if (!semaphore.tryAcquire())
+         throw new ResourceException("Pool full: " + cm.getConnectionManagerConfiguration().getJndiName());
+
+      try
+      {
+         ManagedConnection mc =
+            cm.getManagedConnectionFactory().createManagedConnection(credential.getSubject(),
+                                                                     credential.getConnectionRequestInfo());
+         mc.destroy();
+      }
+      finally
+      {
+         semaphore.release();
+      }
+   }
+
+   /**
+    * Create a managed connection, and record the outcome in the circuit breaker and the statistics
+    * @param credential The credential
+    * @return The managed connection
+    * @exception ResourceException Thrown if the managed connection can't be created
+    */
+   protected ManagedConnection createManagedConnection(Credential credential) throws ResourceException
+   {
+      long start = statistics.isEnabled() ? System.nanoTime() : 0L;
+      ManagedConnection mc = null;
+      try
+      {
+         mc = cm.getManagedConnectionFactory().createManagedConnection(credential.getSubject(),
+                                                                       credential.getConnectionRequestInfo());
+      }
+      finally
+      {
+         if (mc != null)
+         {
+            circuitBreaker.recordSuccess();
+         }
+         else
+         {
+            circuitBreaker.recordFailure(credential);
+         }
+      }
+
+      if (statistics.isEnabled())
+         statistics.deltaCreated(System.nanoTime() - start);
+
+      return mc;
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -225,12 +618,25 @@ public abstract class AbstractPool implements Pool
    /**
     * {@inheritDoc}
     */
-   public synchronized void shutdown()
+   public void shutdown()
    {
-      for (ManagedConnectionPool mcp : pools.values())
-         mcp.shutdown();
+      lock.lock();
+      try
+      {
+         circuitBreaker.shutdown();
+
+         if (timer != null)
+            timer.shutdownNow();
 
-      pools.clear();
+         for (ManagedConnectionPool mcp : pools.values())
+            mcp.shutdown();
+
+         pools.clear();
+      }
+      finally
+      {
+         lock.unlock();
+      }
    }
 
    /**
@@ -287,7 +693,7 @@ public abstract class AbstractPool implements Pool
                                                                                            eisProductVersion,
                                                                                            jndiName,
                                                                                            cr,
-                                                                                           null);
+                                                                                           xaStatistics);
          }
          else if (txCM.getTransactionIntegration().isConnectableResource(mc))
          {
@@ -296,7 +702,7 @@ public abstract class AbstractPool implements Pool
                                                                                            eisProductVersion,
                                                                                            jndiName,
                                                                                            mc,
-                                                                                           null);
+                                                                                           xaStatistics);
          }
       }
 
@@ -305,7 +711,7 @@ public abstract class AbstractPool implements Pool
                                                                              eisProductName,
                                                                              eisProductVersion,
                                                                              jndiName,
-                                                                             null);
+                                                                             xaStatistics);
     
       return xaResource;
    }
@@ -362,7 +768,7 @@ public abstract class AbstractPool implements Pool
                                                                                                 eisProductVersion,
                                                                                                 jndiName,
                                                                                                 cr,
-                                                                                                null);
+                                                                                                xaStatistics);
             }
             else if (txCM.getTransactionIntegration().isConnectableResource(mc))
             {
@@ -373,7 +779,7 @@ public abstract class AbstractPool implements Pool
                                                                                                 eisProductVersion,
                                                                                                 jndiName,
                                                                                                 mc,
-                                                                                                null);
+                                                                                                xaStatistics);
             }
          }
 
@@ -392,7 +798,7 @@ public abstract class AbstractPool implements Pool
                                                                                      eisProductVersion,
                                                                                      jndiName,
                                                                                      firstResource,
-                                                                                     null);
+                                                                                     xaStatistics);
             }
             else
             {
@@ -458,9 +864,37 @@ public abstract class AbstractPool implements Pool
    /**
     * {@inheritDoc}
     */
-   public synchronized void emptyManagedConnectionPool(ManagedConnectionPool mcp)
+   public void emptyManagedConnectionPool(ManagedConnectionPool mcp)
    {
-      pools.values().remove(mcp);
-      mcp.shutdown();
+      lock.lock();
+      try
+      {
+         pools.values().remove(mcp);
+         mcp.shutdown();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Timer thread factory
+    */
+   private static class TimerThreadFactory implements ThreadFactory
+   {
+      /** The thread number */
+      private final AtomicInteger number = new AtomicInteger(0);
+
+      /**
+       * {@inheritDoc}
+       */
+      public Thread newThread(Runnable r)
+      {
+         Thread thread = new Thread(r, THREAD_TIMER_NAME + "-" + number.incrementAndGet());
+         thread.setDaemon(true);
+
+         return thread;
+      }
    }
 }
@@ -0,0 +1,127 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.pool;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The base class for the periodic maintenance of managed connection pools.
+ * Each registered pool gets a job in the {@link MaintenanceScheduler} with its own interval
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public abstract class AbstractPoolMaintenance
+{
+   /** The scheduler */
+   private final MaintenanceScheduler scheduler;
+
+   /** The jobs of the registered pools */
+   private final ConcurrentHashMap<ManagedConnectionPool, MaintenanceScheduler.Job> jobs;
+
+   /**
+    * Constructor
+    * @param scheduler The scheduler
+    */
+   protected AbstractPoolMaintenance(MaintenanceScheduler scheduler)
+   {
+      this.scheduler = scheduler;
+      this.jobs = new ConcurrentHashMap<ManagedConnectionPool, MaintenanceScheduler.Job>();
+   }
+
+   /**
+    * Set the executor service
+    * @param v The value
+    */
+   public void setExecutorService(ExecutorService v)
+   {
+      scheduler.setExecutorService(v);
+   }
+
+   /**
+    * Start
+    * @exception Throwable Thrown if an error occurs
+    */
+   public void start() throws Throwable
+   {
+      scheduler.start();
+   }
+
+   /**
+    * Stop
+    * @exception Throwable Thrown if an error occurs
+    */
+   public void stop() throws Throwable
+   {
+      for (MaintenanceScheduler.Job job : jobs.values())
+         job.cancel();
+
+      jobs.clear();
+      scheduler.stop();
+   }
+
+   /**
+    * Register a pool
+    * @param mcp The managed connection pool
+    * @param mcpInterval The interval in milliseconds
+    */
+   public void registerPool(final ManagedConnectionPool mcp, long mcpInterval)
+   {
+      MaintenanceScheduler.Job job = scheduler.schedule(new Runnable()
+      {
+         public void run()
+         {
+            execute(mcp);
+         }
+      }, mcpInterval);
+
+      MaintenanceScheduler.Job old = jobs.put(mcp, job);
+      if (old != null)
+         old.cancel();
+   }
+
+   /**
+    * Unregister a pool
+    * @param mcp The managed connection pool
+    */
+   public void unregisterPool(ManagedConnectionPool mcp)
+   {
+      MaintenanceScheduler.Job job = jobs.remove(mcp);
+      if (job != null)
+         job.cancel();
+   }
+
+   /**
+    * Is a pool registered
+    * @param mcp The managed connection pool
+    * @return True if registered, otherwise false
+    */
+   public boolean isRegistered(ManagedConnectionPool mcp)
+   {
+      return jobs.containsKey(mcp);
+   }
+
+   /**
+    * Perform the maintenance of a pool
+    * @param mcp The managed connection pool
+    */
+   protected abstract void execute(ManagedConnectionPool mcp);
+}
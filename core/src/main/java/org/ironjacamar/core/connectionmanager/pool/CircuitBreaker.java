@@ -0,0 +1,259 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.connectionmanager.Credential;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A circuit breaker for the creation of managed connections.
+ *
+ * The circuit breaker opens after a number of consecutive creation failures. While it is
+ * open creation requests fail fast, and a probe is run in the background through the
+ * {@link MaintenanceScheduler} with the credential of the creation that opened it. The first
+ * successful probe, or creation, closes it again.
+ * If no probe has run for two probe intervals, for example because the scheduler isn't
+ * started, a single request is let through as the probe
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class CircuitBreaker
+{
+   /** The threshold */
+   private final int threshold;
+
+   /** The probe interval in milliseconds */
+   private final long probeInterval;
+
+   /** The probe */
+   private final Probe probe;
+
+   /** The number of consecutive failures */
+   private final AtomicInteger failures;
+
+   /** The time of the last probe in nanoseconds */
+   private final AtomicLong lastProbe;
+
+   /** Open */
+   private volatile boolean open;
+
+   /** The credential the probe runs with */
+   private volatile Credential probeCredential;
+
+   /** The probe job */
+   private MaintenanceScheduler.Job probeJob;
+
+   /** Lock */
+   private final ReentrantLock lock;
+
+   /**
+    * Constructor
+    * @param threshold The number of consecutive failures that opens the circuit breaker; <code>0</code> disables it
+    * @param probeInterval The probe interval in milliseconds
+    * @param probe The probe; a normal completion closes the circuit breaker
+    */
+   public CircuitBreaker(int threshold, long probeInterval, Probe probe)
+   {
+      this.threshold = threshold;
+      this.probeInterval = probeInterval > 0 ? probeInterval : 1000L;
+      this.probe = probe;
+      this.failures = new AtomicInteger(0);
+      this.lastProbe = new AtomicLong(0L);
+      this.open = false;
+      this.probeCredential = null;
+      this.probeJob = null;
+      this.lock = new ReentrantLock();
+   }
+
+   /**
+    * Is the circuit breaker enabled
+    * @return The value
+    */
+   public boolean isEnabled()
+   {
+      return threshold > 0;
+   }
+
+   /**
+    * Is the circuit breaker open
+    * @return The value
+    */
+   public boolean isOpen()
+   {
+      return open;
+   }
+
+   /**
+    * Get the number of consecutive failures
+    * @return The value
+    */
+   public int getFailures()
+   {
+      return failures.get();
+   }
+
+   /**
+    * Is a creation request allowed
+    * @return True if allowed, otherwise false
+    */
+   public boolean allowRequest()
+   {
+      if (!open)
+         return true;
+
+      long last = lastProbe.get();
+      long now = System.nanoTime();
+
+      return now - last >= TimeUnit.MILLISECONDS.toNanos(2 * probeInterval) && lastProbe.compareAndSet(last, now);
+   }
+
+   /**
+    * Record a successful creation
+    */
+   public void recordSuccess()
+   {
+      if (failures.get() != 0)
+         failures.set(0);
+
+      if (open)
+         close();
+   }
+
+   /**
+    * Record a failed creation
+    * @param credential The credential of the creation
+    */
+   public void recordFailure(Credential credential)
+   {
+      if (threshold > 0 && failures.incrementAndGet() >= threshold && !open)
+         trip(credential);
+   }
+
+   /**
+    * Shutdown the circuit breaker
+    */
+   public void shutdown()
+   {
+      lock.lock();
+      try
+      {
+         if (probeJob != null)
+         {
+            probeJob.cancel();
+            probeJob = null;
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Open the circuit breaker
+    * @param credential The credential the probe runs with
+    */
+   private void trip(Credential credential)
+   {
+      lock.lock();
+      try
+      {
+         if (open)
+            return;
+
+         lastProbe.set(System.nanoTime());
+         probeCredential = credential;
+         open = true;
+
+         probeJob = MaintenanceScheduler.getInstance().schedule(new Runnable()
+         {
+            public void run()
+            {
+               probe();
+            }
+         }, probeInterval);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Close the circuit breaker
+    */
+   private void close()
+   {
+      lock.lock();
+      try
+      {
+         if (!open)
+            return;
+
+         open = false;
+         failures.set(0);
+         shutdown();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Run the probe
+    */
+   void probe()
+   {
+      if (!open)
+         return;
+
+      lastProbe.set(System.nanoTime());
+
+      try
+      {
+         probe.probe(probeCredential);
+         recordSuccess();
+      }
+      catch (Throwable t)
+      {
+         // Still unavailable
+      }
+   }
+
+   /**
+    * The probe of an open circuit breaker
+    */
+   public interface Probe
+   {
+      /**
+       * Verify that a managed connection can be created
+       * @param credential The credential of the creation that opened the circuit breaker
+       * @exception Exception Thrown if a managed connection still can't be created
+       */
+      public void probe(Credential credential) throws Exception;
+   }
+}
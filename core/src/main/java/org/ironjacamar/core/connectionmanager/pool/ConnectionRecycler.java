@@ -0,0 +1,69 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+/**
+ * Connection recycler; retires the free connections which have exceeded their max lifetime
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class ConnectionRecycler extends AbstractPoolMaintenance
+{
+   /** Singleton instance */
+   private static ConnectionRecycler instance = new ConnectionRecycler();
+
+   /**
+    * Private constructor.
+    */
+   private ConnectionRecycler()
+   {
+      super(MaintenanceScheduler.getInstance());
+   }
+
+   /**
+    * Get the instance
+    * @return The value
+    */
+   public static ConnectionRecycler getInstance()
+   {
+      return instance;
+   }
+
+   /**
+    * Get the recycle interval for a max lifetime; a tenth of the max lifetime,
+    * between 1 second and 1 minute
+    * @param maxLifetime The max lifetime in milliseconds
+    * @return The interval in milliseconds
+    */
+   public static long getInterval(long maxLifetime)
+   {
+      return Math.max(1000L, Math.min(60000L, maxLifetime / 10));
+   }
+
+   /**
+    * Perform recycling of a pool
+    * @param mcp The managed connection pool
+    */
+   @Override
+   protected void execute(ManagedConnectionPool mcp)
+   {
+      mcp.recycleConnections();
+   }
+}
@@ -20,68 +20,52 @@
  */
 package org.ironjacamar.core.connectionmanager.pool;
 
-import java.util.Comparator;
-import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TreeMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Connection validator
+ *
+ * The validation of the managed connection pools runs on a bounded set of validator threads,
+ * so pools are validated in parallel without a slow EIS occupying the maintenance scheduler.
+ * A validation cycle of a pool is skipped while its previous cycle is still running
  * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
  */
-public class ConnectionValidator
+public class ConnectionValidator extends AbstractPoolMaintenance
 {
    /** Thread name */
-   private static final String THREAD_NAME = "IronJacamar ConnectionValidator";
-   
+   private static final String THREAD_VALIDATOR_NAME = "IronJacamar ConnectionValidator";
+
+   /** Default number of validator threads */
+   private static final int DEFAULT_PARALLELISM =
+      Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
    /** Singleton instance */
    private static ConnectionValidator instance = new ConnectionValidator();
-   
-   /** Registered pool instances */
-   private TreeMap<Key, ManagedConnectionPool> registeredPools;
-   
-   /** Executor service */
-   private ExecutorService executorService;
 
-   /** Is the executor external */
-   private boolean isExternal;
-   
-   /** The interval */
-   private long interval;
+   /** The validator threads */
+   private final ThreadPoolExecutor executor;
 
-   /** The next scan */
-   private long next;
-   
-   /** Shutdown */
-   private AtomicBoolean shutdown;
+   /** The pools being validated */
+   private final Set<ManagedConnectionPool> running;
 
-   /** Lock */
-   private Lock lock;
-   
-   /** Condition */
-   private Condition condition;
-   
    /**
     * Private constructor.
     */
    private ConnectionValidator()
    {
-      this.registeredPools = new TreeMap<Key, ManagedConnectionPool>(new KeyComparator());
-      this.executorService = null;
-      this.isExternal = false;
-      this.interval = Long.MAX_VALUE;
-      this.next = Long.MAX_VALUE;
-      this.shutdown = new AtomicBoolean(false);
-      this.lock = new ReentrantLock(true);
-      this.condition = lock.newCondition();
+      super(MaintenanceScheduler.getInstance());
+      this.executor = new ThreadPoolExecutor(DEFAULT_PARALLELISM, DEFAULT_PARALLELISM,
+                                             60L, TimeUnit.SECONDS,
+                                             new LinkedBlockingQueue<Runnable>(),
+                                             new ValidatorThreadFactory());
+      this.executor.allowCoreThreadTimeOut(true);
+      this.running = ConcurrentHashMap.newKeySet();
    }
 
    /**
@@ -92,333 +76,91 @@ public class ConnectionValidator
    {
       return instance;
    }
-   
-   /**
-    * Set the executor service
-    * @param v The value
-    */
-   public void setExecutorService(ExecutorService v)
-   {
-      if (v != null)
-      {
-         executorService = v;
-         isExternal = true;
-      }
-      else
-      {
-         executorService = null;
-         isExternal = false;
-      }
-   }
 
    /**
-    * Start
-    * @exception Throwable Thrown if an error occurs
+    * Get the number of validator threads
+    * @return The value
     */
-   public void start() throws Throwable
+   public int getParallelism()
    {
-      if (!isExternal)
-      {
-         executorService = Executors.newSingleThreadExecutor(new ValidatorThreadFactory());
-      }
-
-      shutdown.set(false);
-      interval = Long.MAX_VALUE;
-      next = Long.MAX_VALUE;
-
-      executorService.execute(new ConnectionValidatorRunner());
+      return executor.getMaximumPoolSize();
    }
 
    /**
-    * Stop
-    * @exception Throwable Thrown if an error occurs
+    * Set the number of validator threads
+    * @param v The value
     */
-   public void stop() throws Throwable
+   public synchronized void setParallelism(int v)
    {
-      shutdown.set(true);
-
-      if (!isExternal)
-      {
-         executorService.shutdownNow();
-         executorService = null;
-      }
+      if (v < 1)
+         throw new IllegalArgumentException("Parallelism must be positive: " + v);
 
-      registeredPools.clear();
-   }
-   
-   /**
-    * Register pool for connection validation
-    * @param mcp managed connection pool
-    * @param mcpInterval validation interval
-    */
-   public void registerPool(ManagedConnectionPool mcp, long mcpInterval)
-   {
-      try
-      {
-         lock.lock();
-         
-         synchronized (registeredPools)
-         {
-            registeredPools.put(new Key(System.identityHashCode(mcp), System.currentTimeMillis(), mcpInterval), mcp);
-         }
-         
-         if (mcpInterval > 1 && mcpInterval / 2 < interval) 
-         {
-            interval = interval / 2;
-            long maybeNext = System.currentTimeMillis() + interval;
-            if (next > maybeNext && maybeNext > 0) 
-            {
-               next = maybeNext;
-               condition.signal();
-            }
-         }
-      } 
-      finally
+      if (v > executor.getMaximumPoolSize())
       {
-         lock.unlock();
+         executor.setMaximumPoolSize(v);
+         executor.setCorePoolSize(v);
       }
-   }
-   
-   /**
-    * Unregister pool instance for connection validation
-    * @param mcp pool instance
-    */
-   public void unregisterPool(ManagedConnectionPool mcp)
-   {
-      synchronized (registeredPools)
+      else
       {
-         registeredPools.values().remove(mcp);
-      
-         if (registeredPools.size() == 0) 
-            interval = Long.MAX_VALUE;
+         executor.setCorePoolSize(v);
+         executor.setMaximumPoolSize(v);
       }
    }
 
    /**
-    * Thread factory
-    */
-   private static class ValidatorThreadFactory implements ThreadFactory
-   {
-      /**
-       * {@inheritDoc}
-       */
-      public Thread newThread(Runnable r)
-      {
-         Thread thread = new Thread(r, ConnectionValidator.THREAD_NAME);
-         thread.setDaemon(true);
-         
-         return thread;
-      }      
-   }
-   
-   /**
-    * ConnectionValidatorRunner
+    * Perform connection validation of a pool
+    * @param mcp The managed connection pool
     */
-   private class ConnectionValidatorRunner implements Runnable
+   @Override
+   protected void execute(final ManagedConnectionPool mcp)
    {
-      /**
-       * {@inheritDoc}
-       */
-      public void run()
+      if (!running.add(mcp))
+         return;
+
+      try
       {
-         final ClassLoader oldTccl = SecurityActions.getThreadContextClassLoader();
-         SecurityActions.setThreadContextClassLoader(ConnectionValidator.class.getClassLoader());
-         
-         try
+         executor.execute(new Runnable()
          {
-            lock.lock();
-            
-            while (!shutdown.get())
+            public void run()
             {
-               boolean result = instance.condition.await(instance.interval, TimeUnit.MILLISECONDS);
+               SecurityActions.setThreadContextClassLoader(
+                  SecurityActions.getClassLoader(ConnectionValidator.class));
 
-               // We only scan the ManagedConnectionPools that needs to be
-               NavigableMap<Key, ManagedConnectionPool> entries =
-                  registeredPools.headMap(new Key(System.currentTimeMillis()), true);
-
-               for (Map.Entry<Key, ManagedConnectionPool> entry : entries.entrySet())
+               try
                {
-                  entry.getValue().validateConnections();
-                  entry.getKey().update();
+                  mcp.validateConnections();
                }
-
-               next = System.currentTimeMillis() + interval;
-               
-               if (next < 0)
+               finally
                {
-                  next = Long.MAX_VALUE;  
-               }              
-            }            
-         }
-         catch (InterruptedException e)
-         {
-            /*
-              TODO
-              if (!shutdown.get())
-                 logger.returningConnectionValidatorInterrupted();
-            */
-         }
-         catch (RuntimeException e)
-         {
-            //TODO: logger.connectionValidatorIgnoredUnexpectedRuntimeException(e);
-         }
-         catch (Exception e)
-         {
-            //TODO: logger.connectionValidatorIgnoredUnexpectedError(e);
-         }         
-         finally
-         {
-            lock.unlock();  
-            SecurityActions.setThreadContextClassLoader(oldTccl);
-         }
-      }
-   }
-
-   /**
-    * Key for ManagedConnectionPool instance
-    */
-   private static class Key
-   {
-      private int id;
-      private long timestamp;
-      private long interval;
-
-      /**
-       * Constructor used for scanning
-       * @param timestamp The timestamp
-       */
-      public Key(long timestamp)
-      {
-         this(-1, timestamp, 0);
-      }
-
-      /**
-       * Constructor
-       * @param id The system identity of the ManagedConnectionPool
-       * @param timestamp The timestamp
-       * @param interval The interval
-       */
-      public Key(int id, long timestamp, long interval)
-      {
-         this.id = id;
-         this.timestamp = timestamp;
-         this.interval = interval;
-      }
-
-      /**
-       * Update the timestamp
-       */
-      public void update()
-      {
-         timestamp = System.currentTimeMillis();
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public int hashCode()
-      {
-         int hash = 7;
-         hash += 7 * id;
-         hash += (int)(7L * timestamp);
-         hash += (int)(7L * interval);
-         return hash;
+                  running.remove(mcp);
+               }
+            }
+         });
       }
-
-      /**
-       * {@inheritDoc}
-       */
-      public boolean equals(Object o)
+      catch (RuntimeException re)
       {
-         if (o == this)
-            return true;
-
-         if (o == null || !(o instanceof Key))
-            return false;
-
-         Key k = (Key)o;
-
-         return id == k.id;
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public String toString()
-      {
-         return "[" + Integer.toHexString(id) + "," + timestamp  + "," + interval + "]"; 
+         running.remove(mcp);
+         throw re;
       }
    }
 
    /**
-    * Comparator for Key
+    * Thread factory
     */
-   private static class KeyComparator implements Comparator<Key>
+   private static class ValidatorThreadFactory implements ThreadFactory
    {
-      /**
-       * Constructor
-       */
-      public KeyComparator()
-      {
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public int compare(Key k1, Key k2)
-      {
-         long t1 = k1.timestamp + (k1.interval / 2);
-         long t2 = k2.timestamp + (k2.interval / 2);
-         
-         if (t1 < t2)
-            return -1;
-         
-         if (t1 > t2)
-            return 1;
-
-         if (k1.id != -1 && k2.id != -1)
-         {
-            if (k1.id < k2.id)
-               return -1;
-         
-            if (k1.id > k2.id)
-               return 1;
-         }
-         else
-         {
-            if (k1.id == -1)
-            {
-               return 1;
-            }
-            else
-            {               
-               return -1;
-            }
-         }
-         
-         return 0;
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public int hashCode()
-      {
-         return 42;
-      }
+      /** The thread number */
+      private final AtomicInteger number = new AtomicInteger(0);
 
       /**
        * {@inheritDoc}
        */
-      public boolean equals(Object o)
+      public Thread newThread(Runnable r)
       {
-         if (o == this)
-            return true;
-
-         if (o == null || !(o instanceof KeyComparator))
-            return false;
+         Thread thread = new Thread(r, THREAD_VALIDATOR_NAME + "-" + number.incrementAndGet());
+         thread.setDaemon(true);
 
-         return true;
+         return thread;
       }
    }
 }
@@ -0,0 +1,221 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the demand on a pool over a sliding window, and derives the number of
+ * connections the pool should hold from it.
+ *
+ * The window is divided into buckets, each recording the number of borrows, the time
+ * spent waiting for a connection, and the peak number of connections in use. The target
+ * size is the peak within the window plus 25% headroom. It is scaled up when the recent
+ * borrow rate is above the window average, and grows further when borrowers had to wait,
+ * such that connections are created ahead of the load
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class DemandTracker
+{
+   /** The number of buckets in the window */
+   static final int BUCKETS = 10;
+
+   /** The average wait time above which borrowers are considered to be waiting */
+   private static final long WAIT_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(1L);
+
+   /** The maximum scale applied for a rising borrow rate */
+   private static final double MAX_SCALE = 2.0;
+
+   /** The bucket duration in nanoseconds */
+   private final long bucketNanos;
+
+   /** The buckets */
+   private final Bucket[] buckets;
+
+   /** The number of connections in use */
+   private final AtomicInteger inUse;
+
+   /**
+    * A bucket of the window
+    */
+   private static final class Bucket
+   {
+      /** The epoch */
+      private volatile long epoch;
+
+      /** The number of borrows */
+      private final AtomicLong borrows;
+
+      /** The wait time in nanoseconds */
+      private final AtomicLong waitNanos;
+
+      /** The peak number of connections in use */
+      private final AtomicInteger peak;
+
+      /**
+       * Constructor
+       */
+      Bucket()
+      {
+         this.epoch = Long.MIN_VALUE;
+         this.borrows = new AtomicLong(0L);
+         this.waitNanos = new AtomicLong(0L);
+         this.peak = new AtomicInteger(0);
+      }
+   }
+
+   /**
+    * Constructor
+    * @param window The window in milliseconds
+    */
+   public DemandTracker(long window)
+   {
+      this.bucketNanos = Math.max(1L, TimeUnit.MILLISECONDS.toNanos(window) / BUCKETS);
+      this.buckets = new Bucket[BUCKETS];
+      this.inUse = new AtomicInteger(0);
+
+      for (int i = 0; i < BUCKETS; i++)
+         buckets[i] = new Bucket();
+   }
+
+   /**
+    * A connection was borrowed
+    * @param waitNanos The time spent obtaining it in nanoseconds
+    */
+   public void borrowed(long waitNanos)
+   {
+      int current = inUse.incrementAndGet();
+      Bucket b = getBucket(getEpoch());
+
+      b.borrows.incrementAndGet();
+      b.waitNanos.addAndGet(waitNanos);
+
+      int peak = b.peak.get();
+      while (current > peak && !b.peak.compareAndSet(peak, current))
+         peak = b.peak.get();
+   }
+
+   /**
+    * A connection was returned
+    */
+   public void returned()
+   {
+      inUse.decrementAndGet();
+   }
+
+   /**
+    * Get the number of connections in use
+    * @return The value
+    */
+   public int getInUse()
+   {
+      return Math.max(0, inUse.get());
+   }
+
+   /**
+    * Get the target size of the pool
+    * @param min The minimum size
+    * @param max The maximum size
+    * @return The value, between min and max
+    */
+   public int getTarget(int min, int max)
+   {
+      long now = getEpoch();
+      int peak = getInUse();
+      long total = 0L;
+      long recent = 0L;
+      long recentWait = 0L;
+
+      for (Bucket b : buckets)
+      {
+         long age = now - b.epoch;
+         if (age >= 0 && age < BUCKETS)
+         {
+            long borrows = b.borrows.get();
+
+            peak = Math.max(peak, b.peak.get());
+            total += borrows;
+
+            if (age <= 1)
+            {
+               recent += borrows;
+               recentWait += b.waitNanos.get();
+            }
+         }
+      }
+
+      double scale = 1.0;
+      if (total > 0L)
+      {
+         // Borrows per bucket in the current and previous bucket, against the window average
+         double rate = recent / 2.0;
+         double average = (double)total / BUCKETS;
+
+         if (rate > average)
+            scale = Math.min(MAX_SCALE, rate / average);
+      }
+
+      long target = (long)Math.ceil(peak * scale) + peak / 4;
+
+      if (recent > 0L && recentWait / recent > WAIT_THRESHOLD)
+         target += Math.max(1, peak / 4);
+
+      return (int)Math.max(min, Math.min(max, target));
+   }
+
+   /**
+    * Get the current epoch
+    * @return The value
+    */
+   private long getEpoch()
+   {
+      return Math.floorDiv(System.nanoTime(), bucketNanos);
+   }
+
+   /**
+    * Get the bucket for an epoch, resetting it if it belongs to an older epoch
+    * @param epoch The epoch
+    * @return The bucket
+    */
+   private Bucket getBucket(long epoch)
+   {
+      Bucket b = buckets[(int)Math.floorMod(epoch, (long)BUCKETS)];
+
+      if (b.epoch != epoch)
+      {
+         synchronized (b)
+         {
+            if (b.epoch != epoch)
+            {
+               b.borrows.set(0L);
+               b.waitNanos.set(0L);
+               b.peak.set(getInUse());
+               b.epoch = epoch;
+            }
+         }
+      }
+
+      return b;
+   }
+}
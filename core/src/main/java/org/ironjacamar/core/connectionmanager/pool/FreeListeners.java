@@ -0,0 +1,144 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * The free connection listeners of a managed connection pool, split into stripes.
+ *
+ * Each stripe holds the most recently returned connection listener first. A thread returns to,
+ * and borrows from, the stripe selected by its thread hash, and steals from the neighbouring
+ * stripes when its own stripe is empty. A single stripe keeps one most recently used order
+ * across all threads
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+final class FreeListeners
+{
+   /** The stripes */
+   private final ConcurrentLinkedDeque<ConnectionListener>[] stripes;
+
+   /** The stripe mask */
+   private final int mask;
+
+   /**
+    * Constructor
+    * @param count The number of stripes; rounded down to a power of two
+    */
+   @SuppressWarnings("unchecked")
+   FreeListeners(int count)
+   {
+      int n = count <= 1 ? 1 : Integer.highestOneBit(count);
+
+      this.stripes = new ConcurrentLinkedDeque[n];
+      this.mask = n - 1;
+
+      for (int i = 0; i < n; i++)
+         stripes[i] = new ConcurrentLinkedDeque<ConnectionListener>();
+   }
+
+   /**
+    * Get the number of stripes
+    * @return The value
+    */
+   int getStripes()
+   {
+      return stripes.length;
+   }
+
+   /**
+    * Get a stripe
+    * @param index The index
+    * @return The stripe
+    */
+   ConcurrentLinkedDeque<ConnectionListener> getStripe(int index)
+   {
+      return stripes[index];
+   }
+
+   /**
+    * Add a connection listener to the head of the stripe of the current thread
+    * @param cl The connection listener
+    */
+   void addFirst(ConnectionListener cl)
+   {
+      stripes[home()].addFirst(cl);
+   }
+
+   /**
+    * Poll the head of the stripe of the current thread, or of the first non-empty neighbouring stripe
+    * @return The connection listener, or <code>null</code> if all stripes are empty
+    */
+   ConnectionListener pollFirst()
+   {
+      int home = home();
+
+      for (int i = 0; i < stripes.length; i++)
+      {
+         ConnectionListener cl = stripes[(home + i) & mask].pollFirst();
+         if (cl != null)
+            return cl;
+      }
+
+      return null;
+   }
+
+   /**
+    * Remove a connection listener
+    * @param cl The connection listener
+    * @return True if removed, otherwise false
+    */
+   boolean remove(ConnectionListener cl)
+   {
+      for (ConcurrentLinkedDeque<ConnectionListener> stripe : stripes)
+      {
+         if (stripe.remove(cl))
+            return true;
+      }
+
+      return false;
+   }
+
+   /**
+    * Remove all connection listeners
+    */
+   void clear()
+   {
+      for (ConcurrentLinkedDeque<ConnectionListener> stripe : stripes)
+         stripe.clear();
+   }
+
+   /**
+    * Get the stripe of the current thread
+    * @return The index
+    */
+   private int home()
+   {
+      if (mask == 0)
+         return 0;
+
+      long id = Thread.currentThread().getId();
+      return (int)((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+   }
+}
@@ -0,0 +1,299 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with a fixed memory footprint.
+ *
+ * Values are recorded in nanoseconds into log-linear buckets; each power of two
+ * is split into 32 linear sub-buckets, which bounds the relative error to about 3%.
+ * Values above ~18 minutes are recorded in the last bucket
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class LatencyHistogram implements Serializable
+{
+   /** Serial version uid */
+   private static final long serialVersionUID = 1L;
+
+   /** Sub-bucket bits */
+   private static final int SUB_BUCKET_BITS = 5;
+
+   /** Sub-bucket count */
+   private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+   /** Largest exponent tracked */
+   private static final int MAX_EXPONENT = 40;
+
+   /** Largest value tracked */
+   private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+   /** Bucket count */
+   private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+   /** Counts */
+   private AtomicLongArray counts;
+
+   /** Count */
+   private LongAdder count;
+
+   /** Total */
+   private LongAdder total;
+
+   /** Max */
+   private AtomicLong max;
+
+   /**
+    * Constructor
+    */
+   public LatencyHistogram()
+   {
+      this.counts = new AtomicLongArray(BUCKET_COUNT);
+      this.count = new LongAdder();
+      this.total = new LongAdder();
+      this.max = new AtomicLong(0L);
+   }
+
+   /**
+    * Record a value
+    * @param nanos The value in nanoseconds
+    */
+   public void record(long nanos)
+   {
+      if (nanos < 0L)
+         nanos = 0L;
+
+      counts.incrementAndGet(index(nanos));
+      count.increment();
+      total.add(nanos);
+
+      long current = max.get();
+      while (nanos > current && !max.compareAndSet(current, nanos))
+         current = max.get();
+   }
+
+   /**
+    * Get the number of recorded values
+    * @return The value
+    */
+   public long getCount()
+   {
+      return count.sum();
+   }
+
+   /**
+    * Get the sum of the recorded values
+    * @return The value in nanoseconds
+    */
+   public long getTotal()
+   {
+      return total.sum();
+   }
+
+   /**
+    * Get the largest recorded value
+    * @return The value in nanoseconds
+    */
+   public long getMax()
+   {
+      return max.get();
+   }
+
+   /**
+    * Take a snapshot
+    * @param reset Reset the histogram while taking the snapshot
+    * @return The snapshot
+    */
+   public HistogramSnapshot snapshot(boolean reset)
+   {
+      long[] values = new long[BUCKET_COUNT];
+      long c = 0L;
+
+      for (int i = 0; i < BUCKET_COUNT; i++)
+      {
+         values[i] = reset ? counts.getAndSet(i, 0L) : counts.get(i);
+         c += values[i];
+      }
+
+      long t = reset ? total.sumThenReset() : total.sum();
+      long m = reset ? max.getAndSet(0L) : max.get();
+
+      if (reset)
+         count.reset();
+
+      return new Snapshot(values, c, t, m);
+   }
+
+   /**
+    * Reset the histogram
+    */
+   public void reset()
+   {
+      snapshot(true);
+   }
+
+   /**
+    * Get the bucket index of a value
+    * @param value The value
+    * @return The index
+    */
+   static int index(long value)
+   {
+      if (value < SUB_BUCKET_COUNT)
+         return (int)value;
+
+      if (value > MAX_VALUE)
+         value = MAX_VALUE;
+
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int shift = exponent - SUB_BUCKET_BITS;
+      int sub = (int)(value >>> shift) - SUB_BUCKET_COUNT;
+
+      return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + sub;
+   }
+
+   /**
+    * Get the highest value that is recorded in a bucket
+    * @param index The index
+    * @return The value
+    */
+   static long highestValue(int index)
+   {
+      if (index < SUB_BUCKET_COUNT)
+         return index;
+
+      int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+      int sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+      long lowest = ((long)(SUB_BUCKET_COUNT + sub)) << shift;
+
+      return lowest + (1L << shift) - 1;
+   }
+
+   /**
+    * An immutable snapshot
+    */
+   static class Snapshot implements HistogramSnapshot
+   {
+      /** Counts */
+      private final long[] counts;
+
+      /** Count */
+      private final long count;
+
+      /** Total */
+      private final long total;
+
+      /** Max */
+      private final long max;
+
+      /**
+       * Constructor
+       * @param counts The counts
+       * @param count The count
+       * @param total The total
+       * @param max The max
+       */
+      Snapshot(long[] counts, long count, long total, long max)
+      {
+         this.counts = counts;
+         this.count = count;
+         this.total = total;
+         this.max = max;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public long getCount()
+      {
+         return count;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public long getMax()
+      {
+         return max;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public double getMean()
+      {
+         if (count == 0L)
+            return 0.0;
+
+         return (double)total / count;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public long getValueAtPercentile(double percentile)
+      {
+         if (count == 0L)
+            return 0L;
+
+         double p = Math.min(Math.max(percentile, 0.0), 100.0);
+         long target = Math.max(1L, (long)Math.ceil(p / 100.0 * count));
+         long seen = 0L;
+
+         for (int i = 0; i < counts.length; i++)
+         {
+            seen += counts[i];
+            if (seen >= target)
+               return Math.min(highestValue(i), max);
+         }
+
+         return max;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public String toString()
+      {
+         StringBuilder sb = new StringBuilder();
+
+         sb.append("HistogramSnapshot@").append(Integer.toHexString(System.identityHashCode(this)));
+         sb.append("[count=").append(count);
+         sb.append(" mean=").append(getMean());
+         sb.append(" p50=").append(getValueAtPercentile(50.0));
+         sb.append(" p99=").append(getValueAtPercentile(99.0));
+         sb.append(" p999=").append(getValueAtPercentile(99.9));
+         sb.append(" max=").append(max);
+         sb.append("]");
+
+         return sb.toString();
+      }
+   }
+}
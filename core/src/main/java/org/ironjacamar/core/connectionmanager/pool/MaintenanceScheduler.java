@@ -0,0 +1,709 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.CoreLogger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jboss.logging.Logger;
+
+/**
+ * The maintenance scheduler runs the periodic jobs of the managed connection pools,
+ * like background validation and idle connection removal, each on its own interval.
+ *
+ * The jobs are kept in a hierarchical timing wheel with {@link #LEVELS} levels of
+ * {@link #WHEEL_SIZE} slots. The scheduler thread only wakes up when a slot with jobs is
+ * reached, and hands the due jobs to the executor once it has released the lock. The first run of a job is placed at a
+ * random point within its interval, so pools with the same interval don't run in the same tick.
+ * A job is rescheduled once it has completed, so it never overlaps with itself.
+ * One-shot jobs, like acquisition deadlines, run once after their delay.
+ * Unless an executor is set, the jobs run on at most {@link #getMaxThreads()} threads,
+ * next to the scheduler thread; due jobs queue up when all of them are busy.
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class MaintenanceScheduler
+{
+   /** The logger */
+   private static CoreLogger log = Logger.getMessageLogger(CoreLogger.class, MaintenanceScheduler.class.getName());
+
+   /** Thread name */
+   private static final String THREAD_NAME = "IronJacamar Maintenance";
+
+   /** The default tick in milliseconds */
+   private static final long DEFAULT_TICK = 100L;
+
+   /** The default number of threads running the jobs */
+   private static final int DEFAULT_MAX_THREADS =
+      Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+   /** The number of bits of a wheel */
+   private static final int WHEEL_BITS = 6;
+
+   /** The number of slots in a wheel */
+   private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+   /** The slot mask */
+   private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+   /** The number of levels */
+   private static final int LEVELS = 4;
+
+   /** Singleton instance */
+   private static final MaintenanceScheduler INSTANCE = new MaintenanceScheduler(DEFAULT_TICK);
+
+   /** The tick in milliseconds */
+   private final long tick;
+
+   /** The start time in nanoseconds */
+   private final long startNanos;
+
+   /** The wheels */
+   private final ArrayDeque<Job>[][] wheels;
+
+   /** Jobs beyond the range of the wheels */
+   private final ArrayDeque<Job> overflow;
+
+   /** The current tick */
+   private long currentTick;
+
+   /** The number of start calls without a stop */
+   private int users;
+
+   /** Running */
+   private boolean running;
+
+   /** The generation of the scheduler thread */
+   private long generation;
+
+   /** Executor service */
+   private ExecutorService executorService;
+
+   /** Is the executor external */
+   private boolean isExternal;
+
+   /** The number of threads running the jobs */
+   private int maxThreads;
+
+   /** Lock */
+   private final ReentrantLock lock;
+
+   /** Condition */
+   private final Condition condition;
+
+   /**
+    * Constructor
+    * @param tick The tick in milliseconds
+    */
+   @SuppressWarnings("unchecked")
+   MaintenanceScheduler(long tick)
+   {
+      if (tick <= 0)
+         throw new IllegalArgumentException("Tick must be positive: " + tick);
+
+      this.tick = tick;
+      this.startNanos = System.nanoTime();
+      this.wheels = new ArrayDeque[LEVELS][WHEEL_SIZE];
+      for (int level = 0; level < LEVELS; level++)
+      {
+         for (int slot = 0; slot < WHEEL_SIZE; slot++)
+         {
+            wheels[level][slot] = new ArrayDeque<Job>();
+         }
+      }
+      this.overflow = new ArrayDeque<Job>();
+      this.currentTick = 0L;
+      this.users = 0;
+      this.running = false;
+      this.generation = 0L;
+      this.executorService = null;
+      this.isExternal = false;
+      this.maxThreads = DEFAULT_MAX_THREADS;
+      this.lock = new ReentrantLock();
+      this.condition = lock.newCondition();
+   }
+
+   /**
+    * Get the instance
+    * @return The value
+    */
+   public static MaintenanceScheduler getInstance()
+   {
+      return INSTANCE;
+   }
+
+   /**
+    * Set the executor service, which runs the scheduler and the jobs
+    * @param v The value
+    */
+   public void setExecutorService(ExecutorService v)
+   {
+      lock.lock();
+      try
+      {
+         if (!running)
+         {
+            executorService = v;
+            isExternal = v != null;
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Get the number of threads running the jobs
+    * @return The value
+    */
+   public int getMaxThreads()
+   {
+      lock.lock();
+      try
+      {
+         return maxThreads;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Set the number of threads running the jobs; not used with an executor service set
+    * @param v The value
+    */
+   public void setMaxThreads(int v)
+   {
+      if (v < 1)
+         throw new IllegalArgumentException("MaxThreads must be positive: " + v);
+
+      lock.lock();
+      try
+      {
+         maxThreads = v;
+
+         if (running && !isExternal)
+         {
+            // The scheduler thread itself takes one of the threads
+            ThreadPoolExecutor executor = (ThreadPoolExecutor)executorService;
+            if (v + 1 > executor.getMaximumPoolSize())
+            {
+               executor.setMaximumPoolSize(v + 1);
+               executor.setCorePoolSize(v + 1);
+            }
+            else
+            {
+               executor.setCorePoolSize(v + 1);
+               executor.setMaximumPoolSize(v + 1);
+            }
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Start the scheduler; the scheduler is shared, and only stopped once
+    * every start has been followed by a stop
+    */
+   public void start()
+   {
+      lock.lock();
+      try
+      {
+         users++;
+
+         if (!running)
+         {
+            if (!isExternal)
+            {
+               // The scheduler thread itself takes one of the threads
+               ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads + 1, maxThreads + 1,
+                                                                    60L, TimeUnit.SECONDS,
+                                                                    new LinkedBlockingQueue<Runnable>(),
+                                                                    new MaintenanceThreadFactory());
+               executor.allowCoreThreadTimeOut(true);
+               executorService = executor;
+            }
+
+            running = true;
+            generation++;
+            executorService.execute(new Runner(generation));
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Stop the scheduler
+    */
+   public void stop()
+   {
+      lock.lock();
+      try
+      {
+         if (users > 0)
+            users--;
+
+         if (users == 0 && running)
+         {
+            running = false;
+            condition.signal();
+
+            for (int level = 0; level < LEVELS; level++)
+            {
+               for (int slot = 0; slot < WHEEL_SIZE; slot++)
+               {
+                  wheels[level][slot].clear();
+               }
+            }
+            overflow.clear();
+
+            if (!isExternal)
+            {
+               executorService.shutdownNow();
+               executorService = null;
+            }
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Schedule a periodic job
+    * @param task The task
+    * @param interval The interval in milliseconds
+    * @return The job
+    */
+   public Job schedule(Runnable task, long interval)
+   {
+      if (interval <= 0)
+         throw new IllegalArgumentException("Interval must be positive: " + interval);
+
+      long ticks = Math.max(1L, (interval + tick - 1) / tick);
+      Job job = new Job(task, ticks);
+
+      lock.lock();
+      try
+      {
+         insert(job, elapsedTicks() + 1 + ThreadLocalRandom.current().nextLong(ticks));
+         condition.signal();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      return job;
+   }
+
+   /**
+    * Schedule a one-shot job
+    * @param task The task
+    * @param delay The delay in milliseconds; rounded up to the tick
+    * @return The job
+    */
+   public Job scheduleOnce(Runnable task, long delay)
+   {
+      long ticks = Math.max(1L, (delay + tick - 1) / tick);
+      Job job = new Job(task, 0L);
+
+      lock.lock();
+      try
+      {
+         // The current tick has partly passed, so the job is placed one tick later to never run early
+         insert(job, elapsedTicks() + ticks + 1);
+         condition.signal();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      return job;
+   }
+
+   /**
+    * Reschedule a job after it has run
+    * @param job The job
+    */
+   private void reschedule(Job job)
+   {
+      lock.lock();
+      try
+      {
+         if (!job.isCancelled() && job.interval > 0L)
+         {
+            insert(job, elapsedTicks() + job.interval);
+            condition.signal();
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Get the number of ticks since the start
+    * @return The value
+    */
+   private long elapsedTicks()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) / tick;
+   }
+
+   /**
+    * Insert a job; must be called with the lock held
+    * @param job The job
+    * @param deadline The deadline tick, which must be after the current tick
+    */
+   private void insert(Job job, long deadline)
+   {
+      job.deadline = deadline;
+
+      for (int level = 0; level < LEVELS; level++)
+      {
+         int shift = WHEEL_BITS * (level + 1);
+         if ((deadline >>> shift) == (currentTick >>> shift))
+         {
+            wheels[level][(int)((deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK)].add(job);
+            return;
+         }
+      }
+
+      overflow.add(job);
+   }
+
+   /**
+    * Get the next tick at which a slot has to be processed; must be called with the lock held
+    * @return The value, or <code>Long.MAX_VALUE</code> if there are no jobs
+    */
+   private long nextTick()
+   {
+      long result = Long.MAX_VALUE;
+
+      for (int level = 0; level < LEVELS; level++)
+      {
+         int shift = WHEEL_BITS * level;
+         int current = (int)((currentTick >>> shift) & WHEEL_MASK);
+         long base = (currentTick >>> (shift + WHEEL_BITS)) << (shift + WHEEL_BITS);
+
+         for (int slot = current + 1; slot < WHEEL_SIZE; slot++)
+         {
+            if (!wheels[level][slot].isEmpty())
+            {
+               result = Math.min(result, base + ((long)slot << shift));
+               break;
+            }
+         }
+      }
+
+      if (!overflow.isEmpty())
+      {
+         int shift = WHEEL_BITS * LEVELS;
+         result = Math.min(result, ((currentTick >>> shift) + 1) << shift);
+      }
+
+      return result;
+   }
+
+   /**
+    * Advance to a tick; must be called with the lock held
+    * @param t The tick
+    * @param due The jobs that are due
+    */
+   private void advance(long t, List<Job> due)
+   {
+      currentTick = t;
+
+      if ((t & ((1L << (WHEEL_BITS * LEVELS)) - 1)) == 0)
+         cascade(overflow, due);
+
+      for (int level = LEVELS - 1; level > 0; level--)
+      {
+         int shift = WHEEL_BITS * level;
+         if ((t & ((1L << shift) - 1)) == 0)
+            cascade(wheels[level][(int)((t >>> shift) & WHEEL_MASK)], due);
+      }
+
+      ArrayDeque<Job> slot = wheels[0][(int)(t & WHEEL_MASK)];
+      while (!slot.isEmpty())
+      {
+         Job job = slot.poll();
+         if (!job.isCancelled())
+            due.add(job);
+      }
+   }
+
+   /**
+    * Move the jobs of a slot to a lower level, or to the due jobs
+    * @param slot The slot
+    * @param due The jobs that are due
+    */
+   private void cascade(ArrayDeque<Job> slot, List<Job> due)
+   {
+      int size = slot.size();
+      for (int i = 0; i < size; i++)
+      {
+         Job job = slot.poll();
+         if (job.isCancelled())
+            continue;
+
+         if (job.deadline <= currentTick)
+         {
+            due.add(job);
+         }
+         else
+         {
+            insert(job, job.deadline);
+         }
+      }
+   }
+
+   /**
+    * A job; periodic, or one-shot when it has no interval
+    */
+   public final class Job implements Runnable
+   {
+      /** The task */
+      private final Runnable task;
+
+      /** The interval in ticks; 0 for a one-shot job */
+      private final long interval;
+
+      /** The deadline tick */
+      private long deadline;
+
+      /** Cancelled */
+      private volatile boolean cancelled;
+
+      /**
+       * Constructor
+       * @param task The task
+       * @param interval The interval in ticks
+       */
+      private Job(Runnable task, long interval)
+      {
+         this.task = task;
+         this.interval = interval;
+         this.cancelled = false;
+      }
+
+      /**
+       * Cancel the job
+       */
+      public void cancel()
+      {
+         cancelled = true;
+      }
+
+      /**
+       * Is the job cancelled
+       * @return The value
+       */
+      public boolean isCancelled()
+      {
+         return cancelled;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void run()
+      {
+         if (cancelled)
+            return;
+
+         final ClassLoader oldTccl = SecurityActions.getThreadContextClassLoader();
+         SecurityActions.setThreadContextClassLoader(MaintenanceScheduler.class.getClassLoader());
+
+         try
+         {
+            task.run();
+         }
+         catch (Throwable t)
+         {
+            log.maintenanceJobFailed(t);
+         }
+         finally
+         {
+            SecurityActions.setThreadContextClassLoader(oldTccl);
+            reschedule(this);
+         }
+      }
+   }
+
+   /**
+    * The scheduler thread
+    */
+   private class Runner implements Runnable
+   {
+      /** The generation */
+      private final long id;
+
+      /**
+       * Constructor
+       * @param id The generation
+       */
+      Runner(long id)
+      {
+         this.id = id;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void run()
+      {
+         List<Job> due = new ArrayList<Job>();
+
+         try
+         {
+            while (true)
+            {
+               ExecutorService executor = null;
+
+               lock.lock();
+               try
+               {
+                  if (!running || generation != id)
+                     return;
+
+                  long now = elapsedTicks();
+                  long next = nextTick();
+
+                  while (next <= now)
+                  {
+                     advance(next, due);
+                     next = nextTick();
+                  }
+
+                  if (currentTick < now)
+                     currentTick = now;
+
+                  if (due.isEmpty())
+                  {
+                     if (next == Long.MAX_VALUE)
+                     {
+                        condition.await();
+                     }
+                     else
+                     {
+                        long wait = startNanos + TimeUnit.MILLISECONDS.toNanos(next * tick) - System.nanoTime();
+                        if (wait > 0)
+                           condition.awaitNanos(wait);
+                     }
+                  }
+                  else
+                  {
+                     executor = executorService;
+                  }
+               }
+               finally
+               {
+                  lock.unlock();
+               }
+
+               if (executor != null)
+               {
+                  for (Job job : due)
+                  {
+                     executor.execute(job);
+                  }
+                  due.clear();
+               }
+            }
+         }
+         catch (InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+         }
+         catch (RuntimeException e)
+         {
+            // A rejection after a stop is expected
+            if (!(e instanceof RejectedExecutionException) || isCurrent())
+               log.maintenanceSchedulerFailed(e);
+         }
+      }
+
+      /**
+       * Is this the scheduler thread of the running scheduler
+       * @return The value
+       */
+      private boolean isCurrent()
+      {
+         lock.lock();
+         try
+         {
+            return running && generation == id;
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Thread factory
+    */
+   private static class MaintenanceThreadFactory implements ThreadFactory
+   {
+      /** The thread number */
+      private final AtomicInteger number = new AtomicInteger(0);
+
+      /**
+       * {@inheritDoc}
+       */
+      public Thread newThread(Runnable r)
+      {
+         Thread thread = new Thread(r, THREAD_NAME + "-" + number.incrementAndGet());
+         thread.setDaemon(true);
+
+         return thread;
+      }
+   }
+}
@@ -23,7 +23,10 @@ package org.ironjacamar.core.connectionmanager.pool;
 
 import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
 
+import java.util.concurrent.CompletionStage;
+
 import javax.resource.ResourceException;
+import javax.resource.spi.ManagedConnection;
 
 /**
  * ManagedConnectionPool
@@ -37,6 +40,21 @@ public interface ManagedConnectionPool
     */
    public ConnectionListener getConnectionListener() throws ResourceException;
 
+   /**
+    * Get a connection listener, waiting at most the timeout
+    * @param timeout The timeout in milliseconds
+    * @return The connection listener, or <code>null</code> if none became available within the timeout
+    * @exception ResourceException Thrown if the connection listener cannot be created
+    */
+   public ConnectionListener tryGetConnectionListener(long timeout) throws ResourceException;
+
+   /**
+    * Get a connection listener without blocking the calling thread
+    * @return The stage completed with the connection listener, or exceptionally if none
+    *         became available within the blocking timeout
+    */
+   public CompletionStage<ConnectionListener> getConnectionListenerAsync();
+
    /**
     * Return a connection listener
     * @param cl The connection listener
@@ -45,6 +63,13 @@ public interface ManagedConnectionPool
     */
    public void returnConnectionListener(ConnectionListener cl, boolean kill) throws ResourceException;
 
+   /**
+    * Find the connection listener of a managed connection
+    * @param mc The managed connection
+    * @return The connection listener, or <code>null</code> if the managed connection isn't part of this pool
+    */
+   public ConnectionListener findConnectionListener(ManagedConnection mc);
+
    /**
     * Shutdown the managed connection pool
     */
@@ -70,4 +95,14 @@ public interface ManagedConnectionPool
     * Remove idle connections
     */
    public void removeIdleConnections();
+
+   /**
+    * Retire the free connections which have exceeded their max lifetime
+    */
+   public void recycleConnections();
+
+   /**
+    * Resize towards the target size of the pool
+    */
+   public void resize();
 }
@@ -26,7 +26,10 @@ import org.ironjacamar.core.connectionmanager.ConnectionManager;
 import org.ironjacamar.core.connectionmanager.Credential;
 import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
 
+import java.util.concurrent.CompletionStage;
+
 import javax.resource.ResourceException;
+import javax.resource.spi.ManagedConnection;
 
 /**
  * A pool
@@ -54,6 +57,22 @@ public interface Pool extends org.ironjacamar.core.api.connectionmanager.pool.Po
     */
    public ConnectionListener getConnectionListener(Credential credential) throws ResourceException;
 
+   /**
+    * Get a connection listener, waiting at most the specified time
+    * @param credential The credential
+    * @param timeout The maximum time to wait in milliseconds
+    * @return The connection listener, or <code>null</code> if none became available in time
+    * @exception ResourceException Thrown if the connection listener cannot be created
+    */
+   public ConnectionListener tryGetConnectionListener(Credential credential, long timeout) throws ResourceException;
+
+   /**
+    * Get a connection listener without blocking the calling thread
+    * @param credential The credential
+    * @return The stage that completes with the connection listener
+    */
+   public CompletionStage<ConnectionListener> getConnectionListenerAsync(Credential credential);
+
    /**
     * Return a connection listener
     * @param cl The connection listener
@@ -62,6 +81,13 @@ public interface Pool extends org.ironjacamar.core.api.connectionmanager.pool.Po
     */
    public void returnConnectionListener(ConnectionListener cl, boolean kill) throws ResourceException;
 
+   /**
+    * Find the connection listener of a managed connection
+    * @param mc The managed connection
+    * @return The connection listener, or <code>null</code> if the managed connection isn't part of this pool
+    */
+   public ConnectionListener findConnectionListener(ManagedConnection mc);
+
    /**
     * Create a connection listener
     * @param credential The credential
@@ -84,6 +110,31 @@ public interface Pool extends org.ironjacamar.core.api.connectionmanager.pool.Po
     */
    public ManagedConnectionPool createManagedConnectionPool(Credential credential);
 
+   /**
+    * Get the statistics
+    * @return The value
+    */
+   public PoolStatisticsImpl getStatistics();
+
+   /**
+    * Get the XAResource statistics
+    * @return The value
+    */
+   public XAResourceStatisticsImpl getXAResourceStatistics();
+
+   /**
+    * Get the number of connections the prefilled managed connection pool should hold;
+    * min-pool-size, or the size derived from the observed demand when elastic sizing is enabled
+    * @return The value
+    */
+   public int getTargetSize();
+
+   /**
+    * Get the circuit breaker
+    * @return The value
+    */
+   public CircuitBreaker getCircuitBreaker();
+
    /**
     * Is the pool full
     * @return True if full, otherwise false
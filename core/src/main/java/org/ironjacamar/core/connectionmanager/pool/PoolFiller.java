@@ -20,11 +20,22 @@
  */
 package org.ironjacamar.core.connectionmanager.pool;
 
-import java.util.LinkedList;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * PoolFiller
+ *
+ * Fill requests are executed by a shared set of filler threads. A managed connection pool has
+ * at most one fill in flight; further requests raise its fill size to the largest one requested.
+ * Each fill runs up to {@link #getConcurrency()} tasks, which create the connections of the managed
+ * connection pool concurrently, but always leaves at least one filler thread to the other pools,
+ * so a slow EIS can't hold all of the filler threads.
  * 
  * @author <a href="mailto:d_jencks@users.sourceforge.net">David Jencks</a>
  * @author <a href="mailto:sstark@redhat.com">Scott Stark</a>
@@ -32,23 +43,29 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @author <a href="mailto:gurkanerdogdu@yahoo.com">Gurkan Erdogdu</a>
  * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
  */
-public class PoolFiller implements Runnable
+public class PoolFiller
 {
+   /** Thread name */
+   private static final String THREAD_FILLER_NAME = "IronJacamar PoolFiller";
+
+   /** Default number of filler threads */
+   private static final int DEFAULT_PARALLELISM =
+      Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+   /** Default number of concurrent creations per fill request */
+   private static final int DEFAULT_CONCURRENCY = 4;
 
    /** Singleton instance */
    private static final PoolFiller FILLER = new PoolFiller();
 
-   /** Pools list */
-   private final LinkedList<FillRequest> pools = new LinkedList<FillRequest>();
+   /** The fill in flight of each managed connection pool */
+   private final ConcurrentHashMap<ManagedConnectionPool, Fill> pending;
 
-   /** Filler thread */
-   private final Thread fillerThread;
+   /** The filler threads */
+   private final ThreadPoolExecutor executor;
 
-   /** Thread name */
-   private static final String THREAD_FILLER_NAME = "IronJacamar PoolFiller";
-
-   /**Thread is configured or not*/
-   private AtomicBoolean threadStarted = new AtomicBoolean(false);
+   /** The number of concurrent creations per fill request */
+   private volatile int concurrency;
 
    /**
     * Fill given pool
@@ -59,80 +76,336 @@ public class PoolFiller implements Runnable
       FILLER.internalFillPool(fr);
    }
 
+   /**
+    * Get the instance
+    * @return The value
+    */
+   public static PoolFiller getInstance()
+   {
+      return FILLER;
+   }
+
    /**
     * Creates a new pool filler instance.
     */
    public PoolFiller()
    {
-      fillerThread = new Thread(this, THREAD_FILLER_NAME);
-      fillerThread.setDaemon(true);
+      this.pending = new ConcurrentHashMap<ManagedConnectionPool, Fill>();
+      this.executor = new ThreadPoolExecutor(DEFAULT_PARALLELISM, DEFAULT_PARALLELISM,
+                                             60L, TimeUnit.SECONDS,
+                                             new LinkedBlockingQueue<Runnable>(),
+                                             new FillerThreadFactory());
+      this.executor.allowCoreThreadTimeOut(true);
+      this.concurrency = DEFAULT_CONCURRENCY;
+   }
+
+   /**
+    * Get the number of filler threads
+    * @return The value
+    */
+   public int getParallelism()
+   {
+      return executor.getMaximumPoolSize();
+   }
+
+   /**
+    * Set the number of filler threads
+    * @param v The value
+    */
+   public synchronized void setParallelism(int v)
+   {
+      if (v < 1)
+         throw new IllegalArgumentException("Parallelism must be positive: " + v);
+
+      if (v > executor.getMaximumPoolSize())
+      {
+         executor.setMaximumPoolSize(v);
+         executor.setCorePoolSize(v);
+      }
+      else
+      {
+         executor.setCorePoolSize(v);
+         executor.setMaximumPoolSize(v);
+      }
+   }
+
+   /**
+    * Get the number of connections created concurrently for a fill request
+    * @return The value
+    */
+   public int getConcurrency()
+   {
+      return concurrency;
    }
 
    /**
-    * {@inheritDoc}
+    * Set the number of connections created concurrently for a fill request
+    * @param v The value
     */
-   public void run()
+   public void setConcurrency(int v)
    {
-      final ClassLoader myClassLoader = SecurityActions.getClassLoader(getClass());
-      SecurityActions.setThreadContextClassLoader(myClassLoader);
+      if (v < 1)
+         throw new IllegalArgumentException("Concurrency must be positive: " + v);
+
+      concurrency = v;
+   }
+
+   /**
+    * Get the maximum number of tasks of a fill; one filler thread is always left for the other pools
+    * @return The value
+    */
+   int getMaxTasks()
+   {
+      return Math.max(1, Math.min(concurrency, getParallelism() - 1));
+   }
+
+   /**
+    * Fill pool
+    * @param fr The fill request
+    */
+   private void internalFillPool(FillRequest fr)
+   {
+      ManagedConnectionPool mcp = fr.getManagedConnectionPool();
 
       while (true)
       {
-         boolean empty = false;
+         Fill fill = pending.get(mcp);
 
-         while (!empty)
+         if (fill == null)
          {
-            FillRequest fr = null;
+            fill = new Fill(mcp);
 
-            synchronized (pools)
-            {
-               empty = pools.isEmpty();
-               if (!empty)
-                  fr = pools.removeFirst();
-            }
+            Fill current = pending.putIfAbsent(mcp, fill);
+            if (current != null)
+               fill = current;
+         }
+
+         if (fill.offer(fr.getFillSize()))
+            return;
+
+         // The fill finished concurrently
+         pending.remove(mcp, fill);
+      }
+   }
+
+   /**
+    * Get the number of fill tasks running, or queued, for a managed connection pool
+    * @param mcp The managed connection pool
+    * @return The value
+    */
+   int getTasks(ManagedConnectionPool mcp)
+   {
+      Fill fill = pending.get(mcp);
+      if (fill == null)
+         return 0;
+
+      return fill.getTasks();
+   }
+
+   /**
+    * The fill in flight of a managed connection pool
+    */
+   private class Fill
+   {
+      /** The managed connection pool */
+      private final ManagedConnectionPool mcp;
 
-            if (!empty)
+      /** The lock */
+      private final ReentrantLock lock;
+
+      /** The fill size */
+      private int size;
+
+      /** The number of tasks running, or queued */
+      private int tasks;
+
+      /** Finished */
+      private boolean finished;
+
+      /**
+       * Constructor
+       * @param mcp The managed connection pool
+       */
+      Fill(ManagedConnectionPool mcp)
+      {
+         this.mcp = mcp;
+         this.lock = new ReentrantLock();
+         this.size = 0;
+         this.tasks = 0;
+         this.finished = false;
+      }
+
+      /**
+       * Merge a fill request, and start the tasks needed for it
+       * @param fillSize The fill size
+       * @return True if merged; false if the fill has finished
+       */
+      boolean offer(int fillSize)
+      {
+         int start;
+
+         lock.lock();
+         try
+         {
+            if (finished)
+               return false;
+
+            size = Math.max(size, fillSize);
+            start = Math.max(0, Math.max(1, Math.min(getMaxTasks(), size)) - tasks);
+            tasks += start;
+         }
+         finally
+         {
+            lock.unlock();
+         }
+
+         for (int i = 0; i < start; i++)
+         {
+            executor.execute(new FillTask(this));
+         }
+
+         return true;
+      }
+
+      /**
+       * Get the number of tasks running, or queued
+       * @return The value
+       */
+      int getTasks()
+      {
+         lock.lock();
+         try
+         {
+            return tasks;
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Fill the managed connection pool until no larger fill size has been requested
+       */
+      void fill()
+      {
+         int target;
+         boolean exited = false;
+
+         lock.lock();
+         try
+         {
+            target = size;
+         }
+         finally
+         {
+            lock.unlock();
+         }
+
+         try
+         {
+            while (!exited)
             {
-               fr.getManagedConnectionPool().fillTo(fr.getFillSize());
+               mcp.fillTo(target);
+
+               lock.lock();
+               try
+               {
+                  // Checked under the lock, such that a larger fill size is either seen here,
+                  // or starts a new task
+                  if (size == target)
+                  {
+                     exit();
+                     exited = true;
+                  }
+                  else
+                  {
+                     target = size;
+                  }
+               }
+               finally
+               {
+                  lock.unlock();
+               }
             }
          }
-
-         try 
+         finally
          {
-            synchronized (pools)
+            if (!exited)
             {
-               while (pools.isEmpty())
+               lock.lock();
+               try
                {
-                  pools.wait();                        
+                  exit();
+               }
+               finally
+               {
+                  lock.unlock();
                }
             }
          }
-         catch (InterruptedException ie)
+      }
+
+      /**
+       * A task exits; must be called with the lock held
+       */
+      private void exit()
+      {
+         tasks--;
+
+         if (tasks == 0)
          {
-            Thread.currentThread().interrupt();
-            return;
+            finished = true;
+            pending.remove(mcp, this);
          }
       }
    }
 
    /**
-    * Fill pool
-    * @param fr The fill request
+    * A task of a fill
     */
-   private void internalFillPool(FillRequest fr)
+   private static class FillTask implements Runnable
    {
-      if (this.threadStarted.compareAndSet(false, true))         
+      /** The fill */
+      private final Fill fill;
+
+      /**
+       * Constructor
+       * @param fill The fill
+       */
+      FillTask(Fill fill)
       {
-         this.fillerThread.start();
+         this.fill = fill;
       }
-      
-      synchronized (pools)
+
+      /**
+       * {@inheritDoc}
+       */
+      public void run()
       {
-         if (!pools.contains(fr))
-         {
-            pools.addLast(fr);
-            pools.notifyAll();
-         }
+         SecurityActions.setThreadContextClassLoader(SecurityActions.getClassLoader(PoolFiller.class));
+
+         fill.fill();
+      }
+   }
+
+   /**
+    * Thread factory
+    */
+   private static class FillerThreadFactory implements ThreadFactory
+   {
+      /** The thread number */
+      private final AtomicInteger number = new AtomicInteger(0);
+
+      /**
+       * {@inheritDoc}
+       */
+      public Thread newThread(Runnable r)
+      {
+         Thread thread = new Thread(r, THREAD_FILLER_NAME + "-" + number.incrementAndGet());
+         thread.setDaemon(true);
+
+         return thread;
       }
    }
 }
@@ -0,0 +1,69 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+/**
+ * Pool resizer; sizes the pools with elastic sizing enabled towards their target size
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class PoolResizer extends AbstractPoolMaintenance
+{
+   /** Singleton instance */
+   private static PoolResizer instance = new PoolResizer();
+
+   /**
+    * Private constructor.
+    */
+   private PoolResizer()
+   {
+      super(MaintenanceScheduler.getInstance());
+   }
+
+   /**
+    * Get the instance
+    * @return The value
+    */
+   public static PoolResizer getInstance()
+   {
+      return instance;
+   }
+
+   /**
+    * Get the resize interval for an elastic window; the duration of a demand tracker bucket,
+    * and at least 1 second
+    * @param window The elastic window in milliseconds
+    * @return The interval in milliseconds
+    */
+   public static long getInterval(long window)
+   {
+      return Math.max(1000L, window / DemandTracker.BUCKETS);
+   }
+
+   /**
+    * Perform resizing of a pool
+    * @param mcp The managed connection pool
+    */
+   @Override
+   protected void execute(ManagedConnectionPool mcp)
+   {
+      mcp.resize();
+   }
+}
@@ -0,0 +1,609 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
+import org.ironjacamar.core.spi.statistics.StatisticsPlugin;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics for a pool, across all its managed connection pools.
+ *
+ * The counters are striped, so recording doesn't contend between threads, and
+ * the pool only records when the statistics are enabled. The in use gauge is the exception;
+ * it is always updated and never cleared, as it can't be recomputed from the counters
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class PoolStatisticsImpl implements StatisticsPlugin
+{
+   /** Serial version uid */
+   private static final long serialVersionUID = 1L;
+
+   /** Active count */
+   private static final String ACTIVE_COUNT = "ActiveCount";
+
+   /** Idle count */
+   private static final String IDLE_COUNT = "IdleCount";
+
+   /** In use count */
+   private static final String IN_USE_COUNT = "InUseCount";
+
+   /** Created count */
+   private static final String CREATED_COUNT = "CreatedCount";
+
+   /** Destroyed count */
+   private static final String DESTROYED_COUNT = "DestroyedCount";
+
+   /** Blocking count */
+   private static final String BLOCKING_COUNT = "BlockingCount";
+
+   /** Total blocking time */
+   private static final String TOTAL_BLOCKING_TIME = "TotalBlockingTime";
+
+   /** Average blocking time */
+   private static final String AVERAGE_BLOCKING_TIME = "AverageBlockingTime";
+
+   /** Max wait time */
+   private static final String MAX_WAIT_TIME = "MaxWaitTime";
+
+   /** Timed out */
+   private static final String TIMED_OUT = "TimedOut";
+
+   /** Total creation time */
+   private static final String TOTAL_CREATION_TIME = "TotalCreationTime";
+
+   /** Average creation time */
+   private static final String AVERAGE_CREATION_TIME = "AverageCreationTime";
+
+   /** Max creation time */
+   private static final String MAX_CREATION_TIME = "MaxCreationTime";
+
+   /** Borrow time histogram */
+   private static final String BORROW_TIME = "BorrowTime";
+
+   /** Hold time histogram */
+   private static final String HOLD_TIME = "HoldTime";
+
+   /** Cleanup time histogram */
+   private static final String CLEANUP_TIME = "CleanupTime";
+
+   /** Names */
+   private static final Set<String> NAMES;
+
+   /** Types */
+   private static final Map<String, Class> TYPES;
+
+   /** Descriptions */
+   private static final Map<String, String> DESCRIPTIONS;
+
+   static
+   {
+      Map<String, Class> types = new HashMap<String, Class>();
+      Map<String, String> descriptions = new HashMap<String, String>();
+
+      types.put(ACTIVE_COUNT, int.class);
+      descriptions.put(ACTIVE_COUNT, "The number of connections, both idle and in use");
+
+      types.put(IDLE_COUNT, int.class);
+      descriptions.put(IDLE_COUNT, "The number of idle connections");
+
+      types.put(IN_USE_COUNT, int.class);
+      descriptions.put(IN_USE_COUNT, "The number of connections in use");
+
+      types.put(CREATED_COUNT, long.class);
+      descriptions.put(CREATED_COUNT, "The number of connections created");
+
+      types.put(DESTROYED_COUNT, long.class);
+      descriptions.put(DESTROYED_COUNT, "The number of connections destroyed");
+
+      types.put(BLOCKING_COUNT, long.class);
+      descriptions.put(BLOCKING_COUNT, "The number of requests for a connection");
+
+      types.put(TOTAL_BLOCKING_TIME, long.class);
+      descriptions.put(TOTAL_BLOCKING_TIME, "The total time spent obtaining a connection (ms)");
+
+      types.put(AVERAGE_BLOCKING_TIME, long.class);
+      descriptions.put(AVERAGE_BLOCKING_TIME, "The average time spent obtaining a connection (ms)");
+
+      types.put(MAX_WAIT_TIME, long.class);
+      descriptions.put(MAX_WAIT_TIME, "The maximum time spent obtaining a connection (ms)");
+
+      types.put(TIMED_OUT, long.class);
+      descriptions.put(TIMED_OUT, "The number of requests that couldn't obtain a connection");
+
+      types.put(TOTAL_CREATION_TIME, long.class);
+      descriptions.put(TOTAL_CREATION_TIME, "The total time spent creating connections (ms)");
+
+      types.put(AVERAGE_CREATION_TIME, long.class);
+      descriptions.put(AVERAGE_CREATION_TIME, "The average time spent creating a connection (ms)");
+
+      types.put(MAX_CREATION_TIME, long.class);
+      descriptions.put(MAX_CREATION_TIME, "The maximum time spent creating a connection (ms)");
+
+      NAMES = Collections.unmodifiableSet(new TreeSet<String>(types.keySet()));
+      TYPES = Collections.unmodifiableMap(types);
+      DESCRIPTIONS = Collections.unmodifiableMap(descriptions);
+   }
+
+   /** Max size of the pool */
+   private int maxSize;
+
+   /** The semaphore of the pool */
+   private transient Semaphore semaphore;
+
+   /** Enabled */
+   private volatile boolean enabled;
+
+   /** In use */
+   private LongAdder inUse;
+
+   /** Created */
+   private LongAdder created;
+
+   /** Destroyed */
+   private LongAdder destroyed;
+
+   /** Blocking count */
+   private LongAdder blockingCount;
+
+   /** Total blocking time in nanoseconds */
+   private LongAdder totalBlockingTime;
+
+   /** Max wait time in nanoseconds */
+   private AtomicLong maxWaitTime;
+
+   /** Timed out */
+   private LongAdder timedOut;
+
+   /** Total creation time in nanoseconds */
+   private LongAdder totalCreationTime;
+
+   /** Max creation time in nanoseconds */
+   private AtomicLong maxCreationTime;
+
+   /** Time spent obtaining a connection */
+   private LatencyHistogram borrowTime;
+
+   /** Time a connection is held by the application */
+   private LatencyHistogram holdTime;
+
+   /** Time spent cleaning up a connection returned to the pool */
+   private LatencyHistogram cleanupTime;
+
+   /**
+    * Constructor
+    * @param maxSize The max size of the pool
+    * @param semaphore The semaphore of the pool
+    */
+   public PoolStatisticsImpl(int maxSize, Semaphore semaphore)
+   {
+      this.maxSize = maxSize;
+      this.semaphore = semaphore;
+      this.enabled = false;
+      this.inUse = new LongAdder();
+      this.created = new LongAdder();
+      this.destroyed = new LongAdder();
+      this.blockingCount = new LongAdder();
+      this.totalBlockingTime = new LongAdder();
+      this.maxWaitTime = new AtomicLong(0L);
+      this.timedOut = new LongAdder();
+      this.totalCreationTime = new LongAdder();
+      this.maxCreationTime = new AtomicLong(0L);
+      this.borrowTime = new LatencyHistogram();
+      this.holdTime = new LatencyHistogram();
+      this.cleanupTime = new LatencyHistogram();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Set<String> getNames()
+   {
+      return NAMES;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Class getType(String name)
+   {
+      return TYPES.get(name);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public String getDescription(String name)
+   {
+      return DESCRIPTIONS.get(name);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public String getDescription(String name, Locale locale)
+   {
+      return getDescription(name);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Object getValue(String name)
+   {
+      if (ACTIVE_COUNT.equals(name))
+      {
+         return getActiveCount();
+      }
+      else if (IDLE_COUNT.equals(name))
+      {
+         return getIdleCount();
+      }
+      else if (IN_USE_COUNT.equals(name))
+      {
+         return getInUseCount();
+      }
+      else if (CREATED_COUNT.equals(name))
+      {
+         return getCreatedCount();
+      }
+      else if (DESTROYED_COUNT.equals(name))
+      {
+         return getDestroyedCount();
+      }
+      else if (BLOCKING_COUNT.equals(name))
+      {
+         return getBlockingCount();
+      }
+      else if (TOTAL_BLOCKING_TIME.equals(name))
+      {
+         return getTotalBlockingTime();
+      }
+      else if (AVERAGE_BLOCKING_TIME.equals(name))
+      {
+         return getAverageBlockingTime();
+      }
+      else if (MAX_WAIT_TIME.equals(name))
+      {
+         return getMaxWaitTime();
+      }
+      else if (TIMED_OUT.equals(name))
+      {
+         return getTimedOut();
+      }
+      else if (TOTAL_CREATION_TIME.equals(name))
+      {
+         return getTotalCreationTime();
+      }
+      else if (AVERAGE_CREATION_TIME.equals(name))
+      {
+         return getAverageCreationTime();
+      }
+      else if (MAX_CREATION_TIME.equals(name))
+      {
+         return getMaxCreationTime();
+      }
+
+      return null;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean isEnabled()
+   {
+      return enabled;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setEnabled(boolean v)
+   {
+      enabled = v;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void clear()
+   {
+      created.reset();
+      destroyed.reset();
+      blockingCount.reset();
+      totalBlockingTime.reset();
+      maxWaitTime.set(0L);
+      timedOut.reset();
+      totalCreationTime.reset();
+      maxCreationTime.set(0L);
+      borrowTime.reset();
+      holdTime.reset();
+      cleanupTime.reset();
+   }
+
+   /**
+    * Get snapshots of the latency histograms; the time spent obtaining a connection (BorrowTime),
+    * the time a connection is held (HoldTime) and the time spent cleaning up a returned
+    * connection (CleanupTime)
+    * @param reset Reset the histograms while taking the snapshots
+    * @return The snapshots, keyed by name
+    */
+   public Map<String, HistogramSnapshot> getHistograms(boolean reset)
+   {
+      Map<String, HistogramSnapshot> result = new LinkedHashMap<String, HistogramSnapshot>();
+
+      result.put(BORROW_TIME, borrowTime.snapshot(reset));
+      result.put(HOLD_TIME, holdTime.snapshot(reset));
+      result.put(CLEANUP_TIME, cleanupTime.snapshot(reset));
+
+      return Collections.unmodifiableMap(result);
+   }
+
+   /**
+    * Get the number of connections, both idle and in use
+    * @return The value
+    */
+   public int getActiveCount()
+   {
+      if (semaphore == null)
+         return 0;
+
+      return maxSize - semaphore.availablePermits();
+   }
+
+   /**
+    * Get the number of idle connections
+    * @return The value
+    */
+   public int getIdleCount()
+   {
+      return Math.max(0, getActiveCount() - getInUseCount());
+   }
+
+   /**
+    * Get the number of connections in use
+    * @return The value
+    */
+   public int getInUseCount()
+   {
+      return (int)Math.max(0L, inUse.sum());
+   }
+
+   /**
+    * Get the number of connections created
+    * @return The value
+    */
+   public long getCreatedCount()
+   {
+      return created.sum();
+   }
+
+   /**
+    * Get the number of connections destroyed
+    * @return The value
+    */
+   public long getDestroyedCount()
+   {
+      return destroyed.sum();
+   }
+
+   /**
+    * Get the number of requests for a connection
+    * @return The value
+    */
+   public long getBlockingCount()
+   {
+      return blockingCount.sum();
+   }
+
+   /**
+    * Get the total time spent obtaining a connection
+    * @return The value in milliseconds
+    */
+   public long getTotalBlockingTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(totalBlockingTime.sum());
+   }
+
+   /**
+    * Get the average time spent obtaining a connection
+    * @return The value in milliseconds
+    */
+   public long getAverageBlockingTime()
+   {
+      long count = blockingCount.sum();
+      if (count == 0L)
+         return 0L;
+
+      return TimeUnit.NANOSECONDS.toMillis(totalBlockingTime.sum() / count);
+   }
+
+   /**
+    * Get the maximum time spent obtaining a connection
+    * @return The value in milliseconds
+    */
+   public long getMaxWaitTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+   }
+
+   /**
+    * Get the number of requests that couldn't obtain a connection
+    * @return The value
+    */
+   public long getTimedOut()
+   {
+      return timedOut.sum();
+   }
+
+   /**
+    * Get the total time spent creating connections
+    * @return The value in milliseconds
+    */
+   public long getTotalCreationTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(totalCreationTime.sum());
+   }
+
+   /**
+    * Get the average time spent creating a connection
+    * @return The value in milliseconds
+    */
+   public long getAverageCreationTime()
+   {
+      long count = created.sum();
+      if (count == 0L)
+         return 0L;
+
+      return TimeUnit.NANOSECONDS.toMillis(totalCreationTime.sum() / count);
+   }
+
+   /**
+    * Get the maximum time spent creating a connection
+    * @return The value in milliseconds
+    */
+   public long getMaxCreationTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(maxCreationTime.get());
+   }
+
+   /**
+    * A connection was obtained from the pool
+    * @param nanos The time spent obtaining it in nanoseconds
+    */
+   public void deltaObtained(long nanos)
+   {
+      deltaBlockingTime(nanos);
+   }
+
+   /**
+    * A request for a connection timed out
+    * @param nanos The time spent waiting in nanoseconds
+    */
+   public void deltaTimedOut(long nanos)
+   {
+      timedOut.increment();
+      deltaBlockingTime(nanos);
+   }
+
+   /**
+    * A connection was returned to the pool
+    * @param nanos The time it was held in nanoseconds
+    */
+   public void deltaReturned(long nanos)
+   {
+      holdTime.record(nanos);
+   }
+
+   /**
+    * Connections were handed out, or returned to the pool; called whether or not
+    * the statistics are enabled
+    * @param v The change of the number of connections in use
+    */
+   public void deltaInUse(int v)
+   {
+      inUse.add(v);
+   }
+
+   /**
+    * A connection was cleaned up
+    * @param nanos The time spent cleaning it up in nanoseconds
+    */
+   public void deltaCleanup(long nanos)
+   {
+      cleanupTime.record(nanos);
+   }
+
+   /**
+    * A connection was created
+    * @param nanos The time spent creating it in nanoseconds
+    */
+   public void deltaCreated(long nanos)
+   {
+      created.increment();
+      totalCreationTime.add(nanos);
+      setMax(maxCreationTime, nanos);
+   }
+
+   /**
+    * A connection was destroyed
+    */
+   public void deltaDestroyed()
+   {
+      destroyed.increment();
+   }
+
+   /**
+    * Record blocking time
+    * @param nanos The time in nanoseconds
+    */
+   private void deltaBlockingTime(long nanos)
+   {
+      blockingCount.increment();
+      totalBlockingTime.add(nanos);
+      setMax(maxWaitTime, nanos);
+      borrowTime.record(nanos);
+   }
+
+   /**
+    * Raise a maximum
+    * @param max The maximum
+    * @param v The value
+    */
+   private static void setMax(AtomicLong max, long v)
+   {
+      long current = max.get();
+      while (v > current && !max.compareAndSet(current, v))
+         current = max.get();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      StringBuilder sb = new StringBuilder();
+
+      sb.append("PoolStatisticsImpl@").append(Integer.toHexString(System.identityHashCode(this)));
+      sb.append("[enabled=").append(enabled);
+      for (String name : NAMES)
+      {
+         sb.append(" ").append(name).append("=").append(getValue(name));
+      }
+      sb.append("]");
+
+      return sb.toString();
+   }
+}
@@ -0,0 +1,246 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.resource.spi.ManagedConnection;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * The transaction to connection listener map of a pool.
+ *
+ * The connection listeners are stored in the resource slot of the transaction
+ * synchronization registry, using the map instance as the key. A single connection
+ * listener is stored directly; a map per credential is only created once connection
+ * listeners from more than one managed connection pool are enlisted in the same transaction.
+ * The entries disappear with the transaction, so no cleanup is needed.
+ *
+ * Optionally the owning transaction of each connection listener is tracked, such that
+ * {@link #getTransactionKey(ConnectionListener)} can be used.
+ *
+ * Updates of the resource slot of a transaction are serialized by a lock owned by the map,
+ * striped on the identity of the transaction, such that the transaction itself is never locked
+ *
+ * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class TransactionMap
+{
+   /** The number of lock stripes; a power of two */
+   private static final int STRIPES = 16;
+
+   /** The lock stripes */
+   private final ReentrantLock[] locks;
+
+   /** The connection listeners of each transaction key, or <code>null</code> if not tracked */
+   private final ConcurrentHashMap<Object, Set<ConnectionListener>> owners;
+
+   /** The transaction key of each connection listener, or <code>null</code> if not tracked */
+   private final ConcurrentHashMap<ConnectionListener, Object> transactionKeys;
+
+   /**
+    * Constructor
+    * @param track Track the owning transaction of the connection listeners
+    */
+   public TransactionMap(boolean track)
+   {
+      this.locks = new ReentrantLock[STRIPES];
+      for (int i = 0; i < STRIPES; i++)
+         this.locks[i] = new ReentrantLock();
+
+      this.owners = track ? new ConcurrentHashMap<Object, Set<ConnectionListener>>() : null;
+      this.transactionKeys = track ? new ConcurrentHashMap<ConnectionListener, Object>() : null;
+   }
+
+   /**
+    * Get the connection listener for a credential in the current transaction
+    * @param tsr The transaction synchronization registry
+    * @param credential The credential
+    * @return The connection listener, or <code>null</code>
+    */
+   @SuppressWarnings("unchecked")
+   public ConnectionListener get(TransactionSynchronizationRegistry tsr, Credential credential)
+   {
+      Object value = tsr.getResource(this);
+
+      if (value == null)
+         return null;
+
+      if (value instanceof ConnectionListener)
+      {
+         ConnectionListener cl = (ConnectionListener)value;
+         return credential.equals(cl.getCredential()) ? cl : null;
+      }
+
+      return ((Map<Credential, ConnectionListener>)value).get(credential);
+   }
+
+   /**
+    * Find the connection listener of a managed connection in the current transaction
+    * @param tsr The transaction synchronization registry
+    * @param mc The managed connection
+    * @return The connection listener, or <code>null</code>
+    */
+   @SuppressWarnings("unchecked")
+   public ConnectionListener find(TransactionSynchronizationRegistry tsr, ManagedConnection mc)
+   {
+      Object value = tsr.getResource(this);
+
+      if (value == null)
+         return null;
+
+      if (value instanceof ConnectionListener)
+      {
+         ConnectionListener cl = (ConnectionListener)value;
+         return cl.getManagedConnection() == mc ? cl : null;
+      }
+
+      for (ConnectionListener cl : ((Map<Credential, ConnectionListener>)value).values())
+      {
+         if (cl.getManagedConnection() == mc)
+            return cl;
+      }
+
+      return null;
+   }
+
+   /**
+    * Associate a connection listener with the current transaction
+    * @param tx The transaction
+    * @param tsr The transaction synchronization registry
+    * @param cl The connection listener
+    * @return The connection listener associated with the credential of the listener; if it differs
+    *         from the passed instance another thread won the race, and the passed instance should be returned
+    */
+   @SuppressWarnings("unchecked")
+   public ConnectionListener put(Transaction tx, TransactionSynchronizationRegistry tsr, ConnectionListener cl)
+   {
+      Credential credential = cl.getCredential();
+      ConnectionListener result = cl;
+
+      ReentrantLock lock = getLock(tx);
+      lock.lock();
+      try
+      {
+         Object value = tsr.getResource(this);
+
+         if (value == null)
+         {
+            tsr.putResource(this, cl);
+         }
+         else if (value instanceof ConnectionListener)
+         {
+            ConnectionListener current = (ConnectionListener)value;
+
+            if (credential.equals(current.getCredential()))
+            {
+               result = current;
+            }
+            else
+            {
+               Map<Credential, ConnectionListener> map = new ConcurrentHashMap<Credential, ConnectionListener>();
+               map.put(current.getCredential(), current);
+               map.put(credential, cl);
+               tsr.putResource(this, map);
+            }
+         }
+         else
+         {
+            ConnectionListener current = ((Map<Credential, ConnectionListener>)value).putIfAbsent(credential, cl);
+            if (current != null)
+               result = current;
+         }
+
+         if (owners != null && result == cl)
+         {
+            Object key = tsr.getTransactionKey();
+            Set<ConnectionListener> s = owners.get(key);
+
+            if (s == null)
+            {
+               s = ConcurrentHashMap.newKeySet();
+               owners.put(key, s);
+
+               tsr.registerInterposedSynchronization(new TransactionMapCleanup(key, this));
+            }
+
+            s.add(cl);
+            transactionKeys.put(cl, key);
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+
+      return result;
+   }
+
+   /**
+    * Get the key of the transaction that a connection listener is associated with
+    * @param cl The connection listener
+    * @return The transaction key, or <code>null</code> if not associated or not tracked
+    */
+   public Object getTransactionKey(ConnectionListener cl)
+   {
+      if (transactionKeys != null)
+         return transactionKeys.get(cl);
+
+      return null;
+   }
+
+   /**
+    * Forget the connection listeners of a completed transaction
+    * @param key The transaction key
+    */
+   void remove(Object key)
+   {
+      if (owners != null)
+      {
+         Set<ConnectionListener> s = owners.remove(key);
+
+         if (s != null)
+         {
+            for (ConnectionListener cl : s)
+               transactionKeys.remove(cl, key);
+         }
+      }
+   }
+
+   /**
+    * Get the lock stripe of a transaction
+    * @param tx The transaction
+    * @return The lock
+    */
+   private ReentrantLock getLock(Transaction tx)
+   {
+      int h = System.identityHashCode(tx);
+      return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+   }
+}
@@ -21,11 +21,6 @@
 
 package org.ironjacamar.core.connectionmanager.pool;
 
-import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
-
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
 import javax.transaction.Synchronization;
 
 /**
@@ -38,16 +33,14 @@ public class TransactionMapCleanup implements Synchronization
    private Object key;
 
    /** The map */
-   private ConcurrentHashMap<Object, Map<ManagedConnectionPool, ConnectionListener>> transactionMap;
+   private TransactionMap transactionMap;
 
    /**
     * Constructor
     * @param key The key
     * @param transactionMap The transaction map
     */
-   public TransactionMapCleanup(Object key,
-                                ConcurrentHashMap<Object, Map<ManagedConnectionPool,
-                                ConnectionListener>> transactionMap)
+   public TransactionMapCleanup(Object key, TransactionMap transactionMap)
    {
       this.key = key;
       this.transactionMap = transactionMap;
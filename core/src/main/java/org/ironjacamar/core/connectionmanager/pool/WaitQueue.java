@@ -0,0 +1,339 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.resource.ResourceException;
+
+/**
+ * A FIFO queue of threads waiting for a connection listener.
+ *
+ * Waiting threads are parked, and a connection listener is handed off
+ * directly to the head of the queue when one becomes available.
+ * Asynchronous waiters don't hold a thread; they are completed by the hand-off instead
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class WaitQueue
+{
+   /** Waiting */
+   private static final int WAITING = 0;
+
+   /** Fulfilled */
+   private static final int FULFILLED = 1;
+
+   /** Cancelled */
+   private static final int CANCELLED = 2;
+
+   /** The waiters */
+   private ConcurrentLinkedQueue<Waiter> waiters;
+
+   /**
+    * Constructor
+    */
+   public WaitQueue()
+   {
+      this.waiters = new ConcurrentLinkedQueue<Waiter>();
+   }
+
+   /**
+    * Are there any threads waiting
+    * @return True if there are waiters, otherwise false
+    */
+   public boolean hasWaiters()
+   {
+      return !waiters.isEmpty();
+   }
+
+   /**
+    * Enqueue the current thread as a waiter
+    * @return The waiter
+    */
+   public Waiter enqueue()
+   {
+      Waiter waiter = new Waiter(Thread.currentThread());
+      waiters.add(waiter);
+      return waiter;
+   }
+
+   /**
+    * Enqueue an asynchronous waiter
+    * @param future The future completed with the connection listener handed off
+    * @return The waiter
+    */
+   public Waiter enqueue(CompletableFuture<ConnectionListener> future)
+   {
+      Waiter waiter = new Waiter(future);
+      waiters.add(waiter);
+      return waiter;
+   }
+
+   /**
+    * Is the waiter the first in the queue
+    * @param waiter The waiter
+    * @return True if the waiter is the head of the queue, otherwise false
+    */
+   public boolean isHead(Waiter waiter)
+   {
+      return waiters.peek() == waiter;
+   }
+
+   /**
+    * Get the number of waiters
+    * @return The value
+    */
+   public int size()
+   {
+      return waiters.size();
+   }
+
+   /**
+    * Wait until a connection listener is handed off, the deadline passes or the waiter is signalled
+    * @param waiter The waiter
+    * @param deadline The deadline in nanoseconds, based on <code>System.nanoTime()</code>
+    * @return The connection listener, or <code>null</code> if none was handed off
+    * @exception InterruptedException Thrown if the thread is interrupted while waiting
+    */
+   public ConnectionListener await(Waiter waiter, long deadline) throws InterruptedException
+   {
+      while (waiter.isWaiting() && !waiter.signalled)
+      {
+         long remaining = deadline - System.nanoTime();
+         if (remaining <= 0L)
+            break;
+
+         LockSupport.parkNanos(this, remaining);
+
+         if (Thread.interrupted())
+            throw new InterruptedException();
+      }
+
+      waiter.signalled = false;
+
+      return waiter.getConnectionListener();
+   }
+
+   /**
+    * Cancel a waiter
+    * @param waiter The waiter
+    * @return True if the waiter was cancelled; false if a connection listener was handed off to it
+    */
+   public boolean cancel(Waiter waiter)
+   {
+      boolean cancelled = waiter.state.compareAndSet(WAITING, CANCELLED);
+      waiters.remove(waiter);
+      return cancelled;
+   }
+
+   /**
+    * Hand off a connection listener to the first waiter in the queue.
+    *
+    * The connection listener must be owned by the caller, and already be in its in-use state
+    * @param cl The connection listener
+    * @return True if a waiter accepted the connection listener, otherwise false
+    */
+   public boolean offer(ConnectionListener cl)
+   {
+      Waiter waiter = waiters.poll();
+      while (waiter != null)
+      {
+         waiter.cl = cl;
+         if (waiter.state.compareAndSet(WAITING, FULFILLED))
+         {
+            if (waiter.future != null)
+            {
+               waiter.future.complete(cl);
+            }
+            else
+            {
+               LockSupport.unpark(waiter.thread);
+            }
+            return true;
+         }
+
+         waiter.cl = null;
+         waiter = waiters.poll();
+      }
+
+      return false;
+   }
+
+   /**
+    * Wake up the first waiter, such that it can retry to obtain a connection listener.
+    * An asynchronous waiter can't retry by itself, so it isn't woken up
+    * @return True if a waiting thread was woken up; false if there are no waiters,
+    *         or the first waiter is asynchronous
+    */
+   public boolean signal()
+   {
+      Waiter waiter = waiters.peek();
+      if (waiter != null && waiter.future == null)
+      {
+         waiter.signalled = true;
+         LockSupport.unpark(waiter.thread);
+         return true;
+      }
+
+      return false;
+   }
+
+   /**
+    * Wake up all waiters, and fail the asynchronous waiters
+    */
+   public void signalAll()
+   {
+      for (Waiter waiter : waiters)
+      {
+         if (waiter.future != null)
+         {
+            if (cancel(waiter))
+               waiter.future.completeExceptionally(new ResourceException("No ConnectionListener"));
+         }
+         else
+         {
+            waiter.signalled = true;
+            LockSupport.unpark(waiter.thread);
+         }
+      }
+   }
+
+   /**
+    * Fail all waiters with the cause of a connection listener that couldn't be created
+    * @param re The cause
+    */
+   public void failAll(ResourceException re)
+   {
+      Waiter waiter = waiters.poll();
+      while (waiter != null)
+      {
+         waiter.failure = re;
+         if (waiter.state.compareAndSet(WAITING, CANCELLED))
+         {
+            if (waiter.future != null)
+            {
+               waiter.future.completeExceptionally(re);
+            }
+            else
+            {
+               LockSupport.unpark(waiter.thread);
+            }
+         }
+         else
+         {
+            waiter.failure = null;
+         }
+
+         waiter = waiters.poll();
+      }
+   }
+
+   /**
+    * A waiting thread, or an asynchronous waiter
+    */
+   public static class Waiter
+   {
+      /** The thread */
+      private final Thread thread;
+
+      /** The future of an asynchronous waiter */
+      private final CompletableFuture<ConnectionListener> future;
+
+      /** The state */
+      private final AtomicInteger state;
+
+      /** The connection listener handed off */
+      private volatile ConnectionListener cl;
+
+      /** Signalled */
+      private volatile boolean signalled;
+
+      /** The cause the waiter was failed with */
+      private volatile ResourceException failure;
+
+      /**
+       * Constructor
+       * @param thread The thread
+       */
+      Waiter(Thread thread)
+      {
+         this.thread = thread;
+         this.future = null;
+         this.state = new AtomicInteger(WAITING);
+         this.cl = null;
+         this.signalled = false;
+         this.failure = null;
+      }
+
+      /**
+       * Constructor
+       * @param future The future
+       */
+      Waiter(CompletableFuture<ConnectionListener> future)
+      {
+         this.thread = null;
+         this.future = future;
+         this.state = new AtomicInteger(WAITING);
+         this.cl = null;
+         this.signalled = false;
+         this.failure = null;
+      }
+
+      /**
+       * Is the waiter still waiting
+       * @return The value
+       */
+      boolean isWaiting()
+      {
+         return state.get() == WAITING;
+      }
+
+      /**
+       * Get the connection listener handed off
+       * @return The value, or <code>null</code> if none
+       */
+      public ConnectionListener getConnectionListener()
+      {
+         if (state.get() == FULFILLED)
+            return cl;
+
+         return null;
+      }
+
+      /**
+       * Get the cause the waiter was failed with
+       * @return The value, or <code>null</code> if none
+       */
+      public ResourceException getFailure()
+      {
+         if (state.get() == CANCELLED)
+            return failure;
+
+         return null;
+      }
+   }
+}
@@ -0,0 +1,899 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
+import org.ironjacamar.core.spi.transaction.XAResourceStatistics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.transaction.xa.XAResource;
+
+/**
+ * The XAResource statistics for a pool.
+ *
+ * The wrappers report each XAResource call in nanoseconds, which is recorded in a
+ * latency histogram per call; the totals, averages and maximums are reported in
+ * milliseconds, and the histograms keep the sub-millisecond distribution.
+ * The wrappers are only installed on connections created while the statistics are enabled.
+ *
+ * The resource is considered read-only once its last prepares all answered
+ * <code>XA_RDONLY</code>, which is exposed as a hint through {@link #isReadOnly()}
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class XAResourceStatisticsImpl implements XAResourceStatistics
+{
+   /** Serial version uid */
+   private static final long serialVersionUID = 1L;
+
+   /** XA commit count */
+   private static final String XA_COMMIT_COUNT = "XACommitCount";
+
+   /** XA commit total time */
+   private static final String XA_COMMIT_TOTAL_TIME = "XACommitTotalTime";
+
+   /** XA commit average time */
+   private static final String XA_COMMIT_AVERAGE_TIME = "XACommitAverageTime";
+
+   /** XA commit max time */
+   private static final String XA_COMMIT_MAX_TIME = "XACommitMaxTime";
+
+   /** XA commit one phase count */
+   private static final String XA_COMMIT_ONE_PHASE_COUNT = "XACommitOnePhaseCount";
+
+   /** XA end count */
+   private static final String XA_END_COUNT = "XAEndCount";
+
+   /** XA end total time */
+   private static final String XA_END_TOTAL_TIME = "XAEndTotalTime";
+
+   /** XA end average time */
+   private static final String XA_END_AVERAGE_TIME = "XAEndAverageTime";
+
+   /** XA end max time */
+   private static final String XA_END_MAX_TIME = "XAEndMaxTime";
+
+   /** XA forget count */
+   private static final String XA_FORGET_COUNT = "XAForgetCount";
+
+   /** XA forget total time */
+   private static final String XA_FORGET_TOTAL_TIME = "XAForgetTotalTime";
+
+   /** XA forget average time */
+   private static final String XA_FORGET_AVERAGE_TIME = "XAForgetAverageTime";
+
+   /** XA forget max time */
+   private static final String XA_FORGET_MAX_TIME = "XAForgetMaxTime";
+
+   /** XA prepare count */
+   private static final String XA_PREPARE_COUNT = "XAPrepareCount";
+
+   /** XA prepare total time */
+   private static final String XA_PREPARE_TOTAL_TIME = "XAPrepareTotalTime";
+
+   /** XA prepare average time */
+   private static final String XA_PREPARE_AVERAGE_TIME = "XAPrepareAverageTime";
+
+   /** XA prepare max time */
+   private static final String XA_PREPARE_MAX_TIME = "XAPrepareMaxTime";
+
+   /** XA prepare read-only count */
+   private static final String XA_PREPARE_READ_ONLY_COUNT = "XAPrepareReadOnlyCount";
+
+   /** XA read-only */
+   private static final String XA_READ_ONLY = "XAReadOnly";
+
+   /** XA recover count */
+   private static final String XA_RECOVER_COUNT = "XARecoverCount";
+
+   /** XA recover total time */
+   private static final String XA_RECOVER_TOTAL_TIME = "XARecoverTotalTime";
+
+   /** XA recover average time */
+   private static final String XA_RECOVER_AVERAGE_TIME = "XARecoverAverageTime";
+
+   /** XA recover max time */
+   private static final String XA_RECOVER_MAX_TIME = "XARecoverMaxTime";
+
+   /** XA rollback count */
+   private static final String XA_ROLLBACK_COUNT = "XARollbackCount";
+
+   /** XA rollback total time */
+   private static final String XA_ROLLBACK_TOTAL_TIME = "XARollbackTotalTime";
+
+   /** XA rollback average time */
+   private static final String XA_ROLLBACK_AVERAGE_TIME = "XARollbackAverageTime";
+
+   /** XA rollback max time */
+   private static final String XA_ROLLBACK_MAX_TIME = "XARollbackMaxTime";
+
+   /** XA start count */
+   private static final String XA_START_COUNT = "XAStartCount";
+
+   /** XA start total time */
+   private static final String XA_START_TOTAL_TIME = "XAStartTotalTime";
+
+   /** XA start average time */
+   private static final String XA_START_AVERAGE_TIME = "XAStartAverageTime";
+
+   /** XA start max time */
+   private static final String XA_START_MAX_TIME = "XAStartMaxTime";
+
+   /** The number of consecutive read-only prepares before the resource is considered read-only */
+   private static final int READ_ONLY_THRESHOLD = 16;
+
+   /** Names */
+   private static final Set<String> NAMES;
+
+   /** Types */
+   private static final Map<String, Class> TYPES;
+
+   /** Descriptions */
+   private static final Map<String, String> DESCRIPTIONS;
+
+   static
+   {
+      Map<String, Class> types = new HashMap<String, Class>();
+      Map<String, String> descriptions = new HashMap<String, String>();
+
+      types.put(XA_COMMIT_COUNT, long.class);
+      descriptions.put(XA_COMMIT_COUNT, "The number of XAResource commit invocations");
+
+      types.put(XA_COMMIT_TOTAL_TIME, long.class);
+      descriptions.put(XA_COMMIT_TOTAL_TIME, "The total time spent in XAResource commit invocations (ms)");
+
+      types.put(XA_COMMIT_AVERAGE_TIME, long.class);
+      descriptions.put(XA_COMMIT_AVERAGE_TIME, "The average time of a XAResource commit invocation (ms)");
+
+      types.put(XA_COMMIT_MAX_TIME, long.class);
+      descriptions.put(XA_COMMIT_MAX_TIME, "The maximum time of a XAResource commit invocation (ms)");
+
+      types.put(XA_COMMIT_ONE_PHASE_COUNT, long.class);
+      descriptions.put(XA_COMMIT_ONE_PHASE_COUNT, "The number of XAResource commit invocations done in one phase");
+
+      types.put(XA_END_COUNT, long.class);
+      descriptions.put(XA_END_COUNT, "The number of XAResource end invocations");
+
+      types.put(XA_END_TOTAL_TIME, long.class);
+      descriptions.put(XA_END_TOTAL_TIME, "The total time spent in XAResource end invocations (ms)");
+
+      types.put(XA_END_AVERAGE_TIME, long.class);
+      descriptions.put(XA_END_AVERAGE_TIME, "The average time of a XAResource end invocation (ms)");
+
+      types.put(XA_END_MAX_TIME, long.class);
+      descriptions.put(XA_END_MAX_TIME, "The maximum time of a XAResource end invocation (ms)");
+
+      types.put(XA_FORGET_COUNT, long.class);
+      descriptions.put(XA_FORGET_COUNT, "The number of XAResource forget invocations");
+
+      types.put(XA_FORGET_TOTAL_TIME, long.class);
+      descriptions.put(XA_FORGET_TOTAL_TIME, "The total time spent in XAResource forget invocations (ms)");
+
+      types.put(XA_FORGET_AVERAGE_TIME, long.class);
+      descriptions.put(XA_FORGET_AVERAGE_TIME, "The average time of a XAResource forget invocation (ms)");
+
+      types.put(XA_FORGET_MAX_TIME, long.class);
+      descriptions.put(XA_FORGET_MAX_TIME, "The maximum time of a XAResource forget invocation (ms)");
+
+      types.put(XA_PREPARE_COUNT, long.class);
+      descriptions.put(XA_PREPARE_COUNT, "The number of XAResource prepare invocations");
+
+      types.put(XA_PREPARE_TOTAL_TIME, long.class);
+      descriptions.put(XA_PREPARE_TOTAL_TIME, "The total time spent in XAResource prepare invocations (ms)");
+
+      types.put(XA_PREPARE_AVERAGE_TIME, long.class);
+      descriptions.put(XA_PREPARE_AVERAGE_TIME, "The average time of a XAResource prepare invocation (ms)");
+
+      types.put(XA_PREPARE_MAX_TIME, long.class);
+      descriptions.put(XA_PREPARE_MAX_TIME, "The maximum time of a XAResource prepare invocation (ms)");
+
+      types.put(XA_PREPARE_READ_ONLY_COUNT, long.class);
+      descriptions.put(XA_PREPARE_READ_ONLY_COUNT, "The number of XAResource prepare invocations answered read-only");
+
+      types.put(XA_READ_ONLY, boolean.class);
+      descriptions.put(XA_READ_ONLY, "Did the last XAResource prepare invocations all answer read-only");
+
+      types.put(XA_RECOVER_COUNT, long.class);
+      descriptions.put(XA_RECOVER_COUNT, "The number of XAResource recover invocations");
+
+      types.put(XA_RECOVER_TOTAL_TIME, long.class);
+      descriptions.put(XA_RECOVER_TOTAL_TIME, "The total time spent in XAResource recover invocations (ms)");
+
+      types.put(XA_RECOVER_AVERAGE_TIME, long.class);
+      descriptions.put(XA_RECOVER_AVERAGE_TIME, "The average time of a XAResource recover invocation (ms)");
+
+      types.put(XA_RECOVER_MAX_TIME, long.class);
+      descriptions.put(XA_RECOVER_MAX_TIME, "The maximum time of a XAResource recover invocation (ms)");
+
+      types.put(XA_ROLLBACK_COUNT, long.class);
+      descriptions.put(XA_ROLLBACK_COUNT, "The number of XAResource rollback invocations");
+
+      types.put(XA_ROLLBACK_TOTAL_TIME, long.class);
+      descriptions.put(XA_ROLLBACK_TOTAL_TIME, "The total time spent in XAResource rollback invocations (ms)");
+
+      types.put(XA_ROLLBACK_AVERAGE_TIME, long.class);
+      descriptions.put(XA_ROLLBACK_AVERAGE_TIME, "The average time of a XAResource rollback invocation (ms)");
+
+      types.put(XA_ROLLBACK_MAX_TIME, long.class);
+      descriptions.put(XA_ROLLBACK_MAX_TIME, "The maximum time of a XAResource rollback invocation (ms)");
+
+      types.put(XA_START_COUNT, long.class);
+      descriptions.put(XA_START_COUNT, "The number of XAResource start invocations");
+
+      types.put(XA_START_TOTAL_TIME, long.class);
+      descriptions.put(XA_START_TOTAL_TIME, "The total time spent in XAResource start invocations (ms)");
+
+      types.put(XA_START_AVERAGE_TIME, long.class);
+      descriptions.put(XA_START_AVERAGE_TIME, "The average time of a XAResource start invocation (ms)");
+
+      types.put(XA_START_MAX_TIME, long.class);
+      descriptions.put(XA_START_MAX_TIME, "The maximum time of a XAResource start invocation (ms)");
+
+      NAMES = Collections.unmodifiableSet(new TreeSet<String>(types.keySet()));
+      TYPES = Collections.unmodifiableMap(types);
+      DESCRIPTIONS = Collections.unmodifiableMap(descriptions);
+   }
+
+   /** Enabled */
+   private volatile boolean enabled;
+
+   /** Commit */
+   private LatencyHistogram commit;
+
+   /** End */
+   private LatencyHistogram end;
+
+   /** Forget */
+   private LatencyHistogram forget;
+
+   /** Prepare */
+   private LatencyHistogram prepare;
+
+   /** Recover */
+   private LatencyHistogram recover;
+
+   /** Rollback */
+   private LatencyHistogram rollback;
+
+   /** Start */
+   private LatencyHistogram start;
+
+   /** One phase commits */
+   private LongAdder commitOnePhase;
+
+   /** Read-only prepares */
+   private LongAdder prepareReadOnly;
+
+   /** Consecutive read-only prepares */
+   private AtomicInteger readOnlyStreak;
+
+   /**
+    * Constructor
+    */
+   public XAResourceStatisticsImpl()
+   {
+      this.enabled = false;
+      this.commit = new LatencyHistogram();
+      this.end = new LatencyHistogram();
+      this.forget = new LatencyHistogram();
+      this.prepare = new LatencyHistogram();
+      this.recover = new LatencyHistogram();
+      this.rollback = new LatencyHistogram();
+      this.start = new LatencyHistogram();
+      this.commitOnePhase = new LongAdder();
+      this.prepareReadOnly = new LongAdder();
+      this.readOnlyStreak = new AtomicInteger(0);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Set<String> getNames()
+   {
+      return NAMES;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Class getType(String name)
+   {
+      return TYPES.get(name);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public String getDescription(String name)
+   {
+      return DESCRIPTIONS.get(name);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public String getDescription(String name, Locale locale)
+   {
+      return getDescription(name);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Object getValue(String name)
+   {
+      if (XA_COMMIT_COUNT.equals(name))
+      {
+         return getCommitCount();
+      }
+      else if (XA_COMMIT_ONE_PHASE_COUNT.equals(name))
+      {
+         return getCommitOnePhaseCount();
+      }
+      else if (XA_COMMIT_TOTAL_TIME.equals(name))
+      {
+         return getCommitTotalTime();
+      }
+      else if (XA_COMMIT_AVERAGE_TIME.equals(name))
+      {
+         return getCommitAverageTime();
+      }
+      else if (XA_COMMIT_MAX_TIME.equals(name))
+      {
+         return getCommitMaxTime();
+      }
+      else if (XA_END_COUNT.equals(name))
+      {
+         return getEndCount();
+      }
+      else if (XA_END_TOTAL_TIME.equals(name))
+      {
+         return getEndTotalTime();
+      }
+      else if (XA_END_AVERAGE_TIME.equals(name))
+      {
+         return getEndAverageTime();
+      }
+      else if (XA_END_MAX_TIME.equals(name))
+      {
+         return getEndMaxTime();
+      }
+      else if (XA_FORGET_COUNT.equals(name))
+      {
+         return getForgetCount();
+      }
+      else if (XA_FORGET_TOTAL_TIME.equals(name))
+      {
+         return getForgetTotalTime();
+      }
+      else if (XA_FORGET_AVERAGE_TIME.equals(name))
+      {
+         return getForgetAverageTime();
+      }
+      else if (XA_FORGET_MAX_TIME.equals(name))
+      {
+         return getForgetMaxTime();
+      }
+      else if (XA_PREPARE_COUNT.equals(name))
+      {
+         return getPrepareCount();
+      }
+      else if (XA_PREPARE_READ_ONLY_COUNT.equals(name))
+      {
+         return getPrepareReadOnlyCount();
+      }
+      else if (XA_READ_ONLY.equals(name))
+      {
+         return isReadOnly();
+      }
+      else if (XA_PREPARE_TOTAL_TIME.equals(name))
+      {
+         return getPrepareTotalTime();
+      }
+      else if (XA_PREPARE_AVERAGE_TIME.equals(name))
+      {
+         return getPrepareAverageTime();
+      }
+      else if (XA_PREPARE_MAX_TIME.equals(name))
+      {
+         return getPrepareMaxTime();
+      }
+      else if (XA_RECOVER_COUNT.equals(name))
+      {
+         return getRecoverCount();
+      }
+      else if (XA_RECOVER_TOTAL_TIME.equals(name))
+      {
+         return getRecoverTotalTime();
+      }
+      else if (XA_RECOVER_AVERAGE_TIME.equals(name))
+      {
+         return getRecoverAverageTime();
+      }
+      else if (XA_RECOVER_MAX_TIME.equals(name))
+      {
+         return getRecoverMaxTime();
+      }
+      else if (XA_ROLLBACK_COUNT.equals(name))
+      {
+         return getRollbackCount();
+      }
+      else if (XA_ROLLBACK_TOTAL_TIME.equals(name))
+      {
+         return getRollbackTotalTime();
+      }
+      else if (XA_ROLLBACK_AVERAGE_TIME.equals(name))
+      {
+         return getRollbackAverageTime();
+      }
+      else if (XA_ROLLBACK_MAX_TIME.equals(name))
+      {
+         return getRollbackMaxTime();
+      }
+      else if (XA_START_COUNT.equals(name))
+      {
+         return getStartCount();
+      }
+      else if (XA_START_TOTAL_TIME.equals(name))
+      {
+         return getStartTotalTime();
+      }
+      else if (XA_START_AVERAGE_TIME.equals(name))
+      {
+         return getStartAverageTime();
+      }
+      else if (XA_START_MAX_TIME.equals(name))
+      {
+         return getStartMaxTime();
+      }
+
+      return null;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean isEnabled()
+   {
+      return enabled;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setEnabled(boolean v)
+   {
+      enabled = v;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void clear()
+   {
+      commit.reset();
+      end.reset();
+      forget.reset();
+      prepare.reset();
+      recover.reset();
+      rollback.reset();
+      start.reset();
+      commitOnePhase.reset();
+      prepareReadOnly.reset();
+      readOnlyStreak.set(0);
+   }
+
+   /**
+    * Get snapshots of the latency histograms, keyed by the name of the XAResource method
+    * @param reset Reset the histograms while taking the snapshots
+    * @return The snapshots
+    */
+   public Map<String, HistogramSnapshot> getHistograms(boolean reset)
+   {
+      Map<String, HistogramSnapshot> result = new LinkedHashMap<String, HistogramSnapshot>();
+
+      result.put("Commit", commit.snapshot(reset));
+      result.put("End", end.snapshot(reset));
+      result.put("Forget", forget.snapshot(reset));
+      result.put("Prepare", prepare.snapshot(reset));
+      result.put("Recover", recover.snapshot(reset));
+      result.put("Rollback", rollback.snapshot(reset));
+      result.put("Start", start.snapshot(reset));
+
+      return Collections.unmodifiableMap(result);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getCommitCount()
+   {
+      return commit.getCount();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getCommitTotalTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(commit.getTotal());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getCommitAverageTime()
+   {
+      return getAverageTime(commit);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getCommitMaxTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(commit.getMax());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void deltaCommit(long time)
+   {
+      commit.record(time);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getCommitOnePhaseCount()
+   {
+      return commitOnePhase.sum();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void deltaCommitOnePhase()
+   {
+      commitOnePhase.increment();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getEndCount()
+   {
+      return end.getCount();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getEndTotalTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(end.getTotal());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getEndAverageTime()
+   {
+      return getAverageTime(end);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getEndMaxTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(end.getMax());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void deltaEnd(long time)
+   {
+      end.record(time);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getForgetCount()
+   {
+      return forget.getCount();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getForgetTotalTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(forget.getTotal());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getForgetAverageTime()
+   {
+      return getAverageTime(forget);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getForgetMaxTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(forget.getMax());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void deltaForget(long time)
+   {
+      forget.record(time);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getPrepareCount()
+   {
+      return prepare.getCount();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getPrepareTotalTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(prepare.getTotal());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getPrepareAverageTime()
+   {
+      return getAverageTime(prepare);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getPrepareMaxTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(prepare.getMax());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void deltaPrepare(long time)
+   {
+      prepare.record(time);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getPrepareReadOnlyCount()
+   {
+      return prepareReadOnly.sum();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void deltaPrepareVote(int vote)
+   {
+      if (vote == XAResource.XA_RDONLY)
+      {
+         prepareReadOnly.increment();
+
+         int streak = readOnlyStreak.get();
+         if (streak < READ_ONLY_THRESHOLD)
+            readOnlyStreak.compareAndSet(streak, streak + 1);
+      }
+      else if (readOnlyStreak.get() != 0)
+      {
+         readOnlyStreak.set(0);
+      }
+   }
+
+   /**
+    * Did the last prepares of the resource all answer read-only
+    * @return The value
+    */
+   public boolean isReadOnly()
+   {
+      return readOnlyStreak.get() >= READ_ONLY_THRESHOLD;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getRecoverCount()
+   {
+      return recover.getCount();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getRecoverTotalTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(recover.getTotal());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getRecoverAverageTime()
+   {
+      return getAverageTime(recover);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getRecoverMaxTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(recover.getMax());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void deltaRecover(long time)
+   {
+      recover.record(time);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getRollbackCount()
+   {
+      return rollback.getCount();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getRollbackTotalTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(rollback.getTotal());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getRollbackAverageTime()
+   {
+      return getAverageTime(rollback);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getRollbackMaxTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(rollback.getMax());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void deltaRollback(long time)
+   {
+      rollback.record(time);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getStartCount()
+   {
+      return start.getCount();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getStartTotalTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(start.getTotal());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getStartAverageTime()
+   {
+      return getAverageTime(start);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public long getStartMaxTime()
+   {
+      return TimeUnit.NANOSECONDS.toMillis(start.getMax());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void deltaStart(long time)
+   {
+      start.record(time);
+   }
+
+   /**
+    * Get the average time of a histogram
+    * @param histogram The histogram
+    * @return The value in milliseconds
+    */
+   private static long getAverageTime(LatencyHistogram histogram)
+   {
+      long count = histogram.getCount();
+      if (count == 0L)
+         return 0L;
+
+      return TimeUnit.NANOSECONDS.toMillis(histogram.getTotal() / count);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      StringBuilder sb = new StringBuilder();
+
+      sb.append("XAResourceStatisticsImpl@").append(Integer.toHexString(System.identityHashCode(this)));
+      sb.append("[enabled=").append(enabled);
+      for (String name : NAMES)
+      {
+         sb.append(" ").append(name).append("=").append(getValue(name));
+      }
+      sb.append("]");
+
+      return sb.toString();
+   }
+}
@@ -24,12 +24,20 @@ package org.ironjacamar.core.connectionmanager.pool.dflt;
 import org.ironjacamar.core.connectionmanager.Credential;
 import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
 import org.ironjacamar.core.connectionmanager.pool.AbstractManagedConnectionPool;
+import org.ironjacamar.core.connectionmanager.pool.AbstractPool;
+import org.ironjacamar.core.connectionmanager.pool.ConnectionRecycler;
 import org.ironjacamar.core.connectionmanager.pool.ConnectionValidator;
 import org.ironjacamar.core.connectionmanager.pool.FillRequest;
 import org.ironjacamar.core.connectionmanager.pool.IdleConnectionRemover;
 import org.ironjacamar.core.connectionmanager.pool.PoolFiller;
+import org.ironjacamar.core.connectionmanager.pool.PoolResizer;
+import org.ironjacamar.core.connectionmanager.pool.WaitQueue;
 
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ManagedConnectionFactory;
@@ -39,7 +47,6 @@ import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.FREE;
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.IN_USE;
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.TO_POOL;
-import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.VALIDATION;
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.ZOMBIE;
 
 /**
@@ -50,8 +57,8 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
    /** The associated pool */
    private DefaultPool pool;
 
-   /** The connection listeners */
-   private ConcurrentLinkedDeque<ConnectionListener> listeners;
+   /** The threads waiting for a connection listener */
+   private WaitQueue waitQueue;
    
    /**
     * Constructor
@@ -60,9 +67,20 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
     */
    public DefaultManagedConnectionPool(DefaultPool pool, Credential credential)
    {
-      super(pool, credential);
+      this(pool, credential, 1);
+   }
+
+   /**
+    * Constructor
+    * @param pool The pool
+    * @param credential The credential
+    * @param stripes The number of stripes of the free connection listeners
+    */
+   public DefaultManagedConnectionPool(DefaultPool pool, Credential credential, int stripes)
+   {
+      super(pool, credential, stripes);
       this.pool = pool;
-      this.listeners = new ConcurrentLinkedDeque<ConnectionListener>();
+      this.waitQueue = new WaitQueue();
 
       if (credential.equals(pool.getPrefillCredential()) &&
           pool.getConfiguration().isPrefill() &&
@@ -84,6 +102,20 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
          IdleConnectionRemover.getInstance().registerPool(this,
                                                           pool.getConfiguration().getIdleTimeoutMinutes() * 60 * 1000L);
       }
+
+      if (pool.getConfiguration().isElastic() && credential.equals(pool.getPrefillCredential()))
+      {
+         //Register elastic sizing
+         PoolResizer.getInstance().registerPool(this,
+            PoolResizer.getInterval(pool.getConfiguration().getElasticWindowMillis()));
+      }
+
+      if (pool.getConfiguration().getMaxLifetime() > 0)
+      {
+         //Register recycling of expired connections
+         ConnectionRecycler.getInstance().registerPool(this,
+            ConnectionRecycler.getInterval(pool.getConfiguration().getMaxLifetime()));
+      }
    }
 
    /**
@@ -91,61 +123,254 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
     */
    public ConnectionListener getConnectionListener() throws ResourceException
    {
-      long timestamp = System.currentTimeMillis();
-      while (System.currentTimeMillis() - timestamp <= pool.getConfiguration().getBlockingTimeout())
+      ConnectionListener cl = tryGetConnectionListener(pool.getConfiguration().getBlockingTimeout());
+      if (cl == null)
+         throw new ResourceException("No ConnectionListener");
+
+      return cl;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public ConnectionListener tryGetConnectionListener(long timeout) throws ResourceException
+   {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+      // Fair mode doesn't allow new requests to barge ahead of threads already waiting
+      if (!pool.getConfiguration().isFair() || !waitQueue.hasWaiters())
       {
-         for (ConnectionListener cl : listeners)
+         ConnectionListener cl = findConnectionListener();
+         if (cl != null)
+            return cl;
+      }
+
+      if (timeout <= 0L)
+         return null;
+
+      WaitQueue.Waiter waiter = waitQueue.enqueue();
+      try
+      {
+         while (!pool.isShutdown())
          {
-            if (cl.changeState(FREE, VALIDATION))
+            // A connection listener may have been returned before we were enqueued. Fair mode only
+            // lets the head of the queue take it, the others wait for a hand-off in their turn
+            ConnectionListener cl = null;
+            if (!pool.getConfiguration().isFair() || waitQueue.isHead(waiter))
             {
-               if (pool.getConfiguration().isValidateOnMatch())
+               cl = findConnectionListener();
+               if (cl != null)
                {
-                  ConnectionListener result = validateConnectionListener(listeners, cl, IN_USE);
-                  if (result != null)
-                  {
-                     result.fromPool();
-                     return result;
-                  }
-                  else
-                  {
-                     if (pool.getConfiguration().isUseFastFail())
-                        break;
-                  }
-               }
-               else
-               {
-                  if (cl.changeState(VALIDATION, IN_USE))
-                  {
-                     cl.fromPool();
+                  if (waitQueue.cancel(waiter))
                      return cl;
-                  }
-                  else
-                  {
-                     destroyAndRemoveConnectionListener(cl, listeners);
-                  }
+
+                  // We got a hand-off too, so the extra connection listener goes back
+                  release(cl);
+                  break;
                }
             }
-         }
+            else if (!pool.isFull())
+            {
+               PoolFiller.fillPool(new FillRequest(this, getConnectionListenerCount() + waitQueue.size()));
+            }
 
-         if (!pool.isFull())
-         {
-            try
+            cl = waitQueue.await(waiter, deadline);
+            if (cl != null)
             {
-               listeners.addFirst(pool.createConnectionListener(credential));
+               cl.fromPool();
+               return cl;
             }
-            catch (ResourceException re)
+
+            if (waiter.getFailure() != null || System.nanoTime() - deadline >= 0L)
+               break;
+         }
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch (ResourceException re)
+      {
+         if (!waitQueue.cancel(waiter) && waiter.getConnectionListener() != null)
+            release(waiter.getConnectionListener());
+
+         throw re;
+      }
+
+      if (!waitQueue.cancel(waiter))
+      {
+         if (waiter.getFailure() != null)
+            throw waiter.getFailure();
+
+         ConnectionListener cl = waiter.getConnectionListener();
+         cl.fromPool();
+         return cl;
+      }
+
+      return null;
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * A free connection listener completes the stage in the calling thread. Otherwise the request
+    * waits in the wait queue without holding a thread, a connection listener is created in the
+    * background if the pool isn't full, and the stage is completed by the hand-off
+    */
+   @Override
+   public CompletionStage<ConnectionListener> getConnectionListenerAsync()
+   {
+      final CompletableFuture<ConnectionListener> future = new CompletableFuture<ConnectionListener>();
+
+      if (pool.isShutdown() || pool.getCircuitBreaker().isOpen())
+      {
+         future.completeExceptionally(new ResourceException("No ConnectionListener"));
+         return future;
+      }
+
+      // Fair mode doesn't allow new requests to barge ahead of threads already waiting
+      if (!pool.getConfiguration().isFair() || !waitQueue.hasWaiters())
+      {
+         ConnectionListener cl = findFreeConnectionListener();
+         if (cl != null)
+         {
+            future.complete(cl);
+            return future;
+         }
+      }
+
+      final WaitQueue.Waiter waiter = waitQueue.enqueue(future);
+
+      // A connection listener may have been returned before we were enqueued. Fair mode only
+      // lets the head of the queue take it, the others wait for a hand-off in their turn
+      ConnectionListener cl = null;
+      if (!pool.getConfiguration().isFair() || waitQueue.isHead(waiter))
+         cl = findFreeConnectionListener();
+
+      if (cl != null)
+      {
+         if (waitQueue.cancel(waiter))
+         {
+            future.complete(cl);
+            return future;
+         }
+
+         // We got a hand-off too, so the extra connection listener goes back
+         release(cl);
+      }
+      else if (!pool.isFull())
+      {
+         PoolFiller.fillPool(new FillRequest(this, getConnectionListenerCount() + waitQueue.size()));
+      }
+
+      final Future<?> timeout = pool.scheduleTimeout(new Runnable()
+      {
+         public void run()
+         {
+            if (waitQueue.cancel(waiter))
+               future.completeExceptionally(AbstractPool.timedOut());
+         }
+      }, pool.getConfiguration().getBlockingTimeout());
+
+      final CompletableFuture<ConnectionListener> result = new CompletableFuture<ConnectionListener>();
+
+      future.whenComplete(new BiConsumer<ConnectionListener, Throwable>()
+      {
+         public void accept(ConnectionListener cl, Throwable t)
+         {
+            timeout.cancel(false);
+
+            if (t != null)
             {
+               result.completeExceptionally(t);
             }
-            finally
+            else
             {
-               prefill();
+               cl.fromPool();
+
+               // The caller cancelled the request while the connection listener was handed off
+               if (!result.complete(cl))
+                  release(cl);
             }
          }
+      });
 
-         Thread.yield();
+      result.whenComplete(new BiConsumer<ConnectionListener, Throwable>()
+      {
+         public void accept(ConnectionListener cl, Throwable t)
+         {
+            if (result.isCancelled() && waitQueue.cancel(waiter))
+               timeout.cancel(false);
+         }
+      });
+
+      return result;
+   }
+
+   /**
+    * Find a free connection listener, or create a new one if the pool isn't full
+    * @return The connection listener in the IN_USE state, or <code>null</code> if none is available
+    * @exception ResourceException Thrown if the circuit breaker of the pool is open, or if the
+    *            connection listener couldn't be created while none can be handed off
+    */
+   private ConnectionListener findConnectionListener() throws ResourceException
+   {
+      ConnectionListener cl = findFreeConnectionListener();
+      if (cl != null)
+         return cl;
+
+      if (!pool.isFull())
+      {
+         try
+         {
+            cl = pool.createConnectionListener(credential);
+            cl.setState(IN_USE);
+            cl.fromPool();
+            addConnectionListener(cl);
+            return cl;
+         }
+         catch (ResourceException re)
+         {
+            // Waiting only makes sense if a connection listener can be handed off
+            if (pool.getCircuitBreaker().isOpen() || isDrained())
+               throw re;
+         }
+         finally
+         {
+            prefill();
+         }
+      }
+
+      return null;
+   }
+
+   /**
+    * Release a connection listener owned by the caller, either to a waiting thread or to the pool
+    * @param cl The connection listener in the IN_USE state
+    */
+   private void release(ConnectionListener cl)
+   {
+      if (!waitQueue.offer(cl))
+      {
+         if (cl.changeState(IN_USE, FREE))
+         {
+            freeConnectionListener(cl);
+         }
+         else
+         {
+            destroyAndRemoveConnectionListener(cl);
+         }
       }
+   }
 
-      throw new ResourceException("No ConnectionListener");
+   /**
+    * Notify a waiting thread that the pool has capacity for a new connection listener.
+    * An asynchronous waiter can't retry by itself, so a connection listener is created for it
+    */
+   void capacityAvailable()
+   {
+      if (!waitQueue.signal() && waitQueue.hasWaiters() && !pool.isShutdown())
+         PoolFiller.fillPool(new FillRequest(this, getConnectionListenerCount() + 1));
    }
 
    /**
@@ -153,16 +378,46 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
     */
    public void returnConnectionListener(ConnectionListener cl, boolean kill) throws ResourceException
    {
+      boolean expired = !kill && isExpired(cl);
+      if (expired)
+         kill = true;
+
       if (!kill)
       {
          if (cl.changeState(IN_USE, TO_POOL))
          {
             try
             {
-               cl.getManagedConnection().cleanup();
+               if (pool.getStatistics().isEnabled())
+               {
+                  long start = System.nanoTime();
+                  cl.getManagedConnection().cleanup();
+                  pool.getStatistics().deltaCleanup(System.nanoTime() - start);
+               }
+               else
+               {
+                  cl.getManagedConnection().cleanup();
+               }
                cl.toPool();
-               if (!cl.changeState(TO_POOL, FREE))
+               if (cl.changeState(TO_POOL, IN_USE))
+               {
+                  if (!waitQueue.offer(cl))
+                  {
+                     if (cl.changeState(IN_USE, FREE))
+                     {
+                        setLastReturned(cl);
+                        freeConnectionListener(cl);
+                     }
+                     else
+                     {
+                        kill = true;
+                     }
+                  }
+               }
+               else
+               {
                   kill = true;
+               }
             }
             catch (ResourceException re)
             {
@@ -183,9 +438,12 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
          }
          finally
          {
-            listeners.remove(cl);
+            removeConnectionListener(cl);
          }
       }
+
+      if (expired)
+         replaceConnectionListeners(1);
    }
 
 
@@ -193,41 +451,62 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
    /**
     * {@inheritDoc}
     */
-   public synchronized void shutdown()
+   public void shutdown()
    {
-      if (pool.getConfiguration().isBackgroundValidation() &&
-          pool.getConfiguration().getBackgroundValidationMillis() > 0)
+      lock.lock();
+      try
       {
-         ConnectionValidator.getInstance().unregisterPool(this);
-      }
-
-      if (pool.getConfiguration().getIdleTimeoutMinutes() > 0)
-      {
-         IdleConnectionRemover.getInstance().unregisterPool(this);
-      }
+         if (pool.getConfiguration().isBackgroundValidation() &&
+             pool.getConfiguration().getBackgroundValidationMillis() > 0)
+         {
+            ConnectionValidator.getInstance().unregisterPool(this);
+         }
 
-      for (ConnectionListener cl : listeners)
-      {
-         if (cl.getState() == IN_USE)
+         if (pool.getConfiguration().getIdleTimeoutMinutes() > 0)
          {
-            // TODO
+            IdleConnectionRemover.getInstance().unregisterPool(this);
          }
-         else if (cl.getState() == DESTROY)
+
+         if (pool.getConfiguration().getMaxLifetime() > 0)
          {
-            // TODO
+            ConnectionRecycler.getInstance().unregisterPool(this);
          }
-         
-         try
+
+         if (pool.getConfiguration().isElastic())
          {
-            pool.destroyConnectionListener(cl);
+            PoolResizer.getInstance().unregisterPool(this);
          }
-         catch (ResourceException re)
+
+         for (ConnectionListener cl : listeners)
          {
-            // TODO
-            cl.setState(ZOMBIE);
+            if (cl.getState() == IN_USE)
+            {
+               // TODO
+            }
+            else if (cl.getState() == DESTROY)
+            {
+               // TODO
+            }
+         
+            try
+            {
+               pool.destroyConnectionListener(cl);
+            }
+            catch (ResourceException re)
+            {
+               // TODO
+               cl.setState(ZOMBIE);
+            }
          }
+         clearConnectionListeners();
+
+         // Let waiting threads fail fast
+         waitQueue.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
       }
-      listeners.clear();
    }
 
    /**
@@ -237,11 +516,12 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
    public void prefill()
    {
       if (credential.equals(pool.getPrefillCredential()) &&
-          pool.getConfiguration().isPrefill() &&
-          pool.getConfiguration().getMinSize() > 0 &&
-          listeners.size() < pool.getConfiguration().getMinSize())
+          pool.getConfiguration().isPrefill())
       {
-         PoolFiller.fillPool(new FillRequest(this, pool.getConfiguration().getMinSize()));
+         int target = pool.getTargetSize();
+
+         if (target > 0 && getConnectionListenerCount() < target)
+            PoolFiller.fillPool(new FillRequest(this, target));
       }
    }
 
@@ -270,24 +550,40 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
             return;
          }
 
-         // We already have enough connections
-         if (listeners.size() >= size)
+         // We already have enough connections, or they are being created
+         if (!reserveFill(size))
          {
             return;
          }
 
          // Create a connection to fill the pool
+         ConnectionListener cl = null;
          try
          {
-            ConnectionListener cl = pool.createConnectionListener(credential);
+            cl = pool.createConnectionListener(credential);
+         }
+         catch (ResourceException re)
+         {
+            releaseFill();
+
+            // Nothing can be handed off to the waiting threads, so they get the cause
+            if (isDrained())
+               waitQueue.failAll(re);
 
+            return;
+         }
+
+         try
+         {
             //TODO:Trace
             boolean added = false;
 
-            if (listeners.size() < size)
+            if (getConnectionListenerCount() < size)
             {
-
-               listeners.add(cl);
+               // Owned by us until it has been offered to the waiting threads
+               cl.setState(IN_USE);
+               addConnectionListener(cl);
+               release(cl);
                added = true;
             }
 
@@ -302,6 +598,10 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
          {
             return;
          }
+         finally
+         {
+            releaseFill();
+         }
 
       }
    }
@@ -317,28 +617,7 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
 
       if (mcf instanceof ValidatingManagedConnectionFactory)
       {
-         ValidatingManagedConnectionFactory vcf = (ValidatingManagedConnectionFactory)mcf;
-         long timestamp = System.currentTimeMillis();
-
-         for (ConnectionListener cl : listeners)
-         {
-            if (cl.changeState(FREE, VALIDATION))
-            {
-               if (cl.getValidated() + pool.getConfiguration().getBackgroundValidationMillis() < timestamp)
-               {
-                  ConnectionListener result = validateConnectionListener(listeners, cl, FREE);
-                  if (result == null)
-                     anyDestroyed = true;
-               }
-               else
-               {
-                  if (!cl.changeState(VALIDATION, FREE))
-                  {
-                     destroyAndRemoveConnectionListener(cl, listeners);
-                  }
-               }
-            }
-         }
+         anyDestroyed = validateFreeConnectionListeners();
       }
       else
       {
@@ -356,23 +635,7 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
    {
       long timeout = System.currentTimeMillis() - pool.getConfiguration().getIdleTimeoutMinutes() * 1000L * 60;
 
-      for (ConnectionListener cl : listeners)
-      {
-         if (cl.changeState(FREE, VALIDATION))
-         {
-            if (cl.getToPool() < timeout)
-            {
-               destroyAndRemoveConnectionListener(cl, listeners);
-            }
-            else
-            {
-               if (!cl.changeState(VALIDATION, FREE))
-               {
-                  destroyAndRemoveConnectionListener(cl, listeners);
-               }
-            }
-         }
-      }
+      removeIdleConnectionListeners(timeout);
 
       if (!pool.isShutdown())
       {
@@ -395,7 +658,7 @@ public class DefaultManagedConnectionPool extends AbstractManagedConnectionPool
          }
 
          // Empty pool
-         if (emptyManagedConnectionPool && listeners.size() == 0)
+         if (emptyManagedConnectionPool && getConnectionListenerCount() == 0)
             pool.emptyManagedConnectionPool(this);
       }
    }
@@ -69,13 +69,22 @@ public class DefaultPool extends AbstractPool
    public ConnectionListener createConnectionListener(Credential credential)
       throws ResourceException
    {
+      checkCircuitBreaker();
+
       try
       {
          if (semaphore.tryAcquire(poolConfiguration.getBlockingTimeout(), TimeUnit.MILLISECONDS))
          {
-            ManagedConnection mc =
-               cm.getManagedConnectionFactory().createManagedConnection(credential.getSubject(),
-                                                                        credential.getConnectionRequestInfo());
+            ManagedConnection mc = null;
+            try
+            {
+               mc = createManagedConnection(credential);
+            }
+            finally
+            {
+               if (mc == null)
+                  semaphore.release();
+            }
 
             if (cm.getTransactionSupport() == TransactionSupportLevel.NoTransaction)
             {
@@ -120,6 +129,12 @@ public class DefaultPool extends AbstractPool
       {
          cl.setState(DESTROYED);
          semaphore.release();
+
+         if (statistics.isEnabled())
+            statistics.deltaDestroyed();
+
+         for (ManagedConnectionPool mcp : pools.values())
+            ((DefaultManagedConnectionPool)mcp).capacityAvailable();
       }
    }
 
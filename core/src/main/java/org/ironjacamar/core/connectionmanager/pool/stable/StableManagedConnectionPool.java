@@ -24,19 +24,19 @@ package org.ironjacamar.core.connectionmanager.pool.stable;
 import org.ironjacamar.core.connectionmanager.Credential;
 import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
 import org.ironjacamar.core.connectionmanager.pool.AbstractManagedConnectionPool;
+import org.ironjacamar.core.connectionmanager.pool.ConnectionRecycler;
 import org.ironjacamar.core.connectionmanager.pool.ConnectionValidator;
 import org.ironjacamar.core.connectionmanager.pool.FillRequest;
 import org.ironjacamar.core.connectionmanager.pool.IdleConnectionRemover;
 import org.ironjacamar.core.connectionmanager.pool.PoolFiller;
+import org.ironjacamar.core.connectionmanager.pool.PoolResizer;
 
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.DESTROY;
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.FREE;
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.IN_USE;
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.TO_POOL;
-import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.VALIDATION;
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.ZOMBIE;
 
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.TimeUnit;
 
 import javax.resource.ResourceException;
@@ -53,11 +53,6 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
     */
    private StablePool pool;
 
-   /**
-    * The connection listeners
-    */
-   private ConcurrentLinkedDeque<ConnectionListener> listeners;
-
    /**
     * Constructor
     *
@@ -68,7 +63,6 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
    {
       super(pool, credential);
       this.pool = pool;
-      this.listeners = new ConcurrentLinkedDeque<ConnectionListener>();
 
       if (credential.equals(pool.getPrefillCredential()) &&
           pool.getConfiguration().isPrefill() &&
@@ -90,61 +84,62 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
          IdleConnectionRemover.getInstance().registerPool(this,
                                                           pool.getConfiguration().getIdleTimeoutMinutes() * 60 * 1000L);
       }
+
+      if (pool.getConfiguration().isElastic() && credential.equals(pool.getPrefillCredential()))
+      {
+         //Register elastic sizing
+         PoolResizer.getInstance().registerPool(this,
+            PoolResizer.getInterval(pool.getConfiguration().getElasticWindowMillis()));
+      }
+
+      if (pool.getConfiguration().getMaxLifetime() > 0)
+      {
+         //Register recycling of expired connections
+         ConnectionRecycler.getInstance().registerPool(this,
+            ConnectionRecycler.getInterval(pool.getConfiguration().getMaxLifetime()));
+      }
    }
 
    /**
     * {@inheritDoc}
     */
    public ConnectionListener getConnectionListener() throws ResourceException
+   {
+      ConnectionListener cl = tryGetConnectionListener(pool.getConfiguration().getBlockingTimeout());
+      if (cl == null)
+         throw new ResourceException("No ConnectionListener");
+
+      return cl;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public ConnectionListener tryGetConnectionListener(long timeout) throws ResourceException
    {
       // Use request semaphore, as a fair queue across all credentials
       try
       {
-         if (pool.getRequestSemaphore().tryAcquire(pool.getConfiguration().getBlockingTimeout(), TimeUnit.MILLISECONDS))
+         if (pool.getRequestSemaphore().tryAcquire(timeout, TimeUnit.MILLISECONDS))
          {
-            for (ConnectionListener cl : listeners)
-            {
-               if (cl.changeState(FREE, VALIDATION))
-               {
-                  if (pool.getConfiguration().isValidateOnMatch())
-                  {
-                     ConnectionListener result = validateConnectionListener(listeners, cl, IN_USE);
-                     if (result != null)
-                     {
-                        result.fromPool();
-                        return result;
-                     }
-                     else
-                     {
-                        if (pool.getConfiguration().isUseFastFail())
-                           break;
-                     }
-                  }
-                  else
-                  {
-                     if (cl.changeState(VALIDATION, IN_USE))
-                     {
-                        cl.fromPool();
-                        return cl;
-                     }
-                     else
-                     {
-                        destroyAndRemoveConnectionListener(cl, listeners);
-                     }
-                  }
-               }
-            }
+            ConnectionListener cl = findFreeConnectionListener();
+            if (cl != null)
+               return cl;
 
             try
             {
-               ConnectionListener cl = pool.createConnectionListener(credential);
+               cl = pool.createConnectionListener(credential);
                cl.setState(IN_USE);
                cl.fromPool();
-               listeners.addLast(cl);
+               addConnectionListener(cl);
                return cl;
             }
             catch (ResourceException re)
             {
+               pool.getRequestSemaphore().release();
+
+               if (pool.getCircuitBreaker().isOpen())
+                  throw re;
             }
             finally
             {
@@ -152,12 +147,12 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
             }
          }
       }
-      catch (Exception e)
+      catch (InterruptedException ie)
       {
-         // TODO
+         Thread.currentThread().interrupt();
       }
 
-      throw new ResourceException("No ConnectionListener");
+      return null;
    }
 
    /**
@@ -165,6 +160,10 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
     */
    public void returnConnectionListener(ConnectionListener cl, boolean kill) throws ResourceException
    {
+      boolean expired = !kill && isExpired(cl);
+      if (expired)
+         kill = true;
+
       try
       {
          if (!kill)
@@ -173,10 +172,26 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
             {
                try
                {
-                  cl.getManagedConnection().cleanup();
+                  if (pool.getStatistics().isEnabled())
+                  {
+                     long start = System.nanoTime();
+                     cl.getManagedConnection().cleanup();
+                     pool.getStatistics().deltaCleanup(System.nanoTime() - start);
+                  }
+                  else
+                  {
+                     cl.getManagedConnection().cleanup();
+                  }
                   cl.toPool();
-                  if (!cl.changeState(TO_POOL, FREE))
+                  if (cl.changeState(TO_POOL, FREE))
+                  {
+                     setLastReturned(cl);
+                     freeConnectionListener(cl);
+                  }
+                  else
+                  {
                      kill = true;
+                  }
                }
                catch (ResourceException re)
                {
@@ -197,7 +212,7 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
             }
             finally
             {
-               listeners.remove(cl);
+               removeConnectionListener(cl);
             }
          }
       }
@@ -205,46 +220,67 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
       {
          pool.getRequestSemaphore().release();
       }
+
+      if (expired)
+         replaceConnectionListeners(1);
    }
 
    /**
     * {@inheritDoc}
     */
-   public synchronized void shutdown()
+   public void shutdown()
    {
-      if (pool.getConfiguration().isBackgroundValidation() &&
-          pool.getConfiguration().getBackgroundValidationMillis() > 0)
-      {
-         ConnectionValidator.getInstance().unregisterPool(this);
-      }
-
-      if (pool.getConfiguration().getIdleTimeoutMinutes() > 0)
+      lock.lock();
+      try
       {
-         IdleConnectionRemover.getInstance().unregisterPool(this);
-      }
+         if (pool.getConfiguration().isBackgroundValidation() &&
+             pool.getConfiguration().getBackgroundValidationMillis() > 0)
+         {
+            ConnectionValidator.getInstance().unregisterPool(this);
+         }
 
-      for (ConnectionListener cl : listeners)
-      {
-         if (cl.getState() == IN_USE)
+         if (pool.getConfiguration().getIdleTimeoutMinutes() > 0)
          {
-            // TODO
+            IdleConnectionRemover.getInstance().unregisterPool(this);
          }
-         else if (cl.getState() == DESTROY)
+
+         if (pool.getConfiguration().getMaxLifetime() > 0)
          {
-            // TODO
+            ConnectionRecycler.getInstance().unregisterPool(this);
          }
 
-         try
+         if (pool.getConfiguration().isElastic())
          {
-            pool.destroyConnectionListener(cl);
+            PoolResizer.getInstance().unregisterPool(this);
          }
-         catch (ResourceException re)
+
+         for (ConnectionListener cl : listeners)
          {
-            // TODO
-            cl.setState(ZOMBIE);
+            if (cl.getState() == IN_USE)
+            {
+               // TODO
+            }
+            else if (cl.getState() == DESTROY)
+            {
+               // TODO
+            }
+
+            try
+            {
+               pool.destroyConnectionListener(cl);
+            }
+            catch (ResourceException re)
+            {
+               // TODO
+               cl.setState(ZOMBIE);
+            }
          }
+         clearConnectionListeners();
+      }
+      finally
+      {
+         lock.unlock();
       }
-      listeners.clear();
    }
 
    /**
@@ -254,11 +290,12 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
    public void prefill()
    {
       if (credential.equals(pool.getPrefillCredential()) &&
-          pool.getConfiguration().isPrefill() &&
-          pool.getConfiguration().getMinSize() > 0 &&
-          listeners.size() < pool.getConfiguration().getMinSize())
+          pool.getConfiguration().isPrefill())
       {
-         PoolFiller.fillPool(new FillRequest(this, pool.getConfiguration().getMinSize()));
+         int target = pool.getTargetSize();
+
+         if (target > 0 && getConnectionListenerCount() < target)
+            PoolFiller.fillPool(new FillRequest(this, target));
       }
    }
 
@@ -292,8 +329,8 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
                      return;
                   }
 
-                  // We already have enough connections
-                  if (listeners.size() >= size)
+                  // We already have enough connections, or they are being created
+                  if (!reserveFill(size))
                   {
                      return;
                   }
@@ -306,10 +343,10 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
                      //TODO:Trace
                      boolean added = false;
 
-                     if (listeners.size() < size)
+                     if (getConnectionListenerCount() < size)
                      {
-
-                        listeners.add(cl);
+                        addConnectionListener(cl);
+                        freeConnectionListener(cl);
                         added = true;
                      }
 
@@ -324,6 +361,10 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
                   {
                      return;
                   }
+                  finally
+                  {
+                     releaseFill();
+                  }
                }
                finally
                {
@@ -350,28 +391,7 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
 
       if (mcf instanceof ValidatingManagedConnectionFactory)
       {
-         ValidatingManagedConnectionFactory vcf = (ValidatingManagedConnectionFactory)mcf;
-         long timestamp = System.currentTimeMillis();
-
-         for (ConnectionListener cl : listeners)
-         {
-            if (cl.changeState(FREE, VALIDATION))
-            {
-               if (cl.getValidated() + pool.getConfiguration().getBackgroundValidationMillis() < timestamp)
-               {
-                  ConnectionListener result = validateConnectionListener(listeners, cl, FREE);
-                  if (result == null)
-                     anyDestroyed = true;
-               }
-               else
-               {
-                  if (!cl.changeState(VALIDATION, FREE))
-                  {
-                     destroyAndRemoveConnectionListener(cl, listeners);
-                  }
-               }
-            }
-         }
+         anyDestroyed = validateFreeConnectionListeners();
       }
       else
       {
@@ -389,23 +409,7 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
    {
       long timeout = System.currentTimeMillis() - pool.getConfiguration().getIdleTimeoutMinutes() * 1000L * 60;
 
-      for (ConnectionListener cl : listeners)
-      {
-         if (cl.changeState(FREE, VALIDATION))
-         {
-            if (cl.getToPool() < timeout)
-            {
-               destroyAndRemoveConnectionListener(cl, listeners);
-            }
-            else
-            {
-               if (!cl.changeState(VALIDATION, FREE))
-               {
-                  destroyAndRemoveConnectionListener(cl, listeners);
-               }
-            }
-         }
-      }
+      removeIdleConnectionListeners(timeout);
 
       if (!pool.isShutdown())
       {
@@ -428,7 +432,7 @@ public class StableManagedConnectionPool extends AbstractManagedConnectionPool
          }
 
          // Empty pool
-         if (emptyManagedConnectionPool && listeners.size() == 0)
+         if (emptyManagedConnectionPool && getConnectionListenerCount() == 0)
             pool.emptyManagedConnectionPool(this);
       }
    }
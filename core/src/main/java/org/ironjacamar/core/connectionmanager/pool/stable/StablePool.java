@@ -31,15 +31,14 @@ import org.ironjacamar.core.connectionmanager.listener.stable.NoTransactionConne
 import org.ironjacamar.core.connectionmanager.listener.stable.XATransactionConnectionListener;
 import org.ironjacamar.core.connectionmanager.pool.AbstractPool;
 import org.ironjacamar.core.connectionmanager.pool.ManagedConnectionPool;
+import org.ironjacamar.core.connectionmanager.pool.TransactionMap;
 
-import java.util.Map;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import javax.resource.ResourceException;
 import javax.resource.spi.ManagedConnection;
 import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
-import javax.transaction.Transaction;
 
 import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.DESTROYED;
 
@@ -77,13 +76,22 @@ public class StablePool extends AbstractPool
    public ConnectionListener createConnectionListener(Credential credential)
       throws ResourceException
    {
+      checkCircuitBreaker();
+
       try
       {
          if (semaphore.tryAcquire(poolConfiguration.getBlockingTimeout(), TimeUnit.MILLISECONDS))
          {
-            ManagedConnection mc =
-               cm.getManagedConnectionFactory().createManagedConnection(credential.getSubject(),
-                                                                        credential.getConnectionRequestInfo());
+            ManagedConnection mc = null;
+            try
+            {
+               mc = createManagedConnection(credential);
+            }
+            finally
+            {
+               if (mc == null)
+                  semaphore.release();
+            }
 
             if (cm.getTransactionSupport() == TransactionSupportLevel.NoTransaction)
             {
@@ -128,9 +136,21 @@ public class StablePool extends AbstractPool
       {
          cl.setState(DESTROYED);
          semaphore.release();
+
+         if (statistics.isEnabled())
+            statistics.deltaDestroyed();
       }
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   protected TransactionMap createTransactionMap()
+   {
+      return new TransactionMap(true);
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -145,25 +165,23 @@ public class StablePool extends AbstractPool
     * @return The transaction object if in use, or null if not
     * @exception ResourceException Thrown in case of an error
     */
-   public synchronized Object verifyConnectionListener(ConnectionListener cl) throws ResourceException
+   public Object verifyConnectionListener(ConnectionListener cl) throws ResourceException
    {
-      for (Map.Entry<Object, Map<ManagedConnectionPool, ConnectionListener>> entry : transactionMap.entrySet())
+      Object key = transactionMap.getTransactionKey(cl);
+
+      if (key != null)
       {
-         if (entry.getValue().values().contains(cl))
+         try
          {
-            try
-            {
-               TransactionalConnectionManager txCM = (TransactionalConnectionManager)cm;
-               Transaction tx = txCM.getTransactionIntegration().getTransactionManager().getTransaction();
-               Object id = txCM.getTransactionIntegration().getTransactionSynchronizationRegistry().getTransactionKey();
+            TransactionalConnectionManager txCM = (TransactionalConnectionManager)cm;
+            Object id = txCM.getTransactionIntegration().getTransactionSynchronizationRegistry().getTransactionKey();
 
-               if (!id.equals(entry.getKey()))
-                  return entry.getKey();
-            }
-            catch (Exception e)
-            {
-               throw new ResourceException(e);
-            }
+            if (!key.equals(id))
+               return key;
+         }
+         catch (Exception e)
+         {
+            throw new ResourceException(e);
          }
       }
 
@@ -0,0 +1,91 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool.striped;
+
+import org.ironjacamar.core.api.connectionmanager.pool.PoolConfiguration;
+import org.ironjacamar.core.connectionmanager.ConnectionManager;
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.pool.ManagedConnectionPool;
+import org.ironjacamar.core.connectionmanager.pool.dflt.DefaultManagedConnectionPool;
+import org.ironjacamar.core.connectionmanager.pool.dflt.DefaultPool;
+
+/**
+ * The striped pool.
+ *
+ * The free connection listeners of each managed connection pool are split into stripes, one per
+ * CPU up to max-pool-size, selected by thread hash. A thread steals from the neighbouring stripes
+ * when its own stripe is empty, and the pool wide semaphore keeps max-pool-size as the global maximum
+ *
+ * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class StripedPool extends DefaultPool
+{
+   /** The number of stripes */
+   private final int stripes;
+
+   /**
+    * Constructor for the service loader
+    */
+   public StripedPool()
+   {
+      this(null, new PoolConfiguration());
+   }
+
+   /**
+    * Constructor
+    * @param cm The connection manager
+    * @param pc The pool configuration
+    */
+   public StripedPool(ConnectionManager cm, PoolConfiguration pc)
+   {
+      super(cm, pc);
+      this.stripes = getStripes(Runtime.getRuntime().availableProcessors(), pc.getMaxSize());
+   }
+
+   /**
+    * Get the number of stripes
+    * @param cpus The number of CPUs
+    * @param maxSize The max size
+    * @return The value; a power of two
+    */
+   static int getStripes(int cpus, int maxSize)
+   {
+      return Integer.highestOneBit(Math.max(1, Math.min(cpus, maxSize)));
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String getType()
+   {
+      return "striped";
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public ManagedConnectionPool createManagedConnectionPool(Credential credential)
+   {
+      return new DefaultManagedConnectionPool(this, credential, stripes);
+   }
+}
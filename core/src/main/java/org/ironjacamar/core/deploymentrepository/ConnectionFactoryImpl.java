@@ -23,14 +23,19 @@ package org.ironjacamar.core.deploymentrepository;
 
 import org.ironjacamar.common.api.metadata.resourceadapter.ConnectionDefinition;
 import org.ironjacamar.core.api.connectionmanager.ConnectionManager;
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
 import org.ironjacamar.core.api.deploymentrepository.ConfigProperty;
 import org.ironjacamar.core.api.deploymentrepository.ConnectionFactory;
 import org.ironjacamar.core.api.deploymentrepository.Pool;
 import org.ironjacamar.core.api.deploymentrepository.Recovery;
+import org.ironjacamar.core.connectionmanager.pool.XAResourceStatisticsImpl;
 import org.ironjacamar.core.spi.naming.JndiStrategy;
 import org.ironjacamar.core.spi.statistics.StatisticsPlugin;
+import org.ironjacamar.core.spi.transaction.XAResourceStatistics;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * A connection factory implementation
@@ -59,6 +64,9 @@ public class ConnectionFactoryImpl implements ConnectionFactory
    /** The statistics */
    private StatisticsPlugin statistics;
    
+   /** The XAResource statistics */
+   private XAResourceStatistics xaStatistics;
+   
    /** The recovery */
    private Recovery recovery;
    
@@ -74,6 +82,7 @@ public class ConnectionFactoryImpl implements ConnectionFactory
     * @param connectionManager The connection manager
     * @param pool The pool
     * @param statistics The statistics
+    * @param xaStatistics The XAResource statistics
     * @param recovery The recovery module
     * @param jndiStrategy The JNDI strategy
     */
@@ -84,6 +93,7 @@ public class ConnectionFactoryImpl implements ConnectionFactory
                                 ConnectionManager connectionManager,
                                 Pool pool,
                                 StatisticsPlugin statistics,
+                                XAResourceStatistics xaStatistics,
                                 Recovery recovery,
                                 JndiStrategy jndiStrategy)
    {
@@ -94,6 +104,7 @@ public class ConnectionFactoryImpl implements ConnectionFactory
       this.connectionManager = connectionManager;
       this.pool = pool;
       this.statistics = statistics;
+      this.xaStatistics = xaStatistics;
       this.recovery = recovery;
       this.jndiStrategy = jndiStrategy;
    }
@@ -154,6 +165,25 @@ public class ConnectionFactoryImpl implements ConnectionFactory
       return statistics;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public XAResourceStatistics getXAResourceStatistics()
+   {
+      return xaStatistics;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Map<String, HistogramSnapshot> getXAResourceHistograms(boolean reset)
+   {
+      if (xaStatistics instanceof XAResourceStatisticsImpl)
+         return ((XAResourceStatisticsImpl)xaStatistics).getHistograms(reset);
+
+      return Collections.emptyMap();
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -21,9 +21,14 @@
 
 package org.ironjacamar.core.deploymentrepository;
 
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
 import org.ironjacamar.core.api.deploymentrepository.Pool;
+import org.ironjacamar.core.connectionmanager.pool.PoolStatisticsImpl;
 import org.ironjacamar.core.spi.statistics.StatisticsPlugin;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * A pool implementation
  * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
@@ -63,4 +68,15 @@ public class PoolImpl implements Pool
    {
       return statistics;
    }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Map<String, HistogramSnapshot> getHistograms(boolean reset)
+   {
+      if (statistics instanceof PoolStatisticsImpl)
+         return ((PoolStatisticsImpl)statistics).getHistograms(reset);
+
+      return Collections.emptyMap();
+   }
 }
@@ -21,17 +21,18 @@
 
 package org.ironjacamar.core.security;
 
-import org.ironjacamar.core.spi.security.SubjectFactory;
+import org.ironjacamar.core.spi.security.CachableSubjectFactory;
 
 import java.security.Principal;
+import java.util.Arrays;
 
 import javax.resource.spi.security.PasswordCredential;
 import javax.security.auth.Subject;
 
 /**
- * Implements a basic subject factory
+ * Implements a basic subject factory, which maps every caller to the configured user
  */
-public class DefaultSubjectFactory implements SubjectFactory
+public class DefaultSubjectFactory implements CachableSubjectFactory
 {
    /** The security domain name */
    private String securityDomain;
@@ -113,6 +114,17 @@ public class DefaultSubjectFactory implements SubjectFactory
       return subject;
    }
 
+   /**
+    * {@inheritDoc}
+    *
+    * The Subject doesn't depend on the caller, only on the configured user
+    */
+   @Override
+   public Object getIdentity(String securityDomain)
+   {
+      return Arrays.asList(userName, password);
+   }
+
    @Override
    public int hashCode()
    {
@@ -0,0 +1,40 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License 
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.spi.security;
+
+/**
+ * A subject factory which tells the identity that a Subject is created for, such that
+ * the connection manager can cache the Subject between allocations
+ * 
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public interface CachableSubjectFactory extends SubjectFactory
+{
+   /**
+    * Get the identity that {@link #createSubject(String)} creates the Subject for on the calling thread.
+    * A Subject is only shared between requests with equal identities, so the identity must
+    * reflect everything the Subject depends on, including the caller if the mapping uses it
+    * @param sd The security domain
+    * @return The identity
+    */
+   public Object getIdentity(String sd);
+}
@@ -56,10 +56,21 @@ public interface XAResourceStatistics extends StatisticsPlugin
 
    /**
     * Delta commit
-    * @param time The milliseconds
+    * @param time The nanoseconds
     */
    public void deltaCommit(long time);
 
+   /**
+    * Get the number of commits which were done in one phase
+    * @return The value
+    */
+   public long getCommitOnePhaseCount();
+
+   /**
+    * Delta one phase commit
+    */
+   public void deltaCommitOnePhase();
+
    /**
     * Get the end count
     * @return The value
@@ -86,7 +97,7 @@ public interface XAResourceStatistics extends StatisticsPlugin
 
    /**
     * Delta end
-    * @param time The milliseconds
+    * @param time The nanoseconds
     */
    public void deltaEnd(long time);
 
@@ -116,7 +127,7 @@ public interface XAResourceStatistics extends StatisticsPlugin
 
    /**
     * Delta forget
-    * @param time The milliseconds
+    * @param time The nanoseconds
     */
    public void deltaForget(long time);
 
@@ -146,10 +157,22 @@ public interface XAResourceStatistics extends StatisticsPlugin
 
    /**
     * Delta prepare
-    * @param time The milliseconds
+    * @param time The nanoseconds
     */
    public void deltaPrepare(long time);
 
+   /**
+    * Get the number of prepares where the resource answered read-only
+    * @return The value
+    */
+   public long getPrepareReadOnlyCount();
+
+   /**
+    * Delta prepare vote
+    * @param vote The vote of the resource; <code>XAResource.XA_OK</code> or <code>XAResource.XA_RDONLY</code>
+    */
+   public void deltaPrepareVote(int vote);
+
    /**
     * Get the recover count
     * @return The value
@@ -176,7 +199,7 @@ public interface XAResourceStatistics extends StatisticsPlugin
 
    /**
     * Delta recover
-    * @param time The milliseconds
+    * @param time The nanoseconds
     */
    public void deltaRecover(long time);
 
@@ -206,7 +229,7 @@ public interface XAResourceStatistics extends StatisticsPlugin
 
    /**
     * Delta rollback
-    * @param time The milliseconds
+    * @param time The nanoseconds
     */
    public void deltaRollback(long time);
 
@@ -236,7 +259,7 @@ public interface XAResourceStatistics extends StatisticsPlugin
 
    /**
     * Delta start
-    * @param time The milliseconds
+    * @param time The nanoseconds
     */
    public void deltaStart(long time);
 }
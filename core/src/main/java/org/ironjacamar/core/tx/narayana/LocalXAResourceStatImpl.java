@@ -54,14 +54,14 @@ public class LocalXAResourceStatImpl extends LocalXAResourceImpl
     */
    public void start(Xid xid, int flags) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
          super.start(xid, flags);
       }
       finally
       {
-         xastat.deltaStart(System.currentTimeMillis() - l1);
+         xastat.deltaStart(System.nanoTime() - l1);
       }
    }
 
@@ -70,14 +70,17 @@ public class LocalXAResourceStatImpl extends LocalXAResourceImpl
     */
    public void commit(Xid xid, boolean onePhase) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
          super.commit(xid, onePhase);
+
+         if (onePhase)
+            xastat.deltaCommitOnePhase();
       }
       finally
       {
-         xastat.deltaCommit(System.currentTimeMillis() - l1);
+         xastat.deltaCommit(System.nanoTime() - l1);
       }
    }
 
@@ -86,14 +89,14 @@ public class LocalXAResourceStatImpl extends LocalXAResourceImpl
     */
    public void rollback(Xid xid) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
          super.rollback(xid);
       }
       finally
       {
-         xastat.deltaRollback(System.currentTimeMillis() - l1);
+         xastat.deltaRollback(System.nanoTime() - l1);
       }
    }
 }
@@ -63,6 +63,9 @@ public class XAResourceWrapperImpl implements org.ironjacamar.core.spi.transacti
    /** Cached hashCode() */
    private transient int cachedHashCode;
 
+   /** The wrapper of the Xid of the current transaction branch */
+   private transient volatile XidWrapperImpl cachedXid;
+
    /**
     * Creates a new wrapper instance.
     * @param resource xaresource
@@ -259,8 +262,16 @@ public class XAResourceWrapperImpl implements org.ironjacamar.core.spi.transacti
    {
       if (xid instanceof XidWrapper)
          return xid;
-      else
-         return new XidWrapperImpl(xid, pad, jndiName);
+
+      // The transaction manager passes the same Xid instance for all the calls of a branch
+      XidWrapperImpl wrapper = cachedXid;
+      if (wrapper == null || !wrapper.wraps(xid))
+      {
+         wrapper = new XidWrapperImpl(xid, pad, jndiName);
+         cachedXid = wrapper;
+      }
+
+      return wrapper;
    }
    
    /**
@@ -74,14 +74,17 @@ public class XAResourceWrapperStatImpl extends XAResourceWrapperImpl
     */
    public void commit(Xid xid, boolean onePhase) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
          super.commit(xid, onePhase);
+
+         if (onePhase)
+            xastat.deltaCommitOnePhase();
       }
       finally
       {
-         xastat.deltaCommit(System.currentTimeMillis() - l1);
+         xastat.deltaCommit(System.nanoTime() - l1);
       }
    }
 
@@ -90,14 +93,14 @@ public class XAResourceWrapperStatImpl extends XAResourceWrapperImpl
     */
    public void end(Xid xid, int flags) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
          super.end(xid, flags);
       }
       finally
       {
-         xastat.deltaEnd(System.currentTimeMillis() - l1);
+         xastat.deltaEnd(System.nanoTime() - l1);
       }
    }
 
@@ -106,14 +109,14 @@ public class XAResourceWrapperStatImpl extends XAResourceWrapperImpl
     */
    public void forget(Xid xid) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
          super.forget(xid);
       }
       finally
       {
-         xastat.deltaForget(System.currentTimeMillis() - l1);
+         xastat.deltaForget(System.nanoTime() - l1);
       }
    }
 
@@ -122,14 +125,16 @@ public class XAResourceWrapperStatImpl extends XAResourceWrapperImpl
     */
    public int prepare(Xid xid) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
-         return super.prepare(xid);
+         int vote = super.prepare(xid);
+         xastat.deltaPrepareVote(vote);
+         return vote;
       }
       finally
       {
-         xastat.deltaPrepare(System.currentTimeMillis() - l1);
+         xastat.deltaPrepare(System.nanoTime() - l1);
       }
    }
 
@@ -138,14 +143,14 @@ public class XAResourceWrapperStatImpl extends XAResourceWrapperImpl
     */
    public Xid[] recover(int flag) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
          return super.recover(flag);
       }
       finally
       {
-         xastat.deltaRecover(System.currentTimeMillis() - l1);
+         xastat.deltaRecover(System.nanoTime() - l1);
       }
    }
 
@@ -154,14 +159,14 @@ public class XAResourceWrapperStatImpl extends XAResourceWrapperImpl
     */
    public void rollback(Xid xid) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
          super.rollback(xid);
       }
       finally
       {
-         xastat.deltaRollback(System.currentTimeMillis() - l1);
+         xastat.deltaRollback(System.nanoTime() - l1);
       }
    }
 
@@ -170,14 +175,14 @@ public class XAResourceWrapperStatImpl extends XAResourceWrapperImpl
     */
    public void start(Xid xid, int flags) throws XAException
    {
-      long l1 = System.currentTimeMillis();
+      long l1 = System.nanoTime();
       try
       {
          super.start(xid, flags);
       }
       finally
       {
-         xastat.deltaStart(System.currentTimeMillis() - l1);
+         xastat.deltaStart(System.nanoTime() - l1);
       }
    }
 }
@@ -29,6 +29,9 @@ import javax.transaction.xa.Xid;
 
 /**
  * A XidWrapper.
+ *
+ * Comparisons between wrappers use the internal arrays, and the hash code
+ * covers the format id, the global transaction id and the branch qualifier
  * 
  * @author <a href="wprice@redhat.com">Weston Price</a>
  * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
@@ -36,22 +39,25 @@ import javax.transaction.xa.Xid;
 public class XidWrapperImpl implements XidWrapper
 {
    /** The formatId */
-   private int formatId;
+   private final int formatId;
    
    /** The globalTransactionId */
-   private byte[] globalTransactionId;
+   private final byte[] globalTransactionId;
    
    /** The branchQualifier */
-   private byte[] branchQualifier;
+   private final byte[] branchQualifier;
 
    /** The jndi name */
-   private String jndiName;
+   private final String jndiName;
    
+   /** The hash code */
+   private final int hashCode;
+
+   /** The Xid that was wrapped */
+   private final transient Xid xid;
+
    /** Cached toString() */
    private transient String cachedToString;
-
-   /** Cached hashCode() */
-   private transient int cachedHashCode;
    
    /**
     * Creates a new XidWrapperImpl instance.
@@ -61,12 +67,14 @@ public class XidWrapperImpl implements XidWrapper
     */
    public XidWrapperImpl(Xid xid, boolean pad, String jndiName)
    {
-      this.branchQualifier = pad ? new byte[Xid.MAXBQUALSIZE] : new byte[xid.getBranchQualifier().length];      
-      System.arraycopy(xid.getBranchQualifier(), 0, branchQualifier, 0, xid.getBranchQualifier().length);      
+      byte[] bq = xid.getBranchQualifier();
 
+      this.branchQualifier = Arrays.copyOf(bq, pad ? Math.max(Xid.MAXBQUALSIZE, bq.length) : bq.length);
       this.globalTransactionId = xid.getGlobalTransactionId();
       this.formatId = xid.getFormatId();
       this.jndiName = jndiName;
+      this.xid = xid;
+      this.hashCode = 31 * (31 * formatId + Arrays.hashCode(globalTransactionId)) + Arrays.hashCode(branchQualifier);
    }
 
    /**
@@ -101,6 +109,16 @@ public class XidWrapperImpl implements XidWrapper
       return jndiName;
    }
    
+   /**
+    * Is this a wrapper of the Xid instance
+    * @param xid The Xid
+    * @return True if it wraps the instance, otherwise false
+    */
+   boolean wraps(Xid xid)
+   {
+      return this.xid == xid;
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -112,6 +130,18 @@ public class XidWrapperImpl implements XidWrapper
       if (object == null || !(object instanceof Xid))
          return false;  
 
+      if (object instanceof XidWrapperImpl)
+      {
+         XidWrapperImpl other = (XidWrapperImpl)object;
+         return
+            (
+               hashCode == other.hashCode &&
+               formatId == other.formatId && 
+               Arrays.equals(globalTransactionId, other.globalTransactionId) &&
+               Arrays.equals(branchQualifier, other.branchQualifier)
+            );
+      }
+
       Xid other = (Xid)object;
       return
          (
@@ -126,13 +156,7 @@ public class XidWrapperImpl implements XidWrapper
     */
    public int hashCode()
    {
-      if (cachedHashCode == 0)
-      {
-         cachedHashCode = formatId;
-         for (int i = 0; i < globalTransactionId.length; ++i)
-            cachedHashCode += globalTransactionId[i];
-      }
-      return cachedHashCode;
+      return hashCode;
    }
 
    /**
@@ -144,9 +168,9 @@ public class XidWrapperImpl implements XidWrapper
       {
          StringBuilder sb = new StringBuilder();
          sb.append("XidWrapperImpl@").append(Integer.toHexString(System.identityHashCode(this)));
-         sb.append("[formatId=").append(getFormatId());
-         sb.append(" globalTransactionId=").append(Arrays.toString(getGlobalTransactionId()));
-         sb.append(" branchQualifier=").append(Arrays.toString(getBranchQualifier()));
+         sb.append("[formatId=").append(formatId);
+         sb.append(" globalTransactionId=").append(Arrays.toString(globalTransactionId));
+         sb.append(" branchQualifier=").append(Arrays.toString(branchQualifier));
          sb.append(" jndiName=").append(jndiName);
          sb.append("]");
          cachedToString = sb.toString();
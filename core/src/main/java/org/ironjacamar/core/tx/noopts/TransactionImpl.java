@@ -22,10 +22,7 @@
 package org.ironjacamar.core.tx.noopts;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
@@ -38,15 +35,22 @@ import javax.transaction.xa.XAResource;
 
 /**
  * A transaction implementation
+ *
+ * The synchronizations and resources are kept in small arrays, which are allocated on first use
+ * and kept when the instance is reused for the next transaction of the thread
  * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
  */
 public class TransactionImpl implements Transaction, Serializable
 {
    private static final long serialVersionUID = 3L;
+   private static final int INITIAL_CAPACITY = 4;
    private transient Long key;
    private transient int status;
-   private transient Set<Synchronization> syncs;
-   private transient Map<Object, Object> resources;
+   private transient Synchronization[] syncs;
+   private transient int syncCount;
+   private transient Object[] resourceKeys;
+   private transient Object[] resourceValues;
+   private transient int resourceCount;
 
    /**
     * Constructor
@@ -56,8 +60,11 @@ public class TransactionImpl implements Transaction, Serializable
    {
       this.key = key;
       this.status = Status.STATUS_ACTIVE;
-      this.syncs = new HashSet<Synchronization>();
-      this.resources = new HashMap<Object, Object>();
+      this.syncs = null;
+      this.syncCount = 0;
+      this.resourceKeys = null;
+      this.resourceValues = null;
+      this.resourceCount = 0;
    }
 
    /**
@@ -125,7 +132,22 @@ public class TransactionImpl implements Transaction, Serializable
       if (status == Status.STATUS_UNKNOWN)
          throw new IllegalStateException("Status unknown");
 
-      syncs.add(sync);
+      for (int i = 0; i < syncCount; i++)
+      {
+         if (syncs[i].equals(sync))
+            return;
+      }
+
+      if (syncs == null)
+      {
+         syncs = new Synchronization[INITIAL_CAPACITY];
+      }
+      else if (syncCount == syncs.length)
+      {
+         syncs = Arrays.copyOf(syncs, syncCount << 1);
+      }
+
+      syncs[syncCount++] = sync;
    }
 
    /**
@@ -171,7 +193,30 @@ public class TransactionImpl implements Transaction, Serializable
     */
    void putResource(Object key, Object value)
    {
-      resources.put(key, value);
+      if (key == null)
+         throw new IllegalArgumentException("Key is null");
+
+      int index = indexOfResource(key);
+      if (index != -1)
+      {
+         resourceValues[index] = value;
+         return;
+      }
+
+      if (resourceKeys == null)
+      {
+         resourceKeys = new Object[INITIAL_CAPACITY];
+         resourceValues = new Object[INITIAL_CAPACITY];
+      }
+      else if (resourceCount == resourceKeys.length)
+      {
+         resourceKeys = Arrays.copyOf(resourceKeys, resourceCount << 1);
+         resourceValues = Arrays.copyOf(resourceValues, resourceCount << 1);
+      }
+
+      resourceKeys[resourceCount] = key;
+      resourceValues[resourceCount] = value;
+      resourceCount++;
    }
 
    /**
@@ -181,7 +226,14 @@ public class TransactionImpl implements Transaction, Serializable
     */
    Object getResource(Object key)
    {
-      return resources.get(key);
+      if (key == null)
+         throw new IllegalArgumentException("Key is null");
+
+      int index = indexOfResource(key);
+      if (index == -1)
+         return null;
+
+      return resourceValues[index];
    }
 
    /**
@@ -207,9 +259,10 @@ public class TransactionImpl implements Transaction, Serializable
     */
    private void finish(boolean commit)
    {
-      for (Synchronization s : syncs)
+      // Synchronizations may register other synchronizations during beforeCompletion
+      for (int i = 0; i < syncCount; i++)
       {
-         s.beforeCompletion();
+         syncs[i].beforeCompletion();
       }
 
       if (commit)
@@ -221,13 +274,40 @@ public class TransactionImpl implements Transaction, Serializable
          status = Status.STATUS_ROLLEDBACK;
       }
 
-      for (Synchronization s : syncs)
+      for (int i = 0; i < syncCount; i++)
       {
-         s.afterCompletion(status);
+         syncs[i].afterCompletion(status);
       }
 
       status = Status.STATUS_UNKNOWN;
-      syncs.clear();
-      resources.clear();
+
+      if (syncCount > 0)
+      {
+         Arrays.fill(syncs, 0, syncCount, null);
+         syncCount = 0;
+      }
+
+      if (resourceCount > 0)
+      {
+         Arrays.fill(resourceKeys, 0, resourceCount, null);
+         Arrays.fill(resourceValues, 0, resourceCount, null);
+         resourceCount = 0;
+      }
+   }
+
+   /**
+    * Get the index of a resource
+    * @param key The key
+    * @return The index; -1 if not found
+    */
+   private int indexOfResource(Object key)
+   {
+      for (int i = 0; i < resourceCount; i++)
+      {
+         if (key.equals(resourceKeys[i]))
+            return i;
+      }
+
+      return -1;
    }
 }
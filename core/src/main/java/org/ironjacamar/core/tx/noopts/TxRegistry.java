@@ -21,27 +21,30 @@
 
 package org.ironjacamar.core.tx.noopts;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import javax.transaction.SystemException;
 
 /**
  * The transaction registry
+ *
+ * The transaction of a thread is kept in a thread-bound slot, together with a
+ * transaction instance which is reused by the transactions of the thread
  * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
  */
 public class TxRegistry implements Serializable
 {
-   private static final long serialVersionUID = 1L;
-   private ConcurrentMap<Long, TransactionImpl> txs;
+   private static final long serialVersionUID = 2L;
+   private transient ThreadLocal<Slot> slots;
 
    /**
     * Constructor
     */
    public TxRegistry()
    {
-      this.txs = new ConcurrentHashMap<Long, TransactionImpl>();
+      this.slots = createSlots();
    }
 
    /**
@@ -50,7 +53,7 @@ public class TxRegistry implements Serializable
     */
    public TransactionImpl getTransaction()
    {
-      return txs.get(Long.valueOf(Thread.currentThread().getId()));
+      return slots.get().tx;
    }
 
    /**
@@ -58,15 +61,20 @@ public class TxRegistry implements Serializable
     */
    public void startTransaction()
    {
-      Long key = Long.valueOf(Thread.currentThread().getId());
-      TransactionImpl tx = txs.get(key);
+      Slot slot = slots.get();
+      TransactionImpl tx = slot.tx;
 
       if (tx == null)
       {
-         TransactionImpl newTx = new TransactionImpl(key);
-         tx = txs.putIfAbsent(key, newTx);
+         tx = slot.owned;
+
          if (tx == null)
-            tx = newTx;
+         {
+            tx = new TransactionImpl(Long.valueOf(Thread.currentThread().getId()));
+            slot.owned = tx;
+         }
+
+         slot.tx = tx;
       }
 
       tx.active();
@@ -78,8 +86,7 @@ public class TxRegistry implements Serializable
     */
    public void commitTransaction() throws SystemException
    {
-      Long key = Long.valueOf(Thread.currentThread().getId());
-      TransactionImpl tx = txs.get(key);
+      TransactionImpl tx = slots.get().tx;
       if (tx != null)
       {
          try
@@ -105,8 +112,7 @@ public class TxRegistry implements Serializable
     */
    public void rollbackTransaction() throws SystemException
    {
-      Long key = Long.valueOf(Thread.currentThread().getId());
-      TransactionImpl tx = txs.get(key);
+      TransactionImpl tx = slots.get().tx;
       if (tx != null)
       {
          try
@@ -132,6 +138,52 @@ public class TxRegistry implements Serializable
     */
    public void assignTransaction(TransactionImpl v)
    {
-      txs.put(Long.valueOf(Thread.currentThread().getId()), v);
+      Slot slot = slots.get();
+
+      // A transaction that leaves the thread can't be reused by the next transaction of the thread
+      if (slot.tx == slot.owned && v != slot.owned)
+         slot.owned = null;
+
+      slot.tx = v;
+   }
+
+   /**
+    * Read the registry
+    * @param in The stream
+    * @exception IOException Thrown if an error occurs
+    * @exception ClassNotFoundException Thrown if an error occurs
+    */
+   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+   {
+      in.defaultReadObject();
+      slots = createSlots();
+   }
+
+   /**
+    * Create the thread-bound slots
+    * @return The value
+    */
+   private static ThreadLocal<Slot> createSlots()
+   {
+      return new ThreadLocal<Slot>()
+      {
+         @Override
+         protected Slot initialValue()
+         {
+            return new Slot();
+         }
+      };
+   }
+
+   /**
+    * The transaction slot of a thread
+    */
+   private static class Slot
+   {
+      /** The transaction of the thread */
+      private TransactionImpl tx;
+
+      /** The transaction instance owned by the thread */
+      private TransactionImpl owned;
    }
 }
@@ -92,6 +92,11 @@ public class StatisticsExecutorImpl implements StatisticsExecutor
          return ((JBossThreadPoolExecutor) realExecutor).getMaximumPoolSize() -
                 ((JBossThreadPoolExecutor) realExecutor).getActiveCount();
       }
+      else if (realExecutor instanceof VirtualThreadExecutor)
+      {
+         return ((VirtualThreadExecutor) realExecutor).getMaxThreads() -
+                ((VirtualThreadExecutor) realExecutor).getActiveCount();
+      }
       else if (realExecutor instanceof ThreadPoolExecutorMBean)
       {
          return ((ThreadPoolExecutorMBean) realExecutor).getMaxThreads() -
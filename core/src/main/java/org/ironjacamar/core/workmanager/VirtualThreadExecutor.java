@@ -0,0 +1,275 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.ironjacamar.core.workmanager;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.threads.BlockingExecutor;
+import org.jboss.threads.ExecutionTimedOutException;
+
+/**
+ * An executor running each task on its own virtual thread.
+ *
+ * The number of concurrently running tasks is bounded by a semaphore instead of a thread pool,
+ * so a blocked task doesn't hold a carrier thread. On platforms without virtual threads a new
+ * daemon platform thread is used for each task instead
+ *
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class VirtualThreadExecutor implements BlockingExecutor
+{
+   /** The maximum number of concurrent tasks */
+   private final int maxThreads;
+
+   /** The permits */
+   private final Semaphore permits;
+
+   /** The thread factory */
+   private final ThreadFactory threadFactory;
+
+   /** Shutdown */
+   private final AtomicBoolean shutdown;
+
+   /**
+    * Constructor
+    * @param name The name prefix of the threads
+    * @param maxThreads The maximum number of concurrent tasks
+    */
+   public VirtualThreadExecutor(String name, int maxThreads)
+   {
+      if (maxThreads <= 0)
+         throw new IllegalArgumentException("maxThreads");
+
+      this.maxThreads = maxThreads;
+      this.permits = new Semaphore(maxThreads, true);
+      this.threadFactory = createThreadFactory(name);
+      this.shutdown = new AtomicBoolean(false);
+   }
+
+   /**
+    * Are the tasks run on virtual threads
+    * @return True if virtual threads are used, otherwise false
+    */
+   public boolean isVirtual()
+   {
+      return !(threadFactory instanceof PlatformThreadFactory);
+   }
+
+   /**
+    * Get the maximum number of concurrent tasks
+    * @return The value
+    */
+   public int getMaxThreads()
+   {
+      return maxThreads;
+   }
+
+   /**
+    * Get the number of running tasks
+    * @return The value
+    */
+   public int getActiveCount()
+   {
+      return maxThreads - permits.availablePermits();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void execute(Runnable task)
+   {
+      executeNonBlocking(task);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void executeBlocking(Runnable task) throws RejectedExecutionException, InterruptedException
+   {
+      checkShutdown();
+      permits.acquire();
+      start(task);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void executeBlocking(Runnable task, long timeout, TimeUnit unit)
+      throws RejectedExecutionException, InterruptedException
+   {
+      checkShutdown();
+      if (!permits.tryAcquire(timeout, unit))
+         throw new ExecutionTimedOutException();
+
+      start(task);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void executeNonBlocking(Runnable task) throws RejectedExecutionException
+   {
+      checkShutdown();
+      if (!permits.tryAcquire())
+         throw new RejectedExecutionException();
+
+      start(task);
+   }
+
+   /**
+    * Shutdown; running tasks are allowed to complete
+    */
+   public void shutdown()
+   {
+      shutdown.set(true);
+   }
+
+   /**
+    * Is shutdown
+    * @return True if shutdown, otherwise false
+    */
+   public boolean isShutdown()
+   {
+      return shutdown.get();
+   }
+
+   /**
+    * Verify that the executor accepts tasks
+    * @exception RejectedExecutionException Thrown if the executor is shutdown
+    */
+   private void checkShutdown() throws RejectedExecutionException
+   {
+      if (shutdown.get())
+         throw new RejectedExecutionException();
+   }
+
+   /**
+    * Start a task on a new thread; the caller holds a permit
+    * @param task The task
+    * @exception RejectedExecutionException Thrown if the thread can't be started
+    */
+   private void start(final Runnable task) throws RejectedExecutionException
+   {
+      try
+      {
+         threadFactory.newThread(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  task.run();
+               }
+               finally
+               {
+                  permits.release();
+               }
+            }
+         }).start();
+      }
+      catch (Throwable t)
+      {
+         permits.release();
+         throw new RejectedExecutionException(t);
+      }
+   }
+
+   /**
+    * Create the thread factory; virtual threads are looked up reflectively, as they aren't
+    * part of the platform this is compiled against
+    * @param name The name prefix of the threads
+    * @return The thread factory
+    */
+   private static ThreadFactory createThreadFactory(String name)
+   {
+      try
+      {
+         Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+         Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+         Method factoryMethod = builderClass.getMethod("factory");
+
+         Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+         builder = nameMethod.invoke(builder, name + "-", 0L);
+
+         return (ThreadFactory)factoryMethod.invoke(builder);
+      }
+      catch (Throwable t)
+      {
+         return new PlatformThreadFactory(name);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      StringBuilder sb = new StringBuilder();
+
+      sb.append("VirtualThreadExecutor@").append(Integer.toHexString(System.identityHashCode(this)));
+      sb.append("[maxThreads=").append(maxThreads);
+      sb.append(" active=").append(getActiveCount());
+      sb.append(" virtual=").append(isVirtual());
+      sb.append(" shutdown=").append(shutdown.get());
+      sb.append("]");
+
+      return sb.toString();
+   }
+
+   /**
+    * Fallback thread factory creating a daemon platform thread per task
+    */
+   private static class PlatformThreadFactory implements ThreadFactory
+   {
+      /** The name prefix */
+      private final String name;
+
+      /** The thread counter */
+      private long counter;
+
+      /**
+       * Constructor
+       * @param name The name prefix of the threads
+       */
+      PlatformThreadFactory(String name)
+      {
+         this.name = name;
+         this.counter = 0L;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public synchronized Thread newThread(Runnable r)
+      {
+         Thread t = new Thread(r, name + "-" + counter++);
+         t.setDaemon(true);
+         return t;
+      }
+   }
+}
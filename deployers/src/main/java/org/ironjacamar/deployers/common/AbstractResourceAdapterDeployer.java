@@ -349,7 +349,7 @@ public abstract class AbstractResourceAdapterDeployer
          org.ironjacamar.core.connectionmanager.pool.Pool pool = PoolFactory.createPool(poolType, cm, pc);
          cm.setPool(pool);
 
-         org.ironjacamar.core.api.deploymentrepository.Pool dpool = new PoolImpl(pool, null);
+         org.ironjacamar.core.api.deploymentrepository.Pool dpool = new PoolImpl(pool, pool.getStatistics());
 
          org.ironjacamar.core.spi.statistics.StatisticsPlugin statisticsPlugin = null;
          if (mcf instanceof org.ironjacamar.core.spi.statistics.Statistics)
@@ -368,7 +368,8 @@ public abstract class AbstractResourceAdapterDeployer
          Object cf = mcf.createConnectionFactory(cm);
          
          builder.connectionFactory(new ConnectionFactoryImpl(cd.getJndiName(), cf, dcps, cd, cm, dpool,
-                                                             statisticsPlugin, recovery, jndiStrategy));
+                                                             statisticsPlugin, pool.getXAResourceStatistics(),
+                                                             recovery, jndiStrategy));
       }
       catch (Throwable t)
       {
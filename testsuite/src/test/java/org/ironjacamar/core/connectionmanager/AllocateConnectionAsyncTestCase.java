@@ -0,0 +1,254 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager;
+
+import org.ironjacamar.core.api.connectionmanager.ConnectionManagerConfiguration;
+import org.ironjacamar.core.connectionmanager.ccm.CachedConnectionManagerImpl;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+import org.ironjacamar.core.connectionmanager.pool.Pool;
+
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.ResourceException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Asynchronous connection allocation test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class AllocateConnectionAsyncTestCase
+{
+   /**
+    * Create a connection listener stub
+    * @param connection The connection handle
+    * @return The instance
+    */
+   private static ConnectionListener createConnectionListener(final Object connection)
+   {
+      return (ConnectionListener)Proxy.newProxyInstance(ConnectionListener.class.getClassLoader(),
+                                                        new Class<?>[] {ConnectionListener.class},
+                                                        (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "getConnection":
+               return connection;
+            case "getState":
+               return ConnectionListener.IN_USE;
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a pool stub
+    * @param future The future returned for asynchronous requests
+    * @param returned The number of connection listeners returned
+    * @return The instance
+    */
+   private static Pool createPool(final CompletableFuture<ConnectionListener> future, final AtomicInteger returned)
+   {
+      return (Pool)Proxy.newProxyInstance(Pool.class.getClassLoader(),
+                                          new Class<?>[] {Pool.class},
+                                          (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "getConnectionListenerAsync":
+               return future;
+            case "returnConnectionListener":
+               returned.incrementAndGet();
+               return null;
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a connection manager
+    * @param ccm The cached connection manager
+    * @param pool The pool
+    * @return The instance
+    */
+   private static AbstractConnectionManager createConnectionManager(CachedConnectionManagerImpl ccm, Pool pool)
+   {
+      AbstractConnectionManager cm = new NoTransactionConnectionManager(null, ccm,
+                                                                        new ConnectionManagerConfiguration());
+      cm.setPool(pool);
+      return cm;
+   }
+
+   /**
+    * A connection listener obtained by the calling thread is registered in its context
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testCallingThread() throws Throwable
+   {
+      CachedConnectionManagerImpl ccm = new CachedConnectionManagerImpl(null);
+      ccm.setDebug(true);
+      Object connection = new Object();
+      CompletableFuture<ConnectionListener> future = new CompletableFuture<>();
+      AtomicInteger returned = new AtomicInteger();
+      AbstractConnectionManager cm = createConnectionManager(ccm, createPool(future, returned));
+
+      future.complete(createConnectionListener(connection));
+
+      ccm.pushContext("key", new HashSet<Object>());
+      try
+      {
+         CompletionStage<Object> stage = cm.allocateConnectionAsync(null, null);
+
+         assertSame(connection, stage.toCompletableFuture().get(30, TimeUnit.SECONDS));
+         assertEquals(1, ccm.getNumberOfConnections());
+         assertEquals(0, returned.get());
+      }
+      finally
+      {
+         ccm.popContext(new HashSet<Object>());
+      }
+   }
+
+   /**
+    * A connection listener handed off by another thread can't be registered in the context
+    * of the caller, so the stage fails and the connection listener goes back to the pool
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testHandOffWithCachedConnectionManager() throws Throwable
+   {
+      CachedConnectionManagerImpl ccm = new CachedConnectionManagerImpl(null);
+      CompletableFuture<ConnectionListener> future = new CompletableFuture<>();
+      AtomicInteger returned = new AtomicInteger();
+      AbstractConnectionManager cm = createConnectionManager(ccm, createPool(future, returned));
+
+      CompletionStage<Object> stage = null;
+      ccm.pushContext("key", new HashSet<Object>());
+      try
+      {
+         stage = cm.allocateConnectionAsync(null, null);
+      }
+      finally
+      {
+         ccm.popContext(new HashSet<Object>());
+      }
+
+      Thread t = new Thread(() -> future.complete(createConnectionListener(new Object())));
+      t.start();
+      t.join();
+
+      try
+      {
+         stage.toCompletableFuture().get(30, TimeUnit.SECONDS);
+         fail("Connection handed out");
+      }
+      catch (ExecutionException ee)
+      {
+         assertTrue(ee.getCause() instanceof ResourceException);
+      }
+
+      assertEquals(1, returned.get());
+   }
+
+   /**
+    * A caller without a context has nothing to register in, so a hand-off by another thread
+    * completes the stage and the connection is only tracked
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testHandOffWithoutContext() throws Throwable
+   {
+      CachedConnectionManagerImpl ccm = new CachedConnectionManagerImpl(null);
+      ccm.setDebug(true);
+      Object connection = new Object();
+      CompletableFuture<ConnectionListener> future = new CompletableFuture<>();
+      AtomicInteger returned = new AtomicInteger();
+      AbstractConnectionManager cm = createConnectionManager(ccm, createPool(future, returned));
+
+      CompletionStage<Object> stage = cm.allocateConnectionAsync(null, null);
+
+      Thread t = new Thread(() -> future.complete(createConnectionListener(connection)));
+      t.start();
+      t.join();
+
+      assertSame(connection, stage.toCompletableFuture().get(30, TimeUnit.SECONDS));
+      assertEquals(1, ccm.getNumberOfConnections());
+      assertEquals(0, returned.get());
+   }
+
+   /**
+    * Without a cached connection manager a hand-off by another thread completes the stage
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testHandOff() throws Throwable
+   {
+      Object connection = new Object();
+      CompletableFuture<ConnectionListener> future = new CompletableFuture<>();
+      AtomicInteger returned = new AtomicInteger();
+      AbstractConnectionManager cm = createConnectionManager(null, createPool(future, returned));
+
+      CompletionStage<Object> stage = cm.allocateConnectionAsync(null, null);
+
+      Thread t = new Thread(() -> future.complete(createConnectionListener(connection)));
+      t.start();
+      t.join();
+
+      assertSame(connection, stage.toCompletableFuture().get(30, TimeUnit.SECONDS));
+      assertEquals(0, returned.get());
+   }
+
+   /**
+    * Cancelling the request cancels the request of the pool
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testCancel() throws Throwable
+   {
+      CompletableFuture<ConnectionListener> future = new CompletableFuture<>();
+      AtomicInteger returned = new AtomicInteger();
+      AbstractConnectionManager cm = createConnectionManager(null, createPool(future, returned));
+
+      CompletionStage<Object> stage = cm.allocateConnectionAsync(null, null);
+
+      assertTrue(stage.toCompletableFuture().cancel(false));
+      assertTrue(future.isCancelled());
+      assertEquals(0, returned.get());
+   }
+}
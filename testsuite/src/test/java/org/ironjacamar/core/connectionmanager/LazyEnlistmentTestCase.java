@@ -0,0 +1,370 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager;
+
+import org.ironjacamar.core.api.connectionmanager.ConnectionManagerConfiguration;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+import org.ironjacamar.core.connectionmanager.listener.dflt.XATransactionConnectionListener;
+import org.ironjacamar.core.connectionmanager.pool.Pool;
+import org.ironjacamar.core.spi.transaction.TransactionIntegration;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.LazyEnlistableManagedConnection;
+import javax.resource.spi.ManagedConnection;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.transaction.xa.XAResource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Lazy enlistment test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class LazyEnlistmentTestCase
+{
+   /** The number of XAResource.start calls */
+   private AtomicInteger starts;
+
+   /** The number of XAResource.end calls */
+   private AtomicInteger ends;
+
+   /** The number of Transaction.enlistResource calls */
+   private AtomicInteger enlists;
+
+   /** Whether Transaction.enlistResource succeeds */
+   private AtomicBoolean enlistResult;
+
+   /** The number of connection listeners returned to the pool */
+   private AtomicInteger returned;
+
+   /** The registered synchronization */
+   private AtomicReference<Synchronization> synchronization;
+
+   /** The managed connection */
+   private ManagedConnection mc;
+
+   /** The connection listener */
+   private ConnectionListener cl;
+
+   /** The connection manager */
+   private AbstractTransactionalConnectionManager cm;
+
+   /** The transaction integration */
+   private TransactionIntegration ti;
+
+   /** The XAResource */
+   private XAResource xaResource;
+
+   /**
+    * Create a stub of an interface, which returns null for all other methods
+    * @param <T> The type
+    * @param clz The interface
+    * @param name The method name
+    * @param result The result of the method
+    * @return The instance
+    */
+   private static <T> T createStub(Class<T> clz, String name, Object result)
+   {
+      return clz.cast(Proxy.newProxyInstance(clz.getClassLoader(), new Class<?>[] {clz},
+                                             (proxy, method, args) -> name.equals(method.getName()) ? result : null));
+   }
+
+   /**
+    * Setup
+    */
+   @Before
+   public void setup()
+   {
+      starts = new AtomicInteger();
+      ends = new AtomicInteger();
+      enlists = new AtomicInteger();
+      enlistResult = new AtomicBoolean(true);
+      returned = new AtomicInteger();
+      synchronization = new AtomicReference<>();
+
+      xaResource = (XAResource)Proxy.newProxyInstance(XAResource.class.getClassLoader(),
+                                                                 new Class<?>[] {XAResource.class},
+                                                                 (proxy, method, args) ->
+      {
+         if ("start".equals(method.getName()))
+            starts.incrementAndGet();
+         else if ("end".equals(method.getName()))
+            ends.incrementAndGet();
+
+         return null;
+      });
+
+      // Like a transaction manager, starts the branch on enlistment and ends it on delistment
+      Transaction tx = (Transaction)Proxy.newProxyInstance(Transaction.class.getClassLoader(),
+                                                           new Class<?>[] {Transaction.class},
+                                                           (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "getStatus":
+               return Status.STATUS_ACTIVE;
+            case "enlistResource":
+               enlists.incrementAndGet();
+               if (!enlistResult.get())
+                  return Boolean.FALSE;
+               ((XAResource)args[0]).start(null, XAResource.TMNOFLAGS);
+               return Boolean.TRUE;
+            case "delistResource":
+               ((XAResource)args[0]).end(null, (Integer)args[1]);
+               return Boolean.TRUE;
+            default:
+               return null;
+         }
+      });
+
+      TransactionSynchronizationRegistry tsr =
+         (TransactionSynchronizationRegistry)Proxy.newProxyInstance(
+            TransactionSynchronizationRegistry.class.getClassLoader(),
+            new Class<?>[] {TransactionSynchronizationRegistry.class},
+            (proxy, method, args) ->
+      {
+         if ("registerInterposedSynchronization".equals(method.getName()))
+            assertTrue(synchronization.compareAndSet(null, (Synchronization)args[0]));
+
+         return null;
+      });
+
+      TransactionManager tm = createStub(TransactionManager.class, "getTransaction", tx);
+
+      ti = (TransactionIntegration)Proxy.newProxyInstance(
+         TransactionIntegration.class.getClassLoader(),
+         new Class<?>[] {TransactionIntegration.class},
+         (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "getTransactionManager":
+               return tm;
+            case "getTransactionSynchronizationRegistry":
+               return tsr;
+            default:
+               return null;
+         }
+      });
+
+      mc = (ManagedConnection)Proxy.newProxyInstance(ManagedConnection.class.getClassLoader(),
+                                                     new Class<?>[] {ManagedConnection.class,
+                                                                     LazyEnlistableManagedConnection.class},
+                                                     (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+
+      createConnectionManager(new ConnectionManagerConfiguration());
+   }
+
+   /**
+    * Create the connection manager and the connection listener
+    * @param cmc The connection manager configuration
+    */
+   private void createConnectionManager(ConnectionManagerConfiguration cmc)
+   {
+      cm = new XATransactionConnectionManager(null, null, cmc, ti);
+      cl = new XATransactionConnectionListener(cm, mc, null, xaResource);
+
+      cm.setPool((Pool)Proxy.newProxyInstance(Pool.class.getClassLoader(),
+                                              new Class<?>[] {Pool.class},
+                                              (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "findConnectionListener":
+               return args[0] == mc ? cl : null;
+            case "returnConnectionListener":
+               returned.incrementAndGet();
+               return null;
+            default:
+               return null;
+         }
+      }));
+   }
+
+   /**
+    * Complete the transaction through the registered synchronization
+    */
+   private void complete()
+   {
+      Synchronization s = synchronization.get();
+      assertNotNull(s);
+
+      s.beforeCompletion();
+      s.afterCompletion(Status.STATUS_COMMITTED);
+   }
+
+   /**
+    * Lazy enlistment is the default of the configuration, like the enlistment attribute
+    * of the deployment descriptors
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testDefault() throws Throwable
+   {
+      assertTrue(new ConnectionManagerConfiguration().isEnlistment());
+   }
+
+   /**
+    * Without lazy enlistment the XAResource is enlisted when the connection listener is enlisted
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testEager() throws Throwable
+   {
+      ConnectionManagerConfiguration cmc = new ConnectionManagerConfiguration();
+      cmc.setEnlistment(false);
+      createConnectionManager(cmc);
+
+      cl.enlist();
+
+      assertEquals(1, enlists.get());
+      assertEquals(1, starts.get());
+
+      cm.lazyEnlist(mc);
+      assertEquals(1, enlists.get());
+
+      complete();
+
+      assertEquals(1, ends.get());
+      assertEquals(1, returned.get());
+   }
+
+   /**
+    * A lazy connection which isn't used is never started or ended, but still goes back
+    * to the pool when the transaction completes
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testUnused() throws Throwable
+   {
+      cl.enlist();
+
+      assertTrue(cl.isEnlisted());
+      assertEquals(0, enlists.get());
+
+      complete();
+
+      assertEquals(0, enlists.get());
+      assertEquals(0, starts.get());
+      assertEquals(0, ends.get());
+      assertFalse(cl.isEnlisted());
+      assertEquals(1, returned.get());
+   }
+
+   /**
+    * The first lazyEnlist enlists the XAResource, later calls don't
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testLazyEnlist() throws Throwable
+   {
+      cl.enlist();
+
+      cm.lazyEnlist(mc);
+      cm.lazyEnlist(mc);
+
+      assertEquals(1, enlists.get());
+      assertEquals(1, starts.get());
+      assertEquals(0, ends.get());
+
+      complete();
+
+      assertEquals(1, starts.get());
+      assertEquals(1, ends.get());
+      assertEquals(1, returned.get());
+   }
+
+   /**
+    * A lazyEnlist before the connection listener is enlisted registers the synchronization too
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testLazyEnlistNotEnlisted() throws Throwable
+   {
+      cm.lazyEnlist(mc);
+
+      assertTrue(cl.isEnlisted());
+      assertEquals(1, enlists.get());
+      assertEquals(1, starts.get());
+
+      complete();
+
+      assertEquals(1, ends.get());
+      assertEquals(1, returned.get());
+   }
+
+   /**
+    * A failed enlistment cancels the synchronization
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testEnlistFailure() throws Throwable
+   {
+      enlistResult.set(false);
+      cl.enlist();
+
+      try
+      {
+         cm.lazyEnlist(mc);
+         fail("Enlisted");
+      }
+      catch (ResourceException re)
+      {
+         // Expected
+      }
+
+      assertEquals(1, enlists.get());
+      assertEquals(0, starts.get());
+      assertFalse(cl.isEnlisted());
+
+      complete();
+
+      assertEquals(0, ends.get());
+      assertEquals(0, returned.get());
+   }
+}
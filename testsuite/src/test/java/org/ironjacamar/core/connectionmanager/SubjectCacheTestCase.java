@@ -0,0 +1,290 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager;
+
+import org.ironjacamar.core.security.DefaultSubjectFactory;
+import org.ironjacamar.core.spi.security.CachableSubjectFactory;
+import org.ironjacamar.core.spi.security.SubjectFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.security.auth.Subject;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SubjectCache test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class SubjectCacheTestCase
+{
+   /** The user of the calling thread, like the security context of a container */
+   private static final ThreadLocal<String> USER = new ThreadLocal<>();
+
+   /**
+    * Create a counting subject factory with a fixed mapping
+    * @param counter The counter
+    * @return The subject factory
+    */
+   private static SubjectFactory createSubjectFactory(final AtomicInteger counter)
+   {
+      final DefaultSubjectFactory delegate = new DefaultSubjectFactory("domain", "user", "password");
+      return new CachableSubjectFactory()
+      {
+         public Subject createSubject(String sd)
+         {
+            counter.incrementAndGet();
+            return delegate.createSubject(sd);
+         }
+
+         public Object getIdentity(String sd)
+         {
+            return delegate.getIdentity(sd);
+         }
+      };
+   }
+
+   /**
+    * Create a counting subject factory which maps the user of the calling thread
+    * @param counter The counter
+    * @return The subject factory
+    */
+   private static SubjectFactory createCallerSubjectFactory(final AtomicInteger counter)
+   {
+      return new CachableSubjectFactory()
+      {
+         public Subject createSubject(String sd)
+         {
+            counter.incrementAndGet();
+            return new DefaultSubjectFactory(sd, USER.get(), "password").createSubject(sd);
+         }
+
+         public Object getIdentity(String sd)
+         {
+            return USER.get();
+         }
+      };
+   }
+
+   /**
+    * Get a credential as a user, without a JAAS Subject on the thread
+    * @param cache The cache
+    * @param sf The subject factory
+    * @param user The user
+    * @return The credential
+    * @throws Throwable In case of an error
+    */
+   private static Credential getCredential(final SubjectCache cache, final SubjectFactory sf, final String user)
+      throws Throwable
+   {
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try
+      {
+         return executor.submit((Callable<Credential>)() ->
+         {
+            USER.set(user);
+            return cache.getCredential(sf, "domain", null);
+         }).get();
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+   }
+
+   /**
+    * The Subject is created once per security domain
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testCached() throws Throwable
+   {
+      AtomicInteger counter = new AtomicInteger();
+      SubjectFactory sf = createSubjectFactory(counter);
+      SubjectCache cache = new SubjectCache(60000L);
+
+      Credential c1 = cache.getCredential(sf, "domain", null);
+      Credential c2 = cache.getCredential(sf, "domain", null);
+
+      assertSame(c1, c2);
+      assertEquals(1, counter.get());
+
+      Credential c3 = cache.getCredential(sf, "other", null);
+      assertNotSame(c1.getSubject(), c3.getSubject());
+      assertEquals(2, counter.get());
+      assertEquals(2, cache.size());
+   }
+
+   /**
+    * The Subject is shared between connection request infos
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testConnectionRequestInfo() throws Throwable
+   {
+      AtomicInteger counter = new AtomicInteger();
+      SubjectFactory sf = createSubjectFactory(counter);
+      SubjectCache cache = new SubjectCache(60000L);
+
+      Credential c1 = cache.getCredential(sf, "domain", null);
+      Credential c2 = cache.getCredential(sf, "domain", new TestConnectionRequestInfo("a"));
+      Credential c3 = cache.getCredential(sf, "domain", new TestConnectionRequestInfo("a"));
+
+      assertSame(c1.getSubject(), c2.getSubject());
+      assertEquals(c2, c3);
+      assertEquals(c2.hashCode(), c3.hashCode());
+      assertTrue(!c1.equals(c2));
+      assertEquals(c2, new Credential(c1.getSubject(), new TestConnectionRequestInfo("a")));
+      assertEquals(1, counter.get());
+   }
+
+   /**
+    * Entries expire
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testExpiry() throws Throwable
+   {
+      AtomicInteger counter = new AtomicInteger();
+      SubjectFactory sf = createSubjectFactory(counter);
+      SubjectCache cache = new SubjectCache(10L);
+
+      Credential c1 = cache.getCredential(sf, "domain", null);
+      Thread.sleep(50L);
+      Credential c2 = cache.getCredential(sf, "domain", null);
+
+      assertNotSame(c1.getSubject(), c2.getSubject());
+      assertEquals(c1, c2);
+      assertEquals(2, counter.get());
+   }
+
+   /**
+    * Entries can be invalidated
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testInvalidate() throws Throwable
+   {
+      AtomicInteger counter = new AtomicInteger();
+      SubjectFactory sf = createSubjectFactory(counter);
+      SubjectCache cache = new SubjectCache(60000L);
+
+      cache.getCredential(sf, "domain", null);
+      cache.getCredential(sf, "other", null);
+
+      cache.invalidate("domain");
+      assertEquals(1, cache.size());
+
+      cache.getCredential(sf, "domain", null);
+      assertEquals(3, counter.get());
+
+      cache.invalidate();
+      assertEquals(0, cache.size());
+   }
+
+   /**
+    * Entries are separated by the identity that the subject factory maps, also when
+    * the callers have no JAAS Subject
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testCaller() throws Throwable
+   {
+      AtomicInteger counter = new AtomicInteger();
+      SubjectFactory sf = createCallerSubjectFactory(counter);
+      SubjectCache cache = new SubjectCache(60000L);
+
+      Credential c1 = getCredential(cache, sf, "user1");
+      Credential c2 = getCredential(cache, sf, "user2");
+
+      assertNotSame(c1.getSubject(), c2.getSubject());
+      assertTrue(!c1.equals(c2));
+      assertEquals(2, counter.get());
+      assertEquals(2, cache.size());
+
+      assertSame(c1, getCredential(cache, sf, "user1"));
+      assertEquals(2, counter.get());
+   }
+
+   /**
+    * The Subject of a subject factory which doesn't tell its identity isn't cached
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testNotCachable() throws Throwable
+   {
+      AtomicInteger counter = new AtomicInteger();
+      final SubjectFactory delegate = createCallerSubjectFactory(counter);
+      SubjectFactory sf = sd -> delegate.createSubject(sd);
+      SubjectCache cache = new SubjectCache(60000L);
+
+      Credential c1 = getCredential(cache, sf, "user1");
+      Credential c2 = getCredential(cache, sf, "user2");
+
+      assertNotSame(c1.getSubject(), c2.getSubject());
+      assertEquals(2, counter.get());
+      assertEquals(0, cache.size());
+   }
+
+   /**
+    * Connection request info
+    */
+   private static class TestConnectionRequestInfo implements javax.resource.spi.ConnectionRequestInfo
+   {
+      /** The value */
+      private final String value;
+
+      /**
+       * Constructor
+       * @param value The value
+       */
+      TestConnectionRequestInfo(String value)
+      {
+         this.value = value;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int hashCode()
+      {
+         return value.hashCode();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public boolean equals(Object obj)
+      {
+         return obj instanceof TestConnectionRequestInfo && value.equals(((TestConnectionRequestInfo)obj).value);
+      }
+   }
+}
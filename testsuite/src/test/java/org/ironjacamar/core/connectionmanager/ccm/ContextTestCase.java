@@ -0,0 +1,152 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.ccm;
+
+import org.ironjacamar.core.connectionmanager.ConnectionManager;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CCM context test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class ContextTestCase
+{
+   /**
+    * Create a stub with identity equality
+    * @param clz The interface
+    * @param <T> The type
+    * @return The instance
+    */
+   private static <T> T createStub(Class<T> clz)
+   {
+      return clz.cast(Proxy.newProxyInstance(clz.getClassLoader(),
+                                             new Class<?>[] {clz},
+                                             (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      }));
+   }
+
+   /**
+    * Connections are tracked per connection listener and connection manager
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testRegister() throws Throwable
+   {
+      Context context = new Context(new Object());
+      ConnectionManager cm1 = createStub(ConnectionManager.class);
+      ConnectionManager cm2 = createStub(ConnectionManager.class);
+      ConnectionListener cl1 = createStub(ConnectionListener.class);
+      ConnectionListener cl2 = createStub(ConnectionListener.class);
+      ConnectionListener cl3 = createStub(ConnectionListener.class);
+
+      assertTrue(context.getConnectionManagers().isEmpty());
+      assertTrue(context.getConnectionListeners(cm1).isEmpty());
+      assertTrue(context.getConnections(cl1).isEmpty());
+
+      Object[] c = new Object[10];
+      for (int i = 0; i < c.length; i++)
+      {
+         c[i] = new Object();
+         context.registerConnection(i < 8 ? cm1 : cm2, i < 4 ? cl1 : (i < 8 ? cl2 : cl3), c[i]);
+      }
+
+      assertEquals(Arrays.asList(cm1, cm2), Arrays.asList(context.getConnectionManagers().toArray()));
+      assertEquals(Arrays.asList(cl1, cl2), context.getConnectionListeners(cm1));
+      assertEquals(Collections.singletonList(cl3), context.getConnectionListeners(cm2));
+      assertEquals(Arrays.asList(c[0], c[1], c[2], c[3]), context.getConnections(cl1));
+
+      assertTrue(context.unregisterConnection(cm1, cl1, c[1]));
+      assertFalse(context.unregisterConnection(cm1, cl1, c[1]));
+      assertFalse(context.unregisterConnection(cm1, cl2, c[0]));
+      assertEquals(Arrays.asList(c[0], c[2], c[3]), context.getConnections(cl1));
+
+      context.switchConnectionListener(c[0], cl1, cl2);
+      assertEquals(Arrays.asList(c[2], c[3]), context.getConnections(cl1));
+      assertEquals(Arrays.asList(c[0], c[4], c[5], c[6], c[7]), context.getConnections(cl2));
+
+      context.removeConnectionListener(cm1, cl1);
+      assertEquals(Collections.singletonList(cl2), context.getConnectionListeners(cm1));
+      assertTrue(context.getConnections(cl1).isEmpty());
+      assertEquals(2, context.getConnections(cl3).size());
+   }
+
+   /**
+    * Popped contexts are cleared, and reused by the next push
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testStack() throws Throwable
+   {
+      ContextStack stack = new ContextStack();
+      ConnectionManager cm = createStub(ConnectionManager.class);
+      ConnectionListener cl = createStub(ConnectionListener.class);
+
+      assertTrue(stack.isEmpty());
+      assertNull(stack.peek());
+      assertNull(stack.pop());
+
+      Object key1 = new Object();
+      Object key2 = new Object();
+
+      Context outer = stack.push(key1);
+      Context inner = stack.push(key2);
+      assertSame(inner, stack.peek());
+      assertEquals(new Context(key2), inner);
+
+      inner.registerConnection(cm, cl, new Object());
+
+      for (int i = 0; i < 10; i++)
+         stack.push(new Object());
+      for (int i = 0; i < 10; i++)
+         stack.pop().clear();
+
+      assertSame(inner, stack.pop());
+      inner.clear();
+      assertSame(outer, stack.peek());
+
+      Context reused = stack.push(key1);
+      assertSame(inner, reused);
+      assertTrue(reused.getConnectionManagers().isEmpty());
+      assertTrue(reused.getConnections(cl).isEmpty());
+   }
+}
@@ -0,0 +1,182 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.ccm;
+
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+import org.ironjacamar.core.connectionmanager.listener.dflt.NoTransactionConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import javax.resource.spi.ManagedConnection;
+
+import org.junit.Test;
+
+import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.FREE;
+import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.IN_USE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Leak detector test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class LeakDetectorTestCase
+{
+   /**
+    * Create a connection listener taken from the pool
+    * @return The instance
+    */
+   private static ConnectionListener createConnectionListener()
+   {
+      ManagedConnection mc =
+         (ManagedConnection)Proxy.newProxyInstance(ManagedConnection.class.getClassLoader(),
+                                                   new Class<?>[] {ManagedConnection.class},
+                                                   (proxy, method, args) -> null);
+
+      ConnectionListener cl = new NoTransactionConnectionListener(null, mc, new Credential(null, null));
+      cl.setState(IN_USE);
+      cl.fromPool();
+      return cl;
+   }
+
+   /**
+    * Nothing is tracked when leak detection is disabled
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testDisabled() throws Throwable
+   {
+      LeakDetector ld = new LeakDetector();
+
+      assertFalse(ld.isEnabled());
+      assertFalse(ld.track(new Object(), createConnectionListener()));
+      assertEquals(0, ld.getTracked());
+   }
+
+   /**
+    * Connections held longer than the threshold are flagged once, with a bounded stack trace
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testLeak() throws Throwable
+   {
+      LeakDetector ld = new LeakDetector();
+      ld.setSampleRate(1.0);
+      ld.setThresholdMillis(1000L);
+      ld.setStackDepth(3);
+
+      Object leaked = new Object();
+      ConnectionListener cl = createConnectionListener();
+      assertTrue(ld.track(leaked, cl));
+
+      Object closed = new Object();
+      assertTrue(ld.track(closed, createConnectionListener()));
+      ld.untrack(closed);
+      assertEquals(1, ld.getTracked());
+
+      assertTrue(ld.sweep(cl.getFromPool() + 500L).isEmpty());
+
+      Map<Object, StackTraceElement[]> leaks = ld.sweep(cl.getFromPool() + 2000L);
+      assertEquals(1, leaks.size());
+      assertTrue(leaks.containsKey(leaked));
+      assertEquals(3, leaks.get(leaked).length);
+      assertEquals(1, ld.listLeaks().size());
+
+      assertTrue(ld.sweep(cl.getFromPool() + 3000L).isEmpty());
+   }
+
+   /**
+    * Connections whose connection listener went back to the pool are no longer tracked
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testReturned() throws Throwable
+   {
+      LeakDetector ld = new LeakDetector();
+      ld.setSampleRate(1.0);
+      ld.setThresholdMillis(1000L);
+
+      ConnectionListener cl = createConnectionListener();
+      ld.track(new Object(), cl);
+      cl.setState(FREE);
+
+      assertTrue(ld.sweep(cl.getFromPool() + 2000L).isEmpty());
+      assertEquals(0, ld.getTracked());
+   }
+
+   /**
+    * Only a fraction of the allocations is tracked
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSampling() throws Throwable
+   {
+      LeakDetector ld = new LeakDetector();
+      ld.setSampleRate(0.1);
+
+      ConnectionListener cl = createConnectionListener();
+      Object[] connections = new Object[10000];
+      for (int i = 0; i < connections.length; i++)
+      {
+         connections[i] = new Object();
+         ld.track(connections[i], cl);
+      }
+
+      assertTrue(ld.getTracked() > 500);
+      assertTrue(ld.getTracked() < 1500);
+   }
+
+   /**
+    * Enabling leak detection after the cached connection manager is started schedules the sweep
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testEnableAfterStart() throws Throwable
+   {
+      CachedConnectionManagerImpl ccm = new CachedConnectionManagerImpl(null);
+
+      ccm.start();
+      try
+      {
+         assertFalse(ccm.isLeakSweepScheduled());
+
+         ccm.setLeakDetectionSampleRate(1.0);
+         assertTrue(ccm.isLeakSweepScheduled());
+
+         ccm.setLeakDetectionThresholdMillis(5000L);
+         assertTrue(ccm.isLeakSweepScheduled());
+
+         ccm.setLeakDetectionSampleRate(0.0);
+         assertFalse(ccm.isLeakSweepScheduled());
+
+         ccm.setLeakDetectionSampleRate(1.0);
+      }
+      finally
+      {
+         ccm.stop();
+      }
+
+      assertFalse(ccm.isLeakSweepScheduled());
+   }
+}
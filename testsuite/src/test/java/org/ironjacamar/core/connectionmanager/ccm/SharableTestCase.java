@@ -0,0 +1,183 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.ccm;
+
+import org.ironjacamar.core.connectionmanager.ConnectionManager;
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.lang.reflect.Proxy;
+
+import javax.resource.spi.ConnectionRequestInfo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Sharable connection listener lookup in the CachedConnectionManager
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class SharableTestCase
+{
+   /**
+    * A connection request info
+    */
+   private static class CRI implements ConnectionRequestInfo
+   {
+      /** The name */
+      private final String name;
+
+      /**
+       * Constructor
+       * @param name The name
+       */
+      CRI(String name)
+      {
+         this.name = name;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public int hashCode()
+      {
+         return name.hashCode();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public boolean equals(Object o)
+      {
+         return o instanceof CRI && name.equals(((CRI)o).name);
+      }
+   }
+
+   /**
+    * Create a connection listener stub in the IN_USE state
+    * @param credential The credential
+    * @return The instance
+    */
+   private static ConnectionListener createConnectionListener(final Credential credential)
+   {
+      return (ConnectionListener)Proxy.newProxyInstance(ConnectionListener.class.getClassLoader(),
+                                                        new Class<?>[] {ConnectionListener.class},
+                                                        (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "getCredential":
+               return credential;
+            case "getState":
+               return ConnectionListener.IN_USE;
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a connection manager stub
+    * @return The instance
+    */
+   private static ConnectionManager createConnectionManager()
+   {
+      return (ConnectionManager)Proxy.newProxyInstance(ConnectionManager.class.getClassLoader(),
+                                                       new Class<?>[] {ConnectionManager.class},
+                                                       (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * A connection listener with open connections is shared for an equal credential
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testShared() throws Throwable
+   {
+      CachedConnectionManagerImpl ccm = new CachedConnectionManagerImpl(null);
+      ConnectionManager cm = createConnectionManager();
+      ConnectionListener cl = createConnectionListener(new Credential(null, new CRI("a")));
+      Object c1 = new Object();
+      Object c2 = new Object();
+
+      // No context
+      ccm.registerConnection(cm, cl, c1);
+      assertNull(ccm.getConnectionListener(cm, new Credential(null, new CRI("a"))));
+
+      ccm.pushContext(new Object(), null);
+      try
+      {
+         assertNull(ccm.getConnectionListener(cm, new Credential(null, new CRI("a"))));
+
+         ccm.registerConnection(cm, cl, c1);
+         assertSame(cl, ccm.getConnectionListener(cm, new Credential(null, new CRI("a"))));
+         assertNull(ccm.getConnectionListener(cm, new Credential(null, new CRI("b"))));
+         assertNull(ccm.getConnectionListener(createConnectionManager(), new Credential(null, new CRI("a"))));
+
+         ccm.registerConnection(cm, cl, c2);
+         ccm.unregisterConnection(cm, cl, c1);
+         assertSame(cl, ccm.getConnectionListener(cm, new Credential(null, new CRI("a"))));
+
+         ccm.unregisterConnection(cm, cl, c2);
+         assertNull(ccm.getConnectionListener(cm, new Credential(null, new CRI("a"))));
+      }
+      finally
+      {
+         ccm.popContext(null);
+      }
+   }
+
+   /**
+    * A shared connection listener is only registered once in a context
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testRegisteredOnce() throws Throwable
+   {
+      Context context = new Context(new Object());
+      ConnectionManager cm = createConnectionManager();
+      ConnectionListener cl = createConnectionListener(new Credential(null, new CRI("a")));
+
+      context.registerConnection(cm, cl, new Object());
+      context.registerConnection(cm, cl, new Object());
+
+      assertEquals(1, context.getConnectionListeners(cm).size());
+      assertEquals(2, context.getConnections(cl).size());
+   }
+}
@@ -0,0 +1,154 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.listener.dflt;
+
+import org.ironjacamar.embedded.Configuration;
+import org.ironjacamar.embedded.Deployment;
+import org.ironjacamar.embedded.dsl.resourceadapters20.api.ResourceAdaptersDescriptor;
+import org.ironjacamar.embedded.junit4.AllChecks;
+import org.ironjacamar.embedded.junit4.IronJacamar;
+import org.ironjacamar.embedded.junit4.PostCondition;
+import org.ironjacamar.embedded.junit4.PreCondition;
+import org.ironjacamar.rars.ResourceAdapterFactory;
+import org.ironjacamar.rars.txlog.TxLogConnection;
+import org.ironjacamar.rars.txlog.TxLogConnectionFactory;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.resource.spi.TransactionSupport.TransactionSupportLevel;
+import javax.transaction.UserTransaction;
+
+import org.jboss.shrinkwrap.api.spec.ResourceAdapterArchive;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lazy enlistment for XATransaction connection listener, deployed with the default
+ * value of the enlistment attribute
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+@RunWith(IronJacamar.class)
+@Configuration(full = true)
+@PreCondition(condition = AllChecks.class)
+@PostCondition(condition = AllChecks.class)
+public class LazyEnlistmentTestCase
+{
+   /** The txlog connection factory */
+   @Resource(mappedName = "java:/eis/TxLogConnectionFactory")
+   private static TxLogConnectionFactory cf;
+
+   /** The UserTransaction */
+   @Inject
+   private static UserTransaction ut;
+
+   /**
+    * The resource adapter
+    * @throws Throwable In case of an error
+    */
+   @Deployment(order = 1)
+   private static ResourceAdapterArchive createResourceAdapter() throws Throwable
+   {
+      return ResourceAdapterFactory.createTxLogRar();
+   }
+
+   /**
+    * The activation
+    * @throws Throwable In case of an error
+    */
+   @Deployment(order = 2)
+   private static ResourceAdaptersDescriptor createActivation() throws Throwable
+   {
+      return ResourceAdapterFactory.createTxLogDeployment(TransactionSupportLevel.XATransaction, "", true);
+   }
+
+   /**
+    * A connection which isn't enlisted by the resource adapter takes no part in the transaction
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testNotEnlisted() throws Throwable
+   {
+      assertNotNull(cf);
+      assertNotNull(ut);
+
+      ut.begin();
+
+      TxLogConnection c = cf.getConnection();
+      assertNotNull(c);
+
+      String id = c.getId();
+
+      c.close();
+
+      assertFalse(c.isInPool());
+
+      ut.commit();
+
+      assertTrue(c.isInPool());
+
+      c = cf.getConnection();
+
+      assertEquals("", c.getState(id));
+      c.clearState(id);
+
+      c.close();
+   }
+
+   /**
+    * A connection is enlisted on the first lazyEnlist call only
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testLazyEnlist() throws Throwable
+   {
+      assertNotNull(cf);
+      assertNotNull(ut);
+
+      ut.begin();
+
+      TxLogConnection c = cf.getConnection();
+      assertNotNull(c);
+
+      String id = c.getId();
+
+      c.lazyEnlist();
+      c.lazyEnlist();
+
+      c.close();
+
+      ut.commit();
+
+      assertTrue(c.isInPool());
+
+      c = cf.getConnection();
+
+      assertEquals("3B8", c.getState(id));
+      c.clearState(id);
+
+      c.close();
+   }
+}
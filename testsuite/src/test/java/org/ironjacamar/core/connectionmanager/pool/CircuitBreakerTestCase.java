@@ -0,0 +1,208 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.connectionmanager.Credential;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CircuitBreaker test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class CircuitBreakerTestCase
+{
+   /**
+    * A probe that succeeds when the flag is set
+    * @param available The flag
+    * @param calls The number of calls
+    * @return The probe
+    */
+   private static CircuitBreaker.Probe createProbe(final AtomicBoolean available, final AtomicInteger calls)
+   {
+      return createProbe(available, calls, new AtomicReference<Credential>());
+   }
+
+   /**
+    * A probe that succeeds when the flag is set
+    * @param available The flag
+    * @param calls The number of calls
+    * @param probed The credential of the last call
+    * @return The probe
+    */
+   private static CircuitBreaker.Probe createProbe(final AtomicBoolean available, final AtomicInteger calls,
+                                                   final AtomicReference<Credential> probed)
+   {
+      return new CircuitBreaker.Probe()
+      {
+         public void probe(Credential credential) throws Exception
+         {
+            calls.incrementAndGet();
+            probed.set(credential);
+            if (!available.get())
+               throw new Exception("Unavailable");
+         }
+      };
+   }
+
+   /**
+    * A threshold of 0 disables the circuit breaker
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testDisabled() throws Throwable
+   {
+      CircuitBreaker cb = new CircuitBreaker(0, 1000L, createProbe(new AtomicBoolean(), new AtomicInteger()));
+
+      assertFalse(cb.isEnabled());
+      for (int i = 0; i < 100; i++)
+         cb.recordFailure(null);
+
+      assertFalse(cb.isOpen());
+      assertTrue(cb.allowRequest());
+   }
+
+   /**
+    * Consecutive failures open the circuit breaker, and a success resets the count
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testOpen() throws Throwable
+   {
+      CircuitBreaker cb = new CircuitBreaker(3, 60000L, createProbe(new AtomicBoolean(), new AtomicInteger()));
+      try
+      {
+         cb.recordFailure(null);
+         cb.recordFailure(null);
+         cb.recordSuccess();
+         assertEquals(0, cb.getFailures());
+
+         cb.recordFailure(null);
+         cb.recordFailure(null);
+         assertFalse(cb.isOpen());
+
+         cb.recordFailure(null);
+         assertTrue(cb.isOpen());
+         assertFalse(cb.allowRequest());
+      }
+      finally
+      {
+         cb.shutdown();
+      }
+   }
+
+   /**
+    * A successful probe closes the circuit breaker
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testProbe() throws Throwable
+   {
+      AtomicBoolean available = new AtomicBoolean(false);
+      AtomicInteger calls = new AtomicInteger();
+      CircuitBreaker cb = new CircuitBreaker(1, 60000L, createProbe(available, calls));
+      try
+      {
+         cb.recordFailure(null);
+         assertTrue(cb.isOpen());
+
+         cb.probe();
+         assertEquals(1, calls.get());
+         assertTrue(cb.isOpen());
+
+         available.set(true);
+         cb.probe();
+         assertEquals(2, calls.get());
+         assertFalse(cb.isOpen());
+         assertEquals(0, cb.getFailures());
+         assertTrue(cb.allowRequest());
+      }
+      finally
+      {
+         cb.shutdown();
+      }
+   }
+
+   /**
+    * A single trial request is let through when no probe has run for two intervals
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testTrialRequest() throws Throwable
+   {
+      CircuitBreaker cb = new CircuitBreaker(1, 10L, createProbe(new AtomicBoolean(), new AtomicInteger()));
+      try
+      {
+         cb.recordFailure(null);
+         assertTrue(cb.isOpen());
+
+         Thread.sleep(50L);
+
+         assertTrue(cb.allowRequest());
+         assertFalse(cb.allowRequest());
+
+         cb.recordSuccess();
+         assertFalse(cb.isOpen());
+      }
+      finally
+      {
+         cb.shutdown();
+      }
+   }
+
+   /**
+    * The probe runs with the credential of the failure that opened the circuit breaker
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testProbeCredential() throws Throwable
+   {
+      AtomicReference<Credential> probed = new AtomicReference<>();
+      CircuitBreaker cb = new CircuitBreaker(2, 60000L,
+                                             createProbe(new AtomicBoolean(true), new AtomicInteger(), probed));
+      try
+      {
+         Credential first = new Credential(null, null);
+         Credential second = new Credential(null, null);
+
+         cb.recordFailure(first);
+         cb.recordFailure(second);
+         assertTrue(cb.isOpen());
+
+         cb.probe();
+         assertSame(second, probed.get());
+         assertFalse(cb.isOpen());
+      }
+      finally
+      {
+         cb.shutdown();
+      }
+   }
+}
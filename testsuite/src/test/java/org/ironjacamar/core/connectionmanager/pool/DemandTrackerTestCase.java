@@ -0,0 +1,114 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DemandTracker test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class DemandTrackerTestCase
+{
+   /**
+    * Without demand the target is the minimum size
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testIdle() throws Throwable
+   {
+      DemandTracker dt = new DemandTracker(60000L);
+
+      assertEquals(0, dt.getTarget(0, 20));
+      assertEquals(5, dt.getTarget(5, 20));
+   }
+
+   /**
+    * The target follows the peak in use, within the bounds
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testPeak() throws Throwable
+   {
+      DemandTracker dt = new DemandTracker(60000L);
+
+      for (int i = 0; i < 8; i++)
+         dt.borrowed(0L);
+
+      assertEquals(8, dt.getInUse());
+
+      int target = dt.getTarget(0, 100);
+      assertTrue(target >= 10);
+      assertEquals(12, dt.getTarget(0, 12));
+      assertEquals(50, dt.getTarget(50, 100));
+
+      // The peak is remembered within the window
+      for (int i = 0; i < 8; i++)
+         dt.returned();
+
+      assertEquals(0, dt.getInUse());
+      assertTrue(dt.getTarget(0, 100) >= 10);
+   }
+
+   /**
+    * Waiting borrowers grow the target
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testWait() throws Throwable
+   {
+      DemandTracker fast = new DemandTracker(60000L);
+      DemandTracker slow = new DemandTracker(60000L);
+
+      for (int i = 0; i < 8; i++)
+      {
+         fast.borrowed(0L);
+         slow.borrowed(TimeUnit.MILLISECONDS.toNanos(10L));
+      }
+
+      assertTrue(slow.getTarget(0, 100) > fast.getTarget(0, 100));
+   }
+
+   /**
+    * The demand expires with the window
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testWindow() throws Throwable
+   {
+      DemandTracker dt = new DemandTracker(100L);
+
+      for (int i = 0; i < 8; i++)
+         dt.borrowed(0L);
+
+      for (int i = 0; i < 8; i++)
+         dt.returned();
+
+      Thread.sleep(200L);
+
+      assertEquals(2, dt.getTarget(2, 100));
+   }
+}
@@ -0,0 +1,141 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FreeListeners test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class FreeListenersTestCase
+{
+   /**
+    * Create a connection listener stub
+    * @return The instance
+    */
+   private static ConnectionListener createConnectionListener()
+   {
+      return (ConnectionListener)Proxy.newProxyInstance(ConnectionListener.class.getClassLoader(),
+                                                        new Class<?>[] {ConnectionListener.class},
+                                                        (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * The number of stripes is a power of two
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testStripes() throws Throwable
+   {
+      assertEquals(1, new FreeListeners(0).getStripes());
+      assertEquals(1, new FreeListeners(1).getStripes());
+      assertEquals(4, new FreeListeners(6).getStripes());
+      assertEquals(16, new FreeListeners(16).getStripes());
+   }
+
+   /**
+    * A single stripe is most recently used first
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSingleStripe() throws Throwable
+   {
+      FreeListeners fl = new FreeListeners(1);
+      ConnectionListener cl1 = createConnectionListener();
+      ConnectionListener cl2 = createConnectionListener();
+      ConnectionListener cl3 = createConnectionListener();
+
+      fl.addFirst(cl1);
+      fl.addFirst(cl2);
+      fl.addFirst(cl3);
+
+      assertTrue(fl.remove(cl2));
+      assertFalse(fl.remove(cl2));
+
+      assertSame(cl3, fl.pollFirst());
+      assertSame(cl1, fl.pollFirst());
+      assertNull(fl.pollFirst());
+   }
+
+   /**
+    * A thread steals from the other stripes when its own stripe is empty
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSteal() throws Throwable
+   {
+      final FreeListeners fl = new FreeListeners(16);
+      final int n = 64;
+
+      for (int i = 0; i < n; i++)
+      {
+         final ConnectionListener cl = createConnectionListener();
+         Thread t = new Thread(() -> fl.addFirst(cl));
+         t.start();
+         t.join();
+      }
+
+      int used = 0;
+      for (int i = 0; i < fl.getStripes(); i++)
+      {
+         if (!fl.getStripe(i).isEmpty())
+            used++;
+      }
+      assertTrue(used > 1);
+
+      final AtomicReference<Integer> polled = new AtomicReference<>(0);
+      Thread t = new Thread(() ->
+      {
+         int count = 0;
+         while (fl.pollFirst() != null)
+            count++;
+         polled.set(count);
+      });
+      t.start();
+      t.join();
+
+      assertEquals(Integer.valueOf(n), polled.get());
+      assertNull(fl.pollFirst());
+   }
+}
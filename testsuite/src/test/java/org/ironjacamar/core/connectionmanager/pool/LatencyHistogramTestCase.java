@@ -0,0 +1,100 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LatencyHistogram test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class LatencyHistogramTestCase
+{
+   /**
+    * Empty
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testEmpty() throws Throwable
+   {
+      HistogramSnapshot hs = new LatencyHistogram().snapshot(false);
+
+      assertEquals(0L, hs.getCount());
+      assertEquals(0L, hs.getMax());
+      assertEquals(0L, hs.getValueAtPercentile(99.0));
+   }
+
+   /**
+    * Bucket boundaries
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testBuckets() throws Throwable
+   {
+      long previous = -1L;
+      for (long v = 0L; v < 1000000L; v += 7L)
+      {
+         int index = LatencyHistogram.index(v);
+         long high = LatencyHistogram.highestValue(index);
+
+         assertTrue(high >= v);
+         assertTrue(high - v <= Math.max(1L, v / 32L));
+         assertTrue(index >= previous);
+         previous = index;
+      }
+
+      assertEquals(LatencyHistogram.index(Long.MAX_VALUE), LatencyHistogram.index(1L << 41));
+   }
+
+   /**
+    * Percentiles
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testPercentiles() throws Throwable
+   {
+      LatencyHistogram h = new LatencyHistogram();
+
+      for (long v = 1L; v <= 10000L; v++)
+         h.record(v * 1000L);
+
+      HistogramSnapshot hs = h.snapshot(true);
+
+      assertEquals(10000L, hs.getCount());
+      assertEquals(10000000L, hs.getMax());
+      assertEquals(5000500.0, hs.getMean(), 0.1);
+
+      long p50 = hs.getValueAtPercentile(50.0);
+      assertTrue(p50 >= 5000000L && p50 <= 5000000L * 33L / 32L);
+
+      long p99 = hs.getValueAtPercentile(99.0);
+      assertTrue(p99 >= 9900000L && p99 <= 9900000L * 33L / 32L);
+
+      assertEquals(10000000L, hs.getValueAtPercentile(100.0));
+
+      assertEquals(0L, h.snapshot(false).getCount());
+   }
+}
@@ -0,0 +1,424 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MaintenanceScheduler test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class MaintenanceSchedulerTestCase
+{
+   /**
+    * A counting task
+    * @param counter The counter
+    * @param latch The latch
+    * @return The task
+    */
+   private static Runnable createTask(final AtomicInteger counter, final CountDownLatch latch)
+   {
+      return new Runnable()
+      {
+         public void run()
+         {
+            counter.incrementAndGet();
+            latch.countDown();
+         }
+      };
+   }
+
+   /**
+    * Jobs run periodically
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testPeriodic() throws Throwable
+   {
+      MaintenanceScheduler scheduler = new MaintenanceScheduler(5L);
+      scheduler.start();
+      try
+      {
+         AtomicInteger counter = new AtomicInteger();
+         CountDownLatch latch = new CountDownLatch(3);
+
+         scheduler.schedule(createTask(counter, latch), 20L);
+
+         assertTrue(latch.await(5, TimeUnit.SECONDS));
+      }
+      finally
+      {
+         scheduler.stop();
+      }
+   }
+
+   /**
+    * Jobs beyond the first wheel are cascaded
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testCascade() throws Throwable
+   {
+      MaintenanceScheduler scheduler = new MaintenanceScheduler(1L);
+      scheduler.start();
+      try
+      {
+         AtomicInteger counter = new AtomicInteger();
+         CountDownLatch latch = new CountDownLatch(2);
+
+         long start = System.nanoTime();
+         scheduler.schedule(createTask(counter, latch), 150L);
+
+         assertTrue(latch.await(5, TimeUnit.SECONDS));
+         assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150L);
+      }
+      finally
+      {
+         scheduler.stop();
+      }
+   }
+
+   /**
+    * Cancelled jobs don't run
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testCancel() throws Throwable
+   {
+      MaintenanceScheduler scheduler = new MaintenanceScheduler(5L);
+      scheduler.start();
+      try
+      {
+         AtomicInteger counter = new AtomicInteger();
+         CountDownLatch latch = new CountDownLatch(1);
+
+         MaintenanceScheduler.Job job = scheduler.schedule(createTask(counter, latch), 20L);
+         assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+         job.cancel();
+         Thread.sleep(50L);
+         int runs = counter.get();
+
+         Thread.sleep(100L);
+         assertEquals(runs, counter.get());
+         assertTrue(job.isCancelled());
+      }
+      finally
+      {
+         scheduler.stop();
+      }
+   }
+
+   /**
+    * One-shot jobs run once
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testScheduleOnce() throws Throwable
+   {
+      MaintenanceScheduler scheduler = new MaintenanceScheduler(5L);
+      scheduler.start();
+      try
+      {
+         AtomicInteger counter = new AtomicInteger();
+         CountDownLatch latch = new CountDownLatch(1);
+
+         long start = System.nanoTime();
+         scheduler.scheduleOnce(createTask(counter, latch), 30L);
+
+         assertTrue(latch.await(5, TimeUnit.SECONDS));
+         assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 30L);
+
+         Thread.sleep(100L);
+         assertEquals(1, counter.get());
+      }
+      finally
+      {
+         scheduler.stop();
+      }
+   }
+
+   /**
+    * Jobs run on a bounded number of threads, and the due jobs queue up when all are busy
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testMaxThreads() throws Throwable
+   {
+      MaintenanceScheduler scheduler = new MaintenanceScheduler(5L);
+      scheduler.setMaxThreads(2);
+      scheduler.start();
+
+      final CountDownLatch release = new CountDownLatch(1);
+      try
+      {
+         final AtomicInteger active = new AtomicInteger();
+         final AtomicInteger peak = new AtomicInteger();
+         final CountDownLatch done = new CountDownLatch(4);
+
+         for (int i = 0; i < 4; i++)
+         {
+            scheduler.scheduleOnce(new Runnable()
+            {
+               public void run()
+               {
+                  peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+                  try
+                  {
+                     release.await(30, TimeUnit.SECONDS);
+                  }
+                  catch (InterruptedException ie)
+                  {
+                     Thread.currentThread().interrupt();
+                  }
+                  active.decrementAndGet();
+                  done.countDown();
+               }
+            }, 10L);
+         }
+
+         Thread.sleep(300L);
+         assertEquals(2, active.get());
+
+         release.countDown();
+
+         assertTrue(done.await(5, TimeUnit.SECONDS));
+         assertEquals(2, peak.get());
+      }
+      finally
+      {
+         release.countDown();
+         scheduler.stop();
+      }
+   }
+
+   /**
+    * The first run of jobs with the same interval is spread out
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSpread() throws Throwable
+   {
+      MaintenanceScheduler scheduler = new MaintenanceScheduler(1L);
+      scheduler.start();
+      try
+      {
+         final int jobs = 20;
+         final long[] first = new long[jobs];
+         final CountDownLatch latch = new CountDownLatch(jobs);
+         final long start = System.nanoTime();
+
+         for (int i = 0; i < jobs; i++)
+         {
+            final int index = i;
+            scheduler.schedule(new Runnable()
+            {
+               public void run()
+               {
+                  if (first[index] == 0L)
+                  {
+                     first[index] = System.nanoTime() - start;
+                     latch.countDown();
+                  }
+               }
+            }, 500L);
+         }
+
+         assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+         boolean spread = false;
+         for (int i = 1; i < jobs; i++)
+         {
+            if (Math.abs(first[i] - first[0]) > TimeUnit.MILLISECONDS.toNanos(20L))
+               spread = true;
+         }
+         assertTrue(spread);
+      }
+      finally
+      {
+         scheduler.stop();
+      }
+   }
+
+   /**
+    * The scheduler is only stopped when every start has been stopped
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testShared() throws Throwable
+   {
+      MaintenanceScheduler scheduler = new MaintenanceScheduler(5L);
+      scheduler.start();
+      scheduler.start();
+      scheduler.stop();
+      try
+      {
+         AtomicInteger counter = new AtomicInteger();
+         CountDownLatch latch = new CountDownLatch(1);
+
+         scheduler.schedule(createTask(counter, latch), 10L);
+         assertTrue(latch.await(5, TimeUnit.SECONDS));
+      }
+      finally
+      {
+         scheduler.stop();
+      }
+
+      assertFalse(runsWhenStopped(scheduler));
+   }
+
+   /**
+    * Schedule a job on a stopped scheduler
+    * @param scheduler The scheduler
+    * @return True if the job ran
+    * @throws Throwable In case of an error
+    */
+   private static boolean runsWhenStopped(MaintenanceScheduler scheduler) throws Throwable
+   {
+      CountDownLatch latch = new CountDownLatch(1);
+      scheduler.schedule(createTask(new AtomicInteger(), latch), 10L);
+      return latch.await(100, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * A failing job keeps its schedule
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testFailingJob() throws Throwable
+   {
+      MaintenanceScheduler scheduler = new MaintenanceScheduler(5L);
+      scheduler.start();
+      try
+      {
+         CountDownLatch latch = new CountDownLatch(3);
+
+         scheduler.schedule(new Runnable()
+         {
+            public void run()
+            {
+               latch.countDown();
+               throw new IllegalStateException("Failure");
+            }
+         }, 10L);
+
+         assertTrue(latch.await(5, TimeUnit.SECONDS));
+      }
+      finally
+      {
+         scheduler.stop();
+      }
+   }
+
+   /**
+    * Due jobs are handed to the executor without holding the scheduler lock, so an executor
+    * which waits for a schedule call of another thread doesn't block the scheduler
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testExecuteWithoutLock() throws Throwable
+   {
+      MaintenanceScheduler scheduler = new MaintenanceScheduler(5L);
+      ExecutorService delegate = Executors.newCachedThreadPool();
+      AtomicInteger counter = new AtomicInteger();
+      CountDownLatch latch = new CountDownLatch(1);
+
+      ExecutorService executor = new AbstractExecutorService()
+      {
+         private boolean first = true;
+
+         public void execute(Runnable command)
+         {
+            if (first)
+            {
+               first = false;
+               delegate.execute(command);
+               return;
+            }
+
+            Thread t = new Thread(() -> scheduler.scheduleOnce(createTask(counter, latch), 5L));
+            t.start();
+            try
+            {
+               t.join();
+            }
+            catch (InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+            }
+
+            delegate.execute(command);
+         }
+
+         public void shutdown()
+         {
+            delegate.shutdown();
+         }
+
+         public List<Runnable> shutdownNow()
+         {
+            return delegate.shutdownNow();
+         }
+
+         public boolean isShutdown()
+         {
+            return delegate.isShutdown();
+         }
+
+         public boolean isTerminated()
+         {
+            return delegate.isTerminated();
+         }
+
+         public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+         {
+            return delegate.awaitTermination(timeout, unit);
+         }
+      };
+
+      scheduler.setExecutorService(executor);
+      scheduler.start();
+      try
+      {
+         scheduler.scheduleOnce(createTask(new AtomicInteger(), new CountDownLatch(1)), 5L);
+
+         assertTrue(latch.await(5, TimeUnit.SECONDS));
+         assertEquals(1, counter.get());
+      }
+      finally
+      {
+         scheduler.stop();
+         delegate.shutdownNow();
+      }
+   }
+}
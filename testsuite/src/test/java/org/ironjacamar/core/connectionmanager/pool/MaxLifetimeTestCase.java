@@ -0,0 +1,247 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.api.connectionmanager.pool.PoolConfiguration;
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+import org.ironjacamar.core.connectionmanager.listener.dflt.NoTransactionConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.resource.spi.ManagedConnection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Max lifetime test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class MaxLifetimeTestCase
+{
+   /**
+    * A managed connection pool which only tracks its connection listeners
+    */
+   private static class TestManagedConnectionPool extends AbstractManagedConnectionPool
+   {
+      /**
+       * Constructor
+       * @param pool The pool
+       */
+      TestManagedConnectionPool(Pool pool)
+      {
+         super(pool, new Credential(null, null));
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public ConnectionListener getConnectionListener()
+      {
+         return findFreeConnectionListener();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public ConnectionListener tryGetConnectionListener(long timeout)
+      {
+         return findFreeConnectionListener();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void returnConnectionListener(ConnectionListener cl, boolean kill)
+      {
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void shutdown()
+      {
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void prefill()
+      {
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void fillTo(int size)
+      {
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void validateConnections()
+      {
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void removeIdleConnections()
+      {
+      }
+   }
+
+   /**
+    * Create a pool stub
+    * @param pc The pool configuration
+    * @param destroyed The destroyed connection listeners
+    * @return The instance
+    */
+   private static Pool createPool(final PoolConfiguration pc, final List<ConnectionListener> destroyed)
+   {
+      return (Pool)Proxy.newProxyInstance(Pool.class.getClassLoader(),
+                                          new Class<?>[] {Pool.class},
+                                          (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "getConfiguration":
+               return pc;
+            case "isShutdown":
+               return Boolean.TRUE;
+            case "destroyConnectionListener":
+               destroyed.add((ConnectionListener)args[0]);
+               return null;
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a free connection listener
+    * @return The instance
+    */
+   private static ConnectionListener createConnectionListener()
+   {
+      ManagedConnection mc =
+         (ManagedConnection)Proxy.newProxyInstance(ManagedConnection.class.getClassLoader(),
+                                                   new Class<?>[] {ManagedConnection.class},
+                                                   (proxy, method, args) -> null);
+
+      return new NoTransactionConnectionListener(null, mc, new Credential(null, null));
+   }
+
+   /**
+    * The expiry of the connection listeners is spread over the last 10% of the max lifetime
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testJitter() throws Throwable
+   {
+      PoolConfiguration pc = new PoolConfiguration();
+      pc.setMaxLifetime(100000L);
+
+      TestManagedConnectionPool mcp = new TestManagedConnectionPool(createPool(pc, new ArrayList<>()));
+      Set<Long> offsets = new HashSet<>();
+
+      for (int i = 0; i < 100; i++)
+      {
+         ConnectionListener cl = createConnectionListener();
+         mcp.addConnectionListener(cl);
+
+         long offset = cl.getExpires() - cl.getCreated();
+         assertTrue(offset > 90000L);
+         assertTrue(offset <= 100000L);
+         offsets.add(offset);
+      }
+
+      assertTrue(offsets.size() > 1);
+   }
+
+   /**
+    * Without a max lifetime connection listeners don't expire
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testUnlimited() throws Throwable
+   {
+      TestManagedConnectionPool mcp =
+         new TestManagedConnectionPool(createPool(new PoolConfiguration(), new ArrayList<>()));
+
+      ConnectionListener cl = createConnectionListener();
+      mcp.addConnectionListener(cl);
+
+      assertEquals(Long.MAX_VALUE, cl.getExpires());
+      assertFalse(mcp.isExpired(cl));
+   }
+
+   /**
+    * Expired free connection listeners are retired, and never handed out
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testRecycle() throws Throwable
+   {
+      PoolConfiguration pc = new PoolConfiguration();
+      pc.setMaxLifetime(100000L);
+
+      List<ConnectionListener> destroyed = new ArrayList<>();
+      TestManagedConnectionPool mcp = new TestManagedConnectionPool(createPool(pc, destroyed));
+
+      ConnectionListener live = createConnectionListener();
+      ConnectionListener expired1 = createConnectionListener();
+      ConnectionListener expired2 = createConnectionListener();
+
+      for (ConnectionListener cl : new ConnectionListener[] {live, expired1, expired2})
+      {
+         mcp.addConnectionListener(cl);
+         mcp.freeConnectionListener(cl);
+      }
+
+      expired1.setExpires(System.currentTimeMillis() - 1L);
+      mcp.recycleConnections();
+
+      assertEquals(1, destroyed.size());
+      assertTrue(destroyed.contains(expired1));
+      assertEquals(2, mcp.getConnectionListenerCount());
+
+      expired2.setExpires(System.currentTimeMillis() - 1L);
+
+      ConnectionListener cl = mcp.getConnectionListener();
+      assertTrue(cl == live);
+      assertTrue(destroyed.contains(expired2));
+      assertEquals(1, mcp.getConnectionListenerCount());
+   }
+}
@@ -0,0 +1,247 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PoolFiller test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class PoolFillerTestCase
+{
+   /**
+    * Create a managed connection pool stub, which blocks in fillTo
+    * @param calls The number of fillTo calls
+    * @param started Counted down when fillTo is called
+    * @param release Awaited in fillTo
+    * @return The instance
+    */
+   private static ManagedConnectionPool createManagedConnectionPool(final AtomicInteger calls,
+                                                                    final CountDownLatch started,
+                                                                    final CountDownLatch release)
+   {
+      return createManagedConnectionPool(calls, new AtomicInteger(), started, release);
+   }
+
+   /**
+    * Create a managed connection pool stub, which blocks in fillTo
+    * @param calls The number of fillTo calls
+    * @param size The largest fill size passed to fillTo
+    * @param started Counted down when fillTo is called
+    * @param release Awaited in fillTo
+    * @return The instance
+    */
+   private static ManagedConnectionPool createManagedConnectionPool(final AtomicInteger calls,
+                                                                    final AtomicInteger size,
+                                                                    final CountDownLatch started,
+                                                                    final CountDownLatch release)
+   {
+      return (ManagedConnectionPool)Proxy.newProxyInstance(ManagedConnectionPool.class.getClassLoader(),
+                                                           new Class<?>[] {ManagedConnectionPool.class},
+                                                           (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "fillTo":
+               calls.incrementAndGet();
+               size.accumulateAndGet((Integer)args[0], Math::max);
+               started.countDown();
+               release.await(10, TimeUnit.SECONDS);
+               return null;
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * A fill request is executed concurrently, and duplicates are ignored
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testConcurrentFill() throws Throwable
+   {
+      PoolFiller filler = PoolFiller.getInstance();
+      int concurrency = filler.getConcurrency();
+      int parallelism = filler.getParallelism();
+
+      filler.setParallelism(3);
+      filler.setConcurrency(2);
+      try
+      {
+         AtomicInteger calls = new AtomicInteger();
+         CountDownLatch started = new CountDownLatch(2);
+         CountDownLatch release = new CountDownLatch(1);
+         ManagedConnectionPool mcp = createManagedConnectionPool(calls, started, release);
+
+         PoolFiller.fillPool(new FillRequest(mcp, 10));
+         PoolFiller.fillPool(new FillRequest(mcp, 10));
+
+         assertTrue(started.await(5, TimeUnit.SECONDS));
+         release.countDown();
+
+         Thread.sleep(100L);
+         assertEquals(2, calls.get());
+      }
+      finally
+      {
+         filler.setConcurrency(concurrency);
+         filler.setParallelism(parallelism);
+      }
+   }
+
+   /**
+    * A slow pool doesn't block the fill of another pool
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testIndependentPools() throws Throwable
+   {
+      AtomicInteger slowCalls = new AtomicInteger();
+      CountDownLatch slowStarted = new CountDownLatch(1);
+      CountDownLatch slowRelease = new CountDownLatch(1);
+      ManagedConnectionPool slow = createManagedConnectionPool(slowCalls, slowStarted, slowRelease);
+
+      AtomicInteger fastCalls = new AtomicInteger();
+      CountDownLatch fastStarted = new CountDownLatch(1);
+      ManagedConnectionPool fast = createManagedConnectionPool(fastCalls, fastStarted, new CountDownLatch(0));
+
+      try
+      {
+         PoolFiller.fillPool(new FillRequest(slow, 1));
+         assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+
+         PoolFiller.fillPool(new FillRequest(fast, 1));
+         assertTrue(fastStarted.await(5, TimeUnit.SECONDS));
+      }
+      finally
+      {
+         slowRelease.countDown();
+      }
+   }
+
+   /**
+    * Requests of different sizes for the same pool are merged into one fill, which
+    * runs a bounded number of tasks, and fills to the largest size
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testMergedFill() throws Throwable
+   {
+      PoolFiller filler = PoolFiller.getInstance();
+      int concurrency = filler.getConcurrency();
+      int parallelism = filler.getParallelism();
+
+      filler.setParallelism(3);
+      filler.setConcurrency(2);
+      try
+      {
+         AtomicInteger calls = new AtomicInteger();
+         AtomicInteger size = new AtomicInteger();
+         CountDownLatch started = new CountDownLatch(2);
+         CountDownLatch release = new CountDownLatch(1);
+         ManagedConnectionPool mcp = createManagedConnectionPool(calls, size, started, release);
+
+         PoolFiller.fillPool(new FillRequest(mcp, 5));
+         PoolFiller.fillPool(new FillRequest(mcp, 10));
+         PoolFiller.fillPool(new FillRequest(mcp, 20));
+
+         assertTrue(started.await(5, TimeUnit.SECONDS));
+         assertEquals(2, filler.getTasks(mcp));
+
+         release.countDown();
+
+         long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+         while (filler.getTasks(mcp) > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10L);
+
+         assertEquals(0, filler.getTasks(mcp));
+         assertEquals(20, size.get());
+         assertTrue(calls.get() <= 4);
+      }
+      finally
+      {
+         filler.setConcurrency(concurrency);
+         filler.setParallelism(parallelism);
+      }
+   }
+
+   /**
+    * A blocked pool holds at most all but one of the filler threads, so the fill of
+    * another pool isn't delayed by it
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testBlockedPool() throws Throwable
+   {
+      PoolFiller filler = PoolFiller.getInstance();
+      int concurrency = filler.getConcurrency();
+      int parallelism = filler.getParallelism();
+
+      filler.setParallelism(3);
+      filler.setConcurrency(3);
+
+      AtomicInteger blockedCalls = new AtomicInteger();
+      CountDownLatch blockedStarted = new CountDownLatch(2);
+      CountDownLatch blockedRelease = new CountDownLatch(1);
+      ManagedConnectionPool blocked = createManagedConnectionPool(blockedCalls, blockedStarted, blockedRelease);
+
+      AtomicInteger calls = new AtomicInteger();
+      CountDownLatch started = new CountDownLatch(1);
+      ManagedConnectionPool mcp = createManagedConnectionPool(calls, started, new CountDownLatch(0));
+
+      try
+      {
+         PoolFiller.fillPool(new FillRequest(blocked, 10));
+         assertTrue(blockedStarted.await(5, TimeUnit.SECONDS));
+         assertEquals(2, filler.getTasks(blocked));
+
+         PoolFiller.fillPool(new FillRequest(mcp, 10));
+         assertTrue(started.await(5, TimeUnit.SECONDS));
+
+         long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+         while (filler.getTasks(mcp) > 0 && System.nanoTime() < deadline)
+            Thread.sleep(10L);
+
+         assertEquals(0, filler.getTasks(mcp));
+         assertEquals(2, blockedCalls.get());
+      }
+      finally
+      {
+         blockedRelease.countDown();
+         filler.setConcurrency(concurrency);
+         filler.setParallelism(parallelism);
+      }
+   }
+}
@@ -0,0 +1,141 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PoolStatisticsImpl test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class PoolStatisticsTestCase
+{
+   /**
+    * Names, types and descriptions
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testNames() throws Throwable
+   {
+      PoolStatisticsImpl ps = new PoolStatisticsImpl(10, new Semaphore(10));
+
+      assertFalse(ps.isEnabled());
+      assertEquals(13, ps.getNames().size());
+
+      for (String name : ps.getNames())
+      {
+         assertNotNull(ps.getType(name));
+         assertNotNull(ps.getDescription(name));
+         assertNotNull(ps.getValue(name));
+      }
+   }
+
+   /**
+    * Counters
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testCounters() throws Throwable
+   {
+      Semaphore semaphore = new Semaphore(10);
+      PoolStatisticsImpl ps = new PoolStatisticsImpl(10, semaphore);
+      ps.setEnabled(true);
+      assertTrue(ps.isEnabled());
+
+      semaphore.acquire(2);
+      ps.deltaCreated(TimeUnit.MILLISECONDS.toNanos(10));
+      ps.deltaCreated(TimeUnit.MILLISECONDS.toNanos(30));
+
+      ps.deltaInUse(1);
+      ps.deltaObtained(TimeUnit.MILLISECONDS.toNanos(4));
+      ps.deltaTimedOut(TimeUnit.MILLISECONDS.toNanos(8));
+
+      assertEquals(2, ps.getActiveCount());
+      assertEquals(1, ps.getInUseCount());
+      assertEquals(1, ps.getIdleCount());
+      assertEquals(2L, ps.getCreatedCount());
+      assertEquals(20L, ps.getAverageCreationTime());
+      assertEquals(30L, ps.getMaxCreationTime());
+      assertEquals(2L, ps.getBlockingCount());
+      assertEquals(12L, ps.getTotalBlockingTime());
+      assertEquals(6L, ps.getAverageBlockingTime());
+      assertEquals(8L, ps.getMaxWaitTime());
+      assertEquals(1L, ps.getTimedOut());
+
+      ps.deltaInUse(-1);
+      ps.deltaReturned(TimeUnit.MILLISECONDS.toNanos(5));
+      semaphore.release();
+      ps.deltaDestroyed();
+
+      assertEquals(1, ps.getActiveCount());
+      assertEquals(0, ps.getInUseCount());
+      assertEquals(1L, ps.getDestroyedCount());
+      assertEquals(Integer.valueOf(1), ps.getValue("IdleCount"));
+
+      assertEquals(2L, ps.getHistograms(false).get("BorrowTime").getCount());
+      assertEquals(1L, ps.getHistograms(false).get("HoldTime").getCount());
+      assertEquals(0L, ps.getHistograms(false).get("CleanupTime").getCount());
+
+      ps.clear();
+
+      assertEquals(0L, ps.getHistograms(false).get("BorrowTime").getCount());
+      assertEquals(0L, ps.getCreatedCount());
+      assertEquals(0L, ps.getMaxWaitTime());
+      assertEquals(1, ps.getActiveCount());
+   }
+
+   /**
+    * The in use gauge is kept while the statistics are disabled, and isn't cleared
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testInUse() throws Throwable
+   {
+      Semaphore semaphore = new Semaphore(10);
+      PoolStatisticsImpl ps = new PoolStatisticsImpl(10, semaphore);
+
+      semaphore.acquire(3);
+      ps.deltaInUse(1);
+      ps.deltaInUse(1);
+
+      ps.setEnabled(true);
+      ps.clear();
+
+      assertEquals(3, ps.getActiveCount());
+      assertEquals(2, ps.getInUseCount());
+      assertEquals(1, ps.getIdleCount());
+
+      ps.deltaInUse(-1);
+      ps.setEnabled(false);
+      ps.deltaInUse(-1);
+
+      assertEquals(0, ps.getInUseCount());
+      assertEquals(3, ps.getIdleCount());
+   }
+}
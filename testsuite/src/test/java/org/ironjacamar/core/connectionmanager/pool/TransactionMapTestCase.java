@@ -0,0 +1,255 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TransactionMap test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class TransactionMapTestCase
+{
+   /**
+    * Create a connection listener stub
+    * @param credential The credential
+    * @return The instance
+    */
+   private static ConnectionListener createConnectionListener(final Credential credential)
+   {
+      return (ConnectionListener)Proxy.newProxyInstance(ConnectionListener.class.getClassLoader(),
+                                                        new Class<?>[] {ConnectionListener.class},
+                                                        (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "getCredential":
+               return credential;
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a transaction stub
+    * @return The instance
+    */
+   private static Transaction createTransaction()
+   {
+      return (Transaction)Proxy.newProxyInstance(Transaction.class.getClassLoader(),
+                                                 new Class<?>[] {Transaction.class},
+                                                 (proxy, method, args) -> null);
+   }
+
+   /**
+    * A transaction synchronization registry stub for a single transaction
+    */
+   private static class TSR
+   {
+      /** The key */
+      private final Object key = new Object();
+
+      /** The resources */
+      private final Map<Object, Object> resources = new HashMap<>();
+
+      /** The synchronizations */
+      private final List<Synchronization> synchronizations = new ArrayList<>();
+
+      /**
+       * Get the registry
+       * @return The value
+       */
+      TransactionSynchronizationRegistry get()
+      {
+         return (TransactionSynchronizationRegistry)Proxy.newProxyInstance(
+            TransactionSynchronizationRegistry.class.getClassLoader(),
+            new Class<?>[] {TransactionSynchronizationRegistry.class},
+            (proxy, method, args) ->
+            {
+               switch (method.getName())
+               {
+                  case "getTransactionKey":
+                     return key;
+                  case "getResource":
+                     return resources.get(args[0]);
+                  case "putResource":
+                     resources.put(args[0], args[1]);
+                     return null;
+                  case "registerInterposedSynchronization":
+                     synchronizations.add((Synchronization)args[0]);
+                     return null;
+                  default:
+                     return null;
+               }
+            });
+      }
+
+      /**
+       * Complete the transaction
+       */
+      void complete()
+      {
+         for (Synchronization s : synchronizations)
+            s.afterCompletion(0);
+
+         resources.clear();
+         synchronizations.clear();
+      }
+   }
+
+   /**
+    * A single connection listener is stored directly
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSingle() throws Throwable
+   {
+      TransactionMap map = new TransactionMap(false);
+      TSR tsr = new TSR();
+      Credential credential = new Credential(null, null);
+      ConnectionListener cl = createConnectionListener(credential);
+
+      assertNull(map.get(tsr.get(), credential));
+      assertSame(cl, map.put(createTransaction(), tsr.get(), cl));
+      assertSame(cl, map.get(tsr.get(), new Credential(null, null)));
+      assertSame(cl, tsr.resources.get(map));
+      assertEquals(0, tsr.synchronizations.size());
+      assertNull(map.getTransactionKey(cl));
+
+      ConnectionListener other = createConnectionListener(credential);
+      assertSame(cl, map.put(createTransaction(), tsr.get(), other));
+
+      tsr.complete();
+      assertNull(map.get(tsr.get(), credential));
+   }
+
+   /**
+    * Connection listeners from multiple credentials
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testMultiple() throws Throwable
+   {
+      TransactionMap map = new TransactionMap(false);
+      TSR tsr = new TSR();
+      Transaction tx = createTransaction();
+      Credential c1 = new Credential(null, null);
+      Credential c2 = new Credential(new javax.security.auth.Subject(), null);
+      ConnectionListener cl1 = createConnectionListener(c1);
+      ConnectionListener cl2 = createConnectionListener(c2);
+
+      assertSame(cl1, map.put(tx, tsr.get(), cl1));
+      assertNull(map.get(tsr.get(), c2));
+      assertSame(cl2, map.put(tx, tsr.get(), cl2));
+
+      assertSame(cl1, map.get(tsr.get(), c1));
+      assertSame(cl2, map.get(tsr.get(), c2));
+   }
+
+   /**
+    * Tracking of the owning transaction
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testTracking() throws Throwable
+   {
+      TransactionMap map = new TransactionMap(true);
+      TSR tsr = new TSR();
+      Credential credential = new Credential(null, null);
+      ConnectionListener cl = createConnectionListener(credential);
+
+      map.put(createTransaction(), tsr.get(), cl);
+      assertSame(tsr.key, map.getTransactionKey(cl));
+      assertEquals(1, tsr.synchronizations.size());
+
+      tsr.complete();
+      assertNull(map.getTransactionKey(cl));
+   }
+
+   /**
+    * The monitor of the transaction isn't used, so a thread holding it doesn't block the map
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testTransactionNotLocked() throws Throwable
+   {
+      TransactionMap map = new TransactionMap(true);
+      TSR tsr = new TSR();
+      Transaction tx = createTransaction();
+      ConnectionListener cl = createConnectionListener(new Credential(null, null));
+      CountDownLatch locked = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(1);
+
+      Thread t = new Thread(() ->
+      {
+         synchronized (tx)
+         {
+            locked.countDown();
+            try
+            {
+               done.await(30, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ie)
+            {
+               // Ignore
+            }
+         }
+      });
+      t.start();
+
+      try
+      {
+         assertTrue(locked.await(30, TimeUnit.SECONDS));
+         assertSame(cl, map.put(tx, tsr.get(), cl));
+         assertSame(tsr.key, map.getTransactionKey(cl));
+      }
+      finally
+      {
+         done.countDown();
+         t.join();
+      }
+   }
+}
@@ -0,0 +1,300 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.api.connectionmanager.pool.PoolConfiguration;
+import org.ironjacamar.core.connectionmanager.ConnectionManager;
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+import org.ironjacamar.core.connectionmanager.listener.dflt.NoTransactionConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ValidatingManagedConnectionFactory;
+
+import org.junit.Test;
+
+import static org.ironjacamar.core.connectionmanager.listener.ConnectionListener.FREE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Background validation test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class ValidationTestCase
+{
+   /**
+    * A managed connection pool which only tracks its connection listeners
+    */
+   private static class TestManagedConnectionPool extends AbstractManagedConnectionPool
+   {
+      /**
+       * Constructor
+       * @param pool The pool
+       */
+      TestManagedConnectionPool(Pool pool)
+      {
+         super(pool, new Credential(null, null));
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public ConnectionListener getConnectionListener()
+      {
+         return findFreeConnectionListener();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public ConnectionListener tryGetConnectionListener(long timeout)
+      {
+         return findFreeConnectionListener();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void returnConnectionListener(ConnectionListener cl, boolean kill)
+      {
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void shutdown()
+      {
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void prefill()
+      {
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void fillTo(int size)
+      {
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void validateConnections()
+      {
+         validateFreeConnectionListeners();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void removeIdleConnections()
+      {
+      }
+   }
+
+   /**
+    * Create a validating managed connection factory stub
+    * @param invalid The invalid managed connections
+    * @param batches The sizes of the validated batches
+    * @return The instance
+    */
+   private static ManagedConnectionFactory createManagedConnectionFactory(final Set<ManagedConnection> invalid,
+                                                                         final List<Integer> batches)
+   {
+      return (ManagedConnectionFactory)Proxy.newProxyInstance(
+         ManagedConnectionFactory.class.getClassLoader(),
+         new Class<?>[] {ManagedConnectionFactory.class, ValidatingManagedConnectionFactory.class},
+         (proxy, method, args) ->
+      {
+         if ("getInvalidConnections".equals(method.getName()))
+         {
+            Set<?> candidates = (Set<?>)args[0];
+            batches.add(candidates.size());
+
+            Set<ManagedConnection> result = new HashSet<>(invalid);
+            result.retainAll(candidates);
+            return result;
+         }
+         return null;
+      });
+   }
+
+   /**
+    * Create a pool stub
+    * @param pc The pool configuration
+    * @param mcf The managed connection factory
+    * @param destroyed The destroyed connection listeners
+    * @return The instance
+    */
+   private static Pool createPool(final PoolConfiguration pc, final ManagedConnectionFactory mcf,
+                                  final List<ConnectionListener> destroyed)
+   {
+      final ConnectionManager cm =
+         (ConnectionManager)Proxy.newProxyInstance(ConnectionManager.class.getClassLoader(),
+                                                   new Class<?>[] {ConnectionManager.class},
+                                                   (proxy, method, args) ->
+                                                   "getManagedConnectionFactory".equals(method.getName()) ?
+                                                   mcf : null);
+
+      return (Pool)Proxy.newProxyInstance(Pool.class.getClassLoader(),
+                                          new Class<?>[] {Pool.class},
+                                          (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "getConfiguration":
+               return pc;
+            case "getConnectionManager":
+               return cm;
+            case "isShutdown":
+               return Boolean.TRUE;
+            case "destroyConnectionListener":
+               destroyed.add((ConnectionListener)args[0]);
+               return null;
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a connection listener
+    * @param mc The managed connection
+    * @return The instance
+    */
+   private static ConnectionListener createConnectionListener(ManagedConnection mc)
+   {
+      if (mc == null)
+      {
+         mc = (ManagedConnection)Proxy.newProxyInstance(ManagedConnection.class.getClassLoader(),
+                                                        new Class<?>[] {ManagedConnection.class},
+                                                        (proxy, method, args) ->
+                                                        "hashCode".equals(method.getName()) ?
+                                                        (Object)System.identityHashCode(proxy) :
+                                                        "equals".equals(method.getName()) ?
+                                                        (Object)(proxy == args[0]) : null);
+      }
+
+      return new NoTransactionConnectionListener(null, mc, new Credential(null, null));
+   }
+
+   /**
+    * Add free connection listeners to a managed connection pool
+    * @param mcp The managed connection pool
+    * @param count The number of connection listeners
+    * @return The connection listeners
+    * @throws Throwable In case of an error
+    */
+   private static List<ConnectionListener> fill(TestManagedConnectionPool mcp, int count) throws Throwable
+   {
+      List<ConnectionListener> result = new ArrayList<>();
+
+      for (int i = 0; i < count; i++)
+      {
+         ConnectionListener cl = createConnectionListener(null);
+         mcp.addConnectionListener(cl);
+         mcp.freeConnectionListener(cl);
+         result.add(cl);
+      }
+
+      // Make all connection listeners due for validation
+      Thread.sleep(5L);
+
+      return result;
+   }
+
+   /**
+    * Idle connections are validated in batches, and only the invalid ones are destroyed
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testBatches() throws Throwable
+   {
+      PoolConfiguration pc = new PoolConfiguration();
+      pc.setBackgroundValidationMillis(1L);
+      pc.setValidationBatchSize(2);
+
+      Set<ManagedConnection> invalid = new HashSet<>();
+      List<Integer> batches = new ArrayList<>();
+      List<ConnectionListener> destroyed = new ArrayList<>();
+      TestManagedConnectionPool mcp =
+         new TestManagedConnectionPool(createPool(pc, createManagedConnectionFactory(invalid, batches), destroyed));
+
+      List<ConnectionListener> cls = fill(mcp, 5);
+      invalid.add(cls.get(3).getManagedConnection());
+
+      mcp.validateConnections();
+
+      assertEquals(3, batches.size());
+      assertEquals(5, batches.get(0) + batches.get(1) + batches.get(2));
+      assertTrue(batches.get(0) <= 2 && batches.get(1) <= 2 && batches.get(2) <= 2);
+
+      assertEquals(Collections.singletonList(cls.get(3)), destroyed);
+      assertEquals(4, mcp.getConnectionListenerCount());
+
+      for (ConnectionListener cl : cls)
+      {
+         if (cl != cls.get(3))
+            assertEquals(FREE, cl.getState());
+      }
+   }
+
+   /**
+    * Without a batch size all idle connections are validated in a single call
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSingleBatch() throws Throwable
+   {
+      PoolConfiguration pc = new PoolConfiguration();
+      pc.setBackgroundValidationMillis(1L);
+
+      List<Integer> batches = new ArrayList<>();
+      List<ConnectionListener> destroyed = new ArrayList<>();
+      TestManagedConnectionPool mcp =
+         new TestManagedConnectionPool(createPool(pc, createManagedConnectionFactory(new HashSet<>(), batches),
+                                                  destroyed));
+
+      fill(mcp, 10);
+      mcp.validateConnections();
+
+      assertEquals(Collections.singletonList(10), batches);
+      assertTrue(destroyed.isEmpty());
+      assertEquals(10, mcp.getConnectionListenerCount());
+   }
+}
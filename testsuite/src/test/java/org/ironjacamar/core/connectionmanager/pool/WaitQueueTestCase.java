@@ -0,0 +1,223 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WaitQueue test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class WaitQueueTestCase
+{
+   /**
+    * Create a connection listener stub
+    * @return The instance
+    */
+   private static ConnectionListener createConnectionListener()
+   {
+      return (ConnectionListener)Proxy.newProxyInstance(ConnectionListener.class.getClassLoader(),
+                                                        new Class<?>[] {ConnectionListener.class},
+                                                        (proxy, method, args) -> null);
+   }
+
+   /**
+    * Offer without waiters
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testOfferNoWaiters() throws Throwable
+   {
+      WaitQueue wq = new WaitQueue();
+
+      assertFalse(wq.hasWaiters());
+      assertFalse(wq.offer(createConnectionListener()));
+   }
+
+   /**
+    * Timeout
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testTimeout() throws Throwable
+   {
+      WaitQueue wq = new WaitQueue();
+      WaitQueue.Waiter waiter = wq.enqueue();
+
+      assertTrue(wq.hasWaiters());
+      assertNull(wq.await(waiter, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50)));
+      assertTrue(wq.cancel(waiter));
+      assertFalse(wq.hasWaiters());
+      assertFalse(wq.offer(createConnectionListener()));
+   }
+
+   /**
+    * Hand-off to a parked thread
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testHandOff() throws Throwable
+   {
+      WaitQueue wq = new WaitQueue();
+      ConnectionListener cl = createConnectionListener();
+      AtomicReference<ConnectionListener> result = new AtomicReference<>();
+      CountDownLatch done = new CountDownLatch(1);
+
+      Thread t = new Thread(() -> {
+         try
+         {
+            WaitQueue.Waiter waiter = wq.enqueue();
+            result.set(wq.await(waiter, System.nanoTime() + TimeUnit.SECONDS.toNanos(30)));
+         }
+         catch (InterruptedException ie)
+         {
+            // Ignore
+         }
+         finally
+         {
+            done.countDown();
+         }
+      });
+      t.start();
+
+      while (!wq.hasWaiters())
+         Thread.yield();
+
+      assertTrue(wq.offer(cl));
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+      assertSame(cl, result.get());
+      assertFalse(wq.hasWaiters());
+   }
+
+   /**
+    * Waiters are served in FIFO order
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testFifo() throws Throwable
+   {
+      WaitQueue wq = new WaitQueue();
+      ConnectionListener cl = createConnectionListener();
+
+      WaitQueue.Waiter first = wq.enqueue();
+      WaitQueue.Waiter second = wq.enqueue();
+
+      assertTrue(wq.offer(cl));
+      assertSame(cl, first.getConnectionListener());
+      assertNull(second.getConnectionListener());
+
+      assertFalse(wq.cancel(first));
+      assertTrue(wq.cancel(second));
+      assertEquals(false, wq.hasWaiters());
+   }
+
+   /**
+    * The head of the queue moves on when the first waiter leaves it
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testHead() throws Throwable
+   {
+      WaitQueue wq = new WaitQueue();
+
+      WaitQueue.Waiter first = wq.enqueue();
+      WaitQueue.Waiter second = wq.enqueue(new CompletableFuture<ConnectionListener>());
+
+      assertTrue(wq.isHead(first));
+      assertFalse(wq.isHead(second));
+
+      assertTrue(wq.cancel(first));
+      assertTrue(wq.isHead(second));
+
+      assertTrue(wq.cancel(second));
+      assertFalse(wq.isHead(second));
+   }
+
+   /**
+    * Hand-off to an asynchronous waiter completes its future
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testAsyncHandOff() throws Throwable
+   {
+      WaitQueue wq = new WaitQueue();
+      ConnectionListener cl = createConnectionListener();
+      CompletableFuture<ConnectionListener> future = new CompletableFuture<>();
+
+      WaitQueue.Waiter waiter = wq.enqueue(future);
+      assertEquals(1, wq.size());
+      assertFalse(wq.signal());
+
+      assertTrue(wq.offer(cl));
+      assertSame(cl, future.getNow(null));
+      assertFalse(wq.hasWaiters());
+      assertFalse(wq.cancel(waiter));
+   }
+
+   /**
+    * Signal all fails asynchronous waiters
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testAsyncSignalAll() throws Throwable
+   {
+      WaitQueue wq = new WaitQueue();
+      CompletableFuture<ConnectionListener> future = new CompletableFuture<>();
+
+      wq.enqueue(future);
+      wq.signalAll();
+
+      assertTrue(future.isCompletedExceptionally());
+      assertFalse(wq.hasWaiters());
+   }
+
+   /**
+    * Signal
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSignal() throws Throwable
+   {
+      WaitQueue wq = new WaitQueue();
+      WaitQueue.Waiter waiter = wq.enqueue();
+
+      wq.signal();
+
+      long start = System.nanoTime();
+      assertNull(wq.await(waiter, start + TimeUnit.SECONDS.toNanos(30)));
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+      assertTrue(wq.cancel(waiter));
+   }
+}
@@ -0,0 +1,158 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool;
+
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
+import org.ironjacamar.core.tx.narayana.XAResourceWrapperStatImpl;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * XAResource statistics test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class XAResourceStatisticsTestCase
+{
+   /**
+    * Sub-millisecond invocations are kept in the histograms
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSubMillisecond() throws Throwable
+   {
+      XAResourceStatisticsImpl xastat = new XAResourceStatisticsImpl();
+
+      for (int i = 1; i <= 100; i++)
+         xastat.deltaPrepare(TimeUnit.MICROSECONDS.toNanos(i * 5));
+
+      assertEquals(100L, xastat.getPrepareCount());
+      assertEquals(0L, xastat.getPrepareAverageTime());
+      assertEquals(0L, xastat.getPrepareMaxTime());
+      assertEquals(0L, xastat.getCommitCount());
+
+      HistogramSnapshot prepare = xastat.getHistograms(false).get("Prepare");
+      assertEquals(100L, prepare.getCount());
+      assertEquals(TimeUnit.MICROSECONDS.toNanos(500), prepare.getMax());
+
+      long p50 = prepare.getValueAtPercentile(50.0);
+      assertTrue(Long.toString(p50), Math.abs(p50 - TimeUnit.MICROSECONDS.toNanos(250)) < 10000L);
+   }
+
+   /**
+    * Totals, averages and maximums are reported in milliseconds
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testMilliseconds() throws Throwable
+   {
+      XAResourceStatisticsImpl xastat = new XAResourceStatisticsImpl();
+
+      xastat.deltaCommit(TimeUnit.MILLISECONDS.toNanos(10));
+      xastat.deltaCommit(TimeUnit.MILLISECONDS.toNanos(30));
+      xastat.deltaRollback(TimeUnit.MILLISECONDS.toNanos(5));
+
+      assertEquals(2L, xastat.getCommitCount());
+      assertEquals(40L, xastat.getCommitTotalTime());
+      assertEquals(20L, xastat.getCommitAverageTime());
+      assertEquals(30L, xastat.getCommitMaxTime());
+      assertEquals(1L, xastat.getRollbackCount());
+
+      assertEquals(2L, xastat.getValue("XACommitCount"));
+      assertEquals(30L, xastat.getValue("XACommitMaxTime"));
+      assertEquals(long.class, xastat.getType("XARollbackTotalTime"));
+      assertEquals(31, xastat.getNames().size());
+   }
+
+   /**
+    * Snapshots can reset the histograms, and clear resets everything
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testReset() throws Throwable
+   {
+      XAResourceStatisticsImpl xastat = new XAResourceStatisticsImpl();
+      assertFalse(xastat.isEnabled());
+
+      xastat.deltaStart(1000L);
+      xastat.deltaEnd(1000L);
+
+      Map<String, HistogramSnapshot> histograms = xastat.getHistograms(true);
+      assertEquals(7, histograms.size());
+      assertEquals(1L, histograms.get("Start").getCount());
+      assertEquals(0L, xastat.getStartCount());
+
+      xastat.deltaForget(1000L);
+      xastat.deltaRecover(1000L);
+      xastat.clear();
+      assertEquals(0L, xastat.getForgetCount());
+      assertEquals(0L, xastat.getRecoverCount());
+   }
+
+   /**
+    * One phase commits and read-only votes are recorded by the wrapper
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testOnePhaseAndReadOnly() throws Throwable
+   {
+      AtomicInteger vote = new AtomicInteger(XAResource.XA_RDONLY);
+      XAResource xar = (XAResource)Proxy.newProxyInstance(XAResource.class.getClassLoader(),
+                                                          new Class<?>[] {XAResource.class},
+                                                          (proxy, method, args) ->
+                                                          "prepare".equals(method.getName()) ? vote.get() : null);
+
+      XAResourceStatisticsImpl xastat = new XAResourceStatisticsImpl();
+      XAResource wrapper = new XAResourceWrapperStatImpl(xar, "EIS", "1.0", xastat);
+      Xid xid = (Xid)Proxy.newProxyInstance(Xid.class.getClassLoader(), new Class<?>[] {Xid.class},
+                                            (proxy, method, args) -> null);
+
+      wrapper.commit(xid, true);
+      wrapper.commit(xid, false);
+      assertEquals(2L, xastat.getCommitCount());
+      assertEquals(1L, xastat.getCommitOnePhaseCount());
+
+      for (int i = 0; i < 15; i++)
+         assertEquals(XAResource.XA_RDONLY, wrapper.prepare(xid));
+
+      assertFalse(xastat.isReadOnly());
+      wrapper.prepare(xid);
+      assertTrue(xastat.isReadOnly());
+      assertEquals(Boolean.TRUE, xastat.getValue("XAReadOnly"));
+
+      vote.set(XAResource.XA_OK);
+      wrapper.prepare(xid);
+      assertFalse(xastat.isReadOnly());
+      assertEquals(17L, xastat.getPrepareCount());
+      assertEquals(16L, xastat.getPrepareReadOnlyCount());
+   }
+}
@@ -0,0 +1,187 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool.dflt;
+
+import org.ironjacamar.core.api.connectionmanager.ConnectionManagerConfiguration;
+import org.ironjacamar.core.api.connectionmanager.pool.PoolConfiguration;
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.NoTransactionConnectionManager;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * The connection listener last returned by a thread is handed to it again
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class AffinityTestCase
+{
+   /**
+    * Create a stub which only supports identity
+    * @param type The type
+    * @return The instance
+    */
+   private static Object createStub(Class<?> type)
+   {
+      return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "createManagedConnection":
+               return createStub(ManagedConnection.class);
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a pool with two connections
+    * @return The pool
+    */
+   private static DefaultPool createPool()
+   {
+      NoTransactionConnectionManager cm =
+         new NoTransactionConnectionManager((ManagedConnectionFactory)createStub(ManagedConnectionFactory.class),
+                                            null, new ConnectionManagerConfiguration());
+
+      PoolConfiguration pc = new PoolConfiguration();
+      pc.setMinSize(0);
+      pc.setInitialSize(0);
+      pc.setMaxSize(2);
+      pc.setBlockingTimeout(100L);
+
+      DefaultPool pool = new DefaultPool(cm, pc);
+      cm.setPool(pool);
+
+      return pool;
+   }
+
+   /**
+    * Run a task in another thread
+    * @param <T> The type of the result
+    * @param task The task
+    * @return The result
+    * @throws Throwable In case of an error
+    */
+   private static <T> T runInOtherThread(final Callable<T> task) throws Throwable
+   {
+      final CompletableFuture<T> result = new CompletableFuture<>();
+      Thread t = new Thread(() ->
+      {
+         try
+         {
+            result.complete(task.call());
+         }
+         catch (Throwable th)
+         {
+            result.completeExceptionally(th);
+         }
+      });
+      t.start();
+      t.join();
+
+      return result.get(30, TimeUnit.SECONDS);
+   }
+
+   /**
+    * A thread gets the connection listener it returned, even though another thread
+    * returned a connection listener after it
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSameThread() throws Throwable
+   {
+      final DefaultPool pool = createPool();
+      final Credential credential = new Credential(null, null);
+      try
+      {
+         ConnectionListener mine = pool.getConnectionListener(credential);
+         final ConnectionListener other = runInOtherThread(() -> pool.getConnectionListener(credential));
+         assertNotSame(mine, other);
+
+         pool.returnConnectionListener(mine, false);
+         runInOtherThread(() ->
+         {
+            pool.returnConnectionListener(other, false);
+            return null;
+         });
+
+         ConnectionListener cl = pool.getConnectionListener(credential);
+         assertSame(mine, cl);
+
+         pool.returnConnectionListener(cl, false);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+
+   /**
+    * A thread falls back to the free connection listeners when another thread took
+    * the connection listener it returned
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testTakenByOtherThread() throws Throwable
+   {
+      final DefaultPool pool = createPool();
+      final Credential credential = new Credential(null, null);
+      try
+      {
+         ConnectionListener first = pool.getConnectionListener(credential);
+         ConnectionListener second = pool.getConnectionListener(credential);
+
+         pool.returnConnectionListener(second, false);
+         pool.returnConnectionListener(first, false);
+
+         // The most recently returned connection listener goes to the other thread
+         ConnectionListener taken = runInOtherThread(() -> pool.getConnectionListener(credential));
+         assertSame(first, taken);
+
+         ConnectionListener cl = pool.getConnectionListener(credential);
+         assertSame(second, cl);
+
+         pool.returnConnectionListener(cl, false);
+         pool.returnConnectionListener(taken, false);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+}
@@ -0,0 +1,160 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool.dflt;
+
+import org.ironjacamar.core.api.connectionmanager.ConnectionManagerConfiguration;
+import org.ironjacamar.core.api.connectionmanager.pool.PoolConfiguration;
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.NoTransactionConnectionManager;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Asynchronous requests of the default pool
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class AsyncTestCase
+{
+   /**
+    * Create a stub which only supports identity
+    * @param type The type
+    * @return The instance
+    */
+   private static Object createStub(Class<?> type)
+   {
+      return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "createManagedConnection":
+               return createStub(ManagedConnection.class);
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a pool with a single connection
+    * @return The pool
+    */
+   private static DefaultPool createPool()
+   {
+      NoTransactionConnectionManager cm =
+         new NoTransactionConnectionManager((ManagedConnectionFactory)createStub(ManagedConnectionFactory.class),
+                                            null, new ConnectionManagerConfiguration());
+
+      PoolConfiguration pc = new PoolConfiguration();
+      pc.setMinSize(0);
+      pc.setInitialSize(0);
+      pc.setMaxSize(1);
+      pc.setBlockingTimeout(100L);
+
+      DefaultPool pool = new DefaultPool(cm, pc);
+      cm.setPool(pool);
+      pool.getStatistics().setEnabled(true);
+
+      return pool;
+   }
+
+   /**
+    * The blocking timeout fails a request without the maintenance scheduler, and is counted
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testTimeout() throws Throwable
+   {
+      DefaultPool pool = createPool();
+      Credential credential = new Credential(null, null);
+      try
+      {
+         ConnectionListener cl = pool.getConnectionListener(credential);
+         CompletableFuture<ConnectionListener> stage =
+            pool.getConnectionListenerAsync(credential).toCompletableFuture();
+
+         try
+         {
+            stage.get(30, TimeUnit.SECONDS);
+            fail("Connection listener handed off");
+         }
+         catch (ExecutionException ee)
+         {
+            assertTrue(ee.getCause() instanceof ResourceException);
+         }
+
+         assertEquals(1L, pool.getStatistics().getTimedOut());
+
+         pool.returnConnectionListener(cl, false);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+
+   /**
+    * A hand-off after the request was cancelled goes back to the pool
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testCancel() throws Throwable
+   {
+      DefaultPool pool = createPool();
+      Credential credential = new Credential(null, null);
+      try
+      {
+         ConnectionListener cl = pool.getConnectionListener(credential);
+         CompletableFuture<ConnectionListener> stage =
+            pool.getConnectionListenerAsync(credential).toCompletableFuture();
+
+         assertTrue(stage.cancel(false));
+         pool.returnConnectionListener(cl, false);
+
+         assertSame(cl, pool.tryGetConnectionListener(credential, 0L));
+         assertEquals(0L, pool.getStatistics().getTimedOut());
+
+         pool.returnConnectionListener(cl, false);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+}
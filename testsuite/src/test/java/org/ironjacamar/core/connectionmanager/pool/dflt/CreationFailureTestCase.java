@@ -0,0 +1,202 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool.dflt;
+
+import org.ironjacamar.core.api.connectionmanager.ConnectionManagerConfiguration;
+import org.ironjacamar.core.api.connectionmanager.pool.PoolConfiguration;
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.NoTransactionConnectionManager;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Connection listeners that can't be created fail the request with the cause,
+ * instead of waiting for the blocking timeout
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class CreationFailureTestCase
+{
+   /** The blocking timeout */
+   private static final long BLOCKING_TIMEOUT = 30000L;
+
+   /**
+    * Create a managed connection factory which fails to create managed connections
+    * @param cause The cause
+    * @param calls The number of calls
+    * @return The instance
+    */
+   private static ManagedConnectionFactory createManagedConnectionFactory(final ResourceException cause,
+                                                                          final AtomicInteger calls)
+   {
+      return (ManagedConnectionFactory)Proxy.newProxyInstance(ManagedConnectionFactory.class.getClassLoader(),
+                                                              new Class<?>[] {ManagedConnectionFactory.class},
+                                                              (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "createManagedConnection":
+               calls.incrementAndGet();
+               throw cause;
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a connection manager
+    * @param mcf The managed connection factory
+    * @param allocationRetry The number of allocation retries
+    * @return The instance
+    */
+   private static NoTransactionConnectionManager createConnectionManager(ManagedConnectionFactory mcf,
+                                                                         int allocationRetry)
+   {
+      ConnectionManagerConfiguration cmc = new ConnectionManagerConfiguration();
+      cmc.setAllocationRetry(allocationRetry);
+      cmc.setAllocationRetryWaitMillis(10L);
+
+      NoTransactionConnectionManager cm = new NoTransactionConnectionManager(mcf, null, cmc);
+
+      PoolConfiguration pc = new PoolConfiguration();
+      pc.setMinSize(0);
+      pc.setInitialSize(0);
+      pc.setMaxSize(1);
+      pc.setBlockingTimeout(BLOCKING_TIMEOUT);
+
+      cm.setPool(new DefaultPool(cm, pc));
+
+      return cm;
+   }
+
+   /**
+    * An allocation fails with the cause well within the blocking timeout
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testAllocation() throws Throwable
+   {
+      ResourceException cause = new ResourceException("Backend down");
+      AtomicInteger calls = new AtomicInteger();
+      NoTransactionConnectionManager cm = createConnectionManager(createManagedConnectionFactory(cause, calls), 0);
+      try
+      {
+         long start = System.nanoTime();
+         try
+         {
+            cm.allocateConnection(cm.getManagedConnectionFactory(), null);
+            fail("Connection allocated");
+         }
+         catch (ResourceException re)
+         {
+            assertSame(cause, re);
+         }
+
+         assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < BLOCKING_TIMEOUT / 2);
+         assertEquals(1, calls.get());
+      }
+      finally
+      {
+         cm.getPool().shutdown();
+      }
+   }
+
+   /**
+    * Allocation retries are driven by the cause, not by the blocking timeout
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testAllocationRetry() throws Throwable
+   {
+      ResourceException cause = new ResourceException("Backend down");
+      AtomicInteger calls = new AtomicInteger();
+      NoTransactionConnectionManager cm = createConnectionManager(createManagedConnectionFactory(cause, calls), 2);
+      try
+      {
+         long start = System.nanoTime();
+         try
+         {
+            cm.allocateConnection(cm.getManagedConnectionFactory(), null);
+            fail("Connection allocated");
+         }
+         catch (ResourceException re)
+         {
+            assertSame(cause, re);
+         }
+
+         assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < BLOCKING_TIMEOUT / 2);
+         assertEquals(3, calls.get());
+      }
+      finally
+      {
+         cm.getPool().shutdown();
+      }
+   }
+
+   /**
+    * An asynchronous waiter is failed with the cause when the background creation fails
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testAsync() throws Throwable
+   {
+      ResourceException cause = new ResourceException("Backend down");
+      AtomicInteger calls = new AtomicInteger();
+      NoTransactionConnectionManager cm = createConnectionManager(createManagedConnectionFactory(cause, calls), 0);
+      try
+      {
+         long start = System.nanoTime();
+         try
+         {
+            cm.getPool().getConnectionListenerAsync(new Credential(null, null)).toCompletableFuture()
+               .get(BLOCKING_TIMEOUT * 2, TimeUnit.MILLISECONDS);
+            fail("Connection listener handed off");
+         }
+         catch (ExecutionException ee)
+         {
+            assertSame(cause, ee.getCause());
+         }
+
+         assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < BLOCKING_TIMEOUT / 2);
+      }
+      finally
+      {
+         cm.getPool().shutdown();
+      }
+   }
+}
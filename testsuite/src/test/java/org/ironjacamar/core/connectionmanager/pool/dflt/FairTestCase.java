@@ -0,0 +1,173 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool.dflt;
+
+import org.ironjacamar.core.api.connectionmanager.ConnectionManagerConfiguration;
+import org.ironjacamar.core.api.connectionmanager.pool.PoolConfiguration;
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.NoTransactionConnectionManager;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fair mode of the default pool
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class FairTestCase
+{
+   /**
+    * Create a stub which only supports identity
+    * @param type The type
+    * @return The instance
+    */
+   private static Object createStub(Class<?> type)
+   {
+      return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * Create a managed connection factory where the first creation blocks until released
+    * @param entered Counted down when the first creation is entered
+    * @param release Released to complete the first creation
+    * @return The instance
+    */
+   private static ManagedConnectionFactory createManagedConnectionFactory(final CountDownLatch entered,
+                                                                          final CountDownLatch release)
+   {
+      final AtomicInteger calls = new AtomicInteger();
+      return (ManagedConnectionFactory)Proxy.newProxyInstance(ManagedConnectionFactory.class.getClassLoader(),
+                                                              new Class<?>[] {ManagedConnectionFactory.class},
+                                                              (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "createManagedConnection":
+               if (calls.getAndIncrement() == 0)
+               {
+                  entered.countDown();
+                  release.await();
+               }
+               return createStub(ManagedConnection.class);
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * A request enqueued behind a waiter doesn't barge ahead of it, even though the pool
+    * has capacity for a new connection listener
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testNoBarging() throws Throwable
+   {
+      CountDownLatch entered = new CountDownLatch(1);
+      CountDownLatch release = new CountDownLatch(1);
+
+      NoTransactionConnectionManager cm =
+         new NoTransactionConnectionManager(createManagedConnectionFactory(entered, release),
+                                            null, new ConnectionManagerConfiguration());
+
+      PoolConfiguration pc = new PoolConfiguration();
+      pc.setMinSize(0);
+      pc.setInitialSize(0);
+      pc.setMaxSize(2);
+      pc.setBlockingTimeout(30000L);
+      pc.setFair(true);
+
+      final DefaultPool pool = new DefaultPool(cm, pc);
+      cm.setPool(pool);
+
+      final Credential credential = new Credential(null, null);
+      try
+      {
+         // The head of the queue waits for a connection listener created in the background
+         CompletableFuture<ConnectionListener> head = pool.getConnectionListenerAsync(credential).toCompletableFuture();
+         assertTrue(entered.await(30, TimeUnit.SECONDS));
+
+         final CompletableFuture<ConnectionListener> next = new CompletableFuture<>();
+         Thread t = new Thread(() ->
+         {
+            try
+            {
+               next.complete(pool.tryGetConnectionListener(credential, 30000L));
+            }
+            catch (Throwable th)
+            {
+               next.completeExceptionally(th);
+            }
+         });
+         t.start();
+
+         Thread.sleep(500L);
+         assertFalse(next.isDone());
+
+         release.countDown();
+
+         ConnectionListener first = head.get(30, TimeUnit.SECONDS);
+         ConnectionListener second = next.get(30, TimeUnit.SECONDS);
+         t.join();
+
+         assertNotNull(first);
+         assertNotNull(second);
+         assertNotSame(first, second);
+
+         pool.returnConnectionListener(first, false);
+         pool.returnConnectionListener(second, false);
+      }
+      finally
+      {
+         release.countDown();
+         pool.shutdown();
+      }
+   }
+}
@@ -0,0 +1,113 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool.dflt;
+
+import org.ironjacamar.core.api.connectionmanager.ConnectionManagerConfiguration;
+import org.ironjacamar.core.api.connectionmanager.pool.HistogramSnapshot;
+import org.ironjacamar.core.api.connectionmanager.pool.PoolConfiguration;
+import org.ironjacamar.core.connectionmanager.Credential;
+import org.ironjacamar.core.connectionmanager.NoTransactionConnectionManager;
+import org.ironjacamar.core.connectionmanager.listener.ConnectionListener;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hold time statistics of the default pool
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class HoldTimeTestCase
+{
+   /**
+    * Create a stub which only supports identity
+    * @param type The type
+    * @return The instance
+    */
+   private static Object createStub(Class<?> type)
+   {
+      return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) ->
+      {
+         switch (method.getName())
+         {
+            case "createManagedConnection":
+               return createStub(ManagedConnection.class);
+            case "hashCode":
+               return System.identityHashCode(proxy);
+            case "equals":
+               return proxy == args[0];
+            default:
+               return null;
+         }
+      });
+   }
+
+   /**
+    * The hold time is measured in nanoseconds, not in whole milliseconds
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testResolution() throws Throwable
+   {
+      NoTransactionConnectionManager cm =
+         new NoTransactionConnectionManager((ManagedConnectionFactory)createStub(ManagedConnectionFactory.class),
+                                            null, new ConnectionManagerConfiguration());
+
+      PoolConfiguration pc = new PoolConfiguration();
+      pc.setMinSize(0);
+      pc.setInitialSize(0);
+      pc.setMaxSize(1);
+
+      DefaultPool pool = new DefaultPool(cm, pc);
+      cm.setPool(pool);
+      pool.getStatistics().setEnabled(true);
+
+      Credential credential = new Credential(null, null);
+      try
+      {
+         long hold = TimeUnit.MICROSECONDS.toNanos(200L);
+
+         ConnectionListener cl = pool.getConnectionListener(credential);
+         long start = System.nanoTime();
+         while (System.nanoTime() - start < hold)
+         {
+            // Hold the connection listener for less than a millisecond
+         }
+         pool.returnConnectionListener(cl, false);
+
+         HistogramSnapshot snapshot = pool.getStatistics().getHistograms(false).get("HoldTime");
+         assertEquals(1L, snapshot.getCount());
+         assertTrue(snapshot.getMax() >= hold);
+         assertTrue(snapshot.getMax() % TimeUnit.MILLISECONDS.toNanos(1L) != 0L);
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }
+}
@@ -0,0 +1,63 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.connectionmanager.pool.striped;
+
+import org.ironjacamar.core.api.connectionmanager.pool.PoolConfiguration;
+import org.ironjacamar.core.connectionmanager.pool.Pool;
+import org.ironjacamar.core.connectionmanager.pool.PoolFactory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * StripedPool test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class StripedPoolTestCase
+{
+   /**
+    * The striped pool is registered as a pool service
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testPoolFactory() throws Throwable
+   {
+      Pool pool = PoolFactory.createPool("striped", null, new PoolConfiguration());
+
+      assertTrue(pool instanceof StripedPool);
+      assertEquals("striped", pool.getType());
+   }
+
+   /**
+    * One stripe per CPU, bounded by max-pool-size
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testStripes() throws Throwable
+   {
+      assertEquals(16, StripedPool.getStripes(64, 20));
+      assertEquals(2, StripedPool.getStripes(3, 20));
+      assertEquals(1, StripedPool.getStripes(8, 1));
+      assertEquals(1, StripedPool.getStripes(1, 0));
+   }
+}
@@ -0,0 +1,157 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.tx.narayana;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * XidWrapper test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class XidWrapperTestCase
+{
+   /**
+    * Create a Xid
+    * @param gtrid The global transaction id
+    * @param bqual The branch qualifier
+    * @return The Xid
+    */
+   static Xid createXid(int gtrid, int bqual)
+   {
+      byte[] g = new byte[] {0, 0, 0, 0, 0, 0, 1, 2, (byte)(gtrid >>> 8), (byte)gtrid};
+      byte[] b = new byte[] {(byte)(bqual >>> 8), (byte)bqual};
+
+      return new Xid()
+      {
+         public int getFormatId()
+         {
+            return 131077;
+         }
+
+         public byte[] getGlobalTransactionId()
+         {
+            return g.clone();
+         }
+
+         public byte[] getBranchQualifier()
+         {
+            return b.clone();
+         }
+      };
+   }
+
+   /**
+    * Wrappers compare on their content, padded or not
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testEquals() throws Throwable
+   {
+      Xid xid = createXid(1, 1);
+
+      XidWrapperImpl padded = new XidWrapperImpl(xid, true, "java:/eis");
+      XidWrapperImpl other = new XidWrapperImpl(createXid(1, 1), true, "java:/eis");
+      XidWrapperImpl unpadded = new XidWrapperImpl(xid, false, "java:/eis");
+
+      assertEquals(Xid.MAXBQUALSIZE, padded.getBranchQualifier().length);
+      assertEquals(2, unpadded.getBranchQualifier().length);
+
+      assertTrue(padded.equals(other));
+      assertEquals(padded.hashCode(), other.hashCode());
+      assertFalse(padded.equals(unpadded));
+      assertTrue(unpadded.equals(xid));
+      assertFalse(padded.equals(new XidWrapperImpl(createXid(1, 2), true, "java:/eis")));
+      assertFalse(padded.equals(new XidWrapperImpl(createXid(2, 1), true, "java:/eis")));
+   }
+
+   /**
+    * Xids which only differ in a few bytes get different hash codes
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testHashCode() throws Throwable
+   {
+      Set<Integer> hashCodes = new HashSet<>();
+
+      for (int gtrid = 0; gtrid < 100; gtrid++)
+      {
+         for (int bqual = 0; bqual < 10; bqual++)
+            hashCodes.add(new XidWrapperImpl(createXid(gtrid, bqual), true, null).hashCode());
+      }
+
+      assertEquals(1000, hashCodes.size());
+   }
+
+   /**
+    * The wrapper of a branch is reused for all its calls
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testBranchCache() throws Throwable
+   {
+      List<Xid> xids = new ArrayList<>();
+      XAResource xar = (XAResource)Proxy.newProxyInstance(XAResource.class.getClassLoader(),
+                                                          new Class<?>[] {XAResource.class},
+                                                          (proxy, method, args) ->
+      {
+         if (args != null && args.length > 0 && args[0] instanceof Xid)
+            xids.add((Xid)args[0]);
+
+         return "prepare".equals(method.getName()) ? XAResource.XA_OK : null;
+      });
+
+      XAResourceWrapperImpl wrapper = new XAResourceWrapperImpl(xar, true, null, "EIS", "1.0", "java:/eis");
+
+      Xid first = createXid(1, 1);
+      wrapper.start(first, XAResource.TMNOFLAGS);
+      wrapper.end(first, XAResource.TMSUCCESS);
+      wrapper.prepare(first);
+      wrapper.commit(first, false);
+
+      Xid second = createXid(1, 1);
+      wrapper.start(second, XAResource.TMNOFLAGS);
+      wrapper.rollback(second);
+
+      assertEquals(6, xids.size());
+      for (int i = 1; i < 4; i++)
+         assertSame(xids.get(0), xids.get(i));
+
+      assertNotSame(xids.get(0), xids.get(4));
+      assertSame(xids.get(4), xids.get(5));
+      assertEquals(xids.get(0), xids.get(4));
+      assertTrue(xids.get(0) instanceof XidWrapperImpl);
+   }
+}
@@ -0,0 +1,177 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.tx.noopts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * TxRegistry test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class TxRegistryTestCase
+{
+   /**
+    * Create a synchronization which records its callbacks
+    * @param name The name
+    * @param events The events
+    * @return The synchronization
+    */
+   private static Synchronization createSynchronization(String name, List<String> events)
+   {
+      return new Synchronization()
+      {
+         public void beforeCompletion()
+         {
+            events.add("before-" + name);
+         }
+
+         public void afterCompletion(int status)
+         {
+            events.add("after-" + name + "-" + status);
+         }
+      };
+   }
+
+   /**
+    * The transaction instance of a thread is reused, and cleared between transactions
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testReuse() throws Throwable
+   {
+      TxRegistry registry = new TxRegistry();
+      assertNull(registry.getTransaction());
+
+      registry.startTransaction();
+      TransactionImpl tx = registry.getTransaction();
+      assertEquals(Status.STATUS_ACTIVE, tx.getStatus());
+      assertEquals(Long.valueOf(Thread.currentThread().getId()), tx.getKey());
+
+      for (int i = 0; i < 10; i++)
+         tx.putResource("key" + i, Integer.valueOf(i));
+      tx.putResource("key3", "value");
+
+      assertEquals("value", tx.getResource("key3"));
+      assertEquals(Integer.valueOf(9), tx.getResource("key9"));
+
+      registry.commitTransaction();
+      assertEquals(Status.STATUS_UNKNOWN, tx.getStatus());
+      assertSame(tx, registry.getTransaction());
+
+      registry.startTransaction();
+      assertSame(tx, registry.getTransaction());
+      assertEquals(Status.STATUS_ACTIVE, tx.getStatus());
+      assertNull(tx.getResource("key3"));
+
+      registry.rollbackTransaction();
+   }
+
+   /**
+    * Synchronizations are called once, in registration order, including the ones
+    * registered during beforeCompletion
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSynchronizations() throws Throwable
+   {
+      TxRegistry registry = new TxRegistry();
+      List<String> events = new ArrayList<>();
+
+      registry.startTransaction();
+      TransactionImpl tx = registry.getTransaction();
+
+      Synchronization a = createSynchronization("a", events);
+      Synchronization c = createSynchronization("c", events);
+
+      tx.registerSynchronization(a);
+      tx.registerSynchronization(new Synchronization()
+      {
+         public void beforeCompletion()
+         {
+            events.add("before-b");
+            try
+            {
+               tx.registerSynchronization(c);
+            }
+            catch (Exception e)
+            {
+               throw new RuntimeException(e);
+            }
+         }
+
+         public void afterCompletion(int status)
+         {
+            events.add("after-b-" + status);
+         }
+      });
+      tx.registerSynchronization(a);
+
+      registry.commitTransaction();
+
+      int committed = Status.STATUS_COMMITTED;
+      assertEquals("[before-a, before-b, before-c, after-a-" + committed + ", after-b-" + committed +
+                   ", after-c-" + committed + "]", events.toString());
+
+      events.clear();
+      registry.startTransaction();
+      registry.rollbackTransaction();
+      assertEquals(0, events.size());
+   }
+
+   /**
+    * A suspended transaction isn't reused by the next transaction of the thread
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testSuspend() throws Throwable
+   {
+      TxRegistry registry = new TxRegistry();
+
+      registry.startTransaction();
+      TransactionImpl suspended = registry.getTransaction();
+      suspended.putResource("key", "suspended");
+
+      registry.assignTransaction(null);
+      assertNull(registry.getTransaction());
+
+      registry.startTransaction();
+      TransactionImpl tx = registry.getTransaction();
+      assertNotSame(suspended, tx);
+      assertNull(tx.getResource("key"));
+      registry.commitTransaction();
+
+      registry.assignTransaction(suspended);
+      assertEquals("suspended", registry.getTransaction().getResource("key"));
+      registry.commitTransaction();
+      assertEquals(Status.STATUS_UNKNOWN, suspended.getStatus());
+   }
+}
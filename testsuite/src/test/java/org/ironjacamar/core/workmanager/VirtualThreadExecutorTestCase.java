@@ -0,0 +1,121 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.core.workmanager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.threads.ExecutionTimedOutException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * VirtualThreadExecutor test case
+ * @author <a href="mailto:jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class VirtualThreadExecutorTestCase
+{
+   /**
+    * Tasks run, and release their permit when done
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testExecute() throws Throwable
+   {
+      VirtualThreadExecutor executor = new VirtualThreadExecutor("test", 2);
+      CountDownLatch done = new CountDownLatch(10);
+
+      for (int i = 0; i < 10; i++)
+         executor.executeBlocking(() -> done.countDown());
+
+      assertTrue(done.await(30, TimeUnit.SECONDS));
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+      while (executor.getActiveCount() > 0 && System.nanoTime() < deadline)
+         Thread.yield();
+
+      assertEquals(0, executor.getActiveCount());
+   }
+
+   /**
+    * The number of concurrent tasks is bounded
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testBounded() throws Throwable
+   {
+      VirtualThreadExecutor executor = new VirtualThreadExecutor("test", 1);
+      CountDownLatch release = new CountDownLatch(1);
+
+      executor.executeNonBlocking(() ->
+      {
+         try
+         {
+            release.await();
+         }
+         catch (InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+         }
+      });
+
+      assertEquals(1, executor.getActiveCount());
+
+      try
+      {
+         executor.executeNonBlocking(() -> { });
+         fail("Task accepted");
+      }
+      catch (RejectedExecutionException ree)
+      {
+         // Expected
+      }
+
+      try
+      {
+         executor.executeBlocking(() -> { }, 10, TimeUnit.MILLISECONDS);
+         fail("Task accepted");
+      }
+      catch (ExecutionTimedOutException etoe)
+      {
+         // Expected
+      }
+
+      release.countDown();
+   }
+
+   /**
+    * Tasks are rejected after shutdown
+    * @throws Throwable In case of an error
+    */
+   @Test(expected = RejectedExecutionException.class)
+   public void testShutdown() throws Throwable
+   {
+      VirtualThreadExecutor executor = new VirtualThreadExecutor("test", 1);
+      executor.shutdown();
+      executor.execute(() -> { });
+   }
+}
@@ -0,0 +1,142 @@
+/*
+ * IronJacamar, a Java EE Connector Architecture implementation
+ * Copyright 2015, Red Hat Inc, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the Eclipse Public License 1.0 as
+ * published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the Eclipse
+ * Public License for more details.
+ *
+ * You should have received a copy of the Eclipse Public License
+ * along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.ironjacamar.perf;
+
+import org.ironjacamar.core.tx.narayana.XAResourceWrapperImpl;
+
+import java.lang.reflect.Proxy;
+
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Micro benchmark of the XA call path of a padding XAResource wrapper;
+ * start, end, prepare and commit of a branch against a no-op XAResource
+ *
+ * @author <a href="jesper.pedersen@ironjacamar.org">Jesper Pedersen</a>
+ */
+public class XidPerfTestCase
+{
+   /** Warm up iterations */
+   private static final int WARM_UP_ITERATIONS = 200000;
+
+   /** Measured iterations */
+   private static final int ITERATIONS = 1000000;
+
+   /** Sink */
+   private static long sink;
+
+   /**
+    * Create a Xid with Narayana sized identifiers
+    * @param id The id
+    * @return The Xid
+    */
+   private static Xid createXid(long id)
+   {
+      byte[] gtrid = new byte[35];
+      byte[] bqual = new byte[28];
+
+      for (int i = 0; i < 8; i++)
+      {
+         gtrid[gtrid.length - 1 - i] = (byte)(id >>> (8 * i));
+         bqual[bqual.length - 1 - i] = (byte)(id >>> (8 * i));
+      }
+
+      return new Xid()
+      {
+         public int getFormatId()
+         {
+            return 131077;
+         }
+
+         public byte[] getGlobalTransactionId()
+         {
+            return gtrid.clone();
+         }
+
+         public byte[] getBranchQualifier()
+         {
+            return bqual.clone();
+         }
+      };
+   }
+
+   /**
+    * Run the call path
+    * @param xar The XAResource
+    * @param iterations The number of branches
+    * @throws Throwable In case of an error
+    */
+   private static void run(XAResource xar, int iterations) throws Throwable
+   {
+      for (int i = 0; i < iterations; i++)
+      {
+         Xid xid = createXid(i);
+
+         xar.start(xid, XAResource.TMNOFLAGS);
+         xar.end(xid, XAResource.TMSUCCESS);
+         sink += xar.prepare(xid);
+         xar.commit(xid, false);
+      }
+   }
+
+   /**
+    * Measure the time per branch
+    * @throws Throwable In case of an error
+    */
+   @Test
+   public void testCallPath() throws Throwable
+   {
+      XAResource delegate = (XAResource)Proxy.newProxyInstance(XAResource.class.getClassLoader(),
+                                                               new Class<?>[] {XAResource.class},
+                                                               (proxy, method, args) ->
+      {
+         if (args != null && args.length > 0 && args[0] instanceof Xid)
+            sink += args[0].hashCode();
+
+         return "prepare".equals(method.getName()) ? XAResource.XA_OK : null;
+      });
+
+      XAResource xar = new XAResourceWrapperImpl(delegate, true, null, "EIS", "1.0", "java:/eis");
+
+      run(xar, WARM_UP_ITERATIONS);
+
+      long start = System.nanoTime();
+      run(xar, ITERATIONS);
+      long duration = System.nanoTime() - start;
+
+      System.out.println("PERF-DATA: XidWrapper," + (duration / ITERATIONS) + " ns/branch");
+      assertTrue(sink != 0L);
+   }
+
+   /**
+    * Main
+    * @param args The arguments
+    */
+   public static void main(String[] args)
+   {
+      org.junit.runner.JUnitCore.main(XidPerfTestCase.class.getName());
+   }
+}
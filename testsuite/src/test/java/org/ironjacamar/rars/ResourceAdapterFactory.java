@@ -208,6 +208,20 @@ public class ResourceAdapterFactory
     * @return The resource adapter descriptor
     */
    public static ResourceAdaptersDescriptor createTxLogDeployment(TransactionSupportLevel tsl, String postfix)
+   {
+      return createTxLogDeployment(tsl, postfix, false);
+   }
+
+   /**
+    * Create the txlog.rar deployment
+    *
+    * @param tsl     The transaction support level
+    * @param postfix The JNDI postfix
+    * @param lazy    Use managed connections supporting lazy enlistment
+    * @return The resource adapter descriptor
+    */
+   public static ResourceAdaptersDescriptor createTxLogDeployment(TransactionSupportLevel tsl, String postfix,
+         boolean lazy)
    {
       ResourceAdaptersDescriptor dashRaXml = Descriptors
             .create(ResourceAdaptersDescriptor.class, "txlog" + postfix + "-ra.xml");
@@ -231,6 +245,9 @@ public class ResourceAdapterFactory
             .createConnectionDefinition().className(TxLogManagedConnectionFactory.class.getName())
             .jndiName("java:/eis/TxLogConnectionFactory" + postfix).id("TxLogConnectionFactory" + postfix);
 
+      if (lazy)
+         dashRaXmlCdt.createConfigProperty().name("LazyEnlistment").text(Boolean.TRUE.toString());
+
       org.ironjacamar.embedded.dsl.resourceadapters20.api.XaPoolType dashRaXmlPt = dashRaXmlCdt.getOrCreateXaPool()
             .minPoolSize(0).initialPoolSize(0).maxPoolSize(10);
 
@@ -21,6 +21,8 @@
 
 package org.ironjacamar.rars.txlog;
 
+import javax.resource.ResourceException;
+
 /**
  * TxLogConnection
  */
@@ -71,4 +73,10 @@ public interface TxLogConnection
     * Fail
     */
    public void fail();
+
+   /**
+    * Enlist the connection in the current transaction, if its enlistment was deferred
+    * @exception ResourceException Thrown if an error occurs
+    */
+   public void lazyEnlist() throws ResourceException;
 }
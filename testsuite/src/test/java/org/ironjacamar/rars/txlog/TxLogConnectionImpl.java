@@ -21,6 +21,10 @@
 
 package org.ironjacamar.rars.txlog;
 
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionManager;
+import javax.resource.spi.LazyEnlistableConnectionManager;
+
 import org.jboss.logging.Logger;
 
 /**
@@ -112,6 +116,16 @@ public class TxLogConnectionImpl implements TxLogConnection
       mc.errorHandle(this, new Exception());
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public void lazyEnlist() throws ResourceException
+   {
+      ConnectionManager cm = mcf.getConnectionManager();
+      if (cm instanceof LazyEnlistableConnectionManager)
+         ((LazyEnlistableConnectionManager)cm).lazyEnlist(mc);
+   }
+
    /**
     * Set the managed connection
     * @param v The value
@@ -49,6 +49,12 @@ public class TxLogManagedConnectionFactory implements ManagedConnectionFactory
    /** The logwriter */
    private PrintWriter logwriter;
 
+   /** Lazy enlistment */
+   private Boolean lazyEnlistment;
+
+   /** The connection manager */
+   private transient ConnectionManager connectionManager;
+
    /**
     * Default constructor
     */
@@ -67,6 +73,7 @@ public class TxLogManagedConnectionFactory implements ManagedConnectionFactory
    public Object createConnectionFactory(ConnectionManager cxManager) throws ResourceException
    {
       log.trace("createConnectionFactory()");
+      connectionManager = cxManager;
       return new TxLogConnectionFactoryImpl(this, cxManager);
    }
 
@@ -93,9 +100,40 @@ public class TxLogManagedConnectionFactory implements ManagedConnectionFactory
          ConnectionRequestInfo cxRequestInfo) throws ResourceException
    {
       log.trace("createManagedConnection()");
+
+      if (Boolean.TRUE.equals(lazyEnlistment))
+         return new TxLogLazyManagedConnection(this);
+
       return new TxLogManagedConnection(this);
    }
 
+   /**
+    * Get lazy enlistment
+    * @return The value
+    */
+   public Boolean getLazyEnlistment()
+   {
+      return lazyEnlistment;
+   }
+
+   /**
+    * Set lazy enlistment; the managed connections support lazy enlistment if set
+    * @param v The value
+    */
+   public void setLazyEnlistment(Boolean v)
+   {
+      lazyEnlistment = v;
+   }
+
+   /**
+    * Get the connection manager
+    * @return The value
+    */
+   ConnectionManager getConnectionManager()
+   {
+      return connectionManager;
+   }
+
    /**
     * Returns a matched connection from the candidate set of connections. 
     *